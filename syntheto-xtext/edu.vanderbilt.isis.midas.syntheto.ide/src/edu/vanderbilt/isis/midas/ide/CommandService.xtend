@@ -19,6 +19,7 @@ import org.eclipse.emf.ecore.resource.Resource
 import org.eclipse.xtext.generator.IFileSystemAccess2
 
 import edu.vanderbilt.isis.midas.generator.SynthetoGenerator
+import edu.kestrel.syntheto.bridge.ScreenOutputListener
 import com.google.inject.Provider
 import org.eclipse.emf.ecore.resource.ResourceSet
 import org.eclipse.emf.common.util.URI
@@ -29,6 +30,10 @@ import java.io.ByteArrayInputStream
 import java.io.InputStream
 import org.eclipse.xtext.resource.XtextResourceSet
 import org.eclipse.xtext.resource.XtextResource
+import edu.kestrel.syntheto.ast.Program
+import java.util.Map
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
 
 class CommandService implements IExecutableCommandService {
 
@@ -37,14 +42,36 @@ class CommandService implements IExecutableCommandService {
 //	@Inject	Provider<ResourceSet> rsp
 	@Inject IGenerator2 generator;
 	@Inject private XtextResourceSet rs;
+	@Inject Provider<XtextResourceSet> resourceSetProvider;
 	
 	static var isTest = false;
 
+	/**
+	 * The background executions started by midas.execute, shared by all the command services.
+	 */
+	static val ExecutionJobs jobs = new ExecutionJobs
+
+	/**
+	 * The models of the open notebooks, by notebook URI, shared by all the command services.
+	 * A notebook is unloaded by midas.closeNotebook.
+	 */
+	static val Map<String, NotebookModel> notebooks = new ConcurrentHashMap
+
+	static val AtomicLong executions = new AtomicLong
+
+	/**
+	 * How long a midas.poll waits for a new result before answering anyway, in milliseconds.
+	 */
+	static val POLL_WAIT_MILLIS = 1000L
+
 	override initialize() {
-		#["midas.a", "midas.b"]
+		#["midas.a", "midas.b", "midas.execute", "midas.poll", "midas.cancel", "midas.closeNotebook"]
 	}
 
 	override execute(ExecuteCommandParams params, ILanguageServerAccess access, CancelIndicator cancelIndicator) {
+		// The outcome store is kept in the workspace.
+		SynthetoGenerator.setWorkspaceRoot(workspaceRoot(access))
+
 		/*if (params.command == "midas.a") {
 			val uri = params.arguments.head as String
 			if (uri !== null) {
@@ -66,47 +93,157 @@ class CommandService implements IExecutableCommandService {
 			}
 			
 			var JsonObject object = params.arguments.head as JsonObject;
-			var JsonPrimitive code = object.getAsJsonPrimitive("code");
-			var JsonPrimitive allCellContent = object.getAsJsonPrimitive("allCellContent");
+			return runCells(object, rs, cancelIndicator, null, null);
+		}
 
-			var file1 = File.createTempFile("generated-syntheto-1-", ".synth")
-			var file2 = File.createTempFile("generated-syntheto-2-", ".synth")			
+		// Asynchronous execution: midas.execute returns a job id right away,
+		// the results are fetched with midas.poll as each top-level is verified,
+		// and midas.cancel (or a later midas.execute of the same notebook) interrupts the job.
+		if (params.command == "midas.execute") {
+			val JsonObject object = params.arguments.head as JsonObject;
+			var JsonPrimitive notebook = object.getAsJsonPrimitive("notebook");
+			var job = jobs.submit(if (notebook === null) "" else notebook.getAsString()) [ running |
+				// The injected resource set is not thread-safe: each job loads into its own.
+				var jobResourceSet = resourceSetProvider.get()
+				jobResourceSet.addLoadOption(XtextResource.OPTION_RESOLVE_ALL, Boolean.TRUE);
+				var response = runCells(object, jobResourceSet, running,
+					[ piece | running.addProgress(piece) ],
+					[ index, result | running.addResult(result) ])
+				running.finish(response.getAsJsonPrimitive("type").getAsString(),
+					response.getAsJsonPrimitive("message").getAsString())
+			]
+			var JsonObject response = new JsonObject();
+			response.addProperty("type", "started");
+			response.addProperty("jobId", job.id);
+			return response;
+		}
 
-			// stream1 contains current cell, stream2 contains all cells
-			var stream1 = new ByteArrayInputStream(code.getAsString().getBytes(StandardCharsets.UTF_8));
-			var stream2 = new ByteArrayInputStream(allCellContent.getAsString().getBytes(StandardCharsets.UTF_8));
-											
-			var resource1 = rs.createResource(URI.createURI("file:///" + file1.absolutePath))
-			var resource2 = rs.createResource(URI.createURI("file:///" + file2.absolutePath))			
-			
-			resource1.load(stream1, rs.getLoadOptions())
-			resource2.load(stream2, rs.getLoadOptions())
-								
-			var synthetoGenerator = generator as SynthetoGenerator;
+		if (params.command == "midas.closeNotebook") {
+			var JsonObject object = params.arguments.head as JsonObject;
+			var model = notebooks.remove(object.getAsJsonPrimitive("notebook").getAsString());
 			var JsonObject response = new JsonObject();
-			
-			if (!synthetoGenerator.checkResource(resource2, LOG)) {
-				response.addProperty("message", "Constraint violations with resource");
-				response.addProperty("type", "error");
+			if (model !== null) {
+				model.unload();
+			}
+			response.addProperty("type", "success");
+			return response;
+		}
+
+		if (params.command == "midas.poll" || params.command == "midas.cancel") {
+			var JsonObject object = params.arguments.head as JsonObject;
+			var job = jobs.get(object.getAsJsonPrimitive("jobId").getAsString());
+			if (job === null) {
+				var JsonObject response = new JsonObject();
+				response.addProperty("status", "error");
+				response.addProperty("message", "Unknown execution");
 				return response;
 			}
-			
-			// For now, send all previous cells and the current cell to ACL2
-			var result1 = synthetoGenerator.generate(resource2, LOG);
-		    if (result1 == null) {
-		        response.addProperty("type", "error");
-		        response.addProperty("message", "Internal error");
-		    } else {
-			    response.addProperty("type", "success");
-			    response.addProperty("code", result1);
-			    response.addProperty("message", result1);
+			if (params.command == "midas.cancel") {
+				job.cancel();
+			}
+			var JsonPrimitive from = object.getAsJsonPrimitive("from");
+			var wait = if (params.command == "midas.poll") POLL_WAIT_MILLIS else 0L
+			var response = job.poll(if (from === null) 0 else from.getAsInt(), wait, cancelIndicator);
+			if (job.finished) {
+				jobs.forget(job);
 			}
-
 			return response;
 		}
 		
 		return "Bad Command"
 	}
+
+	/**
+	 * Validates and verifies the cells given in the arguments of a command,
+	 * loading them into the given resource set.
+	 * The cells are given either as "cells", an array of objects with the "id" and "text" of each cell
+	 * up to the current one, which are kept in the NotebookModel of the "notebook"
+	 * (and then the given resource set is not used),
+	 * or as "allCellContent", the text of all the cells up to the current one,
+	 * which is loaded and unloaded at each execution.
+	 * Returns the response of the command, whose "message" holds the results.
+	 */
+	def JsonObject runCells(JsonObject object, XtextResourceSet rs, CancelIndicator cancelIndicator,
+			ScreenOutputListener screenOutputListener, (Integer, String)=>void resultListener) {
+		var synthetoGenerator = generator as SynthetoGenerator;
+		var JsonObject response = new JsonObject();
+		var Program program = null
+
+		var JsonArray cells = object.getAsJsonArray("cells");
+		if (cells !== null) {
+			var model = notebookModel(object)
+			// The model is locked while it is parsed, validated and visited, but not while ACL2 works.
+			synchronized (model) {
+				var resources = model.update(cells.map[ cell |
+					cell.asJsonObject.get("id").asString -> cell.asJsonObject.get("text").asString
+				].toList)
+				for (resource : resources) {
+					if (!synthetoGenerator.checkResource(resource, LOG, cancelIndicator)) {
+						response.addProperty("message", "Constraint violations with resource");
+						response.addProperty("type", "error");
+						return response;
+					}
+				}
+				program = synthetoGenerator.toProgram(resources, LOG)
+			}
+		} else {
+			// The text of all the cells, loaded into a resource that is removed afterwards.
+			var JsonPrimitive allCellContent = object.getAsJsonPrimitive("allCellContent");
+			var stream = new ByteArrayInputStream(allCellContent.getAsString().getBytes(StandardCharsets.UTF_8));
+			var resource = rs.createResource(URI.createURI("inmemory:/execution-" + executions.incrementAndGet + ".synth"))
+			try {
+				resource.load(stream, rs.getLoadOptions())
+				if (!synthetoGenerator.checkResource(resource, LOG, cancelIndicator)) {
+					response.addProperty("message", "Constraint violations with resource");
+					response.addProperty("type", "error");
+					return response;
+				}
+				program = synthetoGenerator.toProgram(#[resource], LOG)
+			} finally {
+				resource.unload
+				rs.resources.remove(resource)
+			}
+		}
+		
+		// For now, send all previous cells and the current cell to ACL2.
+		// Cancelling the request interrupts ACL2 (see SynthetoGenerator.commandDeadline).
+		var result1 = synthetoGenerator.generate(program, LOG, cancelIndicator,
+			screenOutputListener, resultListener);
+	    if (result1 == null) {
+	        response.addProperty("type", "error");
+	        response.addProperty("message", "Internal error");
+	    } else {
+		    response.addProperty("type", "success");
+		    response.addProperty("code", result1);
+		    response.addProperty("message", result1);
+		}
+
+		return response;
+	}
+
+	/**
+	 * The root directory of the workspace the language server was initialized with,
+	 * or null if it is not a local directory.
+	 */
+	def static File workspaceRoot(ILanguageServerAccess access) {
+		val params = access.initializeParams
+		if (params === null) return null
+		var uri = if (params.workspaceFolders !== null && !params.workspaceFolders.empty)
+				params.workspaceFolders.head.uri
+			else
+				params.rootUri
+		if (uri === null || !uri.startsWith("file:")) return null
+		return new File(java.net.URI.create(uri))
+	}
+
+	/**
+	 * The model of the notebook named in the arguments of a command, created if needed.
+	 */
+	def NotebookModel notebookModel(JsonObject object) {
+		var JsonPrimitive notebook = object.getAsJsonPrimitive("notebook");
+		var name = if (notebook === null) "" else notebook.getAsString()
+		return notebooks.computeIfAbsent(name, [ new NotebookModel(it, resourceSetProvider.get()) ])
+	}
 	
 	def test(ExecuteCommandParams params, ILanguageServerAccess access, CancelIndicator cancelIndicator) {		
 		var JsonObject response = new JsonObject();
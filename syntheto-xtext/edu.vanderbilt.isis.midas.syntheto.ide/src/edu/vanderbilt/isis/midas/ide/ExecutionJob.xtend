@@ -0,0 +1,130 @@
+package edu.vanderbilt.isis.midas.ide
+
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import java.util.ArrayList
+import java.util.List
+import org.eclipse.xtext.util.CancelIndicator
+
+/**
+ * An execution of notebook cells, run in the background by ExecutionJobs.
+ * <p>
+ * The results of the top-level constructs are added as they are verified,
+ * and the screen output of ACL2 is kept as progress (only its end).
+ * The client polls the job (see poll) until it is finished.
+ * The job is its own cancel indicator: cancelling it interrupts ACL2.
+ * </p>
+ */
+class ExecutionJob implements CancelIndicator {
+
+	/**
+	 * Number of final characters of screen output kept as progress.
+	 */
+	static val PROGRESS_LENGTH = 2000
+
+	/**
+	 * Longest time a poll waits before checking whether its request was cancelled.
+	 */
+	static val WAIT_SLICE_MILLIS = 50L
+
+	val String id
+
+	val String notebook
+
+	val List<String> results = new ArrayList
+
+	val StringBuilder progress = new StringBuilder
+
+	/**
+	 * "running", then "success", "error" or "cancelled".
+	 */
+	var String status = "running"
+
+	var String message = null
+
+	/**
+	 * When the job finished, in milliseconds since the epoch.
+	 */
+	var long finishedMillis = 0
+
+	volatile boolean cancelled = false
+
+	new(String id, String notebook) {
+		this.id = id
+		this.notebook = notebook
+	}
+
+	def String getId() {
+		return id
+	}
+
+	def String getNotebook() {
+		return notebook
+	}
+
+	override isCanceled() {
+		return cancelled
+	}
+
+	def void cancel() {
+		cancelled = true
+	}
+
+	def synchronized boolean isFinished() {
+		return status != "running"
+	}
+
+	def synchronized long getFinishedMillis() {
+		return finishedMillis
+	}
+
+	def synchronized void addResult(String result) {
+		results.add(result)
+		notifyAll
+	}
+
+	def synchronized void addProgress(String piece) {
+		progress.append(piece)
+		var excess = progress.length - PROGRESS_LENGTH
+		if (excess > 0) progress.delete(0, excess)
+	}
+
+	/**
+	 * Finishes the job, with the final status and the message shown to the user.
+	 */
+	def synchronized void finish(String status, String message) {
+		if (finished) return;
+		this.status = if (cancelled && status == "success") "cancelled" else status
+		this.message = message
+		finishedMillis = System.currentTimeMillis
+		notifyAll
+	}
+
+	/**
+	 * The state of the job, as the response to a poll:
+	 * the results after the first ones, the progress, the status, and the final message.
+	 * Waits up to the given time for a new result or for the end of the job,
+	 * so that the client sees results as soon as they come without polling in a busy loop,
+	 * and stops waiting when the poll request is cancelled.
+	 */
+	def synchronized JsonObject poll(int from, long waitMillis, CancelIndicator requestCancelled) throws InterruptedException {
+		var deadline = System.currentTimeMillis + waitMillis
+		var left = waitMillis
+		while (results.size <= from && !finished && left > 0 && !requestCancelled.isCanceled) {
+			wait(Math.min(left, WAIT_SLICE_MILLIS))
+			left = deadline - System.currentTimeMillis
+		}
+		var JsonObject response = new JsonObject()
+		response.addProperty("jobId", id)
+		response.addProperty("status", status)
+		var JsonArray newResults = new JsonArray()
+		for (var i = Math.max(from, 0); i < results.size; i++) {
+			newResults.add(results.get(i))
+		}
+		response.add("results", newResults)
+		response.addProperty("next", Math.max(from, results.size))
+		response.addProperty("progress", progress.toString)
+		if (message !== null) response.addProperty("message", message)
+		return response
+	}
+}
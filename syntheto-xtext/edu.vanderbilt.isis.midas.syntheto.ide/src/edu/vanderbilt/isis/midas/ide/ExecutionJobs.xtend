@@ -0,0 +1,125 @@
+package edu.vanderbilt.isis.midas.ide
+
+import java.util.HashMap
+import java.util.Map
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Logger
+
+/**
+ * The background executions of notebook cells.
+ * <p>
+ * Executions run on a bounded pool of threads,
+ * whose size is read from the system property syntheto.execute.threads (default 2);
+ * each execution also holds a bridge session while it talks to ACL2,
+ * so there is no point in more threads than bridge sessions.
+ * A bounded number of executions may wait for a thread; more are rejected.
+ * Starting an execution of a notebook cancels the previous execution of the same notebook,
+ * whose results would be superseded anyway.
+ * A finished job is forgotten once its final state has been polled,
+ * or when a later job of the same notebook is started;
+ * one that is never polled again is forgotten FINISHED_TTL_MILLIS after it finished.
+ * </p>
+ */
+class ExecutionJobs {
+
+	static val Logger LOG = Logger.getLogger(ExecutionJobs.getName())
+
+	static val DEFAULT_THREADS = 2
+
+	static val QUEUE_CAPACITY = 16
+
+	/**
+	 * Time after which a finished job that was not polled is forgotten.
+	 */
+	static val FINISHED_TTL_MILLIS = 10 * 60 * 1000L
+
+	val ThreadPoolExecutor executor
+
+	val Map<String, ExecutionJob> jobs = new ConcurrentHashMap
+
+	/**
+	 * The latest job of each notebook.
+	 */
+	val Map<String, ExecutionJob> latest = new HashMap
+
+	val AtomicLong nextId = new AtomicLong
+
+	new() {
+		var threads = Integer.getInteger("syntheto.execute.threads", DEFAULT_THREADS)
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+			new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), [ r |
+				var thread = new Thread(r, "syntheto-execute")
+				thread.daemon = true
+				return thread
+			])
+		executor.allowCoreThreadTimeOut(true)
+	}
+
+	/**
+	 * Starts a job for a notebook, cancelling the previous job of the notebook if any.
+	 * The work should add its results to the job and finish it;
+	 * if it throws, the job is finished with an error.
+	 */
+	def ExecutionJob submit(String notebook, (ExecutionJob)=>void work) {
+		forgetExpired
+		// The finished jobs of the notebook are superseded by this one.
+		jobs.values.removeIf[ it.notebook == notebook && finished ]
+		var job = new ExecutionJob(Long.toString(nextId.incrementAndGet), notebook)
+		jobs.put(job.id, job)
+		synchronized (latest) {
+			var previous = latest.put(notebook, job)
+			if (previous !== null) previous.cancel
+		}
+		val started = job
+		try {
+			executor.execute([|
+				try {
+					if (started.isCanceled) {
+						started.finish("cancelled", "Superseded by a later execution.")
+					} else {
+						work.apply(started)
+					}
+				} catch (Throwable e) {
+					LOG.severe("Execution " + started.id + " failed: " + e)
+					started.finish("error", "Internal error: " + e.message)
+				} finally {
+					started.finish("error", "Internal error: the execution did not finish.")
+					synchronized (latest) {
+						latest.remove(notebook, started)
+					}
+				}
+			])
+		} catch (RejectedExecutionException e) {
+			job.finish("error", "Too many executions are waiting; try again later.")
+		}
+		return job
+	}
+
+	/**
+	 * The job with the given id, or null if there is none (or it was forgotten).
+	 */
+	def ExecutionJob get(String id) {
+		forgetExpired
+		return jobs.get(id)
+	}
+
+	/**
+	 * Forgets a finished job.
+	 */
+	def void forget(ExecutionJob job) {
+		jobs.remove(job.id, job)
+	}
+
+	/**
+	 * Forgets the jobs that finished more than FINISHED_TTL_MILLIS ago.
+	 */
+	def private void forgetExpired() {
+		var expired = System.currentTimeMillis - FINISHED_TTL_MILLIS
+		jobs.values.removeIf[ finished && finishedMillis < expired ]
+	}
+}
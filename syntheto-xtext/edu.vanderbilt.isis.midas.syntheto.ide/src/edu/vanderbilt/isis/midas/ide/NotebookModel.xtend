@@ -0,0 +1,137 @@
+package edu.vanderbilt.isis.midas.ide
+
+import java.io.ByteArrayInputStream
+import java.nio.charset.StandardCharsets
+import java.util.ArrayList
+import java.util.HashMap
+import java.util.HashSet
+import java.util.List
+import java.util.Map
+import org.eclipse.emf.common.util.URI
+import org.eclipse.xtext.resource.XtextResource
+import org.eclipse.xtext.resource.XtextResourceSet
+
+/**
+ * The cells of a notebook, each parsed into its own in-memory resource.
+ * <p>
+ * The resources of a notebook share a resource set,
+ * whose index (the resource descriptions of the set) resolves the references across cells lazily,
+ * when they are followed, instead of resolving all the references at load time.
+ * When the notebook is executed again, only the cells whose text changed are reparsed;
+ * the other cells are relinked if some cell changed or was removed,
+ * since their references may point into it.
+ * The resources of the cells that are gone are unloaded,
+ * and unloading the notebook frees them all.
+ * </p>
+ * <p>
+ * The methods are synchronized: the resource set must not be used by two executions at once.
+ * </p>
+ */
+class NotebookModel {
+
+	val String notebook
+
+	val XtextResourceSet resourceSet
+
+	/**
+	 * The resources of the cells, and the text each was last parsed from, by cell id.
+	 */
+	val Map<String, XtextResource> resources = new HashMap
+
+	val Map<String, String> texts = new HashMap
+
+	var int parsedCells = 0
+
+	new(String notebook, XtextResourceSet resourceSet) {
+		this.notebook = notebook
+		this.resourceSet = resourceSet
+	}
+
+	def String getNotebook() {
+		return notebook
+	}
+
+	/**
+	 * Brings the model up to date with the given cells (pairs of cell id and text), in order,
+	 * and returns their resources, in the same order.
+	 * The cells of the model that are not given are removed.
+	 */
+	def synchronized List<XtextResource> update(List<Pair<String, String>> cells) {
+		var changed = false
+		var ids = new HashSet<String>
+		var parsed = new HashSet<XtextResource>
+		var List<XtextResource> result = new ArrayList
+		for (cell : cells) {
+			ids.add(cell.key)
+			var resource = resources.get(cell.key)
+			if (resource === null) {
+				resource = resourceSet.createResource(cellURI(cell.key)) as XtextResource
+				resource.load(new ByteArrayInputStream(cell.value.getBytes(StandardCharsets.UTF_8)),
+					resourceSet.loadOptions)
+				resources.put(cell.key, resource)
+				texts.put(cell.key, cell.value)
+				parsed.add(resource)
+				parsedCells++
+				changed = true
+			} else if (texts.get(cell.key) != cell.value) {
+				resource.reparse(cell.value)
+				texts.put(cell.key, cell.value)
+				parsed.add(resource)
+				parsedCells++
+				changed = true
+			}
+			result.add(resource)
+		}
+		for (id : new ArrayList(resources.keySet)) {
+			if (!ids.contains(id)) {
+				removeCell(id)
+				changed = true
+			}
+		}
+		if (changed) {
+			for (resource : result) {
+				if (!parsed.contains(resource)) resource.relink
+			}
+		}
+		return result
+	}
+
+	/**
+	 * Number of cells parsed (or reparsed) since the model was created.
+	 */
+	def synchronized int getParsedCells() {
+		return parsedCells
+	}
+
+	/**
+	 * Number of cells in the model.
+	 */
+	def synchronized int size() {
+		return resources.size
+	}
+
+	/**
+	 * Unloads the resources of all the cells.
+	 */
+	def synchronized void unload() {
+		for (id : new ArrayList(resources.keySet)) {
+			removeCell(id)
+		}
+	}
+
+	def private void removeCell(String id) {
+		var resource = resources.remove(id)
+		texts.remove(id)
+		resource.unload
+		resourceSet.resources.remove(resource)
+	}
+
+	/**
+	 * The URI of the resource of a cell.
+	 * It is not the URI of a file: the cells are only kept in memory.
+	 */
+	def private URI cellURI(String id) {
+		return URI.createURI("inmemory:/notebook/"
+			+ URI.encodeSegment(notebook, false) + "/" + URI.encodeSegment(id, false) + ".synth")
+	}
+}
@@ -4,14 +4,27 @@
 package edu.vanderbilt.isis.midas.generator
 
 import com.google.common.html.HtmlEscapers
-import com.google.common.util.concurrent.Monitor
 import com.google.inject.Inject
 import edu.kestrel.syntheto.ast.ASTNode
 import edu.kestrel.syntheto.ast.Program
+import edu.kestrel.syntheto.ast.TopLevel
 import edu.kestrel.syntheto.bridge.BridgeCommand
 import edu.kestrel.syntheto.bridge.BridgeException
+import edu.kestrel.syntheto.bridge.BridgeInterruptedException
 import edu.kestrel.syntheto.bridge.BridgeResponse
+import edu.kestrel.syntheto.bridge.BridgeSession
+import edu.kestrel.syntheto.bridge.BridgeSessionPool
+import edu.kestrel.syntheto.bridge.CommandDeadline
+import edu.kestrel.syntheto.bridge.OutcomeCache
+import edu.kestrel.syntheto.bridge.OutcomeListener
+import edu.kestrel.syntheto.bridge.OutcomeStore
+import edu.kestrel.syntheto.bridge.ParallelVerifier
+import edu.kestrel.syntheto.bridge.ScreenOutputListener
 import edu.kestrel.syntheto.bridge.Util
+import edu.kestrel.syntheto.check.TypeChecker
+import edu.kestrel.syntheto.check.TypeError
+import edu.kestrel.syntheto.eval.TheoremScreen
+import edu.kestrel.syntheto.simplify.Simplifier
 import edu.vanderbilt.isis.midas.syntheto.BridgeConnectionDirective
 import java.io.BufferedReader
 import java.io.File
@@ -21,8 +34,13 @@ import java.io.PrintWriter
 import java.io.StringWriter
 import java.net.InetSocketAddress
 import java.net.Socket
+import java.nio.file.Paths
 import java.text.SimpleDateFormat
+import java.util.ArrayList
 import java.util.Date
+import java.util.List
+import java.util.Map
+import java.util.concurrent.TimeUnit
 import java.util.logging.FileHandler
 import java.util.logging.Formatter
 import java.util.logging.Handler
@@ -52,6 +70,8 @@ import edu.kestrel.syntheto.outcome.UnexpectedFailure
 import java.rmi.UnexpectedException
 import edu.kestrel.syntheto.outcome.TypeSuccess
 import edu.kestrel.syntheto.outcome.TheoremFailure
+import edu.kestrel.syntheto.outcome.TimeoutFailure
+import edu.kestrel.syntheto.outcome.CancellationFailure
 
 /**
  * Generates code from your model files on save.
@@ -136,12 +156,10 @@ class SynthetoGenerator extends AbstractGenerator {
 	var bridgeHostName = "localhost"
 	var bridgeHostPort = 55445
 	var Socket socket = null
-	var static Monitor mutex = new Monitor
 	var connectToBridge = false
 	var BridgeCommand command;
 	var BridgeResponse response;
 	var timeout = 2000;
-	static boolean isBridgeInitialized = false;
 
 	def resetWorld() throws BridgeException {
 		processCommandResponsewithwrapper("(ubu 6)");
@@ -150,7 +168,11 @@ class SynthetoGenerator extends AbstractGenerator {
 	@Inject IResourceValidator resourceValidator;
 
 	def Boolean checkResource(Resource resource, Logger log) {
-		var issues = resourceValidator.validate(resource, CheckMode.ALL, CancelIndicator.NullImpl);
+		return checkResource(resource, log, CancelIndicator.NullImpl)
+	}
+
+	def Boolean checkResource(Resource resource, Logger log, CancelIndicator cancelIndicator) {
+		var issues = resourceValidator.validate(resource, CheckMode.ALL, cancelIndicator);
 		for (Issue issue : issues) {
 			var message = "";
 			switch (issue.getSeverity()) {
@@ -177,8 +199,10 @@ class SynthetoGenerator extends AbstractGenerator {
 		Log.fine("Sending To Bridge " + sexpression);
 		// Log.severe(sexpression);
 		command.writeRawBridgeCommand(sexpression);
-		var String screenOutput = response.readResponse();
-		if (screenOutput.contains('FAILED')) {
+		// The screen output of a long proof may be spilled to a file: search it there, log only its tail.
+		response.readStreamedResponse();
+		var String screenOutput = response.getScreenOutputTail(LOGGED_OUTPUT_LENGTH);
+		if (response.screenOutputContains('FAILED')) {
 			Log.severe("RECEIVED Response from the Bridge - there was a failure " + screenOutput)
 			return false
 		} else {
@@ -191,88 +215,397 @@ class SynthetoGenerator extends AbstractGenerator {
 	def processCommandResponsewithwrapper(String sexpression) throws BridgeException {
 		Log.fine("Sending To Bridge " + sexpression);
 		command.writeBridgeCommand(sexpression);
-		var String screenOutput = response.readResponse();
+		response.readStreamedResponse();
+		var String screenOutput = response.getScreenOutputTail(LOGGED_OUTPUT_LENGTH);
 		Log.fine("RECEIVED Response from the Bridge " + screenOutput);
 	}
+
+	/**
+	 * Number of final characters of screen output that are logged for each response.
+	 */
+	static val LOGGED_OUTPUT_LENGTH = 8192
 	
-	def checkBridgeConnected() {
-	    try {
-            if (!isBridgeInitialized) {
-                BridgeClient.connectToBridge("LISP_MV");
-                isBridgeInitialized = true;
-            }
-
-            // For now, reset ACL2 every time.
-            // TODO: remove this when notebooks are updated to be incremental
-            BridgeClient.resetWorld();
-		} catch (Exception e) {
-		    System.err.print("Error communicating with bridge: " + e.getMessage());
+	/**
+	 * Sessions to the ACL2 bridges, shared by all the generator instances.
+	 * The bridge ports are read from the system property syntheto.bridge.ports
+	 * (comma-separated), defaulting to BridgeClient.bridgeHostPort.
+	 * Each port should be served by its own ACL2 process,
+	 * so that the programs verified on different sessions do not share a world.
+	 * The outcomes are cached, and persisted in the outcome store
+	 * given by the system property syntheto.outcome.store,
+	 * defaulting to .syntheto/outcomes.log in the workspace (see setWorkspaceRoot),
+	 * so that reopening a verified program after a restart does not contact ACL2.
+	 * The keys of the store are salted with the system property syntheto.outcome.salt,
+	 * which should identify the ACL2 baseline (e.g. the versions of ACL2 and of the Syntheto books),
+	 * so that outcomes proved with another baseline are not reused.
+	 */
+	static BridgeSessionPool bridgeSessionPool = null;
+
+	def static synchronized BridgeSessionPool sessionPool() {
+		if (bridgeSessionPool === null) {
+			var ports = <Integer>newArrayList
+			var portsProperty = System.getProperty("syntheto.bridge.ports")
+			if (portsProperty === null || portsProperty.trim.empty) {
+				ports.add(BridgeClient.bridgeHostPort)
+			} else {
+				for (port : portsProperty.split(",")) {
+					ports.add(Integer.parseInt(port.trim))
+				}
+			}
+			bridgeSessionPool = BridgeSessionPool.onPorts(BridgeClient.bridgeHostName, ports, "LISP_MV",
+				new OutcomeCache(BridgeSessionPool.DEFAULT_CACHE_CAPACITY, openOutcomeStore))
 		}
+		return bridgeSessionPool
 	}
 
-    def String generate(Resource resource, Logger Log) {
-		checkBridgeConnected();
-		
-		var visitor = new SynthetoVisitor("VSCodeProgram", Log)
-		var edu.vanderbilt.isis.midas.syntheto.Program program = resource.allContents.toIterable.filter(edu.vanderbilt.isis.midas.syntheto.Program).head
+	/**
+	 * The root directory of the workspace, or null if it is not known,
+	 * in which case the current directory is used instead.
+	 */
+	static File workspaceRoot = null
+
+	/**
+	 * Sets the root directory of the workspace, e.g. from the initialization of the language server.
+	 * It only affects the outcome store if it is set before the first session is leased.
+	 */
+	def static synchronized void setWorkspaceRoot(File root) {
+		workspaceRoot = root
+	}
 
-		if (program === null) {
-		    return null
+	/**
+	 * Opens the outcome store, or returns null (and goes on without one) if it cannot be opened.
+	 */
+	def static synchronized OutcomeStore openOutcomeStore() {
+		var storeProperty = System.getProperty("syntheto.outcome.store")
+		var file = if (storeProperty === null || storeProperty.trim.empty)
+				Paths.get((if (workspaceRoot !== null) workspaceRoot else new File(".")).getCanonicalPath(),
+					".syntheto", "outcomes.log")
+			else
+				Paths.get(storeProperty.trim)
+		try {
+			return OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES,
+				System.getProperty("syntheto.outcome.salt", "").trim)
+		} catch (IOException e) {
+			System.err.println("Cannot open the outcome store " + file + ": " + e.getMessage())
+			return null
 		}
+	}
 
-		var ASTNode acl2Program = visitor.doSwitch(program)
-		var prog = acl2Program as Program
-		
-		var revGenerator = new SynthetoReverseGenerator()
-		var allResults = ""
+	/**
+	 * Leases a session to the bridge.
+	 * The session must be given back via sessionPool.release.
+	 * The ACL2 world of the session is not reset:
+	 * the top-level constructs are submitted via processTopLevels,
+	 * which only re-submits what changed since the last time.
+	 */
+	def BridgeSession leaseBridgeSession() {
+		return sessionPool.lease
+	}
+
+	/**
+	 * Leases a session to the bridge, waiting for one only as long as the request is not cancelled.
+	 * Returns null if the request is cancelled first.
+	 */
+	def BridgeSession leaseBridgeSession(CancelIndicator cancelIndicator) {
+		while (!cancelIndicator.isCanceled) {
+			var session = sessionPool.lease(LEASE_POLL_MILLIS, TimeUnit.MILLISECONDS)
+			if (session !== null) return session
+		}
+		return null
+	}
+
+	static val LEASE_POLL_MILLIS = 100L
+
+	/**
+	 * Time limit of each bridge command, in milliseconds,
+	 * read from the system property syntheto.command.timeout (0 for none, the default).
+	 * When a top-level construct takes longer, ACL2 is interrupted,
+	 * and the construct and the ones after it get a TimeoutFailure,
+	 * so that a runaway proof does not hold the session forever.
+	 * There is no limit by default, since some proofs legitimately take long;
+	 * deployments choose one that suits their programs and machines.
+	 */
+	def static long commandTimeoutMillis() {
+		var timeoutProperty = System.getProperty("syntheto.command.timeout")
+		if (timeoutProperty === null || timeoutProperty.trim.empty)
+			return DEFAULT_COMMAND_TIMEOUT_MILLIS
+		return Long.parseLong(timeoutProperty.trim)
+	}
+
+	static val DEFAULT_COMMAND_TIMEOUT_MILLIS = 0L
+
+	/**
+	 * Number of bridge sessions that a program is verified on at the same time (see ParallelVerifier),
+	 * from the system property syntheto.parallel.workers (default 1).
+	 * With more than one, the independent top-level constructs are processed in parallel,
+	 * each session holding only what its constructs depend on,
+	 * and the screen output of ACL2 is not passed on.
+	 */
+	def static int parallelWorkers() {
+		var workersProperty = System.getProperty("syntheto.parallel.workers")
+		if (workersProperty === null || workersProperty.trim.empty)
+			return 1
+		return Integer.parseInt(workersProperty.trim)
+	}
+
+	/**
+	 * Whether theorems are first evaluated locally (see TheoremScreen),
+	 * from the system property syntheto.prescreen (default true).
+	 * A theorem falsified that way is reported without ever being submitted to ACL2.
+	 * The evaluation of each theorem is limited in time, and stops when the request is cancelled.
+	 */
+	def static boolean prescreenTheorems() {
+		return Boolean.parseBoolean(System.getProperty("syntheto.prescreen", "true"))
+	}
+
+	/**
+	 * Whether programs are type-checked locally before submission (see TypeChecker),
+	 * from the system property syntheto.typecheck (default true).
+	 * A top-level construct with type errors is reported without being submitted to ACL2.
+	 */
+	def static boolean typeCheck() {
+		return Boolean.parseBoolean(System.getProperty("syntheto.typecheck", "true"))
+	}
+
+	/**
+	 * The rules of the simplification of the top-level constructs before they are submitted (see Simplifier),
+	 * from the system property syntheto.simplify: true or all (the default), false or none,
+	 * or a comma-separated list of rule names.
+	 */
+	def static Simplifier newSimplifier() {
+		return new Simplifier(Simplifier.rules(System.getProperty("syntheto.simplify", "all")))
+	}
+
+	/**
+	 * The type checker of all requests, whose cache makes checking an edited program
+	 * only check the top-level constructs from the first edited one on.
+	 */
+	static val TypeChecker typeChecker = new TypeChecker
+
+	/**
+	 * The theorem prescreen of all requests, whose cache makes screening an edited program
+	 * only test the theorems from the first edited construct on.
+	 */
+	static val TheoremScreen theoremScreen = new TheoremScreen
+
+	/**
+	 * The deadline of the bridge commands of a request:
+	 * the time limit of each command, and the cancel indicator of the request.
+	 */
+	def static CommandDeadline commandDeadline(CancelIndicator cancelIndicator) {
+		return CommandDeadline.of(commandTimeoutMillis, TimeUnit.MILLISECONDS, [|cancelIndicator.isCanceled])
+	}
+
+	/**
+	 * Brings the ACL2 world of the session to the state after the given top-level constructs,
+	 * undoing back to the longest prefix that is unchanged since the last run
+	 * and submitting only the rest.
+	 */
+	def List<Outcome> processTopLevels(BridgeSession session, List<TopLevel> tops) throws BridgeException {
+		return processTopLevels(session, tops, CommandDeadline.NONE)
+	}
+
+	/**
+	 * Like processTopLevels, within the limits of a deadline.
+	 */
+	def List<Outcome> processTopLevels(BridgeSession session, List<TopLevel> tops, CommandDeadline deadline)
+			throws BridgeException {
+		return processTopLevels(session, tops, deadline, null)
+	}
+
+	/**
+	 * Like processTopLevels, within the limits of a deadline,
+	 * passing each outcome to a listener (if not null) as soon as it is known.
+	 */
+	def List<Outcome> processTopLevels(BridgeSession session, List<TopLevel> tops, CommandDeadline deadline,
+			OutcomeListener outcomeListener) throws BridgeException {
+		try {
+			return session.checkpoints.process(tops, deadline, outcomeListener)
+		} catch (BridgeException e) {
+			System.err.print("Error communicating with bridge: " + e.getMessage());
+			throw e
+		}
+	}
+
+	/**
+	 * Like processTopLevels, on several sessions of the pool at once (see ParallelVerifier),
+	 * passing each outcome to a listener (if not null) as soon as it is known, in no particular order.
+	 */
+	def List<Outcome> verifyTopLevels(List<TopLevel> tops, int workers, CommandDeadline deadline,
+			OutcomeListener outcomeListener) throws BridgeException {
+		try {
+			return new ParallelVerifier(sessionPool, workers).verify(tops, deadline, outcomeListener)
+		} catch (BridgeException e) {
+			System.err.print("Error communicating with bridge: " + e.getMessage());
+			throw e
+		}
+	}
 
-		for (topLevel : prog.tops) {
-			var wrappedTop = Util.wrapTopLevelCommand(topLevel.toSExpression.toString)
-			System.err.println("Sending " + wrappedTop + " to the bridge")
+    def String generate(Resource resource, Logger Log) {
+		return generate(resource, Log, CancelIndicator.NullImpl)
+	}
+
+    def String generate(Resource resource, Logger Log, CancelIndicator cancelIndicator) {
+		return generate(resource, Log, cancelIndicator, null, null)
+	}
 
-			var response = BridgeClient.returnCommandResponse(wrappedTop);
-			var sexpr = response.lastParsedSExpression
-			System.err.println("\nLast parsed SExpression: " + sexpr + "\n")
-			var makeForm = Util.extractMakeForm2(sexpr)
+	/**
+	 * Like generate, passing the screen output of ACL2 to a listener as it is produced
+	 * (e.g. to show the progress of long proofs),
+	 * and the result of each top-level construct (see describeOutcome), with its index,
+	 * to another listener as soon as it is known,
+	 * so that results can be shown before the whole program is verified.
+	 * Either listener may be null.
+	 */
+    def String generate(Resource resource, Logger Log, CancelIndicator cancelIndicator,
+			ScreenOutputListener screenOutputListener, (Integer, String)=>void resultListener) {
+		return generate(toProgram(#[resource], Log), Log, cancelIndicator, screenOutputListener, resultListener)
+	}
 
-			if (makeForm === null) {
-				throw new BridgeException("could not find (MAKE-..) form in response")
+	/**
+	 * The abstract syntax of the programs in the given resources (e.g. the cells of a notebook),
+	 * with their top-level constructs in order, or null if none of the resources has a program.
+	 */
+	def Program toProgram(List<? extends Resource> resources, Logger Log) {
+		var visitor = new SynthetoVisitor("VSCodeProgram", Log)
+		var tops = new ArrayList<TopLevel>
+		var found = false
+		for (resource : resources) {
+			var edu.vanderbilt.isis.midas.syntheto.Program program = resource.allContents.toIterable.filter(edu.vanderbilt.isis.midas.syntheto.Program).head
+			if (program !== null) {
+				found = true
+				var ASTNode acl2Program = visitor.doSwitch(program)
+				tops.addAll((acl2Program as Program).tops)
 			}
+		}
+		return if (found) Program.make(tops) else null
+	}
 
-			var result = "Default response";
-			System.err.println("Received SExpr: " + makeForm + "\n");
-			var deserialized = OutcomeBuilder.fromSExpression(makeForm);
-			if (deserialized instanceof FunctionSuccess) {
-				result = "Function success: " + deserialized.info;
-			} else if (deserialized instanceof TypeSuccess) {
-				result = "Type success: " + deserialized.info;
-			} else if (deserialized instanceof TheoremSuccess) {
-				result = "Theorem success: " + deserialized.info;
-			} else if (deserialized instanceof TheoremFailure) {
-				result = "Theorem failure. ACL2 info:\n" + deserialized.toString()
-			} else if (deserialized instanceof ProofObligationFailure) {
-				result = "Proof obligation failure. ACL2 expression:\n" + deserialized.toString()
-				result += "\nReversed Syntheto:\n"
-				result += revGenerator.doExpression(deserialized.formula)			
-			} else if (deserialized instanceof TransformationSuccess) {
-			    result = "Transformation success; top levels:\n"
-			    for (res : (deserialized as TransformationSuccess).getTopLevels()) {
-			        result += revGenerator.doTopLevel(res)
-			        result += "\n"
-			    }
-			} else if (deserialized instanceof TransformationFailure) {
-                result = "Transformation success: " + deserialized.toString()
-            } else if (deserialized instanceof UnexpectedFailure) {
-				result = "Unexpected ACL2 failure:\n";
-				result += (deserialized as UnexpectedFailure).toString()
+	/**
+	 * Like generate, for a program already in abstract syntax (see toProgram).
+	 * Returns null if the program is null.
+	 */
+    def String generate(Program prog, Logger Log, CancelIndicator cancelIndicator,
+			ScreenOutputListener screenOutputListener, (Integer, String)=>void resultListener) {
+		if (prog === null) {
+		    return null
+		}
+
+		// The results are described by the outcome listener, which runs in a stage of its own
+		// while ACL2 works on the next top-levels (see WorldCheckpoints.process),
+		// or on the threads of several workers in no particular order (see ParallelVerifier),
+		// and passed on to the result listener in order.
+		val String[] results = newArrayOfSize(prog.tops.size)
+		val int[] delivered = newIntArrayOfSize(1)
+		val deliver = [ |
+			synchronized (results) {
+				while (delivered.get(0) < results.length && results.get(delivered.get(0)) !== null) {
+					if (resultListener !== null) resultListener.apply(delivered.get(0), results.get(delivered.get(0)))
+					delivered.set(0, delivered.get(0) + 1)
+				}
 			}
-			
+		]
+
+		// Top-levels with type errors, and theorems falsified by evaluation, are reported without submitting them;
+		// ACL2 would not admit them either, so the other top-levels are processed in the same world.
+		val Map<Integer, String> typeErrors = newHashMap
+		if (typeCheck) {
+			for (TypeError error : typeChecker.check(prog)) {
+				val previous = typeErrors.get(error.index)
+				typeErrors.put(error.index, (if (previous === null) "Type error: " else previous + "\n") + error.message)
+			}
+		}
+		var Map<Integer, Outcome> screened = if (prescreenTheorems) theoremScreen.screen(prog.tops, [|cancelIndicator.isCanceled]) else emptyMap
+		val List<TopLevel> submitted = new ArrayList
+		val List<Integer> submittedIndices = new ArrayList
+		for (i : 0 ..< prog.tops.size) {
+			if (typeErrors.containsKey(i)) {
+				results.set(i, typeErrors.get(i))
+			} else if (screened.containsKey(i)) {
+				results.set(i, describeOutcome(screened.get(i)))
+			} else {
+				submitted.add(prog.tops.get(i))
+				submittedIndices.add(i)
+			}
+		}
+		deliver.apply
+		val OutcomeListener outcomeListener = [ index, outcome |
+			results.set(submittedIndices.get(index), describeOutcome(outcome))
+			deliver.apply
+		]
+		var allResults = ""
+
+		if (!submitted.empty) {
+			// Simplified consistently, so the unchanged prefix of the world is still found.
+			val simplifier = newSimplifier
+			val List<TopLevel> simplified = simplifier.simplify(submitted)
+			if (simplifier.removedNodes > 0)
+				Log.fine("Applied " + simplifier.rewrites + " simplifications, removing " + simplifier.removedNodes + " nodes")
+			val workers = parallelWorkers
+			if (workers > 1) {
+				try {
+					verifyTopLevels(simplified, workers, commandDeadline(cancelIndicator), outcomeListener)
+				} catch (BridgeInterruptedException e) {
+					return "Cancelled while waiting for a bridge session.\n"
+				}
+			} else {
+				var session = leaseBridgeSession(cancelIndicator)
+				if (session === null) {
+					return "Cancelled while waiting for a bridge session.\n"
+				}
+				try {
+					session.response.screenOutputListener = screenOutputListener
+					processTopLevels(session, simplified, commandDeadline(cancelIndicator), outcomeListener)
+				} finally {
+					session.response.screenOutputListener = null
+					sessionPool.release(session)
+				}
+			}
+		}
+		for (result : results) {
 			allResults += result + "\n";
 		}
-		
+
 		return allResults;
 	}
 
+	/**
+	 * The text shown to the user for the outcome of a top-level construct.
+	 */
+	def String describeOutcome(Outcome deserialized) {
+		var revGenerator = new SynthetoReverseGenerator()
+		var result = "Default response";
+		if (deserialized instanceof FunctionSuccess) {
+			result = "Function success: " + deserialized.info;
+		} else if (deserialized instanceof TypeSuccess) {
+			result = "Type success: " + deserialized.info;
+		} else if (deserialized instanceof TheoremSuccess) {
+			result = "Theorem success: " + deserialized.info;
+		} else if (deserialized instanceof TheoremFailure) {
+			result = "Theorem failure. ACL2 info:\n" + deserialized.toString()
+		} else if (deserialized instanceof ProofObligationFailure) {
+			result = "Proof obligation failure. ACL2 expression:\n" + deserialized.toString()
+			result += "\nReversed Syntheto:\n"
+			result += revGenerator.doExpression(deserialized.formula)			
+		} else if (deserialized instanceof TransformationSuccess) {
+		    result = "Transformation success; top levels:\n"
+		    for (res : (deserialized as TransformationSuccess).getTopLevels()) {
+		        result += revGenerator.doTopLevel(res)
+		        result += "\n"
+		    }
+		} else if (deserialized instanceof TransformationFailure) {
+            result = "Transformation success: " + deserialized.toString()
+        } else if (deserialized instanceof UnexpectedFailure) {
+			result = "Unexpected ACL2 failure:\n";
+			result += (deserialized as UnexpectedFailure).toString()
+		} else if (deserialized instanceof TimeoutFailure) {
+			result = "Timeout: " + deserialized.info
+		} else if (deserialized instanceof CancellationFailure) {
+			result = "Cancelled: " + deserialized.info
+		}
+		return result
+	}
+
 	override void doGenerate(Resource resource, IFileSystemAccess2 fsa, IGeneratorContext context) {
 		for (StackTraceElement ste : Thread.currentThread().getStackTrace()) {
  		   System.out.println(ste);
@@ -292,7 +625,7 @@ class SynthetoGenerator extends AbstractGenerator {
 		var edu.vanderbilt.isis.midas.syntheto.Program program = resource.allContents.toIterable.filter(edu.vanderbilt.isis.midas.syntheto.Program).head
 		if(program === null) return;
 
-		mutex.enter
+		var BridgeSession session = null
 		try {
 			Log = Logger.getLogger(resource.normalizedURI.lastSegment);
 			for (h : Log.parent.handlers) {
@@ -309,8 +642,7 @@ class SynthetoGenerator extends AbstractGenerator {
 			var visitor = new SynthetoVisitor(resource.normalizedURI.lastSegment, Log)
 			
 			if (program.commands !== null) {
-				BridgeClient.connectToBridge("LISP_MV")
-            	BridgeClient.resetWorld()
+				session = leaseBridgeSession
             	        
 				Log.info("Starting to Process " + resource.URI.lastSegment)
 				var ASTNode acl2Program = visitor.doSwitch(program)
@@ -331,21 +663,8 @@ class SynthetoGenerator extends AbstractGenerator {
 				for (s : revGenerator.getTopLevelStrings)
 					Log.info(s)
 
-				for (topLevel : prog.tops) {
-					var wrappedTop = Util.wrapTopLevelCommand(topLevel.toSExpression.toString)
-					System.err.println("Sending " + wrappedTop + " to the bridge")
-					
-					var response = BridgeClient.returnCommandResponse(wrappedTop);
-            		var sexpr = response.lastParsedSExpression
-            		var makeForm = Util.extractMakeForm2(sexpr)
-            		
-            		if (makeForm === null) { 
-            			throw new BridgeException("could not find (MAKE-..) form in response")       
-            		}
-            		
-            		var deserialized = OutcomeBuilder.fromSExpression(makeForm);
-            		//if (!(node.equals(deserialized))) throw new BridgeException("makeForm did not build the same object as passed to the bridge");
-            		System.out.println("Got the outcome:\n" + deserialized.toString());					
+				for (deserialized : processTopLevels(session, prog.tops)) {
+            		System.out.println("Got the outcome:\n" + deserialized.toString());
 				}
 				
 //				if (connectToBridge == true && socket !== null) {
@@ -361,7 +680,7 @@ class SynthetoGenerator extends AbstractGenerator {
 		} catch (Exception exception) {
 			throw exception
 		} finally {
-			mutex.leave
+			if (session !== null) sessionPool.release(session)
 		}
 		
 //		try {
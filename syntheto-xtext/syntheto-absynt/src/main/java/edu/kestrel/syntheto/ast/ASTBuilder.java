@@ -1,6 +1,11 @@
 package edu.kestrel.syntheto.ast;
 
 import edu.kestrel.syntheto.sexpr.*;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.HashMap;
 
 public class ASTBuilder {
@@ -82,29 +87,34 @@ public class ASTBuilder {
             "Variable"
     };
 
-    // The interpreter uses makerToClass to dispatch to the right class
+    // The interpreter uses makerToBuilder to dispatch to the right class
     // to handle each makerFn.
     // Each class above must define a static method called fromSExpression that builds an instance of itself.
+    // The method handles are looked up once, here, so that building a node costs a map lookup and a direct call.
     /**
      * Use to interpret the S-Expression that makes an AST.
      */
-    static final HashMap<SExpressionSymbol, Class<?>> makerToClass;
+    static final HashMap<SExpressionSymbol, MethodHandle> makerToBuilder;
 
     static {
-        makerToClass = new HashMap<>();
-        try {
-            for (String className: ASTClasses) {
+        makerToBuilder = new HashMap<>();
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        MethodType builderType = MethodType.methodType(ASTNode.class, SExpression.class);
+        for (String className : ASTClasses) {
+            try {
                 Class<?> theClass = Class.forName("edu.kestrel.syntheto.ast." + className);
-                //System.out.println("className = " + className);
-                java.lang.reflect.Field f = theClass.getField("classMakerFn");
-                //System.out.println("field = " + f.toString());
-                // get the value of the static field f (the null is ignored)
-                SExpressionSymbol makerFn = (SExpressionSymbol) f.get(null);
-                //System.out.println("makerFn = " + makerFn.toString());
-                makerToClass.put(makerFn, theClass);
+                // get the value of the static field classMakerFn (the null is ignored)
+                SExpressionSymbol makerFn = (SExpressionSymbol) theClass.getField("classMakerFn").get(null);
+                // Find the "fromSExpression" method that has argument type SExpression
+                Method method = theClass.getMethod("fromSExpression", SExpression.class);
+                if (!Modifier.isStatic(method.getModifiers()) || !ASTNode.class.isAssignableFrom(method.getReturnType()))
+                    throw new IllegalStateException(className + ".fromSExpression must be static and return an ASTNode.");
+                if (makerToBuilder.put(makerFn, lookup.unreflect(method).asType(builderType)) != null)
+                    throw new IllegalStateException("Duplicate maker function " + makerFn + " in " + className + ".");
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(
+                        "Problem with setting up map from AST builder function to AST class " + className + ".", e);
             }
-        } catch (ReflectiveOperationException e) {
-            System.out.println("Problem with setting up map from AST builder function to AST class.");
         }
     }
 
@@ -123,22 +133,16 @@ public class ASTBuilder {
         SExpression firstItem = buildForm.first();
         if (! (firstItem instanceof SExpressionSymbol))
             throw new IllegalArgumentException("First item in the list must be a symbol.");
-        Class<?> classToMake = makerToClass.get(firstItem);
-        if (classToMake == null)
+        MethodHandle builder = makerToBuilder.get(firstItem);
+        if (builder == null)
             throw new IllegalArgumentException("Cannot find class for: " + firstItem.toString());
-        java.lang.reflect.Method method;
         try {
-            method = classToMake.getMethod("fromSExpression",
-                    // Find the "fromSExpression" method that has argument type SExpression
-                    Class.forName("edu.kestrel.syntheto.sexpr.SExpression"));
-            // invoke the static method (the first arg is ignored)
-            Object builtNode = method.invoke(null, sExpr);
-            if (! (builtNode instanceof ASTNode))
-                throw new IllegalArgumentException("fromSExpression method built a node that is not in the ASTNode hierarchy");
-            return (ASTNode) builtNode;
-        } catch (ReflectiveOperationException e) {
-            e.printStackTrace();
-            return null;
+            return (ASTNode) builder.invokeExact(sExpr);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            // fromSExpression methods do not declare checked exceptions
+            throw new IllegalStateException(e);
         }
     }
 }
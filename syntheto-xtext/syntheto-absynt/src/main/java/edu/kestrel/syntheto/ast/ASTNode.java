@@ -14,6 +14,29 @@ import edu.kestrel.syntheto.sexpr.*;
  */
 public abstract class ASTNode {
 
+    /**
+     * The fingerprint of this node, computed the first time it is needed.
+     */
+    private volatile Fingerprint fingerprint;
+
+    /**
+     * Returns the content hash of this node (see {@link Fingerprint}).
+     * Since nodes are immutable, it is computed only once per node,
+     * from the fingerprints of the children;
+     * so fingerprinting a whole program visits each node once,
+     * and fingerprinting it again (or a node in it) costs nothing.
+     *
+     * @return The fingerprint.
+     */
+    public final Fingerprint fingerprint() {
+        Fingerprint result = fingerprint;
+        if (result == null) {
+            result = Fingerprint.compute(this);
+            fingerprint = result;
+        }
+        return result;
+    }
+
     /**
      * Translates this expression to an s-expression.
      *
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2020 Kestrel Institute (http://www.kestrel.edu)
+ * License: 3-clause BSD license (https://opensource.org/licenses/BSD-3-Clause)
+ */
+
+package edu.kestrel.syntheto.ast;
+
+import edu.kestrel.syntheto.sexpr.*;
+
+import java.util.*;
+
+/**
+ * Dependencies among the top-level constructs of a Syntheto program.
+ * <p>
+ * Each top-level construct (a node) defines some names:
+ * functions, types, theorems, specifications, and the new functions of transforms.
+ * A node depends on an earlier node if it refers to one of the names that the earlier node defines,
+ * via a function call, a defined type, a product or sum expression,
+ * the old function of a transform, or an identifier argument of a transform.
+ * The nodes are identified by their positions in the program.
+ * </p>
+ * <p>
+ * The dependencies are only the ones visible in the syntax.
+ * In particular, a theorem that ACL2 uses implicitly as a rewrite rule
+ * in the proofs of later constructs is not a dependency of those constructs.
+ * </p>
+ */
+public class DependencyGraph {
+
+    /**
+     * For each maker of a construct that refers to names,
+     * the keywords of the arguments that hold the identifiers referred to.
+     */
+    private static final Map<SExpressionSymbol, Set<SExpressionSymbol>> REFERENCES = new HashMap<>();
+
+    static {
+        references(ExpressionCall.classMakerFn, "FUNCTION");
+        references(TypeDefined.classMakerFn, "NAME");
+        references(ExpressionProductConstruct.classMakerFn, "TYPE");
+        references(ExpressionProductField.classMakerFn, "TYPE");
+        references(ExpressionProductUpdate.classMakerFn, "TYPE");
+        references(ExpressionSumConstruct.classMakerFn, "TYPE");
+        references(ExpressionSumField.classMakerFn, "TYPE");
+        references(ExpressionSumTest.classMakerFn, "TYPE");
+        references(ExpressionSumUpdate.classMakerFn, "TYPE");
+        references(Transform.classMakerFn, "OLD-FUNCTION-NAME");
+        references(TransformArgumentValueIdentifier.classMakerFn, "NAME");
+        references(TransformArgumentValueIdentifiers.classMakerFn, "IDENTIFIER-LIST");
+    }
+
+    private static void references(SExpressionSymbol maker, String keyword) {
+        REFERENCES.computeIfAbsent(maker, k -> new HashSet<>()).add(SExpression.keyword(keyword));
+    }
+
+    private final List<TopLevel> tops;
+
+    private final List<Set<String>> definedNames;
+
+    private final List<int[]> dependencies;
+
+    private final List<int[]> dependents;
+
+    private DependencyGraph(List<TopLevel> tops) {
+        this.tops = Collections.unmodifiableList(new ArrayList<>(tops));
+        this.definedNames = new ArrayList<>(tops.size());
+        this.dependencies = new ArrayList<>(tops.size());
+        Map<String, Integer> definers = new HashMap<>();
+        List<List<Integer>> dependentLists = new ArrayList<>(tops.size());
+        for (int i = 0; i < tops.size(); ++i) {
+            TopLevel top = tops.get(i);
+            Set<String> referenced = new LinkedHashSet<>();
+            collectReferences(top.toSExpression(), referenced);
+            TreeSet<Integer> nodeDependencies = new TreeSet<>();
+            for (String name : referenced) {
+                Integer definer = definers.get(name);
+                if (definer != null)
+                    nodeDependencies.add(definer);
+            }
+            dependencies.add(toArray(nodeDependencies));
+            dependentLists.add(new ArrayList<>());
+            for (int dependency : nodeDependencies)
+                dependentLists.get(dependency).add(i);
+            Set<String> names = Collections.unmodifiableSet(definedNames(top));
+            definedNames.add(names);
+            // A later definition of the same name shadows the earlier one.
+            for (String name : names)
+                definers.put(name, i);
+        }
+        this.dependents = new ArrayList<>(tops.size());
+        for (List<Integer> nodeDependents : dependentLists)
+            dependents.add(toArray(nodeDependents));
+    }
+
+    /**
+     * Computes the dependency graph of a sequence of top-level constructs.
+     */
+    public static DependencyGraph of(List<TopLevel> tops) {
+        return new DependencyGraph(tops);
+    }
+
+    /**
+     * Computes the dependency graph of a program.
+     */
+    public static DependencyGraph of(Program program) {
+        return new DependencyGraph(program.getTops());
+    }
+
+    public List<TopLevel> getTops() {
+        return tops;
+    }
+
+    /**
+     * Number of nodes, i.e. of top-level constructs.
+     */
+    public int size() {
+        return tops.size();
+    }
+
+    /**
+     * The names defined by a node.
+     */
+    public Set<String> getDefinedNames(int node) {
+        return definedNames.get(node);
+    }
+
+    /**
+     * The nodes that a node depends on directly, in increasing order.
+     */
+    public int[] getDependencies(int node) {
+        return dependencies.get(node).clone();
+    }
+
+    /**
+     * The nodes that depend directly on a node, in increasing order.
+     */
+    public int[] getDependents(int node) {
+        return dependents.get(node).clone();
+    }
+
+    /**
+     * The nodes that some nodes depend on, directly or indirectly, together with those nodes,
+     * in increasing order, i.e. in program order.
+     * Submitting these nodes in this order gives an ACL2 world
+     * in which the given nodes can be processed as in the whole program.
+     */
+    public int[] closure(int... nodes) {
+        boolean[] needed = new boolean[tops.size()];
+        for (int node : nodes)
+            needed[node] = true;
+        // Dependencies always precede their dependents, so one backward pass suffices.
+        for (int i = tops.size() - 1; i >= 0; --i)
+            if (needed[i])
+                for (int dependency : dependencies.get(i))
+                    needed[dependency] = true;
+        int count = 0;
+        for (boolean b : needed)
+            if (b)
+                ++count;
+        int[] result = new int[count];
+        int k = 0;
+        for (int i = 0; i < needed.length; ++i)
+            if (needed[i])
+                result[k++] = i;
+        return result;
+    }
+
+    /**
+     * The nodes that no node depends on.
+     */
+    public int[] leaves() {
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < tops.size(); ++i)
+            if (dependents.get(i).length == 0)
+                result.add(i);
+        return toArray(result);
+    }
+
+    /**
+     * The nodes grouped in waves:
+     * the first wave has the nodes without dependencies,
+     * and each next wave has the nodes whose dependencies are all in earlier waves.
+     * The nodes in a wave are independent of each other.
+     */
+    public List<int[]> waves() {
+        int[] level = new int[tops.size()];
+        int levels = 0;
+        for (int i = 0; i < tops.size(); ++i) {
+            for (int dependency : dependencies.get(i))
+                level[i] = Math.max(level[i], level[dependency] + 1);
+            levels = Math.max(levels, level[i] + 1);
+        }
+        List<List<Integer>> waveLists = new ArrayList<>();
+        for (int l = 0; l < levels; ++l)
+            waveLists.add(new ArrayList<>());
+        for (int i = 0; i < tops.size(); ++i)
+            waveLists.get(level[i]).add(i);
+        List<int[]> result = new ArrayList<>(levels);
+        for (List<Integer> wave : waveLists)
+            result.add(toArray(wave));
+        return result;
+    }
+
+    /**
+     * The names defined by a top-level construct.
+     */
+    static Set<String> definedNames(TopLevel top) {
+        Set<String> names = new LinkedHashSet<>();
+        if (top instanceof TopLevelFunction) {
+            names.add(((TopLevelFunction) top).getFunctionDefinition().getHeader().getName().getName());
+        } else if (top instanceof TopLevelFunctions) {
+            for (FunctionDefinition definition : ((TopLevelFunctions) top).getFunctionRecursion().getDefinitions())
+                names.add(definition.getHeader().getName().getName());
+        } else if (top instanceof TopLevelType) {
+            names.add(((TopLevelType) top).getTypeDefinition().getName().getName());
+        } else if (top instanceof TopLevelTypes) {
+            for (TypeDefinition definition : ((TopLevelTypes) top).getTypeRecursion().getDefinitions())
+                names.add(definition.getName().getName());
+        } else if (top instanceof TopLevelTheorem) {
+            names.add(((TopLevelTheorem) top).getTheorem().getName().getName());
+        } else if (top instanceof TopLevelSpecification) {
+            FunctionSpecification specification = ((TopLevelSpecification) top).getFunctionSpecification();
+            names.add(specification.getName().getName());
+            for (FunctionHeader header : specification.getFunctions())
+                names.add(header.getName().getName());
+        } else if (top instanceof TopLevelTransform) {
+            names.add(((TopLevelTransform) top).getTransform().getNewName().getName());
+        }
+        return names;
+    }
+
+    /**
+     * Collects the names referred to in the S-expression of a construct.
+     */
+    static void collectReferences(SExpression sexpr, Set<String> names) {
+        if (!(sexpr instanceof SExpressionList))
+            return;
+        SExpressionList list = (SExpressionList) sexpr;
+        if (list.isEmpty())
+            return;
+        Set<SExpressionSymbol> keywords = REFERENCES.get(list.first());
+        // The arguments of makers are keyword-value pairs (nth is 1-based).
+        if (keywords != null)
+            for (int i = 2; i < list.length(); i += 2)
+                if (keywords.contains(list.nth(i)))
+                    collectIdentifiers(list.nth(i + 1), names);
+        for (SExpression element : list.getElements())
+            collectReferences(element, names);
+    }
+
+    private static void collectIdentifiers(SExpression sexpr, Set<String> names) {
+        if (!(sexpr instanceof SExpressionList))
+            return;
+        SExpressionList list = (SExpressionList) sexpr;
+        if (list.isEmpty())
+            return;
+        if (list.first().equals(Identifier.classMakerFn)) {
+            names.add(Identifier.fromSExpression(list).getName());
+            return;
+        }
+        for (SExpression element : list.getElements())
+            collectIdentifiers(element, names);
+    }
+
+    private static int[] toArray(Collection<Integer> integers) {
+        int[] result = new int[integers.size()];
+        int k = 0;
+        for (int i : integers)
+            result[k++] = i;
+        return result;
+    }
+}
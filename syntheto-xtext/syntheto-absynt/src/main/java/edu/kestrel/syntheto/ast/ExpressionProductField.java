@@ -94,6 +94,10 @@ public class ExpressionProductField extends Expression {
         return make(type, val, name);
     }
 
+    public Identifier getType() {
+        return type;
+    }
+
     public Expression getTarget() {
         return target;
     }
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2020 Kestrel Institute (http://www.kestrel.edu)
+ * License: 3-clause BSD license (https://opensource.org/licenses/BSD-3-Clause)
+ */
+
+package edu.kestrel.syntheto.ast;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Content hashes of abstract syntax nodes.
+ * <p>
+ * The fingerprint of a node is the SHA-256 digest of its class
+ * and of the values of its fields, in the order of their names,
+ * where a child node contributes its own fingerprint
+ * and a list contributes its length and its elements.
+ * So fingerprints form a Merkle tree:
+ * equal fingerprints mean equal nodes (barring collisions),
+ * and the fingerprint of a node is computed from the fingerprints of its children
+ * without looking at the rest of their subtrees.
+ * Fingerprints are the same across runs, so they can be persisted.
+ * </p>
+ * <p>
+ * See {@link ASTNode#fingerprint()}.
+ * </p>
+ */
+public final class Fingerprint {
+
+    /**
+     * Number of bytes of a fingerprint.
+     */
+    public static final int LENGTH = 32;
+
+    private static final MessageDigest PROTOTYPE;
+
+    static {
+        try {
+            PROTOTYPE = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be available.", e);
+        }
+    }
+
+    /**
+     * The instance fields of each node class, sorted by name.
+     */
+    private static final ClassValue<Field[]> FIELDS = new ClassValue<Field[]>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != ASTNode.class; c = c.getSuperclass())
+                for (Field field : c.getDeclaredFields())
+                    if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+            fields.sort(Comparator.comparing(Field::getName));
+            return fields.toArray(new Field[0]);
+        }
+    };
+
+    private final byte[] bytes;
+
+    private final int hash;
+
+    private Fingerprint(byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+    }
+
+    /**
+     * Makes a fingerprint from its bytes.
+     */
+    public static Fingerprint fromBytes(byte[] bytes) {
+        if (bytes.length != LENGTH)
+            throw new IllegalArgumentException("A fingerprint must have " + LENGTH + " bytes.");
+        return new Fingerprint(bytes.clone());
+    }
+
+    /**
+     * A new SHA-256 digest, like the one used for fingerprints.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return (MessageDigest) PROTOTYPE.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("SHA-256 digests are required to be cloneable.", e);
+        }
+    }
+
+    /**
+     * Computes the fingerprint of a node, using the (cached) fingerprints of its children.
+     */
+    static Fingerprint compute(ASTNode node) {
+        MessageDigest digest = newDigest();
+        update(digest, node.getClass().getName());
+        try {
+            for (Field field : FIELDS.get(node.getClass()))
+                update(digest, field.get(node));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        return new Fingerprint(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, Object value) {
+        if (value == null) {
+            digest.update((byte) 0);
+        } else if (value instanceof ASTNode) {
+            digest.update((byte) 1);
+            ((ASTNode) value).fingerprint().updateDigest(digest);
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            digest.update((byte) 2);
+            updateInt(digest, list.size());
+            for (Object element : list)
+                update(digest, element);
+        } else if (value instanceof String) {
+            digest.update((byte) 3);
+            update(digest, (String) value);
+        } else if (value instanceof Boolean) {
+            digest.update((byte) 4);
+            digest.update((byte) ((Boolean) value ? 1 : 0));
+        } else if (value instanceof Integer || value instanceof Character || value instanceof BigInteger) {
+            digest.update((byte) 5);
+            update(digest, value instanceof Character ? Integer.toString((Character) value) : value.toString());
+        } else if (value instanceof Enum) {
+            digest.update((byte) 6);
+            update(digest, ((Enum<?>) value).name());
+        } else {
+            throw new IllegalStateException("Cannot fingerprint a " + value.getClass().getName() + ".");
+        }
+    }
+
+    private static void update(MessageDigest digest, String string) {
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        updateInt(digest, utf8.length);
+        digest.update(utf8);
+    }
+
+    private static void updateInt(MessageDigest digest, int n) {
+        digest.update((byte) (n >>> 24));
+        digest.update((byte) (n >>> 16));
+        digest.update((byte) (n >>> 8));
+        digest.update((byte) n);
+    }
+
+    /**
+     * Feeds this fingerprint into a digest.
+     */
+    public void updateDigest(MessageDigest digest) {
+        digest.update(bytes);
+    }
+
+    /**
+     * The bytes of this fingerprint.
+     */
+    public byte[] toByteArray() {
+        return bytes.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Fingerprint)) return false;
+        Fingerprint that = (Fingerprint) o;
+        return hash == that.hash && Arrays.equals(bytes, that.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * The fingerprint in hexadecimal.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(2 * LENGTH);
+        for (byte b : bytes)
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+}
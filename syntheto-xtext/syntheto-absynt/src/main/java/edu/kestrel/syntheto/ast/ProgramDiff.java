@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2020 Kestrel Institute (http://www.kestrel.edu)
+ * License: 3-clause BSD license (https://opensource.org/licenses/BSD-3-Clause)
+ */
+
+package edu.kestrel.syntheto.ast;
+
+import java.util.*;
+
+/**
+ * Differences between the top-level constructs of two versions of a program.
+ * <p>
+ * Each top-level construct of the new version is either
+ * kept (an identical construct is in the old version),
+ * changed (a different construct defining the same names is in the old version),
+ * or added; the constructs of the old version that are neither kept nor changed are removed.
+ * Identical constructs are matched by their {@link Fingerprint}s,
+ * and the remaining ones by the names they define, in order of appearance,
+ * so the diff takes time linear in the number of constructs
+ * (plus the time to fingerprint the nodes that were not fingerprinted before).
+ * </p>
+ */
+public class ProgramDiff {
+
+    /**
+     * The kinds of changes.
+     */
+    public enum Kind {
+        KEPT, CHANGED, ADDED, REMOVED
+    }
+
+    /**
+     * The change of a top-level construct.
+     * The old index is -1 for added constructs, and the new index is -1 for removed ones.
+     */
+    public static final class Change {
+        private final Kind kind;
+        private final int oldIndex;
+        private final int newIndex;
+
+        Change(Kind kind, int oldIndex, int newIndex) {
+            this.kind = kind;
+            this.oldIndex = oldIndex;
+            this.newIndex = newIndex;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public int getOldIndex() {
+            return oldIndex;
+        }
+
+        public int getNewIndex() {
+            return newIndex;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Change)) return false;
+            Change that = (Change) o;
+            return kind == that.kind && oldIndex == that.oldIndex && newIndex == that.newIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, oldIndex, newIndex);
+        }
+
+        @Override
+        public String toString() {
+            return kind + "(" + oldIndex + " -> " + newIndex + ")";
+        }
+    }
+
+    private final List<TopLevel> oldTops;
+
+    private final List<TopLevel> newTops;
+
+    private final List<Change> changes;
+
+    private ProgramDiff(List<TopLevel> oldTops, List<TopLevel> newTops) {
+        this.oldTops = oldTops;
+        this.newTops = newTops;
+        boolean[] matched = new boolean[oldTops.size()];
+        Change[] byNewIndex = new Change[newTops.size()];
+
+        Map<Fingerprint, Deque<Integer>> byFingerprint = new HashMap<>();
+        for (int i = 0; i < oldTops.size(); ++i)
+            byFingerprint.computeIfAbsent(oldTops.get(i).fingerprint(), k -> new ArrayDeque<>()).add(i);
+        for (int j = 0; j < newTops.size(); ++j) {
+            Deque<Integer> candidates = byFingerprint.get(newTops.get(j).fingerprint());
+            if (candidates != null && !candidates.isEmpty()) {
+                int i = candidates.poll();
+                matched[i] = true;
+                byNewIndex[j] = new Change(Kind.KEPT, i, j);
+            }
+        }
+
+        Map<Set<String>, Deque<Integer>> byNames = new HashMap<>();
+        for (int i = 0; i < oldTops.size(); ++i)
+            if (!matched[i])
+                byNames.computeIfAbsent(DependencyGraph.definedNames(oldTops.get(i)), k -> new ArrayDeque<>()).add(i);
+        for (int j = 0; j < newTops.size(); ++j) {
+            if (byNewIndex[j] != null)
+                continue;
+            Deque<Integer> candidates = byNames.get(DependencyGraph.definedNames(newTops.get(j)));
+            if (candidates != null && !candidates.isEmpty()) {
+                int i = candidates.poll();
+                matched[i] = true;
+                byNewIndex[j] = new Change(Kind.CHANGED, i, j);
+            } else {
+                byNewIndex[j] = new Change(Kind.ADDED, -1, j);
+            }
+        }
+
+        List<Change> all = new ArrayList<>(Arrays.asList(byNewIndex));
+        for (int i = 0; i < oldTops.size(); ++i)
+            if (!matched[i])
+                all.add(new Change(Kind.REMOVED, i, -1));
+        this.changes = Collections.unmodifiableList(all);
+    }
+
+    /**
+     * Computes the differences between two sequences of top-level constructs.
+     */
+    public static ProgramDiff of(List<TopLevel> oldTops, List<TopLevel> newTops) {
+        return new ProgramDiff(oldTops, newTops);
+    }
+
+    /**
+     * Computes the differences between two programs.
+     */
+    public static ProgramDiff of(Program oldProgram, Program newProgram) {
+        return new ProgramDiff(oldProgram.getTops(), newProgram.getTops());
+    }
+
+    public List<TopLevel> getOldTops() {
+        return oldTops;
+    }
+
+    public List<TopLevel> getNewTops() {
+        return newTops;
+    }
+
+    /**
+     * All the changes: one for each construct of the new version, in order,
+     * followed by the removed constructs of the old version, in order.
+     */
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * The changes of a given kind, in the order of {@link #getChanges()}.
+     */
+    public List<Change> getChanges(Kind kind) {
+        List<Change> result = new ArrayList<>();
+        for (Change change : changes)
+            if (change.kind == kind)
+                result.add(change);
+        return result;
+    }
+
+    /**
+     * Whether every construct was kept, in the same order.
+     */
+    public boolean isIdentity() {
+        return oldTops.size() == newTops.size() && commonPrefixLength() == newTops.size();
+    }
+
+    /**
+     * Number of leading constructs of the new version
+     * that are kept from the same positions in the old version.
+     */
+    public int commonPrefixLength() {
+        int n = 0;
+        while (n < newTops.size()) {
+            Change change = changes.get(n);
+            if (change.kind != Kind.KEPT || change.oldIndex != n)
+                break;
+            ++n;
+        }
+        return n;
+    }
+}
@@ -1,7 +1,5 @@
 package edu.kestrel.syntheto.bridge;
 
-import java.io.*;
-import java.net.Socket;
 import java.util.Arrays;
 import java.util.List;
 
@@ -22,6 +20,8 @@ import java.util.List;
  * and an instance of {@link BridgeResponse} to receive responses.
  * These two instances are reused for all commands and responses,
  * i.e. we create a single instance of each.
+ * They are held by a single static {@link BridgeSession};
+ * see {@link BridgeSessionPool} for using several connections at once.
  * </p>
  * <p>
  * When connecting to the bridge,
@@ -79,22 +79,19 @@ import java.util.List;
 public class BridgeClient {
 
     /**
-     * Command sent to the bridge.
+     * Session to the bridge, which holds the command and response instances.
+     * Code that needs more than one connection at a time
+     * should use {@link BridgeSession} or {@link BridgeSessionPool} directly.
      */
-    private static BridgeCommand command;
-
-    /**
-     * Response sent from the bridge.
-     */
-    private static BridgeResponse response;
+    private static BridgeSession session;
 
     // EM draft: Query a JSON return value response to see if it returned T.
     // Call this after a command/response pair.
     public static boolean JSON_response_T_p() {
-        if (response == null)
+        if (session == null)
             return false;
         else
-            return response.response_JSON_p();
+            return session.getResponse().response_JSON_p();
     }
 
     public static void sendStringRequireT(String stringPred) throws BridgeException {
@@ -121,14 +118,10 @@ public class BridgeClient {
             throws BridgeException {
         System.out.println(">>>>>>>>>> SEND");
         System.out.println(sexpression);
-        if (raw) {
-            command.writeRawBridgeCommand(sexpression);
-        } else {
-            command.writeBridgeCommand(sexpression);
-        }
         System.out.println();
         System.out.println("<<<<<<<<<< RECEIVE");
-        String screenOutput = response.readResponse();
+        BridgeResponse response = raw ? session.sendRawCommand(sexpression) : session.sendCommand(sexpression);
+        String screenOutput = response.getScreenOutput();
         System.out.println(screenOutput);
         System.out.println();
     }
@@ -156,10 +149,10 @@ public class BridgeClient {
         throws BridgeException {
         System.out.println(">>>>>>>>>> SEND");
         System.out.println(sexpression);
-        command.writeBridgeCommand(sexpression);
         System.out.println();
         System.out.println("<<<<<<<<<< RECEIVE");
-        String screenOutput = response.readResponse();  // currently this has side effect of setting response.lastParsedSExpression
+        BridgeResponse response = session.sendCommand(sexpression);  // this has side effect of setting response.lastParsedSExpression
+        String screenOutput = response.getScreenOutput();
         System.out.println(screenOutput);
         System.out.println();
         return response;
@@ -169,6 +162,13 @@ public class BridgeClient {
 
     public static int bridgeHostPort = 55445;
 
+    /**
+     * Recorder of the traffic of the connections made by {@link #connectToBridge(String)},
+     * or null not to record it.
+     * The recording can be served by a {@link ReplayBridgeServer} in place of the bridge.
+     */
+    public static BridgeTrafficRecorder recorder = null;
+
     /**
      * Bridge response types
      */
@@ -178,28 +178,10 @@ public class BridgeClient {
     public static void connectToBridge(String responseType) throws BridgeException {
         if (! BridgeResponseTypes.contains(responseType))
             throw new IllegalArgumentException();
-        Socket socket;
-        try {
-            socket = new Socket(bridgeHostName, bridgeHostPort);
-        } catch (IOException e) {
-            throw new BridgeException("Cannot connect to bridge.", e);
-        }
-        PrintWriter writer;
-        try {
-            writer = new PrintWriter(socket.getOutputStream(), true);
-        } catch (IOException e) {
-            throw new BridgeException("Cannot obtain writer.", e);
-        }
-        Reader reader;
-        try {
-            reader = new BufferedReader
-                    (new InputStreamReader(socket.getInputStream()));
-        } catch (IOException e) {
-            throw new BridgeException("Cannot obtain reader.", e);
-        }
-        command = new BridgeCommand(writer, responseType);
-        response = new BridgeResponse(reader, responseType);
-        response.readHello();
+        BridgeSession newSession = BridgeSession.connect(bridgeHostName, bridgeHostPort, responseType, recorder);
+        if (session != null)
+            session.close();
+        session = newSession;
     }
 
     public static void connectToBridge() throws BridgeException {
@@ -217,7 +199,7 @@ public class BridgeClient {
 
 
     public static void killBridge() throws BridgeException {
-        command.writeRawBridgeCommand("(ccl::process-interrupt (bridge::find-process \"listener\") #'(lambda () (bridge::stop) (ccl::quit 0)))");
+        session.getCommand().writeRawBridgeCommand("(ccl::process-interrupt (bridge::find-process \"listener\") #'(lambda () (bridge::stop) (ccl::quit 0)))");
     }
 
     /**
@@ -1,8 +1,10 @@
 package edu.kestrel.syntheto.bridge;
 
+import edu.kestrel.syntheto.ast.TopLevel;
+import edu.kestrel.syntheto.sexpr.SExpression;
+
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Arrays;
-import java.util.List;
 
 /**
  * Processing of commands to the ACL2 bridge.
@@ -20,9 +22,26 @@ import java.util.List;
  * one calls {@link #writeBridgeCommand(String)} repeatedly,
  * once per command, for each command to send.
  * </p>
+ * <p>
+ * Commands built from an {@link SExpression} or a {@link TopLevel}
+ * ({@link #writeBridgeCommand(SExpression)}, {@link #writeTopLevelCommand(TopLevel)})
+ * are streamed to the writer in two passes over the tree:
+ * the first computes the length for the header, the second writes the characters.
+ * Their text is never held in memory as a whole.
+ * The header length counts characters, which are also bytes
+ * when the writer encodes in ISO-8859-1, as in {@link BridgeSession}.
+ * </p>
  */
 public class BridgeCommand { 
 
+    /**
+     * Something that writes a command, e.g. one of the methods of this class.
+     */
+    @FunctionalInterface
+    interface Writer {
+        void writeTo(BridgeCommand command) throws BridgeException;
+    }
+
     /**
      * Destination of the commands.
      * This is the "view" of the bridge that this class has,
@@ -66,11 +85,76 @@ public class BridgeCommand {
      *                    which we assume to be all ASCII.
      */
     public void writeBridgeCommand(String sexpression) throws BridgeException {
-        String form = "(bridge::try-in-main-thread (nld '"
-                + sexpression
-                + "))";
-        String message = bridgeResponseType + " " + form.length() + "\n" + form + "\n";
-        bridge.print(message);
+        bridge.print(bridgeResponseType);
+        bridge.print(' ');
+        bridge.print(Util.COMMAND_PREFIX.length() + sexpression.length() + Util.COMMAND_SUFFIX.length());
+        bridge.print('\n');
+        bridge.print(Util.COMMAND_PREFIX);
+        bridge.print(sexpression);
+        bridge.print(Util.COMMAND_SUFFIX);
+        bridge.print('\n');
+        bridge.flush();
+    }
+
+    /**
+     * Write a command of the form described in {@link BridgeClient},
+     * streaming the S-expression instead of serializing it to a string first.
+     *
+     * @param sexpression The S-expression.
+     * @throws IllegalArgumentException If the S-expression contains a non-8-bit character.
+     *                                  Nothing is written in this case.
+     */
+    public void writeBridgeCommand(SExpression sexpression) throws BridgeException {
+        writeWrappedCommand(Util.COMMAND_PREFIX, sexpression, Util.COMMAND_SUFFIX);
+    }
+
+    /**
+     * Write the command that processes a Syntheto top-level construct,
+     * i.e. the command for {@link Util#wrapTopLevelCommand(String)} of the construct,
+     * streaming the S-expression of the construct.
+     *
+     * @param topLevel The top-level construct.
+     * @throws IllegalArgumentException If the construct contains a non-8-bit character.
+     *                                  Nothing is written in this case.
+     */
+    public void writeTopLevelCommand(TopLevel topLevel) throws BridgeException {
+        writeWrappedCommand(Util.COMMAND_PREFIX + Util.TOPLEVEL_PREFIX, topLevel.toSExpression(),
+                Util.TOPLEVEL_SUFFIX + Util.COMMAND_SUFFIX);
+    }
+
+    /**
+     * Write the command that processes a Syntheto top-level construct serialized ahead of time,
+     * which skips the first pass over the tree,
+     * and which also returns the command number reached after the construct.
+     */
+    void writeTopLevelCommand(SerializedTopLevel topLevel) throws BridgeException {
+        writeWrappedCommand(SerializedTopLevel.PREFIX, topLevel.getForm(), topLevel.getLength(),
+                SerializedTopLevel.SUFFIX);
+    }
+
+    private void writeWrappedCommand(String prefix, SExpression sexpression, String suffix)
+            throws BridgeException {
+        // First pass: the length, which also rejects what cannot be encoded before anything is written.
+        long length = prefix.length() + sexpression.encodedLength() + suffix.length();
+        writeWrappedCommand(prefix, sexpression, length, suffix);
+    }
+
+    private void writeWrappedCommand(String prefix, SExpression sexpression, long length, String suffix)
+            throws BridgeException {
+        bridge.print(bridgeResponseType);
+        bridge.print(' ');
+        bridge.print(length);
+        bridge.print('\n');
+        bridge.print(prefix);
+        // Second pass: the characters.
+        try {
+            sexpression.encode(bridge);
+        } catch (IOException e) {
+            // PrintWriter does not throw, but the signature of encode allows any writer.
+            throw new BridgeException("Cannot write command to bridge.", e);
+        }
+        bridge.print(suffix);
+        bridge.print('\n');
         bridge.flush();
     }
 
@@ -0,0 +1,44 @@
+package edu.kestrel.syntheto.bridge;
+
+/**
+ * Thrown when a bridge command exceeded its time limit or was cancelled
+ * (see {@link CommandDeadline}), and ACL2 was interrupted.
+ */
+public class BridgeInterruptedException extends BridgeException {
+
+    /**
+     * Why the command was interrupted.
+     */
+    public enum Reason {
+        TIMEOUT, CANCELLED
+    }
+
+    private final Reason reason;
+
+    private final boolean recovered;
+
+    /**
+     * Constructs an exception for an interrupted command.
+     *
+     * @param reason Why the command was interrupted.
+     * @param recovered Whether the session is still usable,
+     *                  i.e. the response to the command (if it was sent) was read after the interrupt.
+     */
+    public BridgeInterruptedException(String message, Reason reason, boolean recovered) {
+        super(message);
+        this.reason = reason;
+        this.recovered = recovered;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * Whether the session is still usable.
+     * If not, the session has been closed, and should be replaced.
+     */
+    public boolean isRecovered() {
+        return recovered;
+    }
+}
@@ -0,0 +1,219 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.ast.TopLevel;
+import edu.kestrel.syntheto.outcome.Outcome;
+
+import java.io.Closeable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+/**
+ * Pipelined submission of commands on a {@link BridgeSession}.
+ * <p>
+ * With {@link BridgeSession#sendCommand(String)},
+ * each command is written only after the response to the previous one has been read,
+ * so a sequence of commands pays one full round trip per command.
+ * A pipeline instead writes up to a window of commands ahead,
+ * and a reader thread reads the responses as they come,
+ * matching them to the commands in FIFO order
+ * (the bridge answers the commands of a connection in the order it receives them).
+ * Each submission returns a {@link CompletableFuture}
+ * that is completed with the {@link Outcome} built from its response.
+ * </p>
+ * <p>
+ * A pipeline uses the "LISP_MV" response type,
+ * and expects every command to be a Syntheto top-level construct
+ * wrapped as in {@link Util#wrapTopLevelCommand(String)},
+ * whose return value contains an outcome maker form.
+ * A command whose response does not contain one
+ * has its future completed exceptionally with a {@link BridgeException},
+ * but does not affect the commands after it.
+ * </p>
+ * <p>
+ * Note that the commands in the window are already on their way to ACL2
+ * when a response comes back, so a failing command
+ * does not stop the ones submitted after it.
+ * Callers that must not submit a construct after a failed one it depends on
+ * should wait for the relevant futures first (or use a window of 1).
+ * </p>
+ * <p>
+ * The pipeline takes over the session:
+ * while the pipeline is open, the session must not be used directly,
+ * and closing the pipeline closes the session.
+ * If reading a response fails, the stream is no longer aligned
+ * with the command-response protocol: the session is marked as broken,
+ * and all the pending and later submissions fail.
+ * </p>
+ */
+public class BridgePipeline implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(BridgePipeline.class.getName());
+
+    private final BridgeSession session;
+
+    /**
+     * Permits for the commands that may be written but not yet answered.
+     */
+    private final Semaphore window;
+
+    /**
+     * Futures of the commands written and not yet answered, in the order they were written.
+     */
+    private final BlockingQueue<CompletableFuture<Outcome>> pending = new LinkedBlockingQueue<>();
+
+    private final Thread reader;
+
+    /**
+     * The cause of the failure of the pipeline, if any.
+     * Set by the reader thread, or by {@link #close()}.
+     */
+    private volatile BridgeException failure = null;
+
+    /**
+     * Constructs a pipeline on a session, and starts its reader thread.
+     *
+     * @param session A session with the "LISP_MV" response type, not used by anybody else.
+     * @param windowSize The maximum number of commands written ahead of their responses.
+     */
+    public BridgePipeline(BridgeSession session, int windowSize) {
+        if (windowSize < 1)
+            throw new IllegalArgumentException("The window of a bridge pipeline must be at least 1.");
+        if (! "LISP_MV".equals(session.getResponse().getResponseType()))
+            throw new IllegalArgumentException("A bridge pipeline needs the LISP_MV response type.");
+        this.session = session;
+        this.window = new Semaphore(windowSize);
+        // The outcomes are built by the pipeline from the return value strings,
+        // so the response does not need to parse them (nor to print them).
+        session.getResponse().Log = LOGGER;
+        this.reader = new Thread(this::readLoop, "bridge-pipeline-" + session.getPort());
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    /**
+     * Submits a Syntheto top-level construct,
+     * streaming it to the bridge (see {@link BridgeCommand#writeTopLevelCommand(TopLevel)}).
+     *
+     * @throws BridgeException If the construct cannot be encoded
+     *                         (nothing is written and the pipeline is unaffected),
+     *                         or as for {@link #submit(String)}.
+     */
+    public CompletableFuture<Outcome> submit(TopLevel topLevel) throws BridgeException {
+        return submit(command -> command.writeTopLevelCommand(topLevel));
+    }
+
+    /**
+     * Submits an S-expression, wrapped as described in {@link BridgeClient}.
+     * This waits as long as the window is full.
+     *
+     * @param sexpression The S-expression to send, in a String.
+     * @return The future outcome of the command.
+     * @throws BridgeException If the pipeline has failed or is closed,
+     *                         or if the wait is interrupted.
+     */
+    public CompletableFuture<Outcome> submit(String sexpression) throws BridgeException {
+        return submit(command -> command.writeBridgeCommand(sexpression));
+    }
+
+    private CompletableFuture<Outcome> submit(BridgeCommand.Writer writer) throws BridgeException {
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BridgeException("Interrupted while waiting for the bridge pipeline window.", e);
+        }
+        CompletableFuture<Outcome> future = new CompletableFuture<>();
+        synchronized (this) {
+            if (failure != null) {
+                window.release();
+                throw failure;
+            }
+            // Enqueue before writing, so the reader always finds the future of a response.
+            pending.add(future);
+            try {
+                writer.writeTo(session.getCommand());
+            } catch (IllegalArgumentException e) {
+                // Nothing was written, so there will be no response for this future.
+                pending.remove(future);
+                window.release();
+                throw new BridgeException("Cannot encode command: " + e.getMessage(), e);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Number of commands written and not yet answered.
+     */
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    private void readLoop() {
+        BridgeResponse response = session.getResponse();
+        while (true) {
+            CompletableFuture<Outcome> future;
+            try {
+                future = pending.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                response.readStreamedResponse();
+            } catch (BridgeException | RuntimeException e) {
+                fail(e instanceof BridgeException
+                        ? (BridgeException) e
+                        : new BridgeException("Cannot read bridge response.", e));
+                window.release();
+                future.completeExceptionally(failure);
+                failPending();
+                return;
+            }
+            window.release();
+            try {
+                future.complete(Util.outcomeFromLispReturnValue(response.getReturnValueString()));
+            } catch (BridgeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private synchronized void fail(BridgeException cause) {
+        if (failure == null)
+            failure = cause;
+        session.markBroken();
+    }
+
+    /**
+     * Fails the futures of the commands not yet answered.
+     * Their permits are given back, so that the submitters waiting for the window
+     * wake up and find out about the failure.
+     */
+    private void failPending() {
+        CompletableFuture<Outcome> future;
+        while ((future = pending.poll()) != null) {
+            window.release();
+            future.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * Closes the pipeline and its session.
+     * The submissions not yet answered fail with a {@link BridgeException}.
+     */
+    @Override
+    public void close() {
+        fail(new BridgeException("Bridge pipeline is closed."));
+        session.close();
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failPending();
+    }
+}
@@ -7,6 +7,9 @@ import org.json.*;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
@@ -78,17 +81,65 @@ public class BridgeResponse {
 	 * Screen output. Initially empty. Chunks are added to it during parsing.
 	 * Note, this is the output stream capture, not the serialized return vlaue.
 	 * Emptied just before each response is parsed.
+	 * Past a size limit, it is spilled to a temporary file (see ScreenOutput),
+	 * so that long proof logs do not take the memory of the whole log.
 	 */
-	private final StringBuilder screenOutput = new StringBuilder();
+	private ScreenOutput screenOutput = new ScreenOutput();
+
+	/*
+	 * Listener notified of the screen output as it is read, or null.
+	 */
+	private ScreenOutputListener screenOutputListener = null;
 
 	/*
 	 * Return a string containing the output (stdout, but maybe also stderr?)
 	 * from the last command response.
+	 * If the output was spilled to a file, this reads the whole file:
+	 * prefer screenOutputContains(), getScreenOutputTail() or getScreenOutputBuffer().
 	 */
 	public String getScreenOutput() {
 		return screenOutput.toString();
 		}
 
+	/*
+	 * Return the screen output of the last command response, without copying it.
+	 */
+	public ScreenOutput getScreenOutputBuffer() {
+		return screenOutput;
+	}
+
+	/*
+	 * Return the final characters (at most maxLength) of the screen output of the last command response.
+	 */
+	public String getScreenOutputTail(int maxLength) {
+		return screenOutput.getTail(maxLength);
+	}
+
+	/*
+	 * Check whether the screen output of the last command response contains a string,
+	 * without reading all of it into memory.
+	 */
+	public boolean screenOutputContains(String string) {
+		return screenOutput.contains(string);
+	}
+
+	/*
+	 * Set how many characters of screen output are kept in memory before spilling to a file,
+	 * and how many final characters are kept in memory after that.
+	 * Takes effect from the next response.
+	 */
+	public void setScreenOutputLimits(int memoryLimit, int tailLength) {
+		screenOutput.close();
+		screenOutput = new ScreenOutput(memoryLimit, tailLength);
+	}
+
+	/*
+	 * Set the listener notified of the screen output as it is read, or null for none.
+	 */
+	public void setScreenOutputListener(ScreenOutputListener listener) {
+		screenOutputListener = listener;
+	}
+
 	/*
 	 * String containing the return value from most recent response.
 	 * Emptied just before each response is parsed.
@@ -108,28 +159,87 @@ public class BridgeResponse {
 	public SExpression lastParsedSExpression = null;
 
 	/*
-	 * Parses the next character from the bridge response, and return it. We assume
-	 * that the data is available in a reader, which should be obtainable from the
-	 * socket.
+	 * Characters read from the bridge but not yet parsed,
+	 * in buffer[bufferPosition] to buffer[bufferLimit - 1].
+	 * The bridge is read in blocks, instead of one character at a time,
+	 * because the payloads of the STDOUT and RETURN messages may be megabytes long.
+	 * Since characters may be read ahead of the current message,
+	 * nothing else should read from the same reader.
 	 */
-	private char readAny() throws BridgeException {
+	private final char[] buffer = new char[8192];
+
+	private int bufferPosition = 0;
+
+	private int bufferLimit = 0;
+
+	/*
+	 * Reads the next block of characters from the bridge into the buffer.
+	 * Returns false if the end of the stream is reached.
+	 */
+	private boolean fillBuffer() throws BridgeException {
 		try {
-			int ch = bridge.read();
-			if (ch < 256)
-				return (char) ch;
-			throw new BridgeException("Found non-8-bit character " + ch + ".");
+			int n;
+			do {
+				n = bridge.read(buffer, 0, buffer.length);
+			} while (n == 0);
+			if (n < 0)
+				return false;
+			bufferPosition = 0;
+			bufferLimit = n;
+			return true;
 		} catch (IOException e) {
 			throw new BridgeException("Cannot parse anything.", e);
 		}
 	}
 
+	/*
+	 * Checks that the given characters are all 8-bit.
+	 */
+	private static void check8Bit(char[] chars, int from, int to) throws BridgeException {
+		for (int i = from; i < to; ++i)
+			if (chars[i] >= 256)
+				throw new BridgeException("Found non-8-bit character " + (int) chars[i] + ".");
+	}
+
+	/*
+	 * Parses the next character from the bridge response, and return it. We assume
+	 * that the data is available in a reader, which should be obtainable from the
+	 * socket.
+	 * At the end of the stream, (char) -1 is returned,
+	 * which makes the callers report an unexpected character.
+	 */
+	private char readAny() throws BridgeException {
+		if (bufferPosition == bufferLimit && !fillBuffer())
+			return (char) -1;
+		char ch = buffer[bufferPosition++];
+		if (ch < 256)
+			return ch;
+		throw new BridgeException("Found non-8-bit character " + (int) ch + ".");
+	}
+
 	/*
 	 * Parses a specified number of characters, returning them in a string.
+	 * The characters already in the buffer are copied,
+	 * the rest are read from the bridge directly into the result in bulk,
+	 * and then all of them are checked in one pass.
 	 */
 	private String readAny(int num) throws BridgeException {
 		char[] chars = new char[num];
-		for (int i = 0; i < num; ++i)
-			chars[i] = readAny();
+		int count = Math.min(num, bufferLimit - bufferPosition);
+		System.arraycopy(buffer, bufferPosition, chars, 0, count);
+		bufferPosition += count;
+		try {
+			while (count < num) {
+				int n = bridge.read(chars, count, num - count);
+				if (n < 0)
+					throw new BridgeException("Expected " + num + " characters, found end of stream after "
+							+ count + ".");
+				count += n;
+			}
+		} catch (IOException e) {
+			throw new BridgeException("Cannot parse anything.", e);
+		}
+		check8Bit(chars, 0, num);
 		return new String(chars);
 	}
 
@@ -188,12 +298,12 @@ public class BridgeResponse {
 
 	// Given a parsed JSON version of the ACL2 Return value,
 	// return a string describing an error, or "" if we could not find an error.
-	// If the JSONArray's structure didn't look right, the error string starts
+	// If the array's structure didn't look right, the error string starts
 	// with "JSON"; otherwise it starts with "ACL2" or with ":".
-	private String ACL2RetvalError(JSONArray ja) {
+	static String ACL2RetvalError(List<?> ja) {
 		// The JSON return value should be a JSON Array with three elements.
 		// ["NIL", innerRetval, "The Live State Itself"].
-		if (ja.length() != 3)
+		if (ja.size() != 3)
 			return "JSONTopArrayWrongLength";
 		Object topFirstElement = ja.get(0);
 		if (!(topFirstElement instanceof String) || !("NIL".equals((String) topFirstElement)))
@@ -206,10 +316,10 @@ public class BridgeResponse {
 		// either "T" (meaning general error),
 		// or "NIL", meaning the innerRetval must be scrutinized further.
 		Object topSecondElement = ja.get(1);
-		if (!(topSecondElement instanceof JSONArray))
+		if (!(topSecondElement instanceof List))
 			return "JSONTopArrayBadSecondElement";
-		JSONArray innerRetval = (JSONArray) topSecondElement;
-		if (0 == innerRetval.length())
+		List<?> innerRetval = (List<?>) topSecondElement;
+		if (0 == innerRetval.size())
 			return "JSONTopArrayBadSecondElement";
 
 		Object generalErrorIndicator = innerRetval.get(0);
@@ -232,31 +342,31 @@ public class BridgeResponse {
 		// [ "NIL", ["NIL"] ]
 		// No other innerRetvals of length 2 are known, so give an error for other
 		// patterns.
-		if (innerRetval.length() == 2) {
-			if (!(innerRetval.get(1) instanceof JSONArray))
+		if (innerRetval.size() == 2) {
+			if (!(innerRetval.get(1) instanceof List))
 				return "ACL2nonArrayInnerRetval";
-			JSONArray inner1j = (JSONArray) innerRetval.get(1);
-			if (inner1j.length() != 1)
+			List<?> inner1j = (List<?>) innerRetval.get(1);
+			if (inner1j.size() != 1)
 				return "ACL2unknownInnerRetvalArray";
 			Object inner1j_el = inner1j.get(0);
-			if (!(inner1j_el.equals("NIL")))
+			if (!("NIL".equals(inner1j_el)))
 				return "ACL2unexpectedInner1j";
 			else
 				return ""; // success flag. ACL2 evaluation returned NIL.
 		}
 
 		// Now innerRetval should have at least two more elements after the initial "NIL":
-		// stobjs_out, followed by stobjs_out.length() number of result values.
-		if (innerRetval.length() < 3)
+		// stobjs_out, followed by stobjs_out.size() number of result values.
+		if (innerRetval.size() < 3)
 			return "JSONInnerRetvalTooShort";
 
 		// Check that stobjs_out is an array and that innerRetval's length is two more
 		// than stobjs_out's length.
 		Object s_o = innerRetval.get(1);
-		if (!(s_o instanceof JSONArray))
+		if (!(s_o instanceof List))
 			return "JSONstobjs_outNotArray";
-		JSONArray stobjs_out = (JSONArray) s_o;
-		if (stobjs_out.length() + 2 != innerRetval.length())
+		List<?> stobjs_out = (List<?>) s_o;
+		if (stobjs_out.size() + 2 != innerRetval.size())
 			return "JSONstobjs_outResultsLengthMismatch";
 
 		// If we submitted an event form, the return values would be
@@ -270,7 +380,7 @@ public class BridgeResponse {
 		// So we believe that at this point, a return shape for stobjs_out other than
 		// ["NIL","NIL","STATE"]
 		// likely means there was no error.
-		if (stobjs_out.length() != 3)
+		if (stobjs_out.size() != 3)
 			return "";
 		Object sto0 = stobjs_out.get(0);
 		Object sto1 = stobjs_out.get(1);
@@ -298,10 +408,10 @@ public class BridgeResponse {
 		// If maybe_erp is an array, the first element of which is a string,
 		// that string is supposed to be a summary of the sort of error it is.
 		// In any other arrangement, we don't know what kind of error this is.
-		if (!(maybe_erp instanceof JSONArray))
+		if (!(maybe_erp instanceof List))
 			return "ACL2ErrorNotYetClassified";
-		JSONArray erp = (JSONArray) maybe_erp;
-		if (0 == erp.length())
+		List<?> erp = (List<?>) maybe_erp;
+		if (0 == erp.size())
 			return "ACL2ErrorNotYetClassified";
 		Object errorSummary = erp.get(0);
 		if (!(errorSummary instanceof String))
@@ -318,20 +428,20 @@ public class BridgeResponse {
 	/*
 	 * A JSON structure for the innerRetVal that means NIL was returned.
 	 */
-	private static final JSONArray JSON_return_nil =
-			new JSONArray("[ \"NIL\", [\"NIL\"] ]");
+	private static final List<Object> JSON_return_nil =
+			Arrays.asList("NIL", Collections.singletonList("NIL"));
 
 	/*
 	 * A JSON structure for the innerRetVal that means T was returned.
 	 * (Warning, might also mean the string "T"... didn't check for homonyms yet.)
 	 */
-	private static final JSONArray JSON_return_T =
-			new JSONArray("[ \"NIL\", [\"NIL\"], \"T\" ]" );
+	private static final List<Object> JSON_return_T =
+			Arrays.asList("NIL", Collections.singletonList("NIL"), "T");
 
 	/**
 	 * ACL2_return_value
 	 *
-	 * Given a JSONArray that was returned by ACL2,
+	 * Given the serialized JSON array that was returned by ACL2,
 	 * checks that it is properly structured using ACL2RetvalError(ja) above,
 	 * then extracts a JSON version of the actual return value without extra state and stobj info,
 	 * using code copied from ACL2RetvalError.
@@ -345,14 +455,13 @@ public class BridgeResponse {
 
 		// First, skip any ja that had a JSON or ACL2 error.
 		// This will weed out any that don't have a reasonable innerRetVal.
-		if (ACL2RetvalError(jaString).equals("")) {
-
-			Object JSON_or_errorstring = ACL2_JSON_Retval_or_Error(jaString);
+		List<?> ja = decodeReturnValue(jaString);
+		if (ja != null && ACL2RetvalError(ja).equals("")) {
 			// Since ACL2RetvalError() returned "", we know there is an innerRetVal.
-			JSONArray innerRetVal = (JSONArray) ((JSONArray) JSON_or_errorstring).get(1);
-			if (innerRetVal.similar(JSON_return_nil)) {
+			Object innerRetVal = ja.get(1);
+			if (JSON_return_nil.equals(innerRetVal)) {
 				return "NIL";
-			} else if (innerRetVal.similar(JSON_return_T)) {
+			} else if (JSON_return_T.equals(innerRetVal)) {
 				return "T";
 			} else {
 				return null;
@@ -383,53 +492,52 @@ public class BridgeResponse {
 	 */
 	private String ACL2RetvalError(String returnedValuesString) {
 		// We parse and process the JSON return value here
-		try {
-			JSONArray ja = new JSONArray(returnedValuesString);
-			// Pretty printed version:
-			String ppJSON = ja.toString(2);
-			// EM: Abhishek had commented this out, but then we can't see the return value.
-			//     I am putting it back in but only for the Log==null case so it doesn't
-			//     affect his usage.
-			if (Log==null) System.out.println("ACL2 return value in JSON format:\n" + ppJSON);
-			return ACL2RetvalError(ja);
-		} catch (JSONException je) {
-			if (Log == null) {
-				System.out.println("ERROR parsing JSON return value.");
-				System.out.println("jsonReturnVal = " + returnedValuesString);
-				System.out.println(je);
-			} else {
-				Log.severe("ERROR parsing JSON return value.");
-				Log.severe("jsonReturnVal = " + returnedValuesString);
-				Log.severe(je.toString());
-			}
+		List<?> ja = decodeReturnValue(returnedValuesString);
+		if (ja == null)
 			return "JSONParseError";
-		}
+		// EM: Abhishek had commented this out, but then we can't see the return value.
+		//     I am putting it back in but only for the Log==null case so it doesn't
+		//     affect his usage.
+		if (Log==null) System.out.println("ACL2 return value in JSON format:\n" + returnedValuesString);
+		return ACL2RetvalError(ja);
 	}
 
 	/*
-	 * The ACL2 return value is supposed to be a string with serialized JSON. That
-	 * JSON indicates whether ACL2 got an error, and in some cases describes the
-	 * type of error. This method parses the JSON. If there is an error parsing it,
-	 * "JSONParseError" is returned. Otherwise the JSON object is returned.
-	 *
+	 * The most recently decoded return value string, and its decoding,
+	 * so that the queries after a response do not decode it again.
 	 */
-	private Object ACL2_JSON_Retval_or_Error(String returnedValuesString) {
-		// We parse and process the JSON return value here
-		try {
-			JSONArray ja = new JSONArray(returnedValuesString);
-			return ja;
-		} catch (JSONException je) {
-			if (Log == null) {
-				System.out.println("ERROR parsing JSON return value.");
-				System.out.println("jsonReturnVal = " + returnedValuesString);
-				System.out.println(je);
-			} else {
-				Log.severe("ERROR parsing JSON return value.");
-				Log.severe("jsonReturnVal = " + returnedValuesString);
-				Log.severe(je.toString());
+	private String decodedString = null;
+
+	private List<?> decodedValue = null;
+
+	/*
+	 * Decodes a serialized JSON return value into lists of strings and lists
+	 * (see JsonMvDecoder), or returns null if the string cannot be parsed.
+	 * Return values outside the subset handled by JsonMvDecoder
+	 * are parsed with the general JSON parser.
+	 */
+	private List<?> decodeReturnValue(String returnedValuesString) {
+		if (returnedValuesString.equals(decodedString))
+			return decodedValue;
+		List<?> ja = JsonMvDecoder.decode(returnedValuesString);
+		if (ja == null) {
+			try {
+				ja = new JSONArray(returnedValuesString).toList();
+			} catch (JSONException je) {
+				if (Log == null) {
+					System.out.println("ERROR parsing JSON return value.");
+					System.out.println("jsonReturnVal = " + returnedValuesString);
+					System.out.println(je);
+				} else {
+					Log.severe("ERROR parsing JSON return value.");
+					Log.severe("jsonReturnVal = " + returnedValuesString);
+					Log.severe(je.toString());
+				}
 			}
-			return "JSONParseError";
 		}
+		decodedString = returnedValuesString;
+		decodedValue = ja;
+		return ja;
 	}
 
 	private void readReturn() throws BridgeException {
@@ -527,21 +635,44 @@ public class BridgeResponse {
 	}
 
 	/*
-	 * Parse the full response message from the bridge. The screen output
-	 * can be obtained via getScreenOutput(), and is also returned by this method.
+	 * Parses the payload of a STDOUT message, of the given length,
+	 * in pieces no longer than the buffer,
+	 * adding them to the screen output and passing them to the listener.
+	 */
+	private void readScreenOutput(int num) throws BridgeException {
+		int remaining = num;
+		while (remaining > 0) {
+			if (bufferPosition == bufferLimit && !fillBuffer())
+				throw new BridgeException("Expected " + num + " characters, found end of stream after "
+						+ (num - remaining) + ".");
+			int count = Math.min(remaining, bufferLimit - bufferPosition);
+			check8Bit(buffer, bufferPosition, bufferPosition + count);
+			String piece = new String(buffer, bufferPosition, count);
+			bufferPosition += count;
+			remaining -= count;
+			screenOutput.append(piece);
+			if (screenOutputListener != null)
+				screenOutputListener.onScreenOutput(piece);
+		}
+	}
+
+	/*
+	 * Parse the full response message from the bridge,
+	 * streaming the screen output to the listener (if any) as it is read.
+	 * The screen output can then be examined via screenOutputContains(), getScreenOutputTail(),
+	 * or getScreenOutputBuffer(), without holding all of it in memory.
 	 * The serialized return value output (string containing either JSON object or LISP s-expression)
 	 * can be obtained via getReturnValueString().
 	 */
-	public String readResponse() throws BridgeException {
-		screenOutput.setLength(0);
+	public void readStreamedResponse() throws BridgeException {
+		screenOutput.reset();
 		returnValueString.setLength(0);
 		lastParsedSExpression = null;
 		char ch = readAny();
 		while (ch == 'S') {
 			readString("TDOUT "); // note ending space
 			int n = readNumber();
-			String chunk = readAny(n);
-			screenOutput.append(chunk);
+			readScreenOutput(n);
 			readNewline();
 			ch = readAny();
 		}
@@ -550,7 +681,18 @@ public class BridgeResponse {
 					"but the first character found was '" + ch + "'.");
 		readReturn();
 		readReady();
-		return new String(screenOutput);
+	}
+
+	/*
+	 * Parse the full response message from the bridge. The screen output
+	 * can be obtained via getScreenOutput(), and is also returned by this method.
+	 * The serialized return value output (string containing either JSON object or LISP s-expression)
+	 * can be obtained via getReturnValueString().
+	 * This reads the whole screen output into memory: see readStreamedResponse().
+	 */
+	public String readResponse() throws BridgeException {
+		readStreamedResponse();
+		return screenOutput.toString();
 	}
 
 	/*
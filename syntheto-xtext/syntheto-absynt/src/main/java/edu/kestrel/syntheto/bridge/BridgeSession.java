@@ -0,0 +1,472 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.ast.TopLevel;
+import edu.kestrel.syntheto.sexpr.SExpression;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * A connection to the ACL2 bridge that can be used from multiple threads.
+ * <p>
+ * An instance of this class owns a socket to the bridge,
+ * together with the {@link BridgeCommand} and {@link BridgeResponse}
+ * that write commands to it and read responses from it.
+ * Unlike {@link BridgeClient}, which keeps a single static connection,
+ * any number of sessions can be open at the same time,
+ * e.g. one per ACL2 worker managed by a {@link BridgeSessionPool}.
+ * </p>
+ * <p>
+ * A command and its response are exchanged atomically:
+ * {@link #sendCommand(String)} and {@link #sendRawCommand(String)}
+ * hold the lock of the session while writing the command and reading the response,
+ * so that concurrent callers never interleave their frames.
+ * The returned {@link BridgeResponse} is the one owned by this session,
+ * and it is overwritten by the next exchange;
+ * callers that share a session should extract what they need
+ * while they still hold it (e.g. while they have it leased from a pool).
+ * </p>
+ * <p>
+ * If an exchange fails half-way, the stream is no longer aligned
+ * with the command-response protocol,
+ * so the session is marked as broken and should be closed and replaced.
+ * </p>
+ * <p>
+ * Note that sessions connected to the same bridge port
+ * are served by the same ACL2 process, and therefore share the same ACL2 world.
+ * To verify independent programs at the same time,
+ * connect the sessions to different ACL2 processes.
+ * </p>
+ * <p>
+ * An exchange can be given a {@link CommandDeadline}.
+ * While its response is awaited, a watchdog checks the time limit and the cancellation;
+ * when either is reached, it interrupts the ACL2 main thread
+ * (via {@link #INTERRUPT_FORM}, sent on a separate connection,
+ * since this one is busy waiting for its command),
+ * which aborts the command and makes ACL2 send its response.
+ * If the response still does not come within a grace period,
+ * the session cannot be recovered: it is closed, which ends the wait.
+ * Either way, the exchange throws a {@link BridgeInterruptedException}.
+ * </p>
+ */
+public class BridgeSession implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(BridgeSession.class.getName());
+
+    /**
+     * Raw form that aborts what the ACL2 main thread is doing,
+     * as {@link BridgeClient#killBridge()} interrupts it to stop the bridge.
+     */
+    static final String INTERRUPT_FORM =
+            "(ccl::process-interrupt (bridge::find-process \"listener\") #'(lambda () (abort)))";
+
+    /**
+     * Default time to wait for the response after interrupting ACL2,
+     * before giving up on the session.
+     */
+    public static final long DEFAULT_INTERRUPT_GRACE_MILLIS = 10000;
+
+    /**
+     * Interval at which the watchdog checks the time limit and the cancellation.
+     */
+    private static final long WATCHDOG_POLL_MILLIS = 50;
+
+    /**
+     * Thread that runs the watchdogs of all the sessions.
+     */
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "bridge-session-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Host name of the bridge.
+     */
+    private final String hostName;
+
+    /**
+     * Port of the bridge.
+     */
+    private final int port;
+
+    /**
+     * Socket connected to the bridge.
+     */
+    private final Socket socket;
+
+    /**
+     * Command sent to the bridge.
+     */
+    private final BridgeCommand command;
+
+    /**
+     * Response sent from the bridge.
+     */
+    private final BridgeResponse response;
+
+    /**
+     * Set when an exchange failed and the stream may be out of sync.
+     */
+    private volatile boolean broken = false;
+
+    /**
+     * Checkpoints of the ACL2 world built through this session.
+     */
+    private final WorldCheckpoints checkpoints = new WorldCheckpoints(this);
+
+    private volatile long interruptGraceMillis = DEFAULT_INTERRUPT_GRACE_MILLIS;
+
+    private BridgeSession(String hostName, int port, Socket socket,
+                          BridgeCommand command, BridgeResponse response) {
+        this.hostName = hostName;
+        this.port = port;
+        this.socket = socket;
+        this.command = command;
+        this.response = response;
+    }
+
+    /**
+     * Connects to the bridge and consumes its hello message.
+     *
+     * @param hostName The host name of the bridge.
+     * @param port The port of the bridge.
+     * @param responseType One of the response types in {@link BridgeClient#BridgeResponseTypes}.
+     * @param recorder The recorder of the traffic of the session, or null not to record it.
+     * @return The new session.
+     * @throws BridgeException If the connection cannot be established.
+     */
+    public static BridgeSession connect(String hostName, int port, String responseType,
+                                        BridgeTrafficRecorder recorder)
+            throws BridgeException {
+        if (! BridgeClient.BridgeResponseTypes.contains(responseType))
+            throw new IllegalArgumentException("Unknown bridge response type: " + responseType);
+        Socket socket;
+        try {
+            socket = new Socket(hostName, port);
+        } catch (IOException e) {
+            throw new BridgeException("Cannot connect to bridge.", e);
+        }
+        try {
+            Writer out;
+            try {
+                // One byte per character, so that the lengths in the command headers are byte counts.
+                out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.ISO_8859_1);
+            } catch (IOException e) {
+                throw new BridgeException("Cannot obtain writer.", e);
+            }
+            Reader in;
+            try {
+                // Likewise, the lengths in the response headers are byte counts.
+                in = new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1);
+            } catch (IOException e) {
+                throw new BridgeException("Cannot obtain reader.", e);
+            }
+            if (recorder != null) {
+                BridgeTrafficRecorder.Connection connection = recorder.connection();
+                out = connection.commands(out);
+                in = connection.responses(in);
+            }
+            PrintWriter writer = new PrintWriter(new BufferedWriter(out), true);
+            Reader reader = new BufferedReader(in);
+            BridgeSession session = new BridgeSession(hostName, port, socket,
+                    new BridgeCommand(writer, responseType),
+                    new BridgeResponse(reader, responseType));
+            session.response.readHello();
+            return session;
+        } catch (BridgeException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    /**
+     * Connects to the bridge, without recording the traffic.
+     */
+    public static BridgeSession connect(String hostName, int port, String responseType)
+            throws BridgeException {
+        return connect(hostName, port, responseType, null);
+    }
+
+    /**
+     * Connects to the bridge, with the default "JSON_MV" response type.
+     */
+    public static BridgeSession connect(String hostName, int port) throws BridgeException {
+        return connect(hostName, port, "JSON_MV");
+    }
+
+    public String getHostName() {
+        return hostName;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * The command object of this session,
+     * for writing commands that are not followed by a response
+     * (see {@link BridgeClient#killBridge()}).
+     */
+    BridgeCommand getCommand() {
+        return command;
+    }
+
+    /**
+     * The response object of this session,
+     * which holds the results of the most recent exchange.
+     */
+    public BridgeResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * The checkpoints of the ACL2 world built through this session,
+     * for processing sequences of top-level constructs incrementally.
+     */
+    public WorldCheckpoints getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * Sends an S-expression wrapped as described in {@link BridgeClient},
+     * and reads the corresponding response.
+     *
+     * @param sexpression The S-expression to send, in a String.
+     * @return The response of this session, holding the results of this exchange.
+     */
+    public synchronized BridgeResponse sendCommand(String sexpression) throws BridgeException {
+        return exchange(command -> command.writeBridgeCommand(sexpression), CommandDeadline.NONE);
+    }
+
+    /**
+     * Like {@link #sendCommand(String)}, within the limits of a deadline.
+     *
+     * @throws BridgeInterruptedException If the command exceeds its time limit or is cancelled.
+     */
+    public synchronized BridgeResponse sendCommand(String sexpression, CommandDeadline deadline)
+            throws BridgeException {
+        return exchange(command -> command.writeBridgeCommand(sexpression), deadline);
+    }
+
+    /**
+     * Sends an S-expression wrapped as described in {@link BridgeClient},
+     * streaming it to the bridge (see {@link BridgeCommand#writeBridgeCommand(SExpression)}),
+     * and reads the corresponding response.
+     *
+     * @param sexpression The S-expression to send.
+     * @return The response of this session, holding the results of this exchange.
+     */
+    public synchronized BridgeResponse sendCommand(SExpression sexpression) throws BridgeException {
+        return exchange(command -> command.writeBridgeCommand(sexpression), CommandDeadline.NONE);
+    }
+
+    /**
+     * Sends the command that processes a Syntheto top-level construct,
+     * streaming it to the bridge (see {@link BridgeCommand#writeTopLevelCommand(TopLevel)}),
+     * and reads the corresponding response.
+     *
+     * @param topLevel The top-level construct to send.
+     * @return The response of this session, holding the results of this exchange.
+     */
+    public synchronized BridgeResponse sendTopLevel(TopLevel topLevel) throws BridgeException {
+        return exchange(command -> command.writeTopLevelCommand(topLevel), CommandDeadline.NONE);
+    }
+
+    /**
+     * Like {@link #sendTopLevel(TopLevel)}, within the limits of a deadline.
+     *
+     * @throws BridgeInterruptedException If the command exceeds its time limit or is cancelled.
+     */
+    public synchronized BridgeResponse sendTopLevel(TopLevel topLevel, CommandDeadline deadline)
+            throws BridgeException {
+        return exchange(command -> command.writeTopLevelCommand(topLevel), deadline);
+    }
+
+    /**
+     * Like {@link #sendTopLevel(TopLevel, CommandDeadline)}, for a construct serialized ahead of time.
+     */
+    synchronized BridgeResponse sendTopLevel(SerializedTopLevel topLevel, CommandDeadline deadline)
+            throws BridgeException {
+        return exchange(command -> command.writeTopLevelCommand(topLevel), deadline);
+    }
+
+    /**
+     * Sends an already-wrapped (or raw Lisp) form,
+     * and reads the corresponding response.
+     *
+     * @param rawForm The form to send, in a String.
+     * @return The response of this session, holding the results of this exchange.
+     */
+    public synchronized BridgeResponse sendRawCommand(String rawForm) throws BridgeException {
+        return exchange(command -> command.writeRawBridgeCommand(rawForm), CommandDeadline.NONE);
+    }
+
+    private BridgeResponse exchange(BridgeCommand.Writer writer, CommandDeadline deadline) throws BridgeException {
+        if (broken)
+            throw new BridgeException("Bridge session to " + hostName + ":" + port + " is broken.");
+        if (deadline.isCancelled())
+            throw new BridgeInterruptedException("Cancelled before sending the command.",
+                    BridgeInterruptedException.Reason.CANCELLED, true);
+        try {
+            writer.writeTo(command);
+        } catch (IllegalArgumentException e) {
+            // Commands that cannot be encoded are rejected before anything is written,
+            // so the stream is still aligned.
+            throw new BridgeException("Cannot encode command: " + e.getMessage(), e);
+        } catch (BridgeException | RuntimeException e) {
+            broken = true;
+            throw e;
+        }
+        Watchdog watchdog = deadline == CommandDeadline.NONE ? null : new Watchdog(deadline);
+        try {
+            response.readStreamedResponse();
+        } catch (BridgeException | RuntimeException e) {
+            broken = true;
+            if (watchdog != null && watchdog.stop() != null)
+                throw watchdog.failure(false);
+            throw e;
+        }
+        if (watchdog != null && watchdog.stop() != null)
+            throw watchdog.failure(isUsable());
+        return response;
+    }
+
+    /**
+     * Time to wait for the response after interrupting ACL2, before giving up on this session.
+     */
+    public void setInterruptGraceMillis(long millis) {
+        this.interruptGraceMillis = millis;
+    }
+
+    /**
+     * Watches the wait for a response, and interrupts ACL2 when the deadline is reached.
+     */
+    private final class Watchdog implements Runnable {
+
+        private final CommandDeadline deadline;
+
+        private final long start = System.nanoTime();
+
+        private final ScheduledFuture<?> future;
+
+        private BridgeInterruptedException.Reason reason = null;
+
+        private long interruptedAt;
+
+        private boolean stopped = false;
+
+        Watchdog(CommandDeadline deadline) {
+            this.deadline = deadline;
+            this.future = WATCHDOG.scheduleWithFixedDelay(this,
+                    WATCHDOG_POLL_MILLIS, WATCHDOG_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public synchronized void run() {
+            if (stopped)
+                return;
+            long now = System.nanoTime();
+            if (reason == null) {
+                if (deadline.isCancelled())
+                    reason = BridgeInterruptedException.Reason.CANCELLED;
+                else if (deadline.hasTimeout() && now - start >= deadline.getTimeoutNanos())
+                    reason = BridgeInterruptedException.Reason.TIMEOUT;
+                else
+                    return;
+                interruptedAt = now;
+                interruptACL2();
+            } else if (now - interruptedAt >= TimeUnit.MILLISECONDS.toNanos(interruptGraceMillis)) {
+                LOGGER.warning("No response from " + BridgeSession.this + " after interrupting ACL2; closing it.");
+                stopped = true;
+                future.cancel(false);
+                close();
+            }
+        }
+
+        /**
+         * Stops watching, and returns why ACL2 was interrupted, or null if it was not.
+         */
+        synchronized BridgeInterruptedException.Reason stop() {
+            stopped = true;
+            future.cancel(false);
+            return reason;
+        }
+
+        BridgeInterruptedException failure(boolean recovered) {
+            String message = reason == BridgeInterruptedException.Reason.TIMEOUT
+                    ? "Command exceeded its time limit of "
+                      + TimeUnit.NANOSECONDS.toMillis(deadline.getTimeoutNanos()) + " ms."
+                    : "Command cancelled.";
+            if (!recovered)
+                message += " ACL2 did not respond to the interrupt, and the session was closed.";
+            return new BridgeInterruptedException(message, reason, recovered);
+        }
+    }
+
+    /**
+     * Interrupts the ACL2 main thread, from a separate connection and thread.
+     */
+    private void interruptACL2() {
+        Thread interrupter = new Thread(() -> {
+            try (BridgeSession side = connect(hostName, port, "LISP_MV")) {
+                side.response.Log = LOGGER;
+                side.sendRawCommand(INTERRUPT_FORM);
+            } catch (BridgeException e) {
+                LOGGER.warning("Cannot interrupt ACL2 at " + hostName + ":" + port + ": " + e.getMessage());
+            }
+        }, "bridge-session-interrupter");
+        interrupter.setDaemon(true);
+        interrupter.start();
+    }
+
+    /**
+     * Undoes events in the ACL2 world until the load of syntheto/top.
+     * See {@link BridgeClient#resetWorld()}.
+     */
+    public void resetWorld() throws BridgeException {
+        sendCommand("(ubu 0)");
+        checkpoints.reset();
+    }
+
+    /**
+     * Checks whether this session can still be used for exchanges.
+     */
+    public boolean isUsable() {
+        return !broken && !socket.isClosed();
+    }
+
+    /**
+     * Marks this session as broken,
+     * e.g. when the caller found the response unusable.
+     */
+    public void markBroken() {
+        broken = true;
+    }
+
+    @Override
+    public void close() {
+        broken = true;
+        closeQuietly(socket);
+        response.getScreenOutputBuffer().close(); // deletes the spill file, if any
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing else to do
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BridgeSession[" + hostName + ":" + port + "]";
+    }
+}
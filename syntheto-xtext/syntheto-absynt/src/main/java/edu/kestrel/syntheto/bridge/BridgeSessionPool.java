@@ -0,0 +1,317 @@
+package edu.kestrel.syntheto.bridge;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pool of {@link BridgeSession}s to one or more ACL2 bridges.
+ * <p>
+ * The pool is configured with a list of endpoints (host and port),
+ * each of which is an ACL2 process running the bridge,
+ * and with the number of sessions to open to each endpoint.
+ * Sessions are opened lazily, the first time they are needed,
+ * spreading them over the endpoints with the fewest open sessions.
+ * </p>
+ * <p>
+ * A caller leases a session via {@link #lease()},
+ * uses it to exchange one or more command-response pairs,
+ * and gives it back via {@link #release(BridgeSession)}.
+ * While a session is leased, no other caller can use it,
+ * so a caller can send a sequence of commands that build on each other
+ * (e.g. a sequence of Syntheto top-level constructs).
+ * If all the sessions are leased, {@link #lease()} waits until one is released.
+ * Sessions that are released broken are closed,
+ * and replaced by new ones when needed.
+ * </p>
+ * <p>
+ * Since sessions to the same endpoint share the ACL2 world of that endpoint,
+ * callers that modify the world (e.g. by submitting events)
+ * should normally use a pool with one session per endpoint,
+ * and start as many ACL2 processes as the desired parallelism.
+ * </p>
+ * <p>
+ * The {@link WorldCheckpoints} of all the sessions of a pool share an {@link OutcomeCache}.
+ * </p>
+ */
+public class BridgeSessionPool implements Closeable {
+
+    /**
+     * Host and port of an ACL2 bridge.
+     */
+    public static class Endpoint {
+
+        private final String hostName;
+
+        private final int port;
+
+        public Endpoint(String hostName, int port) {
+            this.hostName = hostName;
+            this.port = port;
+        }
+
+        public String getHostName() {
+            return hostName;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public String toString() {
+            return hostName + ":" + port;
+        }
+    }
+
+    /**
+     * Default number of outcomes kept by the cache of a pool.
+     */
+    public static final int DEFAULT_CACHE_CAPACITY = 4096;
+
+    private final List<Endpoint> endpoints;
+
+    private final int sessionsPerEndpoint;
+
+    private final String responseType;
+
+    /**
+     * Number of open sessions per endpoint, in the same order as {@link #endpoints}.
+     */
+    private final int[] openSessions;
+
+    /**
+     * Sessions that are open and not leased.
+     */
+    private final Deque<BridgeSession> idle = new ArrayDeque<>();
+
+    /**
+     * Number of sessions currently leased.
+     */
+    private int leased = 0;
+
+    private boolean closed = false;
+
+    private final OutcomeCache outcomeCache;
+
+    /**
+     * Constructs a pool. No connection is opened until sessions are leased.
+     *
+     * @param endpoints The bridges to connect to. Must be non-empty.
+     * @param sessionsPerEndpoint The maximum number of sessions to open to each endpoint.
+     * @param responseType The response type of all the sessions,
+     *                     one of {@link BridgeClient#BridgeResponseTypes}.
+     */
+    public BridgeSessionPool(List<Endpoint> endpoints, int sessionsPerEndpoint, String responseType) {
+        this(endpoints, sessionsPerEndpoint, responseType, new OutcomeCache(DEFAULT_CACHE_CAPACITY));
+    }
+
+    /**
+     * Constructs a pool whose sessions share the given outcome cache.
+     * No connection is opened until sessions are leased.
+     *
+     * @param endpoints The bridges to connect to. Must be non-empty.
+     * @param sessionsPerEndpoint The maximum number of sessions to open to each endpoint.
+     * @param responseType The response type of all the sessions,
+     *                     one of {@link BridgeClient#BridgeResponseTypes}.
+     * @param outcomeCache The cache for the {@link WorldCheckpoints} of the sessions,
+     *                     or {@code null} for none.
+     */
+    public BridgeSessionPool(List<Endpoint> endpoints, int sessionsPerEndpoint, String responseType,
+                             OutcomeCache outcomeCache) {
+        if (endpoints.isEmpty())
+            throw new IllegalArgumentException("A bridge session pool needs at least one endpoint.");
+        if (sessionsPerEndpoint < 1)
+            throw new IllegalArgumentException("A bridge session pool needs at least one session per endpoint.");
+        if (! BridgeClient.BridgeResponseTypes.contains(responseType))
+            throw new IllegalArgumentException("Unknown bridge response type: " + responseType);
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+        this.sessionsPerEndpoint = sessionsPerEndpoint;
+        this.responseType = responseType;
+        this.openSessions = new int[endpoints.size()];
+        this.outcomeCache = outcomeCache;
+    }
+
+    /**
+     * Constructs a pool with one session to each of the given ports on the given host.
+     */
+    public static BridgeSessionPool onPorts(String hostName, List<Integer> ports, String responseType) {
+        return onPorts(hostName, ports, responseType, new OutcomeCache(DEFAULT_CACHE_CAPACITY));
+    }
+
+    /**
+     * Constructs a pool with one session to each of the given ports on the given host,
+     * whose sessions share the given outcome cache (or none, if {@code null}).
+     */
+    public static BridgeSessionPool onPorts(String hostName, List<Integer> ports, String responseType,
+                                            OutcomeCache outcomeCache) {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (int port : ports)
+            endpoints.add(new Endpoint(hostName, port));
+        return new BridgeSessionPool(endpoints, 1, responseType, outcomeCache);
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * The outcome cache shared by the sessions, or {@code null} if there is none.
+     */
+    public OutcomeCache getOutcomeCache() {
+        return outcomeCache;
+    }
+
+    /**
+     * The maximum number of sessions that can be leased at the same time.
+     */
+    public int capacity() {
+        return endpoints.size() * sessionsPerEndpoint;
+    }
+
+    /**
+     * Leases a session, waiting as long as needed for one to become available.
+     *
+     * @return The leased session. It must be given back via {@link #release(BridgeSession)}.
+     * @throws BridgeException If a new session cannot be opened,
+     *                         or if the pool is closed or the wait is interrupted.
+     */
+    public BridgeSession lease() throws BridgeException {
+        BridgeSession session = lease(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        if (session == null)
+            throw new BridgeException("No bridge session became available.");
+        return session;
+    }
+
+    /**
+     * Leases a session, waiting at most the given time for one to become available.
+     *
+     * @return The leased session, or {@code null} if none became available in time.
+     * @throws BridgeException If a new session cannot be opened,
+     *                         or if the pool is closed or the wait is interrupted.
+     */
+    public BridgeSession lease(long timeout, TimeUnit unit) throws BridgeException {
+        long remaining = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + remaining;
+        int endpointIndex;
+        synchronized (this) {
+            while (true) {
+                if (closed)
+                    throw new BridgeException("Bridge session pool is closed.");
+                BridgeSession session = idle.pollFirst();
+                if (session != null) {
+                    if (session.isUsable()) {
+                        ++leased;
+                        return session;
+                    }
+                    discard(session);
+                    continue;
+                }
+                endpointIndex = leastLoadedEndpoint();
+                if (endpointIndex >= 0)
+                    break;
+                if (remaining <= 0)
+                    return null;
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new BridgeException("Interrupted while waiting for a bridge session.", e);
+                }
+                remaining = deadline - System.nanoTime();
+            }
+            // Reserve the slot before connecting, so that the connection
+            // can be established without holding the lock of the pool.
+            ++openSessions[endpointIndex];
+            ++leased;
+        }
+        Endpoint endpoint = endpoints.get(endpointIndex);
+        try {
+            BridgeSession session = BridgeSession.connect(endpoint.getHostName(), endpoint.getPort(), responseType);
+            session.getCheckpoints().setCache(outcomeCache);
+            return session;
+        } catch (BridgeException | RuntimeException e) {
+            synchronized (this) {
+                --openSessions[endpointIndex];
+                --leased;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Gives back a leased session.
+     * If the session is no longer usable, it is closed,
+     * and a new one will be opened when needed.
+     */
+    public synchronized void release(BridgeSession session) {
+        --leased;
+        if (closed || !session.isUsable()) {
+            discard(session);
+        } else {
+            idle.addFirst(session);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Closes all the idle sessions, and makes the pool unusable.
+     * Sessions that are leased are closed when they are released.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        while (!idle.isEmpty())
+            discard(idle.pollFirst());
+        notifyAll();
+    }
+
+    /**
+     * Number of sessions currently leased.
+     */
+    public synchronized int leasedCount() {
+        return leased;
+    }
+
+    /**
+     * Number of sessions currently open, leased or idle.
+     */
+    public synchronized int openCount() {
+        int count = 0;
+        for (int n : openSessions)
+            count += n;
+        return count;
+    }
+
+    private void discard(BridgeSession session) {
+        session.close();
+        for (int i = 0; i < endpoints.size(); ++i) {
+            Endpoint endpoint = endpoints.get(i);
+            if (endpoint.getHostName().equals(session.getHostName())
+                    && endpoint.getPort() == session.getPort()
+                    && openSessions[i] > 0) {
+                --openSessions[i];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Index of the endpoint with the fewest open sessions among those with room for another one,
+     * or -1 if all of them are full.
+     */
+    private int leastLoadedEndpoint() {
+        int best = -1;
+        for (int i = 0; i < openSessions.length; ++i) {
+            if (openSessions[i] < sessionsPerEndpoint
+                    && (best < 0 || openSessions[i] < openSessions[best]))
+                best = i;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,414 @@
+package edu.kestrel.syntheto.bridge;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Journal of the traffic between the front-end and the ACL2 bridge.
+ * <p>
+ * Everything that goes through the bridge has the same framing:
+ * <pre>
+ *     &lt;type&gt; &lt;n&gt;
+ *     &lt;n characters&gt;
+ * </pre>
+ * followed by a newline.
+ * Commands have the response type as their type
+ * (see {@link BridgeCommand}),
+ * and responses consist of the {@code ACL2_BRIDGE_HELLO}, {@code STDOUT}, {@code RETURN} and {@code READY} frames
+ * (see {@link BridgeClient} and {@link BridgeResponse}).
+ * A recorder taps the character streams of connections
+ * (see {@link BridgeSession#connect(String, int, String, BridgeTrafficRecorder)}),
+ * splits them into frames as they are written and read,
+ * and journals each frame together with the connection it belongs to.
+ * The framing is recovered from the streams themselves,
+ * so commands sent ahead of their responses (see {@link BridgePipeline})
+ * and raw commands are recorded too.
+ * </p>
+ * <p>
+ * The frames are kept in memory, in the order in which they were seen,
+ * and are optionally also written to a journal as they are seen,
+ * in the format read by {@link #read(Reader)}.
+ * A recording can be served back by a {@link ReplayBridgeServer},
+ * to run the front-end without ACL2.
+ * </p>
+ */
+public class BridgeTrafficRecorder implements Closeable {
+
+    /**
+     * The direction of a frame.
+     */
+    public enum Direction {
+        /**
+         * From the front-end to the bridge.
+         */
+        COMMAND,
+        /**
+         * From the bridge to the front-end.
+         */
+        RESPONSE
+    }
+
+    /**
+     * A frame of a connection.
+     * Connections are numbered from 0, in the order in which they were tapped.
+     */
+    public static final class Frame {
+        private final int connection;
+        private final Direction direction;
+        private final String type;
+        private final String payload;
+
+        public Frame(int connection, Direction direction, String type, String payload) {
+            this.connection = connection;
+            this.direction = direction;
+            this.type = type;
+            this.payload = payload;
+        }
+
+        public int getConnection() {
+            return connection;
+        }
+
+        public Direction getDirection() {
+            return direction;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+
+        /**
+         * The frame as it appears on the bridge stream.
+         */
+        public String toWire() {
+            return type + " " + payload.length() + "\n" + payload + "\n";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Frame)) return false;
+            Frame that = (Frame) o;
+            return connection == that.connection && direction == that.direction
+                    && type.equals(that.type) && payload.equals(that.payload);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(connection, direction, type, payload);
+        }
+
+        @Override
+        public String toString() {
+            return connection + " " + (direction == Direction.COMMAND ? "C " : "R ") + type + " " + payload.length();
+        }
+    }
+
+    /**
+     * Frames seen so far, in order.
+     */
+    private final List<Frame> frames = new ArrayList<>();
+
+    /**
+     * Where the frames are also written, or null.
+     */
+    private final Writer journal;
+
+    private int connections = 0;
+
+    /**
+     * Constructs a recorder that keeps the frames in memory only.
+     */
+    public BridgeTrafficRecorder() {
+        this.journal = null;
+    }
+
+    /**
+     * Constructs a recorder that also writes each frame to a journal,
+     * flushing it after each frame.
+     * The journal is closed by {@link #close()}.
+     */
+    public BridgeTrafficRecorder(Writer journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Constructs a recorder that also writes each frame to a new journal file.
+     */
+    public static BridgeTrafficRecorder toFile(Path path) throws IOException {
+        return new BridgeTrafficRecorder(Files.newBufferedWriter(path, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The frames seen so far, in order.
+     */
+    public synchronized List<Frame> getFrames() {
+        return new ArrayList<>(frames);
+    }
+
+    /**
+     * The tap of a new connection, whose frames are recorded under the next connection number.
+     */
+    public synchronized Connection connection() {
+        return new Connection(connections++);
+    }
+
+    private synchronized void record(Frame frame) {
+        frames.add(frame);
+        if (journal != null) {
+            try {
+                journal.write(Integer.toString(frame.connection));
+                journal.write(frame.direction == Direction.COMMAND ? " C " : " R ");
+                journal.write(frame.toWire());
+                journal.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write bridge traffic journal.", e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null)
+            journal.close();
+    }
+
+    /**
+     * Reads the frames written to a journal by a recorder.
+     * A frame cut off at the end of the journal, e.g. because the recording was interrupted, is ignored.
+     *
+     * @throws IOException If the journal cannot be read or is not well-formed.
+     */
+    public static List<Frame> read(Reader journal) throws IOException {
+        List<Frame> result = new ArrayList<>();
+        Reader in = journal instanceof BufferedReader ? journal : new BufferedReader(journal);
+        while (true) {
+            String header = readLine(in);
+            if (header == null)
+                return result;
+            String[] fields = header.split(" ");
+            if (fields.length != 4 || !(fields[1].equals("C") || fields[1].equals("R")))
+                throw new IOException("Malformed bridge traffic journal header: " + header);
+            int length;
+            int connection;
+            try {
+                connection = Integer.parseInt(fields[0]);
+                length = Integer.parseInt(fields[3]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed bridge traffic journal header: " + header, e);
+            }
+            char[] payload = new char[length];
+            int count = 0;
+            while (count < length) {
+                int n = in.read(payload, count, length - count);
+                if (n < 0)
+                    return result;
+                count += n;
+            }
+            int newline = in.read();
+            if (newline < 0)
+                return result;
+            if (newline != '\n')
+                throw new IOException("Bridge traffic journal frame not followed by a newline: " + header);
+            result.add(new Frame(connection, fields[1].equals("C") ? Direction.COMMAND : Direction.RESPONSE,
+                    fields[2], new String(payload)));
+        }
+    }
+
+    /**
+     * Reads the frames written to a journal file by a recorder.
+     */
+    public static List<Frame> read(Path path) throws IOException {
+        try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return read(in);
+        }
+    }
+
+    private static String readLine(Reader in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int ch;
+        while ((ch = in.read()) != '\n') {
+            if (ch < 0)
+                return null;
+            line.append((char) ch);
+        }
+        return line.toString();
+    }
+
+    /**
+     * The recorded exchanges of each connection:
+     * each command frame paired with the response frames up to and including the next {@code READY}.
+     * The hello message that opens each connection is paired with a null command.
+     * Commands that were never answered, e.g. because the connection was closed, are not included.
+     */
+    public static List<Exchange> exchanges(List<Frame> frames) {
+        Map<Integer, Deque<Frame>> pendingCommands = new HashMap<>();
+        Map<Integer, List<Frame>> pendingResponses = new HashMap<>();
+        Set<Integer> greeted = new HashSet<>();
+        List<Exchange> result = new ArrayList<>();
+        for (Frame frame : frames) {
+            int connection = frame.connection;
+            if (frame.direction == Direction.COMMAND) {
+                pendingCommands.computeIfAbsent(connection, k -> new ArrayDeque<>()).add(frame);
+                continue;
+            }
+            List<Frame> response = pendingResponses.computeIfAbsent(connection, k -> new ArrayList<>());
+            response.add(frame);
+            if (!frame.type.equals("READY"))
+                continue;
+            Frame command = null;
+            if (!greeted.add(connection)) {
+                Deque<Frame> commands = pendingCommands.get(connection);
+                command = commands == null ? null : commands.poll();
+            }
+            result.add(new Exchange(command, new ArrayList<>(response)));
+            response.clear();
+        }
+        return result;
+    }
+
+    /**
+     * A command and the frames of its response.
+     */
+    public static final class Exchange {
+        private final Frame command;
+        private final List<Frame> response;
+
+        Exchange(Frame command, List<Frame> response) {
+            this.command = command;
+            this.response = Collections.unmodifiableList(response);
+        }
+
+        /**
+         * The command, or null for the hello message of a connection.
+         */
+        public Frame getCommand() {
+            return command;
+        }
+
+        public List<Frame> getResponse() {
+            return response;
+        }
+    }
+
+    /**
+     * The tap of a connection,
+     * which wraps the streams of the connection so that their frames are recorded.
+     */
+    public final class Connection {
+        private final int number;
+
+        private Connection(int number) {
+            this.number = number;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * Wraps the writer of the commands to the bridge.
+         */
+        public Writer commands(Writer out) {
+            FrameSplitter splitter = new FrameSplitter(number, Direction.COMMAND);
+            return new FilterWriter(out) {
+                @Override
+                public void write(int c) throws IOException {
+                    super.write(c);
+                    splitter.accept((char) c);
+                }
+
+                @Override
+                public void write(char[] cbuf, int off, int len) throws IOException {
+                    super.write(cbuf, off, len);
+                    for (int i = 0; i < len; ++i)
+                        splitter.accept(cbuf[off + i]);
+                }
+
+                @Override
+                public void write(String str, int off, int len) throws IOException {
+                    super.write(str, off, len);
+                    for (int i = 0; i < len; ++i)
+                        splitter.accept(str.charAt(off + i));
+                }
+            };
+        }
+
+        /**
+         * Wraps the reader of the responses from the bridge.
+         */
+        public Reader responses(Reader in) {
+            FrameSplitter splitter = new FrameSplitter(number, Direction.RESPONSE);
+            return new FilterReader(in) {
+                @Override
+                public int read() throws IOException {
+                    int c = super.read();
+                    if (c >= 0)
+                        splitter.accept((char) c);
+                    return c;
+                }
+
+                @Override
+                public int read(char[] cbuf, int off, int len) throws IOException {
+                    int n = super.read(cbuf, off, len);
+                    for (int i = 0; i < n; ++i)
+                        splitter.accept(cbuf[off + i]);
+                    return n;
+                }
+            };
+        }
+    }
+
+    /**
+     * Splits a character stream into frames, and records them.
+     * A stream that does not follow the framing is recorded up to where it stops following it.
+     */
+    private final class FrameSplitter {
+        private final int connection;
+        private final Direction direction;
+        private final StringBuilder header = new StringBuilder();
+        private String type = null;
+        private char[] payload = null;
+        private int count = 0;
+        private boolean malformed = false;
+
+        FrameSplitter(int connection, Direction direction) {
+            this.connection = connection;
+            this.direction = direction;
+        }
+
+        void accept(char ch) {
+            if (malformed)
+                return;
+            if (payload == null) {
+                if (ch != '\n') {
+                    header.append(ch);
+                    return;
+                }
+                int space = header.indexOf(" ");
+                try {
+                    payload = new char[Integer.parseInt(header.substring(space + 1))];
+                } catch (NumberFormatException | StringIndexOutOfBoundsException | NegativeArraySizeException e) {
+                    malformed = true;
+                    return;
+                }
+                type = header.substring(0, space);
+                header.setLength(0);
+                count = 0;
+            } else if (count < payload.length) {
+                payload[count++] = ch;
+            } else {
+                // The newline after the payload.
+                record(new Frame(connection, direction, type, new String(payload)));
+                payload = null;
+            }
+        }
+    }
+}
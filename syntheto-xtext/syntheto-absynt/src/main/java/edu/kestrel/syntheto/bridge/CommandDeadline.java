@@ -0,0 +1,73 @@
+package edu.kestrel.syntheto.bridge;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Limits on the bridge commands of a request:
+ * a time limit on each command, and a way to cancel the request.
+ * <p>
+ * The time limit of a command starts when the command is written,
+ * and covers the wait for its response.
+ * The cancellation check is polled while waiting for responses,
+ * e.g. to follow the cancel indicator of a language server request.
+ * When a command exceeds its time limit or the request is cancelled,
+ * {@link BridgeSession} interrupts ACL2 and throws a {@link BridgeInterruptedException}.
+ * </p>
+ */
+public final class CommandDeadline {
+
+    /**
+     * No time limit, and no cancellation.
+     */
+    public static final CommandDeadline NONE = new CommandDeadline(Long.MAX_VALUE, () -> false);
+
+    private final long timeoutNanos;
+
+    private final BooleanSupplier cancelled;
+
+    private CommandDeadline(long timeoutNanos, BooleanSupplier cancelled) {
+        this.timeoutNanos = timeoutNanos;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Limits with a time limit for each command and a cancellation check.
+     *
+     * @param timeout The time limit of each command; 0 or less for none.
+     * @param unit The unit of the time limit.
+     * @param cancelled Tells whether the request has been cancelled, or null if it cannot be.
+     */
+    public static CommandDeadline of(long timeout, TimeUnit unit, BooleanSupplier cancelled) {
+        return new CommandDeadline(timeout > 0 ? unit.toNanos(timeout) : Long.MAX_VALUE,
+                cancelled == null ? () -> false : cancelled);
+    }
+
+    /**
+     * Limits with a time limit for each command, and no cancellation.
+     */
+    public static CommandDeadline of(long timeout, TimeUnit unit) {
+        return of(timeout, unit, null);
+    }
+
+    /**
+     * The time limit of each command, in nanoseconds, or {@link Long#MAX_VALUE} for none.
+     */
+    public long getTimeoutNanos() {
+        return timeoutNanos;
+    }
+
+    public boolean hasTimeout() {
+        return timeoutNanos != Long.MAX_VALUE;
+    }
+
+    public boolean isCancelled() {
+        return cancelled.getAsBoolean();
+    }
+
+    @Override
+    public String toString() {
+        return hasTimeout() ? "CommandDeadline[" + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms]"
+                : "CommandDeadline[none]";
+    }
+}
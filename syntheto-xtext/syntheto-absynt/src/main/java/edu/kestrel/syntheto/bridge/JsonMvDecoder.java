@@ -0,0 +1,173 @@
+package edu.kestrel.syntheto.bridge;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decoder of the JSON_MV return values of the bridge.
+ * <p>
+ * The return values are JSON arrays that look like
+ * ["NIL", innerRetval, "The Live State Itself"],
+ * where innerRetval is again made of nested arrays of strings
+ * (ACL2 symbols and strings are both encoded as JSON strings).
+ * This decoder handles exactly that subset of JSON:
+ * it decodes the return value in a single pass over the string,
+ * into {@link List}s of {@link String}s and (nested) {@link List}s,
+ * without building any intermediate representation.
+ * </p>
+ * <p>
+ * For anything outside that subset (numbers, objects, literals, malformed JSON),
+ * {@link #decode(String)} returns {@code null},
+ * and the caller falls back to the general JSON parser
+ * (see {@link BridgeResponse}).
+ * </p>
+ */
+final class JsonMvDecoder {
+
+    private final String json;
+
+    private int position = 0;
+
+    private JsonMvDecoder(String json) {
+        this.json = json;
+    }
+
+    /**
+     * Decodes a JSON array of (arrays of) strings.
+     *
+     * @param json The serialized JSON.
+     * @return The decoded array, or {@code null} if the string is not in the handled subset.
+     */
+    static List<Object> decode(String json) {
+        JsonMvDecoder decoder = new JsonMvDecoder(json);
+        decoder.skipWhitespace();
+        List<Object> result = decoder.readArray();
+        if (result == null)
+            return null;
+        decoder.skipWhitespace();
+        return decoder.position == json.length() ? result : null;
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length()) {
+            char ch = json.charAt(position);
+            if (ch != ' ' && ch != '\n' && ch != '\r' && ch != '\t')
+                return;
+            ++position;
+        }
+    }
+
+    /*
+     * Reads an array starting at the current position, or returns null.
+     */
+    private List<Object> readArray() {
+        if (position >= json.length() || json.charAt(position) != '[')
+            return null;
+        ++position;
+        List<Object> elements = new ArrayList<>();
+        skipWhitespace();
+        if (position < json.length() && json.charAt(position) == ']') {
+            ++position;
+            return elements;
+        }
+        while (true) {
+            skipWhitespace();
+            if (position >= json.length())
+                return null;
+            Object element;
+            char ch = json.charAt(position);
+            if (ch == '[')
+                element = readArray();
+            else if (ch == '"')
+                element = readString();
+            else
+                return null;
+            if (element == null)
+                return null;
+            elements.add(element);
+            skipWhitespace();
+            if (position >= json.length())
+                return null;
+            ch = json.charAt(position++);
+            if (ch == ']')
+                return elements;
+            if (ch != ',')
+                return null;
+        }
+    }
+
+    /*
+     * Reads a string starting at the current position (on the opening quote), or returns null.
+     * Strings without escapes, which are the common case, are extracted with a single substring.
+     */
+    private String readString() {
+        int start = ++position;
+        while (position < json.length()) {
+            char ch = json.charAt(position);
+            if (ch == '"')
+                return json.substring(start, position++);
+            if (ch == '\\')
+                return readEscapedString(start);
+            if (ch < ' ')
+                return null;
+            ++position;
+        }
+        return null;
+    }
+
+    private String readEscapedString(int start) {
+        StringBuilder sb = new StringBuilder(json.length() - start);
+        sb.append(json, start, position);
+        while (position < json.length()) {
+            char ch = json.charAt(position++);
+            if (ch == '"')
+                return sb.toString();
+            if (ch < ' ')
+                return null;
+            if (ch != '\\') {
+                sb.append(ch);
+                continue;
+            }
+            if (position >= json.length())
+                return null;
+            char escaped = json.charAt(position++);
+            switch (escaped) {
+                case '"':
+                case '\\':
+                case '/':
+                    sb.append(escaped);
+                    break;
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (position + 4 > json.length())
+                        return null;
+                    int code = 0;
+                    for (int i = 0; i < 4; ++i) {
+                        int digit = Character.digit(json.charAt(position++), 16);
+                        if (digit < 0)
+                            return null;
+                        code = code * 16 + digit;
+                    }
+                    sb.append((char) code);
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,209 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.outcome.Outcome;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * A bounded cache of the outcomes of Syntheto top-level constructs.
+ * <p>
+ * The outcome of a top-level construct is determined by the construct
+ * and by the ACL2 world it is processed in.
+ * The cache is keyed by a fingerprint of the sequence of constructs up to and including it
+ * (see {@link WorldCheckpoints#prefixFingerprints(java.util.List)}),
+ * built from the Merkle fingerprints of the constructs,
+ * so a hit means that the same construct was processed after the same constructs.
+ * When it is full, the least recently used entry is evicted.
+ * </p>
+ * <p>
+ * A cache may be backed by an {@link OutcomeStore}:
+ * outcomes not in memory are looked up in the store,
+ * and the outcomes put in the cache are also put in the store.
+ * Failures of the store are logged, and otherwise treated as misses.
+ * </p>
+ * <p>
+ * The cache is shared by the {@link WorldCheckpoints} of the sessions of a {@link BridgeSessionPool},
+ * so that a sequence processed on one session is not processed again on another one
+ * (e.g. after the first session was discarded).
+ * It is thread-safe.
+ * </p>
+ */
+public class OutcomeCache {
+
+    private static final Logger LOGGER = Logger.getLogger(OutcomeCache.class.getName());
+
+    /**
+     * Key of a cached outcome: the fingerprint of the prefix of constructs up to and including it.
+     */
+    static final class Key {
+        private final byte[] fingerprint;
+        private final int hash;
+
+        Key(byte[] fingerprint) {
+            this.fingerprint = fingerprint;
+            this.hash = Arrays.hashCode(fingerprint);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return hash == key.hash && Arrays.equals(fingerprint, key.fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final int capacity;
+
+    private final LinkedHashMap<Key, Outcome> entries;
+
+    private final OutcomeStore store;
+
+    private long hits = 0;
+
+    private long storeHits = 0;
+
+    private long misses = 0;
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param capacity The maximum number of outcomes to keep.
+     */
+    public OutcomeCache(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Constructs an empty cache backed by a store.
+     *
+     * @param capacity The maximum number of outcomes to keep in memory.
+     * @param store The store, or {@code null} for none.
+     */
+    public OutcomeCache(int capacity, OutcomeStore store) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("An outcome cache needs room for at least one outcome.");
+        this.capacity = capacity;
+        this.store = store;
+        this.entries = new LinkedHashMap<Key, Outcome>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Outcome> eldest) {
+                return size() > OutcomeCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Looks up the outcome of a construct, counting a hit or a miss.
+     *
+     * @return The outcome, or {@code null} if it is not in the cache.
+     */
+    Outcome get(Key key) {
+        synchronized (this) {
+            Outcome outcome = entries.get(key);
+            if (outcome != null) {
+                ++hits;
+                return outcome;
+            }
+            if (store == null) {
+                ++misses;
+                return null;
+            }
+        }
+        Outcome stored = null;
+        try {
+            stored = store.get(key.fingerprint);
+        } catch (IOException e) {
+            LOGGER.warning("Cannot read from the outcome store: " + e.getMessage());
+        }
+        synchronized (this) {
+            if (stored == null) {
+                ++misses;
+            } else {
+                ++hits;
+                ++storeHits;
+                entries.put(key, stored);
+            }
+        }
+        return stored;
+    }
+
+    void put(Key key, Outcome outcome) {
+        synchronized (this) {
+            entries.put(key, outcome);
+        }
+        if (store != null) {
+            try {
+                store.put(key.fingerprint, outcome);
+            } catch (IOException e) {
+                LOGGER.warning("Cannot write to the outcome store: " + e.getMessage());
+            }
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * The store backing this cache, or {@code null} if there is none.
+     */
+    public OutcomeStore getStore() {
+        return store;
+    }
+
+    /**
+     * Number of outcomes in the cache.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Number of lookups that found an outcome.
+     */
+    public synchronized long hitCount() {
+        return hits;
+    }
+
+    /**
+     * Number of lookups that found an outcome in the store, and not in memory.
+     * These are also counted in {@link #hitCount()}.
+     */
+    public synchronized long storeHitCount() {
+        return storeHits;
+    }
+
+    /**
+     * Number of lookups that did not find an outcome.
+     */
+    public synchronized long missCount() {
+        return misses;
+    }
+
+    /**
+     * Removes all the outcomes from memory, and resets the counts.
+     * The store, if any, is not affected.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        storeHits = 0;
+        misses = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "OutcomeCache{size=" + entries.size() + ", capacity=" + capacity
+                + ", hits=" + hits + ", storeHits=" + storeHits + ", misses=" + misses + "}";
+    }
+}
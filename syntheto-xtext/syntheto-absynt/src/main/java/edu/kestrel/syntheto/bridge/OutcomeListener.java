@@ -0,0 +1,21 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.outcome.Outcome;
+
+/**
+ * A listener of the outcomes of a sequence of top-level constructs,
+ * notified as each outcome is known instead of after the whole sequence
+ * (see {@link WorldCheckpoints#process(java.util.List, CommandDeadline, OutcomeListener)}
+ * and {@link ParallelVerifier#verify(java.util.List, CommandDeadline, OutcomeListener)}).
+ */
+@FunctionalInterface
+public interface OutcomeListener {
+
+    /**
+     * Called with the outcome of each construct,
+     * in order unless the caller says otherwise.
+     *
+     * @param index The position of the construct in the sequence.
+     */
+    void onOutcome(int index, Outcome outcome);
+}
@@ -0,0 +1,440 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.ast.Fingerprint;
+import edu.kestrel.syntheto.outcome.*;
+import edu.kestrel.syntheto.sexpr.Parser;
+import edu.kestrel.syntheto.sexpr.SExpression;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A persistent store of the outcomes of Syntheto top-level constructs,
+ * so that what was proved survives a restart of the language server.
+ * <p>
+ * The store is an append-only log file.
+ * It starts with a magic header, followed by one record per stored outcome:
+ * the length of the payload (4 bytes), the key (32 bytes),
+ * the payload, and a CRC-32 of key and payload (4 bytes).
+ * The key is the SHA-256 fingerprint of the construct and of all the constructs before it,
+ * built from their Merkle fingerprints (see {@link WorldCheckpoints#prefixFingerprints(List)}),
+ * and the payload is the deflated S-expression of the outcome.
+ * A later record for the same key supersedes the earlier one.
+ * </p>
+ * <p>
+ * The fingerprints only cover the Syntheto side:
+ * the same constructs may not have the same outcomes with another ACL2 baseline
+ * (e.g. another version of ACL2 or of the Syntheto books).
+ * A store may thus be opened with a salt that identifies the baseline,
+ * in which case the key of a record is the SHA-256 digest of the salt and of the fingerprint,
+ * so that the outcomes stored with another salt are not found
+ * (and are eventually dropped by compaction).
+ * </p>
+ * <p>
+ * Opening a store scans the log to build an index from keys to record positions;
+ * the outcomes are read from the file only when they are looked up.
+ * A truncated or corrupted tail (e.g. from a crash while appending) is cut off.
+ * When the log grows beyond its size limit, it is compacted:
+ * it is rewritten with only the most recent record of each key,
+ * dropping the oldest ones until it is at most half the limit.
+ * The rewrite goes to a temporary file that then replaces the log.
+ * </p>
+ * <p>
+ * Only successful outcomes are stored,
+ * since failures may be due to transient conditions (e.g. resource limits)
+ * and are worth retrying.
+ * This class is thread-safe.
+ * </p>
+ */
+public class OutcomeStore implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(OutcomeStore.class.getName());
+
+    private static final byte[] MAGIC = "SYNTHETO-OUTCOMES-1\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * Length of the keys.
+     */
+    public static final int KEY_LENGTH = 32;
+
+    /**
+     * Bytes of a record besides its payload.
+     */
+    private static final int RECORD_OVERHEAD = 4 + KEY_LENGTH + 4;
+
+    /**
+     * Default size limit of the log.
+     */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Position and length of a record in the log.
+     */
+    private static final class Entry {
+        final long position;
+        final int payloadLength;
+
+        Entry(long position, int payloadLength) {
+            this.position = position;
+            this.payloadLength = payloadLength;
+        }
+
+        long recordLength() {
+            return RECORD_OVERHEAD + payloadLength;
+        }
+    }
+
+    private final Path file;
+
+    private final long maxBytes;
+
+    private final byte[] salt;
+
+    private RandomAccessFile log;
+
+    /**
+     * The live records, from the least to the most recently appended.
+     */
+    private final LinkedHashMap<ByteBuffer, Entry> index = new LinkedHashMap<>();
+
+    private long liveBytes = 0;
+
+    private OutcomeStore(Path file, long maxBytes, byte[] salt) {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.salt = salt;
+    }
+
+    /**
+     * Opens a store without a salt, creating it (and its directory) if it does not exist.
+     *
+     * @param file The log file.
+     * @param maxBytes The size limit of the log.
+     * @throws IOException If the log cannot be created or read.
+     */
+    public static OutcomeStore open(Path file, long maxBytes) throws IOException {
+        return open(file, maxBytes, "");
+    }
+
+    /**
+     * Opens a store, creating it (and its directory) if it does not exist.
+     *
+     * @param file The log file.
+     * @param maxBytes The size limit of the log.
+     * @param salt The salt of the keys, which identifies the ACL2 baseline, or the empty string for none.
+     * @throws IOException If the log cannot be created or read.
+     */
+    public static OutcomeStore open(Path file, long maxBytes, String salt) throws IOException {
+        if (maxBytes < MAGIC.length)
+            throw new IllegalArgumentException("The size limit of an outcome store is too small: " + maxBytes);
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null)
+            Files.createDirectories(directory);
+        OutcomeStore store = new OutcomeStore(file, maxBytes, salt.getBytes(StandardCharsets.UTF_8));
+        store.load();
+        return store;
+    }
+
+    private void load() throws IOException {
+        log = new RandomAccessFile(file.toFile(), "rw");
+        try {
+            if (log.length() < MAGIC.length || !hasMagic()) {
+                if (log.length() > 0)
+                    LOGGER.warning("Discarding " + file + ", which is not an outcome store.");
+                log.setLength(0);
+                log.write(MAGIC);
+                return;
+            }
+            long position = MAGIC.length;
+            long length = log.length();
+            while (true) {
+                Entry entry = readEntry(position, length);
+                if (entry == null)
+                    break;
+                byte[] key = new byte[KEY_LENGTH];
+                log.seek(position + 4);
+                log.readFully(key);
+                putEntry(key, entry);
+                position += entry.recordLength();
+            }
+            if (position < length) {
+                LOGGER.warning("Cutting off " + (length - position) + " bytes at the end of " + file + ".");
+                log.setLength(position);
+            }
+            if (log.length() > maxBytes || log.length() - MAGIC.length > 2 * liveBytes)
+                compact();
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    private boolean hasMagic() throws IOException {
+        byte[] header = new byte[MAGIC.length];
+        log.seek(0);
+        log.readFully(header);
+        return Arrays.equals(header, MAGIC);
+    }
+
+    /**
+     * Reads and checks the record at a position.
+     *
+     * @return The record, or {@code null} if there is no complete and intact record there.
+     */
+    private Entry readEntry(long position, long length) throws IOException {
+        if (position + RECORD_OVERHEAD > length)
+            return null;
+        log.seek(position);
+        int payloadLength = log.readInt();
+        if (payloadLength < 0 || position + RECORD_OVERHEAD + payloadLength > length)
+            return null;
+        byte[] body = new byte[KEY_LENGTH + payloadLength];
+        log.readFully(body);
+        int crc = log.readInt();
+        return crc == crc(body) ? new Entry(position, payloadLength) : null;
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    private void putEntry(byte[] key, Entry entry) {
+        Entry previous = index.remove(ByteBuffer.wrap(key));
+        if (previous != null)
+            liveBytes -= previous.recordLength();
+        index.put(ByteBuffer.wrap(key), entry);
+        liveBytes += entry.recordLength();
+    }
+
+    /**
+     * Looks up an outcome.
+     *
+     * @return The outcome, or {@code null} if it is not in the store or cannot be decoded.
+     * @throws IOException If the log cannot be read.
+     */
+    public synchronized Outcome get(byte[] key) throws IOException {
+        checkKey(key);
+        checkOpen();
+        Entry entry = index.get(ByteBuffer.wrap(recordKey(key)));
+        if (entry == null)
+            return null;
+        byte[] payload = new byte[entry.payloadLength];
+        log.seek(entry.position + 4 + KEY_LENGTH);
+        log.readFully(payload);
+        try {
+            return decode(payload);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Cannot decode a stored outcome: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores an outcome, if it is a successful one.
+     *
+     * @return Whether the outcome was stored.
+     * @throws IOException If the log cannot be written.
+     */
+    public synchronized boolean put(byte[] key, Outcome outcome) throws IOException {
+        checkKey(key);
+        checkOpen();
+        if (!isSuccess(outcome))
+            return false;
+        byte[] payload;
+        try {
+            payload = encode(outcome);
+        } catch (IllegalArgumentException e) {
+            // E.g. a string with characters that do not fit in 8 bits.
+            LOGGER.warning("Cannot encode an outcome: " + e.getMessage());
+            return false;
+        }
+        long position = log.length();
+        byte[] recordKey = recordKey(key);
+        byte[] body = new byte[KEY_LENGTH + payload.length];
+        System.arraycopy(recordKey, 0, body, 0, KEY_LENGTH);
+        System.arraycopy(payload, 0, body, KEY_LENGTH, payload.length);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(RECORD_OVERHEAD + payload.length);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(payload.length);
+        out.write(body);
+        out.writeInt(crc(body));
+        log.seek(position);
+        log.write(record.toByteArray());
+        putEntry(recordKey, new Entry(position, payload.length));
+        if (log.length() > maxBytes)
+            compact();
+        return true;
+    }
+
+    /**
+     * Rewrites the log with only the most recent record of each key,
+     * dropping the least recently appended ones if needed to stay within half the size limit.
+     *
+     * @throws IOException If the log cannot be rewritten.
+     */
+    public synchronized void compact() throws IOException {
+        checkOpen();
+        long budget = maxBytes / 2 - MAGIC.length;
+        List<Map.Entry<ByteBuffer, Entry>> kept = new ArrayList<>(index.entrySet());
+        long keptBytes = liveBytes;
+        int dropped = 0;
+        while (keptBytes > budget && dropped < kept.size())
+            keptBytes -= kept.get(dropped++).getValue().recordLength();
+        kept = kept.subList(dropped, kept.size());
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".compacting");
+        LinkedHashMap<ByteBuffer, Entry> newIndex = new LinkedHashMap<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.write(MAGIC);
+            long position = MAGIC.length;
+            for (Map.Entry<ByteBuffer, Entry> e : kept) {
+                Entry entry = e.getValue();
+                byte[] record = new byte[(int) entry.recordLength()];
+                log.seek(entry.position);
+                log.readFully(record);
+                out.write(record);
+                newIndex.put(e.getKey(), new Entry(position, entry.payloadLength));
+                position += record.length;
+            }
+        }
+        log.close();
+        log = null;
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = new RandomAccessFile(file.toFile(), "rw");
+        index.clear();
+        index.putAll(newIndex);
+        liveBytes = keptBytes;
+        LOGGER.info("Compacted " + file + " to " + index.size() + " outcomes, dropping " + dropped + ".");
+    }
+
+    /**
+     * Number of outcomes in the store.
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Current length of the log file.
+     */
+    public synchronized long fileLength() throws IOException {
+        checkOpen();
+        return log.length();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (log == null)
+            throw new IOException("Outcome store " + file + " is closed.");
+    }
+
+    /**
+     * The key of the record of an outcome: the key itself, or its digest with the salt.
+     * The result is not shared with the caller.
+     */
+    private byte[] recordKey(byte[] key) {
+        if (salt.length == 0)
+            return key.clone();
+        MessageDigest digest = Fingerprint.newDigest();
+        digest.update(salt);
+        digest.update(key);
+        return digest.digest();
+    }
+
+    private static void checkKey(byte[] key) {
+        if (key.length != KEY_LENGTH)
+            throw new IllegalArgumentException("Outcome store keys must have " + KEY_LENGTH + " bytes.");
+    }
+
+    static boolean isSuccess(Outcome outcome) {
+        return outcome instanceof FunctionSuccess
+                || outcome instanceof TypeSuccess
+                || outcome instanceof TheoremSuccess
+                || outcome instanceof SpecificationSuccess
+                || outcome instanceof TransformationSuccess;
+    }
+
+    static byte[] encode(Outcome outcome) {
+        SExpression sexpr = outcome.toSExpression();
+        byte[] text = new byte[Math.toIntExact(sexpr.encodedLength())];
+        try {
+            sexpr.encode(new Writer() {
+                private int position = 0;
+
+                @Override
+                public void write(char[] cbuf, int off, int len) {
+                    for (int i = off; i < off + len; ++i)
+                        text[position++] = (byte) cbuf[i];
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+        } catch (IOException e) {
+            // The writer above does not throw.
+            throw new IllegalStateException(e);
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(text);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(text.length / 2 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished())
+                out.write(buffer, 0, deflater.deflate(buffer));
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static Outcome decode(byte[] payload) {
+        Inflater inflater = new Inflater();
+        StringBuilder text = new StringBuilder(payload.length * 3);
+        try {
+            inflater.setInput(payload);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IllegalArgumentException("Truncated outcome payload.");
+                for (int i = 0; i < n; ++i)
+                    text.append((char) (buffer[i] & 0xFF));
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted outcome payload.", e);
+        } finally {
+            inflater.end();
+        }
+        return OutcomeBuilder.fromSExpression(new Parser(text.toString()).parseTop());
+    }
+}
@@ -0,0 +1,315 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.ast.DependencyGraph;
+import edu.kestrel.syntheto.ast.TopLevel;
+import edu.kestrel.syntheto.outcome.Outcome;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Processing of the top-level constructs of a program on several bridge sessions at once.
+ * <p>
+ * The constructs are split according to their {@link DependencyGraph}:
+ * the leaves of the graph (the constructs that nothing depends on)
+ * are distributed among the workers,
+ * and each worker processes its leaves together with everything they depend on, in program order.
+ * Constructs needed by several workers (e.g. a function used by many theorems)
+ * are thus processed by each of them,
+ * while independent constructs (e.g. the theorems) are processed in parallel.
+ * There are as many workers as sessions can be leased without waiting (after the first one),
+ * up to the given number.
+ * Each worker processes its sequence through the {@link WorldCheckpoints} of its session,
+ * and is given the leased session whose world already holds the longest prefix of the sequence,
+ * so that a re-run after an edit resubmits only what changed.
+ * </p>
+ * <p>
+ * The outcome of each construct is the first one known, from whichever worker processed it first.
+ * Since the dependencies are only the syntactic ones (see {@link DependencyGraph}),
+ * a proof that relies on an earlier theorem as an implicit rewrite rule
+ * may fail here while it succeeds when the program is processed sequentially.
+ * </p>
+ */
+public class ParallelVerifier {
+
+    private static final Logger LOGGER = Logger.getLogger(ParallelVerifier.class.getName());
+
+    private static final long LEASE_POLL_MILLIS = 100;
+
+    private final BridgeSessionPool pool;
+
+    private final int workers;
+
+    /**
+     * Constructs a verifier.
+     *
+     * @param pool The pool to lease the sessions from.
+     * @param workers The maximum number of sessions to use at the same time.
+     */
+    public ParallelVerifier(BridgeSessionPool pool, int workers) {
+        if (workers < 1)
+            throw new IllegalArgumentException("A parallel verifier needs at least one worker.");
+        this.pool = pool;
+        this.workers = workers;
+    }
+
+    /**
+     * Processes top-level constructs.
+     *
+     * @param tops The top-level constructs, in program order.
+     * @return The outcomes of the constructs, in the same order.
+     * @throws BridgeException If a session cannot be leased or an exchange with a bridge fails.
+     */
+    public List<Outcome> verify(List<TopLevel> tops) throws BridgeException {
+        return verify(tops, CommandDeadline.NONE, null);
+    }
+
+    /**
+     * Like {@link #verify(List)}, within the limits of a deadline shared by all the sessions
+     * (see {@link WorldCheckpoints#process(List, CommandDeadline)}),
+     * also passing each outcome to a listener as soon as it is known.
+     *
+     * @param listener The listener of the outcomes, or null for none.
+     *                 It is passed each outcome once, with the index of its construct in {@code tops},
+     *                 as soon as the first worker knows it:
+     *                 the outcomes are not passed in order,
+     *                 and the listener may be called from several threads at once.
+     * @throws BridgeInterruptedException If the request is cancelled while waiting for the sessions.
+     */
+    public List<Outcome> verify(List<TopLevel> tops, CommandDeadline deadline, OutcomeListener listener)
+            throws BridgeException {
+        DependencyGraph graph = DependencyGraph.of(tops);
+        Outcome[] outcomes = new Outcome[tops.size()];
+        List<BridgeSession> sessions = new ArrayList<>();
+        List<BridgeSession> broken = new ArrayList<>();
+        ExecutorService executor = null;
+        try {
+            leaseSessions(sessions, deadline);
+            List<List<TopLevel>> sequences = new ArrayList<>();
+            List<int[]> sequenceNodes = new ArrayList<>();
+            for (int[] nodes : partition(graph, sessions.size())) {
+                List<TopLevel> sequence = new ArrayList<>(nodes.length);
+                for (int node : nodes)
+                    sequence.add(tops.get(node));
+                sequences.add(sequence);
+                sequenceNodes.add(nodes);
+            }
+            LOGGER.info("Processing " + tops.size() + " top-levels on " + sequences.size() + " sessions.");
+            List<BridgeSession> assigned = assignSessions(sequences, sessions);
+            if (sequences.size() == 1) {
+                assigned.get(0).getCheckpoints().process(sequences.get(0), deadline,
+                        firstHeard(sequenceNodes.get(0), outcomes, listener));
+                return Arrays.asList(outcomes);
+            }
+            // When a worker fails, the others are cancelled through their deadline,
+            // which interrupts their commands without leaving their sessions in the middle of an exchange.
+            AtomicBoolean aborted = new AtomicBoolean(false);
+            CommandDeadline workerDeadline = CommandDeadline.of(deadline.getTimeoutNanos(), TimeUnit.NANOSECONDS,
+                    () -> aborted.get() || deadline.isCancelled());
+            executor = Executors.newFixedThreadPool(sequences.size());
+            List<Future<List<Outcome>>> futures = new ArrayList<>();
+            for (int i = 0; i < sequences.size(); ++i) {
+                WorldCheckpoints checkpoints = assigned.get(i).getCheckpoints();
+                List<TopLevel> sequence = sequences.get(i);
+                OutcomeListener heard = firstHeard(sequenceNodes.get(i), outcomes, listener);
+                futures.add(executor.submit(() -> checkpoints.process(sequence, workerDeadline, heard)));
+            }
+            Throwable failure = null;
+            boolean interrupted = false;
+            for (int i = 0; i < futures.size(); ++i) {
+                while (true) {
+                    try {
+                        futures.get(i).get();
+                        break;
+                    } catch (InterruptedException e) {
+                        // Stop the workers, but still wait for them to leave their sessions.
+                        interrupted = true;
+                        aborted.set(true);
+                    } catch (ExecutionException e) {
+                        if (failure == null)
+                            failure = e.getCause();
+                        aborted.set(true);
+                        broken.add(assigned.get(i));
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+                if (failure == null)
+                    throw new BridgeException("Interrupted while waiting for the bridge sessions.");
+            }
+            if (failure != null)
+                throw rethrow(failure);
+            // Every outcome has been heard before its worker returned.
+            synchronized (outcomes) {
+                return Arrays.asList(outcomes);
+            }
+        } finally {
+            // The workers are done with the sessions by now: those that failed are discarded.
+            if (executor != null)
+                executor.shutdown();
+            for (BridgeSession session : sessions) {
+                if (broken.contains(session))
+                    session.markBroken();
+                pool.release(session);
+            }
+        }
+    }
+
+    /**
+     * Leases up to as many sessions as there are workers:
+     * one, waiting for it as long as the request is not cancelled,
+     * and then only those that are available right away.
+     * Sessions are thus never held while waiting for others,
+     * so that verifiers (and other users of the pool) cannot wait for each other forever.
+     */
+    private void leaseSessions(List<BridgeSession> sessions, CommandDeadline deadline) throws BridgeException {
+        sessions.add(lease(deadline));
+        int wanted = Math.min(workers, pool.capacity());
+        while (sessions.size() < wanted) {
+            BridgeSession session;
+            try {
+                session = pool.lease(0, TimeUnit.NANOSECONDS);
+            } catch (BridgeException e) {
+                LOGGER.warning("Going on with " + sessions.size() + " sessions: " + e.getMessage());
+                return;
+            }
+            if (session == null)
+                return;
+            sessions.add(session);
+        }
+    }
+
+    /**
+     * The listener of the outcomes of one worker,
+     * which records each outcome (by its index in the program) unless another worker already did,
+     * and then passes it on.
+     */
+    private static OutcomeListener firstHeard(int[] nodes, Outcome[] outcomes, OutcomeListener listener) {
+        return (index, outcome) -> {
+            int node = nodes[index];
+            synchronized (outcomes) {
+                if (outcomes[node] != null)
+                    return;
+                outcomes[node] = outcome;
+            }
+            if (listener != null)
+                listener.onOutcome(node, outcome);
+        };
+    }
+
+    /**
+     * Leases a session, waiting for one only as long as the request is not cancelled.
+     */
+    private BridgeSession lease(CommandDeadline deadline) throws BridgeException {
+        while (!deadline.isCancelled()) {
+            BridgeSession session = pool.lease(LEASE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (session != null)
+                return session;
+        }
+        throw new BridgeInterruptedException("Cancelled while waiting for a bridge session.",
+                BridgeInterruptedException.Reason.CANCELLED, true);
+    }
+
+    /**
+     * Splits the nodes of a graph into at most the given number of sequences,
+     * each closed under dependencies and in program order,
+     * that together cover all the nodes.
+     * The leaves are assigned, largest dependency closure first,
+     * to the sequence that they would grow the least.
+     */
+    static List<int[]> partition(DependencyGraph graph, int parts) {
+        int[] leaves = graph.leaves();
+        if (parts <= 1 || leaves.length <= 1) {
+            int[] all = new int[graph.size()];
+            for (int i = 0; i < all.length; ++i)
+                all[i] = i;
+            return Collections.singletonList(all);
+        }
+        List<int[]> closures = new ArrayList<>(leaves.length);
+        List<Integer> order = new ArrayList<>(leaves.length);
+        for (int i = 0; i < leaves.length; ++i) {
+            closures.add(graph.closure(leaves[i]));
+            order.add(i);
+        }
+        order.sort((a, b) -> closures.get(b).length != closures.get(a).length
+                ? Integer.compare(closures.get(b).length, closures.get(a).length)
+                : Integer.compare(a, b));
+        int groups = Math.min(parts, leaves.length);
+        boolean[][] members = new boolean[groups][graph.size()];
+        int[] sizes = new int[groups];
+        for (int leaf : order) {
+            int best = 0;
+            int bestSize = Integer.MAX_VALUE;
+            for (int g = 0; g < groups; ++g) {
+                int grown = sizes[g];
+                for (int node : closures.get(leaf))
+                    if (!members[g][node])
+                        ++grown;
+                if (grown < bestSize) {
+                    best = g;
+                    bestSize = grown;
+                }
+            }
+            for (int node : closures.get(leaf))
+                members[best][node] = true;
+            sizes[best] = bestSize;
+        }
+        List<int[]> result = new ArrayList<>(groups);
+        for (int g = 0; g < groups; ++g) {
+            int[] nodes = new int[sizes[g]];
+            int k = 0;
+            for (int node = 0; node < graph.size(); ++node)
+                if (members[g][node])
+                    nodes[k++] = node;
+            result.add(nodes);
+        }
+        return result;
+    }
+
+    /**
+     * Gives each sequence, longest first, the session that can reuse most of it.
+     * There may be more sessions than sequences, in which case some are left out.
+     */
+    private static List<BridgeSession> assignSessions(List<List<TopLevel>> sequences, List<BridgeSession> sessions) {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < sequences.size(); ++i)
+            order.add(i);
+        order.sort((a, b) -> Integer.compare(sequences.get(b).size(), sequences.get(a).size()));
+        List<BridgeSession> available = new ArrayList<>(sessions);
+        BridgeSession[] assigned = new BridgeSession[sequences.size()];
+        for (int i : order) {
+            int best = 0;
+            int bestReuse = -1;
+            for (int s = 0; s < available.size(); ++s) {
+                int reuse = available.get(s).getCheckpoints().reusablePrefixLength(sequences.get(i));
+                if (reuse > bestReuse) {
+                    best = s;
+                    bestReuse = reuse;
+                }
+            }
+            assigned[i] = available.remove(best);
+        }
+        return Arrays.asList(assigned);
+    }
+
+    private static BridgeException rethrow(Throwable cause) throws BridgeException {
+        if (cause instanceof BridgeException)
+            throw (BridgeException) cause;
+        if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+        if (cause instanceof Error)
+            throw (Error) cause;
+        throw new BridgeException("Processing on a bridge session failed.", cause);
+    }
+}
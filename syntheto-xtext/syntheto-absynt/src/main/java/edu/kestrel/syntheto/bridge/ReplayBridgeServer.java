@@ -0,0 +1,305 @@
+package edu.kestrel.syntheto.bridge;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A local server that speaks the protocol of the ACL2 bridge
+ * and serves responses recorded by a {@link BridgeTrafficRecorder},
+ * so that the front-end can be run, tested and measured without ACL2.
+ * <p>
+ * The server accepts any number of connections on the loopback interface,
+ * greets them with the recorded hello message (or a made-up one),
+ * and answers each command with the response frames recorded for an identical command
+ * (same response type and same form).
+ * When the same command was recorded more than once,
+ * e.g. {@code (ubu 0)} or a definition submitted again after undoing it,
+ * its responses are served in the order in which they were recorded,
+ * across all connections, and the last one is served again after that.
+ * A command with no recorded response is answered with a single {@code RETURN} frame
+ * whose payload is computed from the form by a fallback function, if any;
+ * otherwise the connection is closed, which the client sees as a {@link BridgeException}.
+ * </p>
+ * <p>
+ * Two kinds of delays can be injected.
+ * The service time simulates the time ACL2 spends on each command,
+ * during which the later commands of the same connection wait their turn.
+ * The latency, plus a random jitter, simulates the network:
+ * each response reaches the client that long after it is computed,
+ * without holding up the commands after it,
+ * but never before the responses before it.
+ * The jitter comes from a seeded generator, so that runs are reproducible.
+ * </p>
+ * <p>
+ * The {@link #main(String[])} method serves a journal file on a given port,
+ * e.g. on {@link BridgeClient#bridgeHostPort}, in place of the bridge.
+ * </p>
+ */
+public class ReplayBridgeServer implements Closeable {
+
+    private static final String DEFAULT_WORKER_NAME = "replay";
+
+    private final ServerSocket serverSocket;
+
+    /**
+     * Recorded responses, by command, and the index of the next one to serve.
+     */
+    private final Map<String, List<List<BridgeTrafficRecorder.Frame>>> responses = new HashMap<>();
+
+    private final Map<String, Integer> nextResponse = new HashMap<>();
+
+    private final String workerName;
+
+    private final Function<String, String> fallback;
+
+    private final long serviceMillis;
+
+    private final long latencyMillis;
+
+    private final long jitterMillis;
+
+    private final Random random;
+
+    private final AtomicInteger commandsReceived = new AtomicInteger();
+
+    private final AtomicInteger commandsUnmatched = new AtomicInteger();
+
+    /**
+     * Starts a server on a free port of the loopback interface.
+     *
+     * @param recording The frames recorded by a {@link BridgeTrafficRecorder}.
+     * @param fallback Computes the {@code RETURN} payload of the commands that were not recorded
+     *                 from their form, or null to close the connection on such commands.
+     * @param serviceMillis The simulated time ACL2 spends on each command.
+     * @param latencyMillis The simulated network latency of each response.
+     * @param jitterMillis The maximum random time added to the latency.
+     * @param seed The seed of the jitter.
+     */
+    public ReplayBridgeServer(List<BridgeTrafficRecorder.Frame> recording, Function<String, String> fallback,
+                              long serviceMillis, long latencyMillis, long jitterMillis, long seed)
+            throws IOException {
+        this(0, recording, fallback, serviceMillis, latencyMillis, jitterMillis, seed);
+    }
+
+    /**
+     * Starts a server on a free port of the loopback interface, without delays or fallback.
+     */
+    public ReplayBridgeServer(List<BridgeTrafficRecorder.Frame> recording) throws IOException {
+        this(0, recording, null, 0, 0, 0, 0);
+    }
+
+    private ReplayBridgeServer(int port, List<BridgeTrafficRecorder.Frame> recording,
+                               Function<String, String> fallback,
+                               long serviceMillis, long latencyMillis, long jitterMillis, long seed)
+            throws IOException {
+        String hello = null;
+        for (BridgeTrafficRecorder.Exchange exchange : BridgeTrafficRecorder.exchanges(recording)) {
+            BridgeTrafficRecorder.Frame command = exchange.getCommand();
+            if (command == null) {
+                if (hello == null && exchange.getResponse().get(0).getType().equals("ACL2_BRIDGE_HELLO"))
+                    hello = exchange.getResponse().get(0).getPayload();
+            } else {
+                responses.computeIfAbsent(key(command.getType(), command.getPayload()), k -> new ArrayList<>())
+                        .add(exchange.getResponse());
+            }
+        }
+        this.workerName = hello == null ? DEFAULT_WORKER_NAME : hello;
+        this.fallback = fallback;
+        this.serviceMillis = serviceMillis;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.random = new Random(seed);
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "replay-bridge-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private static String key(String type, String form) {
+        return type + "\n" + form;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Number of commands received so far, on all connections.
+     */
+    public int commandsReceived() {
+        return commandsReceived.get();
+    }
+
+    /**
+     * Number of commands received so far that had no recorded response.
+     */
+    public int commandsUnmatched() {
+        return commandsUnmatched.get();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread worker = new Thread(() -> serve(socket), "replay-bridge-worker");
+                worker.setDaemon(true);
+                worker.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /*
+     * The recorded response to a command, or null if there is none.
+     */
+    private synchronized List<BridgeTrafficRecorder.Frame> recordedResponse(String type, String form) {
+        String key = key(type, form);
+        List<List<BridgeTrafficRecorder.Frame>> recorded = responses.get(key);
+        if (recorded == null)
+            return null;
+        int next = nextResponse.getOrDefault(key, 0);
+        nextResponse.put(key, Math.min(next + 1, recorded.size() - 1));
+        return recorded.get(next);
+    }
+
+    private synchronized long jitterNanos() {
+        return jitterMillis > 0 ? (long) (random.nextDouble() * TimeUnit.MILLISECONDS.toNanos(jitterMillis)) : 0;
+    }
+
+    private void serve(Socket socket) {
+        // Responses are written by a single thread, in order, each when its delivery time comes.
+        // Delivery times never decrease, so waiting for each in turn keeps the order.
+        ExecutorService sender = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "replay-bridge-sender");
+            t.setDaemon(true);
+            return t;
+        });
+        long lastDelivery = System.nanoTime();
+        // Commands and responses are 8-bit (see BridgeSession), so the lengths in the headers are byte counts.
+        try (Socket s = socket;
+             Reader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.ISO_8859_1));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.ISO_8859_1))) {
+            out.write(frame("ACL2_BRIDGE_HELLO", workerName) + frame("READY", ""));
+            out.flush();
+            while (true) {
+                String header = readLine(in);
+                if (header == null)
+                    return;
+                int space = header.indexOf(' ');
+                String type = header.substring(0, Math.max(space, 0));
+                int n = Integer.parseInt(header.substring(space + 1));
+                char[] form = new char[n];
+                int read = 0;
+                while (read < n) {
+                    int r = in.read(form, read, n - read);
+                    if (r < 0)
+                        return;
+                    read += r;
+                }
+                in.read(); // newline after the form
+                commandsReceived.incrementAndGet();
+                if (serviceMillis > 0)
+                    Thread.sleep(serviceMillis);
+                String text = responseText(type, new String(form));
+                if (text == null) {
+                    // Deliver the responses before this command, then close.
+                    sender.shutdown();
+                    sender.awaitTermination(1, TimeUnit.MINUTES);
+                    return;
+                }
+                // The jitter may not reorder the responses.
+                long now = System.nanoTime();
+                long delivery = Math.max(now + TimeUnit.MILLISECONDS.toNanos(latencyMillis) + jitterNanos(),
+                        lastDelivery);
+                lastDelivery = delivery;
+                sender.execute(() -> {
+                    try {
+                        long wait = delivery - System.nanoTime();
+                        if (wait > 0)
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        out.write(text);
+                        out.flush();
+                    } catch (IOException | InterruptedException e) {
+                        // connection closed
+                    }
+                });
+            }
+        } catch (IOException | InterruptedException | NumberFormatException e) {
+            // connection closed, or not speaking the bridge protocol
+        } finally {
+            sender.shutdownNow();
+        }
+    }
+
+    /*
+     * The text of the response to a command, or null if there is none.
+     */
+    private String responseText(String type, String form) {
+        List<BridgeTrafficRecorder.Frame> recorded = recordedResponse(type, form);
+        if (recorded != null) {
+            StringBuilder text = new StringBuilder();
+            for (BridgeTrafficRecorder.Frame frame : recorded)
+                text.append(frame.toWire());
+            return text.toString();
+        }
+        commandsUnmatched.incrementAndGet();
+        if (fallback == null)
+            return null;
+        return frame("RETURN", fallback.apply(form)) + frame("READY", "");
+    }
+
+    private static String frame(String type, String payload) {
+        return type + " " + payload.length() + "\n" + payload + "\n";
+    }
+
+    private static String readLine(Reader in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int ch;
+        while ((ch = in.read()) != '\n') {
+            if (ch < 0)
+                return null;
+            line.append((char) ch);
+        }
+        return line.toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    /**
+     * Serves a journal file written by a {@link BridgeTrafficRecorder} until the process is killed.
+     * <p>
+     * Arguments: the journal file, then optionally
+     * the port (default {@link BridgeClient#bridgeHostPort}),
+     * the service time, the latency and the jitter in milliseconds (default 0),
+     * and the seed of the jitter (default 0).
+     * </p>
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 6) {
+            System.err.println("Usage: ReplayBridgeServer <journal> [<port> [<service ms> [<latency ms> [<jitter ms> [<seed>]]]]]");
+            System.exit(2);
+        }
+        List<BridgeTrafficRecorder.Frame> recording = BridgeTrafficRecorder.read(Paths.get(args[0]));
+        long[] numbers = {BridgeClient.bridgeHostPort, 0, 0, 0, 0};
+        for (int i = 1; i < args.length; ++i)
+            numbers[i - 1] = Long.parseLong(args[i]);
+        ReplayBridgeServer server = new ReplayBridgeServer((int) numbers[0], recording, null,
+                numbers[1], numbers[2], numbers[3], numbers[4]);
+        System.out.println("Replaying " + server.responses.size() + " distinct commands on port " + server.getPort());
+        Thread.currentThread().join();
+    }
+}
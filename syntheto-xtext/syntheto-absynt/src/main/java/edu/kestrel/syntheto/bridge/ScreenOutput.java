@@ -0,0 +1,239 @@
+package edu.kestrel.syntheto.bridge;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+
+/**
+ * The screen output of a bridge response, i.e. its {@code STDOUT} chunks,
+ * kept in bounded memory.
+ * <p>
+ * The output is kept in memory up to a limit.
+ * Past the limit, the whole output is spilled to a temporary file,
+ * and from then on only its tail (a fixed number of final characters) stays in memory.
+ * Long ACL2 proof logs thus take the space of the tail, not of the log,
+ * while the full output can still be searched ({@link #contains(String)})
+ * or read back ({@link #toString()}, {@link #getSpillFile()}).
+ * If the temporary file cannot be written, the output before the tail is dropped
+ * (see {@link #isTruncated()}).
+ * </p>
+ * <p>
+ * An instance is reused for the responses read by a {@link BridgeResponse}:
+ * {@link #reset()} discards the output of the previous response and deletes its file.
+ * The methods are synchronized, so that a session may be closed while a response is being read.
+ * </p>
+ */
+public class ScreenOutput implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(ScreenOutput.class.getName());
+
+    /**
+     * Default number of characters kept in memory before spilling to a file.
+     */
+    public static final int DEFAULT_MEMORY_LIMIT = 1 << 20;
+
+    /**
+     * Default number of final characters kept in memory after spilling.
+     */
+    public static final int DEFAULT_TAIL_LENGTH = 1 << 13;
+
+    private final int memoryLimit;
+
+    private final int tailLength;
+
+    /**
+     * The whole output before spilling, or its tail after.
+     */
+    private final StringBuilder memory = new StringBuilder();
+
+    private long length = 0;
+
+    private Path spillFile = null;
+
+    private Writer spill = null;
+
+    private boolean truncated = false;
+
+    /**
+     * Constructs an empty screen output.
+     *
+     * @param memoryLimit The number of characters kept in memory before spilling to a file.
+     * @param tailLength The number of final characters kept in memory after spilling,
+     *                   at most the memory limit.
+     */
+    public ScreenOutput(int memoryLimit, int tailLength) {
+        if (memoryLimit < 0 || tailLength < 0 || tailLength > memoryLimit)
+            throw new IllegalArgumentException("Bad screen output limits: " + memoryLimit + ", " + tailLength + ".");
+        this.memoryLimit = memoryLimit;
+        this.tailLength = tailLength;
+    }
+
+    /**
+     * Constructs an empty screen output with the default limits.
+     */
+    public ScreenOutput() {
+        this(DEFAULT_MEMORY_LIMIT, DEFAULT_TAIL_LENGTH);
+    }
+
+    /**
+     * Adds a chunk of output.
+     */
+    public synchronized void append(String chunk) {
+        length += chunk.length();
+        if (spill == null && !truncated && memory.length() + chunk.length() > memoryLimit)
+            startSpilling();
+        if (spill != null) {
+            try {
+                spill.write(chunk);
+            } catch (IOException e) {
+                LOGGER.warning("Cannot write screen output to " + spillFile + ": " + e.getMessage());
+                stopSpilling();
+                truncated = true;
+            }
+        }
+        memory.append(chunk);
+        if (spill != null || truncated) {
+            int excess = memory.length() - tailLength;
+            if (excess > 0)
+                memory.delete(0, excess);
+        }
+    }
+
+    private void startSpilling() {
+        try {
+            spillFile = Files.createTempFile("syntheto-stdout-", ".log");
+            spill = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(spillFile), StandardCharsets.UTF_8));
+            spill.append(memory);
+        } catch (IOException e) {
+            LOGGER.warning("Cannot spill screen output to a file: " + e.getMessage());
+            stopSpilling();
+            truncated = true;
+        }
+    }
+
+    private void stopSpilling() {
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                // nothing else to do
+            }
+            spill = null;
+        }
+        if (spillFile != null) {
+            try {
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                // nothing else to do
+            }
+            spillFile = null;
+        }
+    }
+
+    /**
+     * Total number of characters of output, including those not in memory.
+     */
+    public synchronized long length() {
+        return length;
+    }
+
+    /**
+     * Whether the output has been spilled to a file.
+     */
+    public synchronized boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    /**
+     * Whether some of the output is lost, because it could not be spilled to a file.
+     */
+    public synchronized boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * The file holding the whole output, or null if it is not spilled.
+     * The file is flushed by this method, and deleted by {@link #reset()} and {@link #close()}.
+     */
+    public synchronized Path getSpillFile() {
+        if (spill != null) {
+            try {
+                spill.flush();
+            } catch (IOException e) {
+                LOGGER.warning("Cannot write screen output to " + spillFile + ": " + e.getMessage());
+            }
+        }
+        return spillFile;
+    }
+
+    /**
+     * The final characters of the output, at most the given number.
+     */
+    public synchronized String getTail(int maxLength) {
+        int from = Math.max(0, memory.length() - maxLength);
+        return memory.substring(from);
+    }
+
+    /**
+     * Checks whether the output contains a string,
+     * reading the spill file (in bounded memory) if the output is spilled.
+     * If the output is truncated, only the tail is searched.
+     */
+    public synchronized boolean contains(String string) {
+        Path file = getSpillFile();
+        if (file == null || string.isEmpty())
+            return memory.indexOf(string) >= 0;
+        char[] buffer = new char[Math.max(8192, 2 * string.length())];
+        int kept = 0;
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            int n;
+            while ((n = in.read(buffer, kept, buffer.length - kept)) >= 0) {
+                int end = kept + n;
+                if (new String(buffer, 0, end).contains(string))
+                    return true;
+                // Keep the characters that could start a match across the boundary.
+                kept = Math.min(end, string.length() - 1);
+                System.arraycopy(buffer, end - kept, buffer, 0, kept);
+            }
+        } catch (IOException e) {
+            LOGGER.warning("Cannot read screen output from " + file + ": " + e.getMessage());
+            return memory.indexOf(string) >= 0;
+        }
+        return false;
+    }
+
+    /**
+     * The whole output (or, if it is truncated, its tail).
+     * If the output is spilled, this reads it back from the file into memory,
+     * which is what this class otherwise avoids.
+     */
+    @Override
+    public synchronized String toString() {
+        Path file = getSpillFile();
+        if (file == null)
+            return memory.toString();
+        try {
+            return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LOGGER.warning("Cannot read screen output from " + file + ": " + e.getMessage());
+            return memory.toString();
+        }
+    }
+
+    /**
+     * Discards the output, deleting the spill file if any.
+     */
+    public synchronized void reset() {
+        stopSpilling();
+        memory.setLength(0);
+        length = 0;
+        truncated = false;
+    }
+
+    @Override
+    public synchronized void close() {
+        reset();
+    }
+}
@@ -0,0 +1,20 @@
+package edu.kestrel.syntheto.bridge;
+
+/**
+ * A listener of the screen output of bridge responses,
+ * notified as the output is read instead of after the whole response.
+ * <p>
+ * The output of a {@code STDOUT} message may be passed in several pieces,
+ * whose boundaries need not match those of the messages or of lines.
+ * The listener is called on the thread reading the response,
+ * which it should not hold up.
+ * </p>
+ */
+@FunctionalInterface
+public interface ScreenOutputListener {
+
+    /**
+     * Called with each piece of screen output, in order.
+     */
+    void onScreenOutput(String piece);
+}
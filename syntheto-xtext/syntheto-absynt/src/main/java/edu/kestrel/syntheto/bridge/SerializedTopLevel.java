@@ -0,0 +1,62 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.ast.TopLevel;
+import edu.kestrel.syntheto.sexpr.SExpression;
+
+/**
+ * The command that processes a Syntheto top-level construct, ready to be written:
+ * the S-expression of the construct and the length of the command,
+ * so that building them can be done ahead of time, off the thread that talks to ACL2
+ * (see {@link StagedSubmission}).
+ * <p>
+ * Unlike {@link BridgeCommand#writeTopLevelCommand(edu.kestrel.syntheto.ast.TopLevel)},
+ * the command also returns the ACL2 command number reached after the construct,
+ * appended to the values of {@code nld},
+ * so that {@link WorldCheckpoints} does not need another exchange to learn it
+ * (see {@link Util#numberedOutcomeFromLispReturnValue(String)}).
+ * </p>
+ */
+final class SerializedTopLevel {
+
+    /**
+     * Raw Lisp expression for the current ACL2 command number,
+     * relative to the baseline that {@code (ubu 0)} goes back to.
+     */
+    static final String COMMAND_NUMBER =
+            "(absolute-to-relative-command-number (max-absolute-command-number (w *the-live-state*))"
+                    + " (w *the-live-state*))";
+
+    static final String PREFIX = "(bridge::try-in-main-thread (append (nld '" + Util.TOPLEVEL_PREFIX;
+
+    static final String SUFFIX = Util.TOPLEVEL_SUFFIX + ") (list " + COMMAND_NUMBER + ")))";
+
+    private final SExpression form;
+
+    private final long length;
+
+    private SerializedTopLevel(SExpression form, long length) {
+        this.form = form;
+        this.length = length;
+    }
+
+    /**
+     * Serializes a top-level construct.
+     *
+     * @throws IllegalArgumentException If the construct contains a non-8-bit character.
+     */
+    static SerializedTopLevel of(TopLevel topLevel) {
+        SExpression form = topLevel.toSExpression();
+        return new SerializedTopLevel(form, PREFIX.length() + form.encodedLength() + SUFFIX.length());
+    }
+
+    SExpression getForm() {
+        return form;
+    }
+
+    /**
+     * The number of characters of the command (which are also bytes, see {@link BridgeCommand}).
+     */
+    long getLength() {
+        return length;
+    }
+}
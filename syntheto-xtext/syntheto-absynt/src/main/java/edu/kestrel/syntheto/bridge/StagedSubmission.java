@@ -0,0 +1,210 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.ast.TopLevel;
+import edu.kestrel.syntheto.outcome.Outcome;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The stages in which {@link WorldCheckpoints} submits a sequence of top-level constructs.
+ * <p>
+ * Submitting a construct involves serializing it, exchanging it with ACL2,
+ * decoding the outcome from the response, and passing the outcome to a listener
+ * (e.g. one that turns it back into Syntheto to show it).
+ * Done one after the other, the work before and after each exchange adds to the time spent waiting for ACL2.
+ * Here each of those steps runs on its own thread, connected by bounded queues:
+ * the serializer works up to a number of constructs ahead of the submission,
+ * and the decoder and the listener work on the previous outcomes while ACL2 works on the next construct.
+ * The submission itself stays on the calling thread,
+ * which holds the session (and its {@link CommandDeadline}).
+ * Each stage has a single thread and handles the constructs in order,
+ * so the listener hears the outcomes in order.
+ * The threads are daemons shared by all the instances,
+ * so that a submission does not start threads of its own;
+ * concurrent submissions (e.g. those of a {@link ParallelVerifier}) take turns on them.
+ * </p>
+ * <p>
+ * An instance handles one call of {@link WorldCheckpoints#process}, and should then be closed.
+ * </p>
+ */
+final class StagedSubmission implements AutoCloseable {
+
+    /**
+     * Number of constructs serialized ahead of the submission.
+     */
+    static final int LOOKAHEAD = 4;
+
+    /**
+     * Number of responses that may wait to be decoded before the submission waits.
+     */
+    static final int DECODE_CAPACITY = 16;
+
+    private final List<TopLevel> tops;
+
+    private final OutcomeListener listener;
+
+    private static final ExecutorService serializer = singleThread("syntheto-serialize");
+
+    private static final ExecutorService decoder = singleThread("syntheto-decode");
+
+    private static final ExecutorService notifier = singleThread("syntheto-notify");
+
+    private final List<CompletableFuture<SerializedTopLevel>> serialized = new ArrayList<>();
+
+    private final List<CompletableFuture<Util.NumberedOutcome>> decoded = new ArrayList<>();
+
+    private final Semaphore decodeSlots = new Semaphore(DECODE_CAPACITY);
+
+    private volatile boolean decodeFailed = false;
+
+    /**
+     * Completed when the listener has heard all the outcomes decoded so far.
+     */
+    private CompletableFuture<?> notified = CompletableFuture.completedFuture(null);
+
+    /**
+     * Starts serializing the constructs after the first ones.
+     *
+     * @param tops The constructs, in order.
+     * @param first The index of the first construct to submit.
+     * @param listener The listener of the outcomes, or null.
+     */
+    StagedSubmission(List<TopLevel> tops, int first, OutcomeListener listener) {
+        this.tops = tops;
+        this.listener = listener;
+        for (int i = 0; i < first; ++i) {
+            serialized.add(null);
+            decoded.add(null);
+        }
+        for (int i = first; i < Math.min(first + LOOKAHEAD, tops.size()); ++i)
+            serializeNext();
+    }
+
+    private static ExecutorService singleThread(String name) {
+        return Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private void serializeNext() {
+        TopLevel top = tops.get(serialized.size());
+        serialized.add(CompletableFuture.supplyAsync(() -> SerializedTopLevel.of(top), serializer));
+    }
+
+    /**
+     * The serialized construct at the given index, waiting for it if needed,
+     * and starting the serialization of one more construct.
+     *
+     * @throws IllegalArgumentException If the construct contains a non-8-bit character.
+     */
+    SerializedTopLevel serialized(int i) {
+        if (serialized.size() < tops.size())
+            serializeNext();
+        return join(serialized.get(i));
+    }
+
+    /**
+     * Starts decoding the outcome of the construct at the given index from its return value,
+     * and passing it to the listener when it is decoded and the previous outcomes have been heard.
+     * Waits if too many responses are waiting to be decoded.
+     */
+    void decode(int i, String returnValue) {
+        decodeSlots.acquireUninterruptibly();
+        CompletableFuture<Util.NumberedOutcome> outcome = CompletableFuture.supplyAsync(() -> {
+            try {
+                return Util.numberedOutcomeFromLispReturnValue(returnValue);
+            } catch (BridgeException | RuntimeException e) {
+                decodeFailed = true;
+                throw new CompletionException(e);
+            } finally {
+                decodeSlots.release();
+            }
+        }, decoder);
+        decoded.add(outcome);
+        if (listener != null) {
+            // The decoder completes the outcomes in order, so the notifier receives them in order,
+            // and the last notification completes after all the others.
+            notified = outcome.handleAsync((o, e) -> {
+                if (o != null)
+                    listener.onOutcome(i, o.outcome);
+                return null;
+            }, notifier);
+        }
+    }
+
+    /**
+     * Whether decoding some outcome has failed, in which case nothing more should be submitted.
+     */
+    boolean failed() {
+        return decodeFailed;
+    }
+
+    /**
+     * The outcome of the construct at the given index, waiting for it to be decoded.
+     *
+     * @throws BridgeException If the outcome cannot be decoded.
+     */
+    Outcome outcome(int i) throws BridgeException {
+        return numbered(i).outcome;
+    }
+
+    /**
+     * The ACL2 command number reached after the construct at the given index,
+     * waiting for its outcome to be decoded.
+     *
+     * @throws BridgeException If the outcome cannot be decoded.
+     */
+    int commandNumber(int i) throws BridgeException {
+        return numbered(i).commandNumber;
+    }
+
+    private Util.NumberedOutcome numbered(int i) throws BridgeException {
+        try {
+            return decoded.get(i).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof BridgeException)
+                throw (BridgeException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until the listener has heard all the outcomes decoded so far.
+     * An outcome that cannot be decoded is not heard (see {@link #outcome(int)}).
+     */
+    void awaitListener() {
+        join(notified);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the serializations that have not started,
+     * e.g. those ahead of a construct whose command was interrupted.
+     * The decodings and the notifications that have started are left to complete.
+     */
+    @Override
+    public void close() {
+        for (CompletableFuture<SerializedTopLevel> future : serialized)
+            if (future != null)
+                future.cancel(false);
+    }
+}
@@ -1,13 +1,29 @@
 package edu.kestrel.syntheto.bridge;
 
 import edu.kestrel.syntheto.ast.*;
+import edu.kestrel.syntheto.outcome.Outcome;
+import edu.kestrel.syntheto.outcome.OutcomeBuilder;
+import edu.kestrel.syntheto.sexpr.Parser;
 import edu.kestrel.syntheto.sexpr.SExpression;
+import edu.kestrel.syntheto.sexpr.SExpressionInteger;
 import edu.kestrel.syntheto.sexpr.SExpressionList;
 
 import java.util.List;
 
 public class Util {
 
+    /**
+     * Wrapping of the commands sent to the bridge, see {@link #wrapCommand(String)}.
+     */
+    static final String COMMAND_PREFIX = "(bridge::try-in-main-thread (nld '";
+    static final String COMMAND_SUFFIX = "))";
+
+    /**
+     * Wrapping of the top-level constructs sent to the bridge, see {@link #wrapTopLevelCommand(String)}.
+     */
+    static final String TOPLEVEL_PREFIX = "(SYNTHETO::PROCESS-SYNTHETO-TOPLEVEL ";
+    static final String TOPLEVEL_SUFFIX = ")";
+
     public static String wrapTopLevel(TopLevel def) {
         return wrapCommand("(syntheto::translate-to-acl2 " + def.toSExpression().toString() + ")");
     }
@@ -27,11 +43,11 @@ public class Util {
         if (form == null || form.equals("") || !form.startsWith("(")) {
             throw new IllegalArgumentException("form sent to the bridge must start with an open parenthesis");
         }
-        return "(bridge::try-in-main-thread (nld '" + form + "))";
+        return COMMAND_PREFIX + form + COMMAND_SUFFIX;
     }
     
     public static String wrapTopLevelCommand(String form) {
-    	return "(SYNTHETO::PROCESS-SYNTHETO-TOPLEVEL " + form + ")";
+    	return TOPLEVEL_PREFIX + form + TOPLEVEL_SUFFIX;
     }
     
     public static SExpression extractMakeForm2(SExpression returnedSExpr) {
@@ -61,4 +77,83 @@ public class Util {
         // additional checks could go here
         return makeForm;
     }
+
+    /**
+     * Builds the outcome of a top-level construct
+     * from the LISP_MV return value of the bridge for it,
+     * i.e. from a string that looks like
+     * (NIL (NIL (NIL NIL STATE) NIL (SYNTHETO::MAKE-OUTCOME-... ) REPLACED-STATE) NIL)
+     * where STATE may also be printed as the live state symbol.
+     *
+     * @param lispReturnVal The return value string, as in {@link BridgeResponse#getReturnValueString()}.
+     * @return The outcome.
+     * @throws BridgeException If the string does not contain an outcome maker form.
+     */
+    public static Outcome outcomeFromLispReturnValue(String lispReturnVal) throws BridgeException {
+        SExpression makeForm = extractMakeForm2(parseLispReturnValue(lispReturnVal));
+        if (makeForm == null)
+            throw new BridgeException("could not find (MAKE-..) form in response");
+        return outcomeFromMakeForm(makeForm);
+    }
+
+    /**
+     * The outcome of a top-level construct, and the ACL2 command number reached after it.
+     */
+    static final class NumberedOutcome {
+        final Outcome outcome;
+        final int commandNumber;
+
+        NumberedOutcome(Outcome outcome, int commandNumber) {
+            this.outcome = outcome;
+            this.commandNumber = commandNumber;
+        }
+    }
+
+    /**
+     * Like {@link #outcomeFromLispReturnValue(String)},
+     * for a top-level construct submitted with the wrapping of {@link SerializedTopLevel},
+     * which appends the command number reached after the construct to the inner list,
+     * i.e. from a string that looks like
+     * (NIL (NIL (NIL NIL STATE) NIL (SYNTHETO::MAKE-OUTCOME-... ) REPLACED-STATE 42) NIL)
+     *
+     * @param lispReturnVal The return value string, as in {@link BridgeResponse#getReturnValueString()}.
+     * @return The outcome and the command number.
+     * @throws BridgeException If the string does not contain an outcome maker form and a command number.
+     */
+    static NumberedOutcome numberedOutcomeFromLispReturnValue(String lispReturnVal) throws BridgeException {
+        SExpression returned = parseLispReturnValue(lispReturnVal);
+        if (returned instanceof SExpressionList && ((SExpressionList) returned).length() == 3
+                && ((SExpressionList) returned).second() instanceof SExpressionList) {
+            SExpressionList fullForm = (SExpressionList) returned;
+            List<SExpression> inner = ((SExpressionList) fullForm.second()).getElements();
+            SExpression last = inner.isEmpty() ? null : inner.get(inner.size() - 1);
+            if (last instanceof SExpressionInteger) {
+                // Take the number off, and look for the outcome in what is left, as for a plain top-level.
+                SExpression makeForm = extractMakeForm2(SExpression.list(fullForm.first(),
+                        SExpression.list(inner.subList(0, inner.size() - 1)), fullForm.third()));
+                if (makeForm == null)
+                    throw new BridgeException("could not find (MAKE-..) form in response");
+                return new NumberedOutcome(outcomeFromMakeForm(makeForm),
+                        ((SExpressionInteger) last).getValue().intValueExact());
+            }
+        }
+        throw new BridgeException("could not find the command number in response: " + lispReturnVal);
+    }
+
+    private static SExpression parseLispReturnValue(String lispReturnVal) throws BridgeException {
+        String cleaned = lispReturnVal.replace("ACL2_INVISIBLE::|The Live State Itself|", "NIL");
+        try {
+            return new Parser(cleaned).parseTop();
+        } catch (IllegalArgumentException e) {
+            throw new BridgeException("could not parse response: " + lispReturnVal, e);
+        }
+    }
+
+    private static Outcome outcomeFromMakeForm(SExpression makeForm) throws BridgeException {
+        try {
+            return OutcomeBuilder.fromSExpression(makeForm);
+        } catch (IllegalArgumentException e) {
+            throw new BridgeException("could not build an outcome from " + makeForm, e);
+        }
+    }
 }
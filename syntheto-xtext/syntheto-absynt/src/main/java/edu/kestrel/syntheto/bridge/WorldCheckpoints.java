@@ -0,0 +1,330 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.ast.Fingerprint;
+import edu.kestrel.syntheto.ast.TopLevel;
+import edu.kestrel.syntheto.outcome.CancellationFailure;
+import edu.kestrel.syntheto.outcome.Outcome;
+import edu.kestrel.syntheto.outcome.TimeoutFailure;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Checkpoints of the ACL2 world built by a {@link BridgeSession}
+ * from a sequence of Syntheto top-level constructs.
+ * <p>
+ * A notebook (or a file) is processed by submitting its top-level constructs in order.
+ * When it is processed again after an edit, most of the constructs are usually unchanged,
+ * and re-submitting them re-proves what ACL2 already has in its world.
+ * This class remembers, after each submitted construct,
+ * the ACL2 command number reached and the outcome of the construct,
+ * keyed by a fingerprint of the whole prefix of constructs up to and including that one.
+ * {@link #process(List)} finds the longest prefix of the new sequence
+ * whose fingerprint matches a checkpoint,
+ * undoes the ACL2 world back to that checkpoint (via {@code ubu}),
+ * and submits only the constructs after it.
+ * The outcomes of the constructs in the prefix are the remembered ones.
+ * </p>
+ * <p>
+ * The checkpoints are only valid as long as the ACL2 world is changed only through them.
+ * They start out unknown, so that the first {@link #process(List)} resets the world;
+ * a failed exchange makes them unknown again.
+ * Commands can be given a {@link CommandDeadline},
+ * in which case an interrupted construct and the ones after it get failure outcomes
+ * instead of making {@link #process(List, CommandDeadline)} throw.
+ * Code that submits events to the session by other means
+ * should call {@link #invalidate()}.
+ * </p>
+ * <p>
+ * If an {@link OutcomeCache} is set, and the outcomes of all the constructs to submit are in it,
+ * {@link #process(List)} returns them without submitting anything:
+ * the checkpoints keep describing the world as it is,
+ * and the constructs are submitted when a later sequence needs them in the world.
+ * The outcomes of submitted constructs are added to the cache.
+ * </p>
+ * <p>
+ * This class is not thread-safe:
+ * like its session, it should be used by one caller at a time
+ * (e.g. while the session is leased from a {@link BridgeSessionPool}).
+ * </p>
+ */
+public class WorldCheckpoints {
+
+    private static final Logger LOGGER = Logger.getLogger(WorldCheckpoints.class.getName());
+
+    /**
+     * The state of the ACL2 world after a top-level construct.
+     */
+    static final class Checkpoint {
+        final byte[] fingerprint;
+        final int commandNumber;
+        final Outcome outcome;
+
+        Checkpoint(byte[] fingerprint, int commandNumber, Outcome outcome) {
+            this.fingerprint = fingerprint;
+            this.commandNumber = commandNumber;
+            this.outcome = outcome;
+        }
+    }
+
+    private final BridgeSession session;
+
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+
+    /**
+     * Whether the checkpoints describe the ACL2 world, i.e. whether they can be trusted.
+     */
+    private boolean known = false;
+
+    /**
+     * Whether the world may contain something after the last checkpoint,
+     * left by an interrupted command, which must be undone before submitting more.
+     */
+    private boolean dirty = false;
+
+    private OutcomeCache cache = null;
+
+    /**
+     * Constructs the (initially unknown) checkpoints of a session.
+     */
+    public WorldCheckpoints(BridgeSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Brings the ACL2 world to the state after the given top-level constructs,
+     * submitting only the ones after the longest prefix that is already in the world.
+     *
+     * @param tops The top-level constructs, in order.
+     * @return The outcomes of the constructs, in the same order.
+     * @throws BridgeException If the exchange with the bridge fails,
+     *                         in which case the checkpoints become unknown.
+     */
+    public List<Outcome> process(List<TopLevel> tops) throws BridgeException {
+        return process(tops, CommandDeadline.NONE);
+    }
+
+    /**
+     * Like {@link #process(List)}, within the limits of a deadline.
+     * If a command exceeds its time limit or is cancelled,
+     * the outcome of the construct being submitted is a {@link TimeoutFailure} or a {@link CancellationFailure},
+     * and so are the outcomes of the constructs after it, which are not submitted.
+     * Those outcomes are not cached.
+     * If the session recovered from the interrupt, the checkpoints before that construct are kept,
+     * but the next {@link #process(List)} undoes whatever the interrupted command left in the world;
+     * otherwise, the checkpoints become unknown.
+     *
+     * @throws BridgeException If the exchange with the bridge fails for another reason,
+     *                         in which case the checkpoints become unknown.
+     */
+    public List<Outcome> process(List<TopLevel> tops, CommandDeadline deadline) throws BridgeException {
+        return process(tops, deadline, null);
+    }
+
+    /**
+     * Like {@link #process(List, CommandDeadline)},
+     * also passing each outcome to a listener as soon as it is known,
+     * so that callers can show the outcomes of long sequences as they come.
+     *
+     * @param listener The listener of the outcomes, or null for none.
+     *                 It is called in order of the constructs, before this method returns,
+     *                 but not necessarily on the calling thread:
+     *                 the outcomes of submitted constructs are passed to it on a thread of its own,
+     *                 while the next constructs are submitted (see {@link StagedSubmission}).
+     */
+    public List<Outcome> process(List<TopLevel> tops, CommandDeadline deadline, OutcomeListener listener)
+            throws BridgeException {
+        List<byte[]> fingerprints = prefixFingerprints(tops);
+        int kept = known ? matchingPrefixLength(fingerprints) : 0;
+        List<Outcome> outcomes = new ArrayList<>(tops.size());
+        for (int i = 0; i < kept; ++i)
+            add(outcomes, checkpoints.get(i).outcome, listener);
+        List<Outcome> cached = cachedOutcomes(tops, fingerprints, kept);
+        if (cached != null) {
+            LOGGER.info("Found the outcomes of the " + (tops.size() - kept) + " top-levels to submit in the cache.");
+            for (Outcome outcome : cached)
+                add(outcomes, outcome, listener);
+            return outcomes;
+        }
+        boolean undone = false;
+        int submitted = kept;
+        try (StagedSubmission stages = new StagedSubmission(tops, kept, listener)) {
+            try {
+                LOGGER.info("Keeping " + kept + " of " + tops.size() + " top-levels already in the ACL2 world.");
+                if (!known || kept < checkpoints.size() || dirty) {
+                    int target = kept == 0 ? 0 : checkpoints.get(kept - 1).commandNumber;
+                    session.sendCommand("(ubu " + target + ")", deadline);
+                    checkpoints.subList(kept, checkpoints.size()).clear();
+                    known = true;
+                    dirty = false;
+                }
+                undone = true;
+                // Stop once an outcome cannot be decoded. The decoding runs behind the submission,
+                // so up to StagedSubmission.DECODE_CAPACITY more constructs may be submitted by then;
+                // record then fails on the undecodable outcome, and the checkpoints become unknown.
+                for (int i = kept; i < tops.size() && !stages.failed(); ++i) {
+                    SerializedTopLevel command;
+                    try {
+                        command = stages.serialized(i);
+                    } catch (IllegalArgumentException e) {
+                        throw new BridgeException("Cannot encode command: " + e.getMessage(), e);
+                    }
+                    String returned = session.sendTopLevel(command, deadline).getReturnValueString();
+                    stages.decode(i, returned);
+                    submitted = i + 1;
+                }
+                record(stages, fingerprints, submitted, outcomes);
+                stages.awaitListener();
+            } catch (BridgeInterruptedException e) {
+                LOGGER.warning("Interrupted after " + submitted + " of " + tops.size() + " top-levels: "
+                        + e.getMessage());
+                if (e.isRecovered() && undone)
+                    dirty = true;
+                else
+                    invalidate();
+                record(stages, fingerprints, submitted, outcomes);
+                stages.awaitListener();
+                boolean timeout = e.getReason() == BridgeInterruptedException.Reason.TIMEOUT;
+                String skipped = "Not submitted because an earlier top-level was "
+                        + (timeout ? "interrupted after exceeding its time limit." : "cancelled.");
+                for (int i = outcomes.size(); i < tops.size(); ++i) {
+                    String info = i == outcomes.size() ? e.getMessage() : skipped;
+                    add(outcomes, timeout ? TimeoutFailure.make(info) : CancellationFailure.make(info), listener);
+                }
+                return outcomes;
+            }
+        } catch (BridgeException | RuntimeException e) {
+            invalidate();
+            throw e;
+        }
+        return outcomes;
+    }
+
+    /**
+     * Waits for the outcomes of the submitted constructs to be decoded,
+     * and records them, with their checkpoints, in order.
+     * The listener has been (or is being) passed the outcomes by the stages.
+     *
+     * @param submitted The number of constructs in the world, including the ones that were kept.
+     * @throws BridgeException If an outcome cannot be decoded.
+     */
+    private void record(StagedSubmission stages, List<byte[]> fingerprints, int submitted, List<Outcome> outcomes)
+            throws BridgeException {
+        for (int i = outcomes.size(); i < submitted; ++i) {
+            Outcome outcome = stages.outcome(i);
+            if (known)
+                checkpoints.add(new Checkpoint(fingerprints.get(i), stages.commandNumber(i), outcome));
+            outcomes.add(outcome);
+            if (cache != null)
+                cache.put(cacheKey(fingerprints, i), outcome);
+        }
+    }
+
+    private static void add(List<Outcome> outcomes, Outcome outcome, OutcomeListener listener) {
+        outcomes.add(outcome);
+        if (listener != null)
+            listener.onOutcome(outcomes.size() - 1, outcome);
+    }
+
+    /**
+     * Number of top-level constructs of the last processed sequence
+     * that are known to be in the ACL2 world.
+     */
+    public int size() {
+        return known ? checkpoints.size() : 0;
+    }
+
+    /**
+     * The outcomes of the constructs after the first ones, if they are all in the cache.
+     *
+     * @return The outcomes, or {@code null} if there is nothing to submit,
+     *         no cache, or some outcome that is not in the cache.
+     */
+    private List<Outcome> cachedOutcomes(List<TopLevel> tops, List<byte[]> fingerprints, int first) {
+        if (cache == null || first == tops.size())
+            return null;
+        List<Outcome> outcomes = new ArrayList<>(tops.size() - first);
+        for (int i = first; i < tops.size(); ++i) {
+            Outcome outcome = cache.get(cacheKey(fingerprints, i));
+            if (outcome == null)
+                return null;
+            outcomes.add(outcome);
+        }
+        return outcomes;
+    }
+
+    private static OutcomeCache.Key cacheKey(List<byte[]> fingerprints, int i) {
+        return new OutcomeCache.Key(fingerprints.get(i));
+    }
+
+    public OutcomeCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the cache to look up and record outcomes in, or {@code null} for none.
+     */
+    public void setCache(OutcomeCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Number of leading top-level constructs of a sequence
+     * that {@link #process(List)} would not need to submit again.
+     */
+    public int reusablePrefixLength(List<TopLevel> tops) {
+        return known ? matchingPrefixLength(prefixFingerprints(tops)) : 0;
+    }
+
+    /**
+     * Forgets all the checkpoints, so that the next {@link #process(List)} resets the world.
+     */
+    public void invalidate() {
+        checkpoints.clear();
+        known = false;
+        dirty = false;
+    }
+
+    /**
+     * Records that the world has just been reset to the baseline, e.g. via {@code (ubu 0)}.
+     */
+    void reset() {
+        checkpoints.clear();
+        known = true;
+        dirty = false;
+    }
+
+    private int matchingPrefixLength(List<byte[]> fingerprints) {
+        int n = Math.min(fingerprints.size(), checkpoints.size());
+        int i = 0;
+        while (i < n && Arrays.equals(fingerprints.get(i), checkpoints.get(i).fingerprint))
+            ++i;
+        return i;
+    }
+
+    /**
+     * Computes the fingerprint of each prefix of a sequence of top-level constructs.
+     * The fingerprint of a prefix is the SHA-256 digest
+     * of the fingerprint of the prefix before it
+     * and of the {@link Fingerprint} of its last construct,
+     * so equal fingerprints mean equal prefixes (barring collisions).
+     * Since the fingerprints of the constructs are cached in them,
+     * this does not walk or serialize the constructs again.
+     */
+    static List<byte[]> prefixFingerprints(List<TopLevel> tops) {
+        MessageDigest digest = Fingerprint.newDigest();
+        List<byte[]> result = new ArrayList<>(tops.size());
+        byte[] previous = new byte[0];
+        for (TopLevel top : tops) {
+            digest.update(previous);
+            top.fingerprint().updateDigest(digest);
+            previous = digest.digest();
+            result.add(previous);
+        }
+        return Collections.unmodifiableList(result);
+    }
+}
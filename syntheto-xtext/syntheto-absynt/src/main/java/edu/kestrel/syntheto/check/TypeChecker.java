@@ -0,0 +1,895 @@
+package edu.kestrel.syntheto.check;
+
+import edu.kestrel.syntheto.ast.*;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A type checker of Syntheto programs in abstract syntax,
+ * which finds the type errors that ACL2 would otherwise only report after a round trip:
+ * calls with the wrong number of arguments or with arguments of the wrong types,
+ * accesses to fields that the product or alternative does not have,
+ * operands of the wrong types, unbound variables, unknown types and functions,
+ * and bodies, conditions and formulas of the wrong types.
+ * <p>
+ * The top-level constructs are checked in order, each in the {@link TypeEnvironment}
+ * of the types and functions defined before it (and by itself, for recursion).
+ * The environment after each construct, and the errors in it, are cached
+ * by a fingerprint of the whole prefix of constructs up to and including that one
+ * (computed from their {@link ASTNode#fingerprint()}s),
+ * so when a program is checked again after an edit, only the constructs from the edited one on are checked again.
+ * </p>
+ * <p>
+ * The checker is lenient where the types are not known here:
+ * a subtype is compatible with its supertype and the other subtypes of it,
+ * and after a transformation (which defines things only ACL2 knows about),
+ * unknown functions and types are not errors.
+ * So an error here is an error for ACL2 too, but not conversely.
+ * </p>
+ * <p>
+ * A checker is thread-safe.
+ * </p>
+ */
+public final class TypeChecker {
+
+    /**
+     * Maximum number of cached prefixes.
+     */
+    public static final int CACHE_CAPACITY = 4096;
+
+    /**
+     * The built-in functions, with their numbers of arguments.
+     */
+    private static final Map<String, Integer> BUILTINS = new HashMap<>();
+
+    static {
+        BUILTINS.put("empty", 0);
+        BUILTINS.put("is_empty", 1);
+        BUILTINS.put("length", 1);
+        BUILTINS.put("first", 1);
+        BUILTINS.put("last", 1);
+        BUILTINS.put("rest", 1);
+        BUILTINS.put("member", 2);
+        BUILTINS.put("add", 2);
+        BUILTINS.put("append", 2);
+        BUILTINS.put("remove_first", 2);
+    }
+
+    private static final Map<ExpressionBinary.Operator, String> SYMBOLS = new EnumMap<>(ExpressionBinary.Operator.class);
+
+    static {
+        SYMBOLS.put(ExpressionBinary.Operator.EQ, "==");
+        SYMBOLS.put(ExpressionBinary.Operator.NE, "!=");
+        SYMBOLS.put(ExpressionBinary.Operator.LT, "<");
+        SYMBOLS.put(ExpressionBinary.Operator.LE, "<=");
+        SYMBOLS.put(ExpressionBinary.Operator.GT, ">");
+        SYMBOLS.put(ExpressionBinary.Operator.GE, ">=");
+        SYMBOLS.put(ExpressionBinary.Operator.AND, "&&");
+        SYMBOLS.put(ExpressionBinary.Operator.OR, "||");
+        SYMBOLS.put(ExpressionBinary.Operator.IMPLIES, "==>");
+        SYMBOLS.put(ExpressionBinary.Operator.IMPLIED, "<==");
+        SYMBOLS.put(ExpressionBinary.Operator.IFF, "<=>");
+        SYMBOLS.put(ExpressionBinary.Operator.ADD, "+");
+        SYMBOLS.put(ExpressionBinary.Operator.SUB, "-");
+        SYMBOLS.put(ExpressionBinary.Operator.MUL, "*");
+        SYMBOLS.put(ExpressionBinary.Operator.DIV, "/");
+        SYMBOLS.put(ExpressionBinary.Operator.REM, "%");
+    }
+
+    /**
+     * The result of checking a top-level construct.
+     */
+    private static final class Checked {
+
+        final TypeEnvironment environment;
+
+        final List<TypeError> errors;
+
+        Checked(TypeEnvironment environment, List<TypeError> errors) {
+            this.environment = environment;
+            this.errors = errors;
+        }
+    }
+
+    /**
+     * The checked prefixes, by fingerprint, with the least recently used one evicted when full.
+     */
+    private final Map<Fingerprint, Checked> cache = new LinkedHashMap<Fingerprint, Checked>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Fingerprint, Checked> eldest) {
+            return size() > CACHE_CAPACITY;
+        }
+    };
+
+    private final AtomicLong checks = new AtomicLong();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    /**
+     * Checks a program.
+     *
+     * @param program The program.
+     * @return The type errors, in order of their top-level constructs.
+     */
+    public List<TypeError> check(Program program) {
+        return check(program.getTops());
+    }
+
+    /**
+     * Checks a sequence of top-level constructs, in order.
+     *
+     * @param tops The constructs.
+     * @return The type errors, in order of their constructs.
+     */
+    public List<TypeError> check(List<TopLevel> tops) {
+        List<TypeError> errors = new ArrayList<>();
+        TypeEnvironment environment = TypeEnvironment.EMPTY;
+        MessageDigest digest = Fingerprint.newDigest();
+        byte[] previous = new byte[0];
+        for (int i = 0; i < tops.size(); ++i) {
+            TopLevel top = tops.get(i);
+            digest.update(previous);
+            top.fingerprint().updateDigest(digest);
+            previous = digest.digest();
+            Fingerprint key = Fingerprint.fromBytes(previous);
+            Checked checked;
+            synchronized (cache) {
+                checked = cache.get(key);
+            }
+            if (checked == null) {
+                List<TypeError> found = new ArrayList<>();
+                new Check(environment, i, top, found).top();
+                checked = new Checked(environment.extend(top), Collections.unmodifiableList(found));
+                synchronized (cache) {
+                    cache.put(key, checked);
+                }
+                checks.incrementAndGet();
+            } else {
+                cacheHits.incrementAndGet();
+            }
+            errors.addAll(checked.errors);
+            environment = checked.environment;
+        }
+        return errors;
+    }
+
+    /**
+     * Number of top-level constructs checked so far, not counting those found in the cache.
+     */
+    public long getChecks() {
+        return checks.get();
+    }
+
+    /**
+     * Number of top-level constructs found in the cache so far.
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * A type in Syntheto syntax, e.g. {@code seq<int>}, or {@code ?} for an unknown type.
+     */
+    public static String show(Type type) {
+        if (type == null)
+            return "?";
+        if (type instanceof TypeBoolean)
+            return "bool";
+        if (type instanceof TypeInteger)
+            return "int";
+        if (type instanceof TypeCharacter)
+            return "char";
+        if (type instanceof TypeString)
+            return "string";
+        if (type instanceof TypeSequence)
+            return "seq<" + show(((TypeSequence) type).getElement()) + ">";
+        if (type instanceof TypeSet)
+            return "set<" + show(((TypeSet) type).getElement()) + ">";
+        if (type instanceof TypeOption)
+            return "opt<" + show(((TypeOption) type).getBase()) + ">";
+        if (type instanceof TypeMap)
+            return "map<" + show(((TypeMap) type).getDomain()) + ", " + show(((TypeMap) type).getRange()) + ">";
+        if (type instanceof TypeDefined)
+            return ((TypeDefined) type).getName().getName();
+        return type.getClass().getSimpleName();
+    }
+
+    /**
+     * The check of one top-level construct.
+     * The types of expressions are lists of the types of their values, one for most expressions;
+     * null stands for an unknown type, or unknown types.
+     */
+    private static final class Check {
+
+        private static final Type BOOL = TypeBoolean.make();
+
+        private static final Type INT = TypeInteger.make();
+
+        /**
+         * The environment before the construct.
+         */
+        private final TypeEnvironment before;
+
+        /**
+         * The environment the construct is checked in, which includes what it defines.
+         */
+        private final TypeEnvironment env;
+
+        private final int index;
+
+        private final TopLevel top;
+
+        private final List<TypeError> errors;
+
+        /**
+         * The function variables of the specification being checked.
+         */
+        private final Map<String, FunctionHeader> locals = new HashMap<>();
+
+        Check(TypeEnvironment before, int index, TopLevel top, List<TypeError> errors) {
+            this.before = before;
+            this.env = before.extend(top);
+            this.index = index;
+            this.top = top;
+            this.errors = errors;
+        }
+
+        private void error(ASTNode node, String message) {
+            errors.add(new TypeError(index, top, node, message));
+        }
+
+        void top() {
+            if (top instanceof TopLevelType) {
+                typeDefinition(((TopLevelType) top).getTypeDefinition());
+            } else if (top instanceof TopLevelTypes) {
+                for (TypeDefinition definition : ((TopLevelTypes) top).getTypeRecursion().getDefinitions())
+                    typeDefinition(definition);
+            } else if (top instanceof TopLevelFunction) {
+                function(((TopLevelFunction) top).getFunctionDefinition());
+            } else if (top instanceof TopLevelFunctions) {
+                for (FunctionDefinition definition : ((TopLevelFunctions) top).getFunctionRecursion().getDefinitions())
+                    function(definition);
+            } else if (top instanceof TopLevelTheorem) {
+                Theorem theorem = ((TopLevelTheorem) top).getTheorem();
+                Map<String, Type> scope = new HashMap<>();
+                variables(theorem.getVariables(), scope);
+                expect(theorem.getFormula(), scope, BOOL, "The formula");
+            } else if (top instanceof TopLevelSpecification) {
+                specification(((TopLevelSpecification) top).getFunctionSpecification());
+            } else if (top instanceof TopLevelTransform) {
+                Transform transform = ((TopLevelTransform) top).getTransform();
+                String old = transform.getOldName().getName();
+                if (before.getFunction(old) == null && !before.isOpen())
+                    error(transform, "Unknown function " + old + ".");
+            }
+        }
+
+        private void typeDefinition(TypeDefinition definition) {
+            String name = definition.getName().getName();
+            TypeDefiner body = definition.getBody();
+            if (body instanceof TypeDefinerProduct) {
+                product(((TypeDefinerProduct) body).getProduct());
+            } else if (body instanceof TypeDefinerSum) {
+                Set<String> names = new HashSet<>();
+                for (Alternative alternative : ((TypeDefinerSum) body).getSum().getAlternatives()) {
+                    if (!names.add(alternative.getName().getName()))
+                        error(alternative, "The alternative " + alternative.getName().getName() + " of " + name
+                                + " is declared twice.");
+                    product(alternative.getProduct());
+                }
+            } else if (body instanceof TypeDefinerSubset) {
+                TypeSubset subset = ((TypeDefinerSubset) body).getSubset();
+                type(subset.getSupertype(), subset);
+                Map<String, Type> scope = new HashMap<>();
+                scope.put(subset.getVariable().getName(), subset.getSupertype());
+                expect(subset.getRestriction(), scope, BOOL, "The restriction");
+                if (subset.getWitness() != null)
+                    expect(subset.getWitness(), new HashMap<>(), subset.getSupertype(), "The witness");
+            }
+        }
+
+        private void product(TypeProduct product) {
+            Map<String, Type> scope = new HashMap<>();
+            for (Field field : product.getFields()) {
+                type(field.getType(), field);
+                if (scope.put(field.getName().getName(), field.getType()) != null)
+                    error(field, "The field " + field.getName().getName() + " is declared twice.");
+            }
+            if (product.getInvariant() != null)
+                expect(product.getInvariant(), scope, BOOL, "The invariant");
+        }
+
+        private void function(FunctionDefinition definition) {
+            FunctionHeader header = definition.getHeader();
+            Map<String, Type> scope = new HashMap<>();
+            variables(header.getInputs(), scope);
+            for (TypedVariable output : header.getOutputs())
+                type(output.getType(), output);
+            if (definition.getPrecondition() != null)
+                expect(definition.getPrecondition(), scope, BOOL, "The precondition");
+            if (definition.getPostcondition() != null) {
+                Map<String, Type> outputs = new HashMap<>(scope);
+                variables(header.getOutputs(), outputs);
+                expect(definition.getPostcondition(), outputs, BOOL, "The postcondition");
+            }
+            FunctionDefiner definer = definition.getDefiner();
+            if (definer instanceof FunctionDefinerRegular) {
+                Expression body = ((FunctionDefinerRegular) definer).getBody();
+                List<Type> types = infer(body, scope);
+                List<TypedVariable> outputs = header.getOutputs();
+                if (types != null && types.size() != outputs.size()) {
+                    error(body, "The body has " + types.size() + " values, not " + outputs.size() + ".");
+                } else if (types != null) {
+                    for (int i = 0; i < outputs.size(); ++i)
+                        if (!compatible(outputs.get(i).getType(), types.get(i)))
+                            error(body, (outputs.size() == 1 ? "The body" : "The value " + (i + 1) + " of the body")
+                                    + " must be of type " + show(outputs.get(i).getType())
+                                    + ", not " + show(types.get(i)) + ".");
+                }
+                if (((FunctionDefinerRegular) definer).getMeasure() != null)
+                    infer(((FunctionDefinerRegular) definer).getMeasure(), scope);
+            } else if (definer instanceof FunctionDefinerQuantified) {
+                FunctionDefinerQuantified quantified = (FunctionDefinerQuantified) definer;
+                variables(quantified.getVariables(), scope);
+                expect(quantified.getMatrix(), scope, BOOL, "The matrix");
+            }
+        }
+
+        private void specification(FunctionSpecification specification) {
+            Map<String, Type> scope = new HashMap<>();
+            for (FunctionHeader header : specification.getFunctions()) {
+                for (TypedVariable variable : header.getInputs())
+                    type(variable.getType(), variable);
+                for (TypedVariable variable : header.getOutputs())
+                    type(variable.getType(), variable);
+                locals.put(header.getName().getName(), header);
+            }
+            FunctionSpecifier specifier = specification.getSpecifier();
+            if (specifier instanceof FunctionSpecifierRegular) {
+                expect(((FunctionSpecifierRegular) specifier).getBody(), scope, BOOL, "The specification");
+            } else if (specifier instanceof FunctionSpecifierQuantified) {
+                FunctionSpecifierQuantified quantified = (FunctionSpecifierQuantified) specifier;
+                variables(quantified.getVariables(), scope);
+                expect(quantified.getMatrix(), scope, BOOL, "The matrix");
+            } else if (specifier instanceof FunctionSpecifierInputOutput) {
+                // The relation is between the inputs and outputs of the function variables.
+                for (FunctionHeader header : specification.getFunctions()) {
+                    for (TypedVariable variable : header.getInputs())
+                        scope.put(variable.getName().getName(), variable.getType());
+                    for (TypedVariable variable : header.getOutputs())
+                        scope.put(variable.getName().getName(), variable.getType());
+                }
+                expect(((FunctionSpecifierInputOutput) specifier).getRelation(), scope, BOOL, "The relation");
+            }
+        }
+
+        /**
+         * Checks the types of some variables, and adds them to a scope.
+         */
+        private void variables(List<TypedVariable> variables, Map<String, Type> scope) {
+            Set<String> names = new HashSet<>();
+            for (TypedVariable variable : variables) {
+                type(variable.getType(), variable);
+                String name = variable.getName().getName();
+                if (!names.add(name))
+                    error(variable, "The variable " + name + " is declared twice.");
+                scope.put(name, variable.getType());
+            }
+        }
+
+        /**
+         * Checks that the types a type refers to are defined.
+         */
+        private void type(Type type, ASTNode where) {
+            if (type instanceof TypeDefined) {
+                String name = ((TypeDefined) type).getName().getName();
+                if (env.getType(name) == null && !env.isOpen())
+                    error(where, "Unknown type " + name + ".");
+            } else if (type instanceof TypeSequence) {
+                type(((TypeSequence) type).getElement(), where);
+            } else if (type instanceof TypeSet) {
+                type(((TypeSet) type).getElement(), where);
+            } else if (type instanceof TypeOption) {
+                type(((TypeOption) type).getBase(), where);
+            } else if (type instanceof TypeMap) {
+                type(((TypeMap) type).getDomain(), where);
+                type(((TypeMap) type).getRange(), where);
+            }
+        }
+
+        /**
+         * A type without its subtype restrictions: the supertype of a subtype, recursively.
+         */
+        private Type base(Type type) {
+            for (int depth = 0; type instanceof TypeDefined && depth < 100; ++depth) {
+                TypeDefinition definition = env.getType(((TypeDefined) type).getName().getName());
+                if (definition == null || !(definition.getBody() instanceof TypeDefinerSubset))
+                    return type;
+                type = ((TypeDefinerSubset) definition.getBody()).getSubset().getSupertype();
+            }
+            return type;
+        }
+
+        /**
+         * Whether a type is known here, i.e. is not null and does not name an unknown type.
+         */
+        private boolean known(Type type) {
+            type = base(type);
+            return type != null
+                    && !(type instanceof TypeDefined && env.getType(((TypeDefined) type).getName().getName()) == null);
+        }
+
+        /**
+         * Whether values of two types may be the same.
+         */
+        private boolean compatible(Type a, Type b) {
+            if (!known(a) || !known(b))
+                return true;
+            a = base(a);
+            b = base(b);
+            if (a instanceof TypeDefined && b instanceof TypeDefined)
+                return ((TypeDefined) a).getName().equals(((TypeDefined) b).getName());
+            if (a.getClass() != b.getClass())
+                return false;
+            if (a instanceof TypeSequence)
+                return compatible(((TypeSequence) a).getElement(), ((TypeSequence) b).getElement());
+            if (a instanceof TypeSet)
+                return compatible(((TypeSet) a).getElement(), ((TypeSet) b).getElement());
+            if (a instanceof TypeOption)
+                return compatible(((TypeOption) a).getBase(), ((TypeOption) b).getBase());
+            if (a instanceof TypeMap)
+                return compatible(((TypeMap) a).getDomain(), ((TypeMap) b).getDomain())
+                        && compatible(((TypeMap) a).getRange(), ((TypeMap) b).getRange());
+            return true;
+        }
+
+        /**
+         * Checks that an expression has one value, of a type compatible with an expected one.
+         *
+         * @return The type of the expression, or null if unknown.
+         */
+        private Type expect(Expression expression, Map<String, Type> scope, Type expected, String what) {
+            Type type = single(expression, scope);
+            if (!compatible(expected, type))
+                error(expression, what + " must be of type " + show(expected) + ", not " + show(type) + ".");
+            return type;
+        }
+
+        /**
+         * The type of an expression that has one value, or null if unknown.
+         */
+        private Type single(Expression expression, Map<String, Type> scope) {
+            List<Type> types = infer(expression, scope);
+            if (types == null)
+                return null;
+            if (types.size() != 1) {
+                error(expression, "Expected one value, not " + types.size() + ".");
+                return null;
+            }
+            return types.get(0);
+        }
+
+        private static List<Type> one(Type type) {
+            return Collections.singletonList(type);
+        }
+
+        /**
+         * The types of the values of an expression, or null if unknown.
+         */
+        private List<Type> infer(Expression expression, Map<String, Type> scope) {
+            if (expression instanceof ExpressionLiteral) {
+                Literal literal = ((ExpressionLiteral) expression).getLiteral();
+                if (literal instanceof LiteralBoolean)
+                    return one(BOOL);
+                if (literal instanceof LiteralInteger)
+                    return one(INT);
+                if (literal instanceof LiteralCharacter)
+                    return one(TypeCharacter.make());
+                if (literal instanceof LiteralString)
+                    return one(TypeString.make());
+                return null;
+            }
+            if (expression instanceof Variable) {
+                String name = ((Variable) expression).getName().getName();
+                if (!scope.containsKey(name)) {
+                    error(expression, "Unbound variable " + name + ".");
+                    return null;
+                }
+                return one(scope.get(name));
+            }
+            if (expression instanceof ExpressionUnary) {
+                ExpressionUnary e = (ExpressionUnary) expression;
+                if (e.getOperator() == ExpressionUnary.Operator.NOT) {
+                    expect(e.getOperand(), scope, BOOL, "The operand of !");
+                    return one(BOOL);
+                }
+                expect(e.getOperand(), scope, INT, "The operand of -");
+                return one(INT);
+            }
+            if (expression instanceof ExpressionBinary)
+                return one(binary((ExpressionBinary) expression, scope));
+            if (expression instanceof ExpressionIf) {
+                ExpressionIf e = (ExpressionIf) expression;
+                expect(e.getTest(), scope, BOOL, "The test");
+                return unify(expression, infer(e.getThen(), scope), infer(e.getElse_(), scope));
+            }
+            if (expression instanceof ExpressionWhen) {
+                ExpressionWhen e = (ExpressionWhen) expression;
+                expect(e.getTest(), scope, BOOL, "The test");
+                return unify(expression, infer(e.getThen(), scope), infer(e.getElse_(), scope));
+            }
+            if (expression instanceof ExpressionUnless) {
+                ExpressionUnless e = (ExpressionUnless) expression;
+                expect(e.getTest(), scope, BOOL, "The test");
+                return unify(expression, infer(e.getThen(), scope), infer(e.getElse_(), scope));
+            }
+            if (expression instanceof ExpressionCond) {
+                List<Type> types = null;
+                boolean first = true;
+                for (Branch branch : ((ExpressionCond) expression).getBranches()) {
+                    expect(branch.getCondition(), scope, BOOL, "The condition");
+                    List<Type> action = infer(branch.getAction(), scope);
+                    types = first ? action : unify(expression, types, action);
+                    first = false;
+                }
+                return types;
+            }
+            if (expression instanceof ExpressionCall)
+                return call((ExpressionCall) expression, scope);
+            if (expression instanceof ExpressionBind)
+                return bind((ExpressionBind) expression, scope);
+            if (expression instanceof ExpressionMulti) {
+                List<Type> types = new ArrayList<>();
+                for (Expression argument : ((ExpressionMulti) expression).getarguments())
+                    types.add(single(argument, scope));
+                return types;
+            }
+            if (expression instanceof ExpressionComponent) {
+                ExpressionComponent e = (ExpressionComponent) expression;
+                List<Type> types = infer(e.getMulti(), scope);
+                if (types == null)
+                    return null;
+                if (e.getIndex() >= types.size()) {
+                    error(expression, "No component " + e.getIndex() + " in " + types.size() + " values.");
+                    return null;
+                }
+                return one(types.get(e.getIndex()));
+            }
+            if (expression instanceof ExpressionProductConstruct) {
+                ExpressionProductConstruct e = (ExpressionProductConstruct) expression;
+                initializers(e.getFields(), product(e.getType(), expression), e.getType().getName(), true, scope);
+                return one(TypeDefined.make(e.getType()));
+            }
+            if (expression instanceof ExpressionProductField)
+                return one(productField((ExpressionProductField) expression, scope));
+            if (expression instanceof ExpressionProductUpdate) {
+                ExpressionProductUpdate e = (ExpressionProductUpdate) expression;
+                Type type = TypeDefined.make(e.getType());
+                expect(e.getTarget(), scope, type, "The target of the update");
+                initializers(e.getFields(), product(e.getType(), expression), e.getType().getName(), false, scope);
+                return one(type);
+            }
+            if (expression instanceof ExpressionSumConstruct) {
+                ExpressionSumConstruct e = (ExpressionSumConstruct) expression;
+                Alternative alternative = alternative(e.getType(), e.getAlternative(), expression);
+                initializers(e.getFields(), alternative == null ? null : alternative.getProduct(),
+                        e.getAlternative().getName(), true, scope);
+                return one(TypeDefined.make(e.getType()));
+            }
+            if (expression instanceof ExpressionSumField) {
+                ExpressionSumField e = (ExpressionSumField) expression;
+                expect(e.getTarget(), scope, TypeDefined.make(e.getType()), "The target of the field");
+                Alternative alternative = alternative(e.getType(), e.getAlternative(), expression);
+                if (alternative == null)
+                    return null;
+                Field field = field(alternative.getProduct(), e.getField().getName());
+                if (field == null) {
+                    error(expression, "No field " + e.getField().getName() + " in the alternative "
+                            + e.getAlternative().getName() + " of " + e.getType().getName() + ".");
+                    return null;
+                }
+                return one(field.getType());
+            }
+            if (expression instanceof ExpressionSumTest) {
+                ExpressionSumTest e = (ExpressionSumTest) expression;
+                expect(e.getTarget(), scope, TypeDefined.make(e.getType()), "The target of the test");
+                alternative(e.getType(), e.getAlternative(), expression);
+                return one(BOOL);
+            }
+            if (expression instanceof ExpressionSumUpdate) {
+                ExpressionSumUpdate e = (ExpressionSumUpdate) expression;
+                Type type = TypeDefined.make(e.getType());
+                expect(e.getTarget(), scope, type, "The target of the update");
+                Alternative alternative = alternative(e.getType(), e.getAlternative(), expression);
+                initializers(e.getFields(), alternative == null ? null : alternative.getProduct(),
+                        e.getAlternative().getName(), false, scope);
+                return one(type);
+            }
+            return null;
+        }
+
+        /**
+         * The types of the values of two branches, which must agree.
+         */
+        private List<Type> unify(Expression expression, List<Type> a, List<Type> b) {
+            if (a == null)
+                return b;
+            if (b == null)
+                return a;
+            if (a.size() != b.size()) {
+                error(expression, "The branches have " + a.size() + " and " + b.size() + " values.");
+                return null;
+            }
+            List<Type> types = new ArrayList<>();
+            for (int i = 0; i < a.size(); ++i) {
+                if (!compatible(a.get(i), b.get(i)))
+                    error(expression, "The branches have different types, " + show(a.get(i))
+                            + " and " + show(b.get(i)) + ".");
+                types.add(a.get(i) != null ? a.get(i) : b.get(i));
+            }
+            return types;
+        }
+
+        private Type binary(ExpressionBinary expression, Map<String, Type> scope) {
+            String symbol = SYMBOLS.get(expression.getOperator());
+            Expression left = expression.getLeftOperand();
+            Expression right = expression.getRightOperand();
+            switch (expression.getOperator()) {
+                case AND:
+                case OR:
+                case IMPLIES:
+                case IMPLIED:
+                case IFF:
+                    expect(left, scope, BOOL, "The operands of " + symbol);
+                    expect(right, scope, BOOL, "The operands of " + symbol);
+                    return BOOL;
+                case ADD:
+                case SUB:
+                case MUL:
+                case DIV:
+                case REM:
+                    expect(left, scope, INT, "The operands of " + symbol);
+                    expect(right, scope, INT, "The operands of " + symbol);
+                    return INT;
+                default:
+                    break;
+            }
+            Type l = single(left, scope);
+            Type r = single(right, scope);
+            if (expression.getOperator() != ExpressionBinary.Operator.EQ
+                    && expression.getOperator() != ExpressionBinary.Operator.NE) {
+                for (Type type : new Type[]{l, r})
+                    if (known(type) && !(base(type) instanceof TypeInteger) && !(base(type) instanceof TypeCharacter)) {
+                        error(expression, "The operands of " + symbol + " must be integers or characters, not "
+                                + show(type) + ".");
+                        return BOOL;
+                    }
+            }
+            if (!compatible(l, r))
+                error(expression, "Cannot compare " + show(l) + " and " + show(r) + " with " + symbol + ".");
+            return BOOL;
+        }
+
+        private List<Type> call(ExpressionCall expression, Map<String, Type> scope) {
+            String name = expression.getFunction().getName();
+            List<Expression> arguments = expression.getArguments();
+            FunctionHeader header = locals.containsKey(name) ? locals.get(name) : env.getFunction(name);
+            if (header != null) {
+                List<TypedVariable> inputs = header.getInputs();
+                if (inputs.size() != arguments.size()) {
+                    error(expression, name + " takes " + inputs.size() + " arguments, not " + arguments.size() + ".");
+                    for (Expression argument : arguments)
+                        infer(argument, scope);
+                } else {
+                    for (int i = 0; i < inputs.size(); ++i)
+                        expect(arguments.get(i), scope, inputs.get(i).getType(),
+                                "The argument " + inputs.get(i).getName().getName() + " of " + name);
+                }
+                List<Type> types = new ArrayList<>();
+                for (TypedVariable output : header.getOutputs())
+                    types.add(output.getType());
+                return types;
+            }
+            List<Type> types = new ArrayList<>();
+            for (Expression argument : arguments)
+                types.add(single(argument, scope));
+            Integer arity = BUILTINS.get(name);
+            if (arity == null) {
+                if (!env.isOpen())
+                    error(expression, "Unknown function " + name + ".");
+                return null;
+            }
+            if (arity != arguments.size()) {
+                error(expression, name + " takes " + arity + " arguments, not " + arguments.size() + ".");
+                return null;
+            }
+            return one(builtin(expression, name, types));
+        }
+
+        /**
+         * The type of a call of a built-in function, with arguments of some types.
+         */
+        private Type builtin(ExpressionCall expression, String name, List<Type> types) {
+            List<Expression> arguments = expression.getArguments();
+            switch (name) {
+                case "empty":
+                    List<Type> parameters = expression.getTypes();
+                    return parameters == null || parameters.isEmpty() ? null : parameters.get(0);
+                case "is_empty":
+                case "length":
+                    if (known(types.get(0)) && !isCollection(base(types.get(0))))
+                        error(arguments.get(0), "The argument of " + name + " must be a collection, not "
+                                + show(types.get(0)) + ".");
+                    return name.equals("length") ? INT : BOOL;
+                case "first":
+                case "last":
+                case "rest": {
+                    Type sequence = base(types.get(0));
+                    if (known(sequence) && !(sequence instanceof TypeSequence) && !(sequence instanceof TypeString)) {
+                        error(arguments.get(0), "The argument of " + name + " must be a sequence, not "
+                                + show(types.get(0)) + ".");
+                        return null;
+                    }
+                    if (name.equals("rest"))
+                        return types.get(0);
+                    if (sequence instanceof TypeString)
+                        return TypeCharacter.make();
+                    return sequence instanceof TypeSequence ? ((TypeSequence) sequence).getElement() : null;
+                }
+                case "member":
+                case "add":
+                case "remove_first": {
+                    Type collection = base(types.get(1));
+                    Type element = collection instanceof TypeSequence ? ((TypeSequence) collection).getElement()
+                            : collection instanceof TypeSet && !name.equals("remove_first")
+                            ? ((TypeSet) collection).getElement()
+                            : null;
+                    if (element == null && known(collection) && !(collection instanceof TypeMap))
+                        error(arguments.get(1), "The second argument of " + name + " must be a "
+                                + (name.equals("remove_first") ? "sequence" : "sequence or a set")
+                                + ", not " + show(types.get(1)) + ".");
+                    else if (!compatible(element, types.get(0)))
+                        error(arguments.get(0), "The element must be of type " + show(element)
+                                + ", not " + show(types.get(0)) + ".");
+                    return name.equals("member") ? BOOL : types.get(1);
+                }
+                case "append":
+                    for (int i = 0; i < 2; ++i)
+                        if (known(types.get(i)) && !(base(types.get(i)) instanceof TypeSequence)
+                                && !(base(types.get(i)) instanceof TypeString))
+                            error(arguments.get(i), "The arguments of append must be sequences, not "
+                                    + show(types.get(i)) + ".");
+                    if (!compatible(types.get(0), types.get(1)))
+                        error(expression, "Cannot append " + show(types.get(0)) + " and " + show(types.get(1)) + ".");
+                    return types.get(0) != null ? types.get(0) : types.get(1);
+                default:
+                    return null;
+            }
+        }
+
+        private static boolean isCollection(Type type) {
+            return type instanceof TypeSequence || type instanceof TypeSet || type instanceof TypeMap
+                    || type instanceof TypeString;
+        }
+
+        private List<Type> bind(ExpressionBind expression, Map<String, Type> scope) {
+            List<TypedVariable> variables = expression.getVariables();
+            List<Type> values = infer(expression.getValue(), scope);
+            Map<String, Type> extended = new HashMap<>(scope);
+            variables(variables, extended);
+            if (values != null && values.size() != variables.size()) {
+                error(expression, "Cannot bind " + variables.size() + " variables to " + values.size() + " values.");
+            } else if (values != null) {
+                for (int i = 0; i < variables.size(); ++i)
+                    if (!compatible(variables.get(i).getType(), values.get(i)))
+                        error(variables.get(i), "The variable " + variables.get(i).getName().getName()
+                                + " is of type " + show(variables.get(i).getType())
+                                + ", but bound to a value of type " + show(values.get(i)) + ".");
+            }
+            return infer(expression.getBody(), extended);
+        }
+
+        private Type productField(ExpressionProductField expression, Map<String, Type> scope) {
+            Type type = single(expression.getTarget(), scope);
+            String name = expression.getField().getName();
+            if (!known(type))
+                return null;
+            Type target = base(type);
+            TypeDefinition definition = target instanceof TypeDefined
+                    ? env.getType(((TypeDefined) target).getName().getName())
+                    : null;
+            if (definition == null || !(definition.getBody() instanceof TypeDefinerProduct)) {
+                error(expression, "Cannot access the field " + name + " of a value of type " + show(type)
+                        + ", which is not a product type.");
+                return null;
+            }
+            Field field = field(((TypeDefinerProduct) definition.getBody()).getProduct(), name);
+            if (field == null) {
+                error(expression, "No field " + name + " in the product type " + show(target) + ".");
+                return null;
+            }
+            return field.getType();
+        }
+
+        /**
+         * The product of a product type, or null if it is not one.
+         */
+        private TypeProduct product(Identifier type, ASTNode where) {
+            TypeDefinition definition = env.getType(type.getName());
+            if (definition == null) {
+                if (!env.isOpen())
+                    error(where, "Unknown type " + type.getName() + ".");
+                return null;
+            }
+            if (!(definition.getBody() instanceof TypeDefinerProduct)) {
+                error(where, type.getName() + " is not a product type.");
+                return null;
+            }
+            return ((TypeDefinerProduct) definition.getBody()).getProduct();
+        }
+
+        /**
+         * An alternative of a sum type, or null if there is no such alternative.
+         */
+        private Alternative alternative(Identifier type, Identifier alternative, ASTNode where) {
+            TypeDefinition definition = env.getType(type.getName());
+            if (definition == null) {
+                if (!env.isOpen())
+                    error(where, "Unknown type " + type.getName() + ".");
+                return null;
+            }
+            if (!(definition.getBody() instanceof TypeDefinerSum)) {
+                error(where, type.getName() + " is not a sum type.");
+                return null;
+            }
+            for (Alternative a : ((TypeDefinerSum) definition.getBody()).getSum().getAlternatives())
+                if (a.getName().equals(alternative))
+                    return a;
+            error(where, "No alternative " + alternative.getName() + " in " + type.getName() + ".");
+            return null;
+        }
+
+        private static Field field(TypeProduct product, String name) {
+            for (Field field : product.getFields())
+                if (field.getName().getName().equals(name))
+                    return field;
+            return null;
+        }
+
+        /**
+         * Checks the initializers of the fields of a product (or of an alternative),
+         * which must be all the fields if the product is constructed, and only some if it is updated.
+         */
+        private void initializers(List<Initializer> initializers, TypeProduct product, String what,
+                                  boolean all, Map<String, Type> scope) {
+            Set<String> names = new HashSet<>();
+            for (Initializer initializer : initializers) {
+                String name = initializer.getField().getName();
+                Field field = product == null ? null : field(product, name);
+                if (product != null && field == null)
+                    error(initializer, "No field " + name + " in " + what + ".");
+                if (!names.add(name))
+                    error(initializer, "The field " + name + " is given twice.");
+                if (field == null)
+                    infer(initializer.getValue(), scope);
+                else
+                    expect(initializer.getValue(), scope, field.getType(), "The field " + name);
+            }
+            if (all && product != null)
+                for (Field field : product.getFields())
+                    if (!names.contains(field.getName().getName()))
+                        error(initializers.isEmpty() ? top : initializers.get(0),
+                                "Missing field " + field.getName().getName() + " of " + what + ".");
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package edu.kestrel.syntheto.check;
+
+import edu.kestrel.syntheto.ast.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The types and functions in scope at some point of a program, for the {@link TypeChecker}.
+ * <p>
+ * An environment is immutable: the environment after a top-level construct
+ * is made from the one before it by {@link #extend(TopLevel)}.
+ * Transformations define functions (and possibly types) that are only known to ACL2;
+ * after one, the environment is <i>open</i>, and names that are not found in it are not errors.
+ * </p>
+ */
+public final class TypeEnvironment {
+
+    /**
+     * The environment at the start of a program.
+     */
+    public static final TypeEnvironment EMPTY =
+            new TypeEnvironment(Collections.emptyMap(), Collections.emptyMap(), false);
+
+    private final Map<String, TypeDefinition> types;
+
+    private final Map<String, FunctionHeader> functions;
+
+    private final boolean open;
+
+    private TypeEnvironment(Map<String, TypeDefinition> types, Map<String, FunctionHeader> functions, boolean open) {
+        this.types = types;
+        this.functions = functions;
+        this.open = open;
+    }
+
+    /**
+     * The environment after a top-level construct, with the types and functions that it defines.
+     * Theorems and specifications define nothing here.
+     */
+    public TypeEnvironment extend(TopLevel top) {
+        Map<String, TypeDefinition> newTypes = types;
+        Map<String, FunctionHeader> newFunctions = functions;
+        boolean newOpen = open;
+        if (top instanceof TopLevelType) {
+            newTypes = new HashMap<>(types);
+            TypeDefinition definition = ((TopLevelType) top).getTypeDefinition();
+            newTypes.put(definition.getName().getName(), definition);
+        } else if (top instanceof TopLevelTypes) {
+            newTypes = new HashMap<>(types);
+            for (TypeDefinition definition : ((TopLevelTypes) top).getTypeRecursion().getDefinitions())
+                newTypes.put(definition.getName().getName(), definition);
+        } else if (top instanceof TopLevelFunction) {
+            newFunctions = new HashMap<>(functions);
+            FunctionHeader header = ((TopLevelFunction) top).getFunctionDefinition().getHeader();
+            newFunctions.put(header.getName().getName(), header);
+        } else if (top instanceof TopLevelFunctions) {
+            newFunctions = new HashMap<>(functions);
+            for (FunctionDefinition definition : ((TopLevelFunctions) top).getFunctionRecursion().getDefinitions())
+                newFunctions.put(definition.getHeader().getName().getName(), definition.getHeader());
+        } else if (top instanceof TopLevelTransform) {
+            newOpen = true;
+        } else {
+            return this;
+        }
+        return new TypeEnvironment(newTypes, newFunctions, newOpen);
+    }
+
+    /**
+     * The definition of a type, or null if it is not in scope.
+     */
+    public TypeDefinition getType(String name) {
+        return types.get(name);
+    }
+
+    /**
+     * The header of a function, or null if it is not in scope.
+     */
+    public FunctionHeader getFunction(String name) {
+        return functions.get(name);
+    }
+
+    /**
+     * Whether names that are not in scope may still have been defined, by a transformation.
+     */
+    public boolean isOpen() {
+        return open;
+    }
+}
@@ -0,0 +1,105 @@
+package edu.kestrel.syntheto.check;
+
+import edu.kestrel.syntheto.ast.*;
+
+import java.util.Objects;
+
+/**
+ * A type error found by the {@link TypeChecker} in a top-level construct of a program.
+ * <p>
+ * It refers to the abstract syntax node where the error is,
+ * and to the top-level construct that contains it, by index in the program,
+ * so that it can be reported with that construct (e.g. in the output of its notebook cell).
+ * </p>
+ */
+public final class TypeError {
+
+    private final int index;
+
+    private final TopLevel top;
+
+    private final ASTNode node;
+
+    private final String message;
+
+    /**
+     * Constructs a type error.
+     *
+     * @param index The index of the top-level construct in the program.
+     * @param top The top-level construct.
+     * @param node The node where the error is, in the construct.
+     * @param message The description of the error.
+     */
+    public TypeError(int index, TopLevel top, ASTNode node, String message) {
+        this.index = index;
+        this.top = top;
+        this.node = node;
+        this.message = message;
+    }
+
+    /**
+     * The index of the top-level construct in the program.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public TopLevel getTopLevel() {
+        return top;
+    }
+
+    /**
+     * The node where the error is, in the top-level construct.
+     */
+    public ASTNode getNode() {
+        return node;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * A description of a top-level construct, by kind and name, e.g. "function f".
+     */
+    public static String describe(TopLevel top) {
+        if (top instanceof TopLevelFunction)
+            return "function " + ((TopLevelFunction) top).getFunctionDefinition().getHeader().getName().getName();
+        if (top instanceof TopLevelFunctions)
+            return "functions " + ((TopLevelFunctions) top).getFunctionRecursion().getDefinitions().get(0)
+                    .getHeader().getName().getName() + "...";
+        if (top instanceof TopLevelType)
+            return "type " + ((TopLevelType) top).getTypeDefinition().getName().getName();
+        if (top instanceof TopLevelTypes)
+            return "types " + ((TopLevelTypes) top).getTypeRecursion().getDefinitions().get(0)
+                    .getName().getName() + "...";
+        if (top instanceof TopLevelTheorem)
+            return "theorem " + ((TopLevelTheorem) top).getTheorem().getName().getName();
+        if (top instanceof TopLevelSpecification)
+            return "specification " + ((TopLevelSpecification) top).getFunctionSpecification().getName().getName();
+        if (top instanceof TopLevelTransform)
+            return "transformation " + ((TopLevelTransform) top).getTransform().getNewName().getName();
+        return top.getClass().getSimpleName();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TypeError that = (TypeError) o;
+        return index == that.index && top.equals(that.top) && node.equals(that.node) && message.equals(that.message);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(index, node, message);
+    }
+
+    /**
+     * The message, with the construct it is in.
+     */
+    @Override
+    public String toString() {
+        return "In the " + describe(top) + ": " + message;
+    }
+}
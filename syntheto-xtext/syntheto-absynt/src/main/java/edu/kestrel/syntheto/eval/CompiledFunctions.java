@@ -0,0 +1,300 @@
+package edu.kestrel.syntheto.eval;
+
+import edu.kestrel.syntheto.ast.TopLevel;
+import edu.kestrel.syntheto.ast.TopLevelFunction;
+import edu.kestrel.syntheto.ast.TopLevelFunctions;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The functions of a program compiled to JVM code, for running many calls faster than the {@link Evaluator}.
+ * <p>
+ * The functions defined by expressions are translated to the Java source of a class
+ * (see {@link FunctionCompiler}), which is compiled in memory by the Java compiler of the platform,
+ * and loaded by a class loader of its own.
+ * Integers are {@link java.math.BigInteger}s, as in the evaluator,
+ * except in the functions on integers and booleans only, which are also compiled to code on {@code long}s:
+ * that code is run when the arguments fit, and the code on {@code BigInteger}s is run instead if it overflows.
+ * The compiled code computes the same values as the evaluator, and throws an {@link EvaluationException}
+ * in the same cases, except that it does not memoize calls, and that its limit is on the number of calls.
+ * The functions that cannot be compiled are left to the evaluator
+ * (see {@link Evaluator#setCompiledFunctions(CompiledFunctions)}).
+ * </p>
+ * <p>
+ * Compiling takes some time, so the compiled functions of the last programs are kept,
+ * by the fingerprints of the definitions of the functions.
+ * The compiled functions are thread-safe.
+ * </p>
+ */
+public final class CompiledFunctions {
+
+    /**
+     * Default maximum number of calls of one evaluation.
+     */
+    public static final long DEFAULT_CALL_LIMIT = 1_000_000L;
+
+    /**
+     * Number of compiled programs kept.
+     */
+    public static final int CACHE_CAPACITY = 16;
+
+    private static final AtomicLong classes = new AtomicLong();
+
+    private static final Map<List<Object>, CompiledFunctions> cache =
+            new LinkedHashMap<List<Object>, CompiledFunctions>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, CompiledFunctions> eldest) {
+                    return size() > CACHE_CAPACITY;
+                }
+            };
+
+    private final Map<String, Integer> arities;
+
+    private final Set<String> specialized;
+
+    private final String source;
+
+    private final Constructor<? extends CompiledRuntime> constructor;
+
+    private final long callLimit;
+
+    /**
+     * The instance of the compiled class of each thread, which counts its calls.
+     */
+    private final ThreadLocal<CompiledRuntime> instances = new ThreadLocal<>();
+
+    private CompiledFunctions(Map<String, Integer> arities, Set<String> specialized, String source,
+                              Constructor<? extends CompiledRuntime> constructor, long callLimit) {
+        this.arities = arities;
+        this.specialized = specialized;
+        this.source = source;
+        this.constructor = constructor;
+        this.callLimit = callLimit;
+    }
+
+    /**
+     * Compiles the functions defined by some top-level constructs, with the default call limit.
+     *
+     * @param tops The constructs.
+     * @return The compiled functions.
+     * @throws EvaluationException If there is no Java compiler, or the generated code does not compile.
+     */
+    public static CompiledFunctions compile(List<TopLevel> tops) throws EvaluationException {
+        return compile(tops, DEFAULT_CALL_LIMIT);
+    }
+
+    /**
+     * Compiles the functions defined by some top-level constructs.
+     *
+     * @param tops The constructs.
+     * @param callLimit The maximum number of calls of one evaluation.
+     * @return The compiled functions.
+     * @throws EvaluationException If there is no Java compiler, or the generated code does not compile.
+     */
+    public static CompiledFunctions compile(List<TopLevel> tops, long callLimit) throws EvaluationException {
+        List<Object> key = new ArrayList<>();
+        key.add(callLimit);
+        for (TopLevel top : tops)
+            if (top instanceof TopLevelFunction || top instanceof TopLevelFunctions)
+                key.add(top.fingerprint());
+        synchronized (cache) {
+            CompiledFunctions functions = cache.get(key);
+            if (functions != null)
+                return functions;
+        }
+        FunctionCompiler compiler = new FunctionCompiler(tops);
+        String className = "Functions" + classes.incrementAndGet();
+        String source = compiler.generate(className);
+        Map<String, Integer> arities = new HashMap<>();
+        for (String function : compiler.getCompiled())
+            arities.put(function, compiler.arity(function));
+        Constructor<? extends CompiledRuntime> constructor = null;
+        if (!arities.isEmpty()) {
+            try {
+                constructor = load(FunctionCompiler.PACKAGE + "." + className, source)
+                        .asSubclass(CompiledRuntime.class).getConstructor(long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new EvaluationException("The compiled functions cannot be loaded.", e);
+            }
+        }
+        CompiledFunctions functions = new CompiledFunctions(arities,
+                Collections.unmodifiableSet(new HashSet<>(compiler.getSpecialized())),
+                source, constructor, callLimit);
+        synchronized (cache) {
+            cache.put(key, functions);
+        }
+        return functions;
+    }
+
+    /**
+     * Compiles a class in memory and loads it.
+     */
+    private static Class<?> load(String className, String source) throws EvaluationException, ClassNotFoundException {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null)
+            throw new EvaluationException("No Java compiler is available to compile the functions.");
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<String, ByteArrayOutputStream> outputs = new HashMap<>();
+        JavaFileObject unit = new SimpleJavaFileObject(
+                URI.create("string:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+        try (StandardJavaFileManager standard = javac.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8);
+             JavaFileManager files = new ForwardingJavaFileManager<StandardJavaFileManager>(standard) {
+                 @Override
+                 public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind,
+                                                            FileObject sibling) {
+                     ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                     outputs.put(name, bytes);
+                     return new SimpleJavaFileObject(
+                             URI.create("bytes:///" + name.replace('.', '/') + kind.extension), kind) {
+                         @Override
+                         public OutputStream openOutputStream() {
+                             return bytes;
+                         }
+                     };
+                 }
+             }) {
+            List<String> options = Arrays.asList("-classpath", classPath(), "-g:none", "-proc:none", "-nowarn");
+            if (!javac.getTask(null, files, diagnostics, options, null, Collections.singletonList(unit)).call()) {
+                StringBuilder message = new StringBuilder("The functions do not compile:");
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+                    if (diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                        message.append(' ').append(diagnostic.getMessage(null));
+                throw new EvaluationException(message.toString());
+            }
+        } catch (IOException e) {
+            throw new EvaluationException("The functions cannot be compiled.", e);
+        }
+        Map<String, byte[]> bytes = new HashMap<>();
+        for (Map.Entry<String, ByteArrayOutputStream> output : outputs.entrySet())
+            bytes.put(output.getKey(), output.getValue().toByteArray());
+        return new Loader(bytes).loadClass(className);
+    }
+
+    /**
+     * The class path of the compilation: the one of the JVM, and wherever this class was loaded from.
+     */
+    private static String classPath() {
+        String path = System.getProperty("java.class.path", "");
+        try {
+            String here = Paths.get(CompiledRuntime.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                    .toString();
+            path = path.isEmpty() ? here : path + File.pathSeparator + here;
+        } catch (Exception e) {
+            // Not from a file: the class path of the JVM has to do.
+        }
+        return path;
+    }
+
+    /**
+     * The loader of the compiled classes, which finds the rest through the loader of this one.
+     */
+    private static final class Loader extends ClassLoader {
+
+        private final Map<String, byte[]> classes;
+
+        Loader(Map<String, byte[]> classes) {
+            super(CompiledRuntime.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null)
+                throw new ClassNotFoundException(name);
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Whether a function is compiled.
+     */
+    public boolean isCompiled(String function) {
+        return arities.containsKey(function);
+    }
+
+    /**
+     * Whether a function is also compiled to code on {@code long}s and {@code boolean}s.
+     */
+    public boolean isSpecialized(String function) {
+        return specialized.contains(function);
+    }
+
+    /**
+     * The names of the compiled functions.
+     */
+    public Set<String> getFunctions() {
+        return Collections.unmodifiableSet(arities.keySet());
+    }
+
+    /**
+     * The Java source of the compiled functions.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Calls a compiled function.
+     *
+     * @param function The name of the function.
+     * @param arguments The values of the arguments.
+     * @return The value.
+     * @throws EvaluationException If the function is not compiled, or if the value cannot be determined here.
+     */
+    public Object call(String function, List<Object> arguments) throws EvaluationException {
+        Integer arity = arities.get(function);
+        if (arity == null)
+            throw new EvaluationException(function + " is not compiled.");
+        if (arity != arguments.size())
+            throw new EvaluationException(function + " takes " + arity + " arguments, not " + arguments.size() + ".");
+        CompiledRuntime functions = instances.get();
+        if (functions == null) {
+            try {
+                functions = constructor.newInstance(callLimit);
+            } catch (ReflectiveOperationException e) {
+                throw new EvaluationException("The compiled functions cannot be instantiated.", e);
+            }
+            instances.set(functions);
+        }
+        functions.start();
+        try {
+            return functions.invoke(function, arguments.toArray());
+        } catch (StackOverflowError e) {
+            throw new EvaluationException("The evaluation recursed too deeply.");
+        }
+    }
+}
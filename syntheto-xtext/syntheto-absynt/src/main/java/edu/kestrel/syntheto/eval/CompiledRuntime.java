@@ -0,0 +1,190 @@
+package edu.kestrel.syntheto.eval;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The superclass of the classes generated by {@link CompiledFunctions}, with the operations their code uses.
+ * <p>
+ * The operations on values are those of the {@link Evaluator}, with the same checks:
+ * they throw an {@link EvaluationException} whenever the evaluator would.
+ * The operations on {@code long} are used by the code specialized to primitive integers;
+ * the arithmetic there is exact, and an overflow throws an {@link ArithmeticException},
+ * after which the call is made again on {@link BigInteger}s.
+ * </p>
+ * <p>
+ * An instance counts the calls made through it, and is not thread-safe.
+ * </p>
+ */
+public abstract class CompiledRuntime {
+
+    private final long callLimit;
+
+    private long calls;
+
+    /**
+     * Constructs a runtime.
+     *
+     * @param callLimit The maximum number of calls of one evaluation.
+     */
+    protected CompiledRuntime(long callLimit) {
+        this.callLimit = callLimit;
+    }
+
+    /**
+     * Calls a compiled function.
+     *
+     * @param function The name of the function.
+     * @param arguments The values of the arguments, as many as the function takes.
+     * @return The value.
+     * @throws EvaluationException If the value cannot be determined here.
+     */
+    protected abstract Object invoke(String function, Object[] arguments) throws EvaluationException;
+
+    /**
+     * Starts an evaluation.
+     */
+    final void start() {
+        calls = 0;
+    }
+
+    /**
+     * Counts a call, at the start of each compiled function.
+     */
+    protected final void step() throws EvaluationException {
+        if (++calls > callLimit)
+            throw new EvaluationException("The evaluation took more than " + callLimit + " calls.");
+    }
+
+    protected static EvaluationException precondition(String function) {
+        return new EvaluationException("The precondition of " + function + " does not hold.");
+    }
+
+    protected static EvaluationException unknown(String function) {
+        return new EvaluationException(function + " is not compiled.");
+    }
+
+    protected static EvaluationException noBranch() {
+        return new EvaluationException("No condition holds in a cond expression.");
+    }
+
+    protected static Object noBranchValue() throws EvaluationException {
+        throw noBranch();
+    }
+
+    protected static boolean bool(Object value) throws EvaluationException {
+        return Evaluator.bool(value);
+    }
+
+    protected static Object not(Object value) throws EvaluationException {
+        return !Evaluator.bool(value);
+    }
+
+    protected static boolean equal(Object l, Object r) {
+        return l.equals(r);
+    }
+
+    protected static int compare(Object l, Object r) throws EvaluationException {
+        return Evaluator.compare(l, r);
+    }
+
+    protected static Object neg(Object value) throws EvaluationException {
+        return Evaluator.integer(value).negate();
+    }
+
+    protected static Object add(Object l, Object r) throws EvaluationException {
+        return Evaluator.integer(l).add(Evaluator.integer(r));
+    }
+
+    protected static Object sub(Object l, Object r) throws EvaluationException {
+        return Evaluator.integer(l).subtract(Evaluator.integer(r));
+    }
+
+    protected static Object mul(Object l, Object r) throws EvaluationException {
+        return Evaluator.integer(l).multiply(Evaluator.integer(r));
+    }
+
+    protected static Object div(Object l, Object r) throws EvaluationException {
+        return Evaluator.divide(Evaluator.integer(l), Evaluator.integer(r), false);
+    }
+
+    protected static Object rem(Object l, Object r) throws EvaluationException {
+        return Evaluator.divide(Evaluator.integer(l), Evaluator.integer(r), true);
+    }
+
+    protected static long div(long l, long r) throws EvaluationException {
+        checkDivision(l, r);
+        return l / r;
+    }
+
+    protected static long rem(long l, long r) throws EvaluationException {
+        checkDivision(l, r);
+        return l % r;
+    }
+
+    private static void checkDivision(long l, long r) throws EvaluationException {
+        if (l < 0 || r <= 0)
+            throw new EvaluationException("Cannot divide " + l + " by " + r + ".");
+    }
+
+    /**
+     * Whether a value is an integer that fits in a {@code long}.
+     */
+    protected static boolean isLong(Object value) {
+        return value instanceof BigInteger && ((BigInteger) value).bitLength() < Long.SIZE;
+    }
+
+    protected static long toLong(Object value) {
+        return ((BigInteger) value).longValue();
+    }
+
+    protected static boolean isBoolean(Object value) {
+        return value instanceof Boolean;
+    }
+
+    protected static boolean toBoolean(Object value) {
+        return (Boolean) value;
+    }
+
+    protected static Object builtin(String function, Object[] arguments) throws EvaluationException {
+        return Evaluator.builtin(function, null, Arrays.asList(arguments));
+    }
+
+    /**
+     * The empty collection of a kind: "set", "map", "string" or "sequence".
+     */
+    protected static Object empty(String kind) {
+        switch (kind) {
+            case "set":
+                return Collections.emptySet();
+            case "map":
+                return Collections.emptyMap();
+            case "string":
+                return "";
+            default:
+                return Collections.emptyList();
+        }
+    }
+
+    protected static Object multi(Object[] components) {
+        return MultiValue.make(Arrays.asList(components));
+    }
+
+    protected static Object component(Object multi, int index) throws EvaluationException {
+        if (!(multi instanceof MultiValue) || index >= ((MultiValue) multi).getComponents().size())
+            throw new EvaluationException("No component " + index + " in " + Values.show(multi) + ".");
+        return ((MultiValue) multi).getComponents().get(index);
+    }
+
+    /**
+     * The components of a value bound to some variables.
+     */
+    protected static Object[] components(Object multi, int variables) throws EvaluationException {
+        if (!(multi instanceof MultiValue) || ((MultiValue) multi).getComponents().size() != variables)
+            throw new EvaluationException("Cannot bind " + variables + " variables to " + Values.show(multi) + ".");
+        List<Object> components = ((MultiValue) multi).getComponents();
+        return components.toArray();
+    }
+}
@@ -0,0 +1,61 @@
+package edu.kestrel.syntheto.eval;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An assignment of values to the variables of a property that makes the property false,
+ * as found by a {@link Falsifier}.
+ */
+public final class Counterexample {
+
+    private final Map<String, Object> assignment;
+
+    private final long cases;
+
+    private final int shrinks;
+
+    Counterexample(Map<String, Object> assignment, long cases, int shrinks) {
+        this.assignment = Collections.unmodifiableMap(new LinkedHashMap<>(assignment));
+        this.cases = cases;
+        this.shrinks = shrinks;
+    }
+
+    /**
+     * The values of the variables, by name, in the order of the variables.
+     */
+    public Map<String, Object> getAssignment() {
+        return assignment;
+    }
+
+    /**
+     * Number of cases evaluated before the counterexample was found (by all threads).
+     */
+    public long getCases() {
+        return cases;
+    }
+
+    /**
+     * Number of times the counterexample was shrunk after it was found.
+     */
+    public int getShrinks() {
+        return shrinks;
+    }
+
+    /**
+     * The assignment, as in "x = 1, y = [2]".
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        Iterator<Map.Entry<String, Object>> entries = assignment.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Object> entry = entries.next();
+            s.append(entry.getKey()).append(" = ").append(Values.show(entry.getValue()));
+            if (entries.hasNext()) s.append(", ");
+        }
+        return new String(s);
+    }
+}
@@ -0,0 +1,29 @@
+package edu.kestrel.syntheto.eval;
+
+
+/**
+ * Exceptions thrown when a Syntheto expression cannot be evaluated in Java.
+ * <p>
+ * This does not mean that the expression is wrong:
+ * it may use a construct or a built-in function that the {@link Evaluator} does not cover,
+ * call a function outside of its precondition,
+ * or take more steps than allowed.
+ * Such an expression is left to ACL2.
+ * </p>
+ */
+public class EvaluationException extends Exception {
+
+    /**
+     * Constructs an evaluation exception with a message.
+     */
+    public EvaluationException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs an evaluation exception with a message and cause.
+     */
+    public EvaluationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,670 @@
+package edu.kestrel.syntheto.eval;
+
+import edu.kestrel.syntheto.ast.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An interpreter of Syntheto expressions, with the values of {@link Values}.
+ * <p>
+ * It evaluates the expressions of the abstract syntax directly:
+ * literals, variables, unary and binary operators, conditionals, bindings,
+ * multi-valued expressions and their components,
+ * construction, field access, test and update of products and sums,
+ * calls of the built-in functions on sequences and sets,
+ * and calls of the functions defined by expressions (see {@link #define(TopLevel)}).
+ * The results of the calls of defined functions are memoized,
+ * in a bounded table shared by all the evaluations,
+ * so that a recursive function called again with the same arguments is not evaluated again.
+ * The functions can also be compiled to Java code (see {@link #setCompiledFunctions}).
+ * </p>
+ * <p>
+ * The evaluator only returns values that ACL2 would also compute:
+ * when the result depends on how ACL2 completes a partial operation
+ * (e.g. the first element of an empty sequence, a division by zero,
+ * a call outside of the precondition of the function,
+ * or a product that does not satisfy the invariant of its type),
+ * or when the expression uses something not covered here,
+ * it throws an {@link EvaluationException} instead.
+ * The number of steps of an evaluation is bounded, so that it always terminates.
+ * </p>
+ * <p>
+ * An evaluator is not thread-safe; threads should use an evaluator each.
+ * </p>
+ */
+public class Evaluator {
+
+    /**
+     * Default maximum number of expressions evaluated by one evaluation.
+     */
+    public static final long DEFAULT_STEP_LIMIT = 1_000_000L;
+
+    /**
+     * Maximum number of memoized calls.
+     */
+    public static final int MEMO_CAPACITY = 1 << 16;
+
+    private final Map<String, FunctionDefinition> functions = new HashMap<>();
+
+    private final Map<String, TypeDefinition> types = new HashMap<>();
+
+    /**
+     * The memoized results of calls, keyed by the name of the function followed by the arguments,
+     * with the least recently used entry evicted when full.
+     */
+    private final Map<List<Object>, Object> memo = new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+            return size() > MEMO_CAPACITY;
+        }
+    };
+
+    private final long stepLimit;
+
+    private long steps;
+
+    private long calls;
+
+    private long memoHits;
+
+    private CompiledFunctions compiled;
+
+    /**
+     * Constructs an evaluator with the default step limit and no definitions.
+     */
+    public Evaluator() {
+        this(DEFAULT_STEP_LIMIT);
+    }
+
+    /**
+     * Constructs an evaluator with no definitions.
+     *
+     * @param stepLimit The maximum number of expressions evaluated by one evaluation.
+     */
+    public Evaluator(long stepLimit) {
+        this.stepLimit = stepLimit;
+    }
+
+    /**
+     * Constructs an evaluator with the default step limit and the definitions of some top-level constructs.
+     */
+    public Evaluator(List<TopLevel> tops) {
+        this();
+        for (TopLevel top : tops)
+            define(top);
+    }
+
+    /**
+     * Adds the functions and types defined by a top-level construct, if any.
+     * Other constructs (theorems, specifications, transformations) define nothing here.
+     */
+    public void define(TopLevel top) {
+        if (top instanceof TopLevelFunction) {
+            define(((TopLevelFunction) top).getFunctionDefinition());
+        } else if (top instanceof TopLevelFunctions) {
+            for (FunctionDefinition definition : ((TopLevelFunctions) top).getFunctionRecursion().getDefinitions())
+                define(definition);
+        } else if (top instanceof TopLevelType) {
+            define(((TopLevelType) top).getTypeDefinition());
+        } else if (top instanceof TopLevelTypes) {
+            for (TypeDefinition definition : ((TopLevelTypes) top).getTypeRecursion().getDefinitions())
+                define(definition);
+        }
+    }
+
+    private void define(FunctionDefinition definition) {
+        String name = definition.getHeader().getName().getName();
+        if (functions.put(name, definition) != null)
+            memo.keySet().removeIf(key -> key.get(0).equals(name));
+    }
+
+    private void define(TypeDefinition definition) {
+        types.put(definition.getName().getName(), definition);
+    }
+
+    /**
+     * Makes the calls of the functions compiled by a {@link CompiledFunctions} run their compiled code,
+     * instead of evaluating their definitions.
+     * The functions must have been compiled from the same definitions as the ones here.
+     *
+     * @param compiled The compiled functions, or null to evaluate all the definitions.
+     */
+    public void setCompiledFunctions(CompiledFunctions compiled) {
+        this.compiled = compiled;
+    }
+
+    /**
+     * The definition of a function, or null if it is not defined.
+     */
+    public FunctionDefinition getFunctionDefinition(String name) {
+        return functions.get(name);
+    }
+
+    /**
+     * The definition of a type, or null if it is not defined.
+     */
+    public TypeDefinition getTypeDefinition(String name) {
+        return types.get(name);
+    }
+
+    /**
+     * Number of calls of defined functions so far, including the ones answered by the memo table.
+     */
+    public long getCalls() {
+        return calls;
+    }
+
+    /**
+     * Number of calls of defined functions answered by the memo table so far.
+     */
+    public long getMemoHits() {
+        return memoHits;
+    }
+
+    /**
+     * Evaluates an expression.
+     *
+     * @param expression The expression.
+     * @param environment The values of the free variables of the expression, by name.
+     * @return The value.
+     * @throws EvaluationException If the value cannot be determined here.
+     */
+    public Object evaluate(Expression expression, Map<String, Object> environment) throws EvaluationException {
+        steps = 0;
+        try {
+            return eval(expression, environment);
+        } catch (StackOverflowError e) {
+            throw new EvaluationException("The evaluation recursed too deeply.");
+        }
+    }
+
+    /**
+     * Evaluates a call of a defined function.
+     *
+     * @param function The name of the function.
+     * @param arguments The values of the arguments.
+     * @return The value.
+     * @throws EvaluationException If the value cannot be determined here.
+     */
+    public Object call(String function, List<Object> arguments) throws EvaluationException {
+        FunctionDefinition definition = functions.get(function);
+        if (definition == null)
+            throw new EvaluationException("Unknown function " + function + ".");
+        steps = 0;
+        try {
+            return callFunction(definition, arguments);
+        } catch (StackOverflowError e) {
+            throw new EvaluationException("The evaluation recursed too deeply.");
+        }
+    }
+
+    private Object eval(Expression expression, Map<String, Object> env) throws EvaluationException {
+        if (++steps > stepLimit)
+            throw new EvaluationException("The evaluation took more than " + stepLimit + " steps.");
+        if (expression instanceof ExpressionLiteral)
+            return literal(((ExpressionLiteral) expression).getLiteral());
+        if (expression instanceof Variable) {
+            String name = ((Variable) expression).getName().getName();
+            if (!env.containsKey(name))
+                throw new EvaluationException("Unbound variable " + name + ".");
+            return env.get(name);
+        }
+        if (expression instanceof ExpressionUnary)
+            return unary((ExpressionUnary) expression, env);
+        if (expression instanceof ExpressionBinary)
+            return binary((ExpressionBinary) expression, env);
+        if (expression instanceof ExpressionIf) {
+            ExpressionIf e = (ExpressionIf) expression;
+            return bool(eval(e.getTest(), env)) ? eval(e.getThen(), env) : eval(e.getElse_(), env);
+        }
+        if (expression instanceof ExpressionWhen) {
+            ExpressionWhen e = (ExpressionWhen) expression;
+            return bool(eval(e.getTest(), env)) ? eval(e.getThen(), env) : eval(e.getElse_(), env);
+        }
+        if (expression instanceof ExpressionUnless) {
+            ExpressionUnless e = (ExpressionUnless) expression;
+            return bool(eval(e.getTest(), env)) ? eval(e.getElse_(), env) : eval(e.getThen(), env);
+        }
+        if (expression instanceof ExpressionCond) {
+            for (Branch branch : ((ExpressionCond) expression).getBranches())
+                if (bool(eval(branch.getCondition(), env)))
+                    return eval(branch.getAction(), env);
+            throw new EvaluationException("No condition holds in a cond expression.");
+        }
+        if (expression instanceof ExpressionCall)
+            return call((ExpressionCall) expression, env);
+        if (expression instanceof ExpressionBind)
+            return bind((ExpressionBind) expression, env);
+        if (expression instanceof ExpressionMulti) {
+            List<Object> components = new ArrayList<>();
+            for (Expression argument : ((ExpressionMulti) expression).getarguments())
+                components.add(eval(argument, env));
+            return MultiValue.make(components);
+        }
+        if (expression instanceof ExpressionComponent) {
+            ExpressionComponent e = (ExpressionComponent) expression;
+            Object multi = eval(e.getMulti(), env);
+            if (!(multi instanceof MultiValue) || e.getIndex() >= ((MultiValue) multi).getComponents().size())
+                throw new EvaluationException("No component " + e.getIndex() + " in " + Values.show(multi) + ".");
+            return ((MultiValue) multi).getComponents().get(e.getIndex());
+        }
+        if (expression instanceof ExpressionProductConstruct)
+            return productConstruct((ExpressionProductConstruct) expression, env);
+        if (expression instanceof ExpressionProductField) {
+            ExpressionProductField e = (ExpressionProductField) expression;
+            ProductValue target = product(eval(e.getTarget(), env));
+            return field(target.getFields(), e.getField().getName(), target.getType());
+        }
+        if (expression instanceof ExpressionProductUpdate) {
+            ExpressionProductUpdate e = (ExpressionProductUpdate) expression;
+            ProductValue target = product(eval(e.getTarget(), env));
+            try {
+                ProductValue updated = target.update(initializers(e.getFields(), env));
+                checkProductInvariant(updated.getType(), updated.getFields());
+                return updated;
+            } catch (IllegalArgumentException x) {
+                throw new EvaluationException(x.getMessage());
+            }
+        }
+        if (expression instanceof ExpressionSumConstruct)
+            return sumConstruct((ExpressionSumConstruct) expression, env);
+        if (expression instanceof ExpressionSumField) {
+            ExpressionSumField e = (ExpressionSumField) expression;
+            SumValue target = alternative(eval(e.getTarget(), env), e.getAlternative().getName());
+            return field(target.getFields(), e.getField().getName(), target.getAlternative());
+        }
+        if (expression instanceof ExpressionSumTest) {
+            ExpressionSumTest e = (ExpressionSumTest) expression;
+            Object target = eval(e.getTarget(), env);
+            if (!(target instanceof SumValue))
+                throw new EvaluationException("Not a sum: " + Values.show(target) + ".");
+            return ((SumValue) target).getAlternative().equals(e.getAlternative().getName());
+        }
+        if (expression instanceof ExpressionSumUpdate) {
+            ExpressionSumUpdate e = (ExpressionSumUpdate) expression;
+            SumValue target = alternative(eval(e.getTarget(), env), e.getAlternative().getName());
+            try {
+                SumValue updated = target.update(initializers(e.getFields(), env));
+                checkAlternativeInvariant(updated.getType(), updated.getAlternative(), updated.getFields());
+                return updated;
+            } catch (IllegalArgumentException x) {
+                throw new EvaluationException(x.getMessage());
+            }
+        }
+        throw new EvaluationException("Cannot evaluate " + expression.getClass().getSimpleName() + ".");
+    }
+
+    private static Object literal(Literal literal) throws EvaluationException {
+        if (literal instanceof LiteralBoolean)
+            return ((LiteralBoolean) literal).getValue();
+        if (literal instanceof LiteralInteger)
+            return ((LiteralInteger) literal).getValue();
+        if (literal instanceof LiteralCharacter)
+            return ((LiteralCharacter) literal).getValue();
+        if (literal instanceof LiteralString)
+            return ((LiteralString) literal).getValue();
+        throw new EvaluationException("Cannot evaluate " + literal.getClass().getSimpleName() + ".");
+    }
+
+    private Object unary(ExpressionUnary expression, Map<String, Object> env) throws EvaluationException {
+        Object operand = eval(expression.getOperand(), env);
+        switch (expression.getOperator()) {
+            case NOT:
+                return !bool(operand);
+            case MINUS:
+                return integer(operand).negate();
+            default:
+                throw new EvaluationException("Cannot evaluate " + expression.getOperator() + ".");
+        }
+    }
+
+    private Object binary(ExpressionBinary expression, Map<String, Object> env) throws EvaluationException {
+        Expression left = expression.getLeftOperand();
+        Expression right = expression.getRightOperand();
+        // The logical operators do not evaluate the second operand when the first one decides,
+        // as in ACL2 (where they are IFs), e.g. in x != 0 && y / x > 1.
+        switch (expression.getOperator()) {
+            case AND:
+                return bool(eval(left, env)) && bool(eval(right, env));
+            case OR:
+                return bool(eval(left, env)) || bool(eval(right, env));
+            case IMPLIES:
+                return !bool(eval(left, env)) || bool(eval(right, env));
+            case IMPLIED:
+                return !bool(eval(right, env)) || bool(eval(left, env));
+            default:
+                break;
+        }
+        Object l = eval(left, env);
+        Object r = eval(right, env);
+        switch (expression.getOperator()) {
+            case IFF:
+                return bool(l) == bool(r);
+            case EQ:
+                return l.equals(r);
+            case NE:
+                return !l.equals(r);
+            case LT:
+                return compare(l, r) < 0;
+            case LE:
+                return compare(l, r) <= 0;
+            case GT:
+                return compare(l, r) > 0;
+            case GE:
+                return compare(l, r) >= 0;
+            case ADD:
+                return integer(l).add(integer(r));
+            case SUB:
+                return integer(l).subtract(integer(r));
+            case MUL:
+                return integer(l).multiply(integer(r));
+            case DIV:
+                return divide(integer(l), integer(r), false);
+            case REM:
+                return divide(integer(l), integer(r), true);
+            default:
+                throw new EvaluationException("Cannot evaluate " + expression.getOperator() + ".");
+        }
+    }
+
+    /**
+     * Divides two integers, or takes the remainder.
+     * Truncation, floor and Euclidean division all agree on naturals,
+     * so only those are divided here.
+     */
+    static BigInteger divide(BigInteger dividend, BigInteger divisor, boolean remainder) throws EvaluationException {
+        if (dividend.signum() < 0 || divisor.signum() <= 0)
+            throw new EvaluationException("Cannot divide " + dividend + " by " + divisor + ".");
+        return remainder ? dividend.remainder(divisor) : dividend.divide(divisor);
+    }
+
+    private Object call(ExpressionCall expression, Map<String, Object> env) throws EvaluationException {
+        List<Object> arguments = new ArrayList<>(expression.getArguments().size());
+        for (Expression argument : expression.getArguments())
+            arguments.add(eval(argument, env));
+        String name = expression.getFunction().getName();
+        FunctionDefinition definition = functions.get(name);
+        if (definition != null)
+            return callFunction(definition, arguments);
+        return builtin(name, expression.getTypes(), arguments);
+    }
+
+    private Object callFunction(FunctionDefinition definition, List<Object> arguments) throws EvaluationException {
+        FunctionHeader header = definition.getHeader();
+        String name = header.getName().getName();
+        List<TypedVariable> inputs = header.getInputs();
+        if (inputs.size() != arguments.size())
+            throw new EvaluationException(name + " takes " + inputs.size() + " arguments, not " + arguments.size() + ".");
+        ++calls;
+        List<Object> key = new ArrayList<>(arguments.size() + 1);
+        key.add(name);
+        key.addAll(arguments);
+        Object result = memo.get(key);
+        if (result != null) {
+            ++memoHits;
+            return result;
+        }
+        if (compiled != null && compiled.isCompiled(name)) {
+            result = compiled.call(name, arguments);
+            memo.put(key, result);
+            return result;
+        }
+        if (!(definition.getDefiner() instanceof FunctionDefinerRegular))
+            throw new EvaluationException(name + " is not defined by an expression.");
+        Map<String, Object> env = new HashMap<>();
+        for (int i = 0; i < inputs.size(); ++i)
+            env.put(inputs.get(i).getName().getName(), arguments.get(i));
+        if (definition.getPrecondition() != null && !bool(eval(definition.getPrecondition(), env)))
+            throw new EvaluationException("The precondition of " + name + " does not hold.");
+        result = eval(((FunctionDefinerRegular) definition.getDefiner()).getBody(), env);
+        memo.put(key, result);
+        return result;
+    }
+
+    private Object bind(ExpressionBind expression, Map<String, Object> env) throws EvaluationException {
+        List<TypedVariable> variables = expression.getVariables();
+        Object value = eval(expression.getValue(), env);
+        Map<String, Object> extended = new HashMap<>(env);
+        if (variables.size() == 1) {
+            extended.put(variables.get(0).getName().getName(), value);
+        } else {
+            if (!(value instanceof MultiValue) || ((MultiValue) value).getComponents().size() != variables.size())
+                throw new EvaluationException("Cannot bind " + variables.size() + " variables to " + Values.show(value) + ".");
+            for (int i = 0; i < variables.size(); ++i)
+                extended.put(variables.get(i).getName().getName(), ((MultiValue) value).getComponents().get(i));
+        }
+        return eval(expression.getBody(), extended);
+    }
+
+    private Map<String, Object> initializers(List<Initializer> initializers, Map<String, Object> env)
+            throws EvaluationException {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (Initializer initializer : initializers)
+            fields.put(initializer.getField().getName(), eval(initializer.getValue(), env));
+        return fields;
+    }
+
+    private Object productConstruct(ExpressionProductConstruct expression, Map<String, Object> env)
+            throws EvaluationException {
+        String type = expression.getType().getName();
+        Map<String, Object> fields = initializers(expression.getFields(), env);
+        TypeDefinition definition = types.get(type);
+        if (definition != null && definition.getBody() instanceof TypeDefinerProduct) {
+            TypeProduct product = ((TypeDefinerProduct) definition.getBody()).getProduct();
+            fields = inTypeOrder(product, fields, type);
+            checkInvariant(product, fields, type);
+        }
+        return ProductValue.make(type, fields);
+    }
+
+    private Object sumConstruct(ExpressionSumConstruct expression, Map<String, Object> env)
+            throws EvaluationException {
+        String type = expression.getType().getName();
+        String alternative = expression.getAlternative().getName();
+        Map<String, Object> fields = initializers(expression.getFields(), env);
+        TypeProduct product = alternativeProduct(type, alternative);
+        if (product != null) {
+            fields = inTypeOrder(product, fields, alternative);
+            checkInvariant(product, fields, alternative);
+        }
+        return SumValue.make(type, alternative, fields);
+    }
+
+    /**
+     * The product of an alternative of a defined sum type, or null if the type is not defined here.
+     */
+    private TypeProduct alternativeProduct(String type, String alternative) throws EvaluationException {
+        TypeDefinition definition = types.get(type);
+        if (definition == null || !(definition.getBody() instanceof TypeDefinerSum))
+            return null;
+        for (Alternative a : ((TypeDefinerSum) definition.getBody()).getSum().getAlternatives())
+            if (a.getName().getName().equals(alternative))
+                return a.getProduct();
+        throw new EvaluationException("No alternative " + alternative + " in " + type + ".");
+    }
+
+    private static Map<String, Object> inTypeOrder(TypeProduct product, Map<String, Object> fields, String what)
+            throws EvaluationException {
+        if (product.getFields().size() != fields.size())
+            throw new EvaluationException("Wrong fields for " + what + ": " + fields.keySet() + ".");
+        Map<String, Object> ordered = new LinkedHashMap<>();
+        for (Field field : product.getFields()) {
+            String name = field.getName().getName();
+            if (!fields.containsKey(name))
+                throw new EvaluationException("Missing field " + name + " of " + what + ".");
+            ordered.put(name, fields.get(name));
+        }
+        return ordered;
+    }
+
+    private void checkProductInvariant(String type, Map<String, Object> fields) throws EvaluationException {
+        TypeDefinition definition = types.get(type);
+        if (definition != null && definition.getBody() instanceof TypeDefinerProduct)
+            checkInvariant(((TypeDefinerProduct) definition.getBody()).getProduct(), fields, type);
+    }
+
+    private void checkAlternativeInvariant(String type, String alternative, Map<String, Object> fields)
+            throws EvaluationException {
+        TypeProduct product = alternativeProduct(type, alternative);
+        if (product != null)
+            checkInvariant(product, fields, alternative);
+    }
+
+    /**
+     * Checks that the fields satisfy the invariant of a product, if any:
+     * ACL2 would replace a product that does not satisfy it with some default.
+     */
+    private void checkInvariant(TypeProduct product, Map<String, Object> fields, String what)
+            throws EvaluationException {
+        if (product.getInvariant() != null && !bool(eval(product.getInvariant(), new HashMap<>(fields))))
+            throw new EvaluationException("The invariant of " + what + " does not hold.");
+    }
+
+    private static Object field(Map<String, Object> fields, String field, String what) throws EvaluationException {
+        if (!fields.containsKey(field))
+            throw new EvaluationException("No field " + field + " in " + what + ".");
+        return fields.get(field);
+    }
+
+    private static ProductValue product(Object value) throws EvaluationException {
+        if (!(value instanceof ProductValue))
+            throw new EvaluationException("Not a product: " + Values.show(value) + ".");
+        return (ProductValue) value;
+    }
+
+    private static SumValue alternative(Object value, String alternative) throws EvaluationException {
+        if (!(value instanceof SumValue))
+            throw new EvaluationException("Not a sum: " + Values.show(value) + ".");
+        SumValue sum = (SumValue) value;
+        if (!sum.getAlternative().equals(alternative))
+            throw new EvaluationException(Values.show(value) + " is not a " + alternative + ".");
+        return sum;
+    }
+
+    /**
+     * Calls a built-in function.
+     * The element type of empty() comes from the type arguments of the call.
+     */
+    static Object builtin(String name, List<Type> types, List<Object> args) throws EvaluationException {
+        switch (name) {
+            case "empty":
+                arity(name, args, 0);
+                Type type = types == null || types.isEmpty() ? null : types.get(0);
+                if (type instanceof TypeSet)
+                    return Collections.emptySet();
+                if (type instanceof TypeMap)
+                    return Collections.emptyMap();
+                if (type instanceof TypeString)
+                    return "";
+                return Collections.emptyList();
+            case "is_empty":
+                arity(name, args, 1);
+                return size(args.get(0)) == 0;
+            case "length":
+                arity(name, args, 1);
+                return BigInteger.valueOf(size(args.get(0)));
+            case "first":
+            case "last":
+            case "rest": {
+                arity(name, args, 1);
+                Object s = args.get(0);
+                if (size(s) == 0)
+                    throw new EvaluationException(name + " of an empty sequence.");
+                if (s instanceof String) {
+                    String string = (String) s;
+                    return name.equals("first") ? (Object) string.charAt(0)
+                            : name.equals("last") ? (Object) string.charAt(string.length() - 1)
+                            : string.substring(1);
+                }
+                List<?> list = sequence(s);
+                return name.equals("first") ? list.get(0)
+                        : name.equals("last") ? list.get(list.size() - 1)
+                        : Collections.unmodifiableList(new ArrayList<>(list.subList(1, list.size())));
+            }
+            case "member": {
+                arity(name, args, 2);
+                Object collection = args.get(1);
+                if (collection instanceof Set)
+                    return ((Set<?>) collection).contains(args.get(0));
+                return sequence(collection).contains(args.get(0));
+            }
+            case "add": {
+                arity(name, args, 2);
+                Object collection = args.get(1);
+                if (collection instanceof Set) {
+                    Set<Object> set = new LinkedHashSet<>((Set<?>) collection);
+                    set.add(args.get(0));
+                    return Collections.unmodifiableSet(set);
+                }
+                List<Object> list = new ArrayList<>();
+                list.add(args.get(0));
+                list.addAll(sequence(collection));
+                return Collections.unmodifiableList(list);
+            }
+            case "append": {
+                arity(name, args, 2);
+                if (args.get(0) instanceof String && args.get(1) instanceof String)
+                    return (String) args.get(0) + args.get(1);
+                List<Object> list = new ArrayList<>(sequence(args.get(0)));
+                list.addAll(sequence(args.get(1)));
+                return Collections.unmodifiableList(list);
+            }
+            case "remove_first": {
+                arity(name, args, 2);
+                List<Object> list = new ArrayList<>(sequence(args.get(1)));
+                list.remove(args.get(0));
+                return Collections.unmodifiableList(list);
+            }
+            default:
+                throw new EvaluationException("Unknown function " + name + ".");
+        }
+    }
+
+    private static void arity(String name, List<Object> args, int arity) throws EvaluationException {
+        if (args.size() != arity)
+            throw new EvaluationException(name + " takes " + arity + " arguments, not " + args.size() + ".");
+    }
+
+    private static int size(Object value) throws EvaluationException {
+        if (value instanceof List) return ((List<?>) value).size();
+        if (value instanceof Set) return ((Set<?>) value).size();
+        if (value instanceof Map) return ((Map<?, ?>) value).size();
+        if (value instanceof String) return ((String) value).length();
+        throw new EvaluationException("Not a collection: " + Values.show(value) + ".");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> sequence(Object value) throws EvaluationException {
+        if (!(value instanceof List))
+            throw new EvaluationException("Not a sequence: " + Values.show(value) + ".");
+        return (List<Object>) value;
+    }
+
+    static boolean bool(Object value) throws EvaluationException {
+        if (!(value instanceof Boolean))
+            throw new EvaluationException("Not a boolean: " + Values.show(value) + ".");
+        return (Boolean) value;
+    }
+
+    static BigInteger integer(Object value) throws EvaluationException {
+        if (!(value instanceof BigInteger))
+            throw new EvaluationException("Not an integer: " + Values.show(value) + ".");
+        return (BigInteger) value;
+    }
+
+    static int compare(Object l, Object r) throws EvaluationException {
+        if (l instanceof BigInteger && r instanceof BigInteger)
+            return ((BigInteger) l).compareTo((BigInteger) r);
+        if (l instanceof Character && r instanceof Character)
+            return ((Character) l).compareTo((Character) r);
+        throw new EvaluationException("Cannot compare " + Values.show(l) + " and " + Values.show(r) + ".");
+    }
+}
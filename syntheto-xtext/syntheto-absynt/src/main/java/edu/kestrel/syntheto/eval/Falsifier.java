@@ -0,0 +1,441 @@
+package edu.kestrel.syntheto.eval;
+
+import edu.kestrel.syntheto.ast.*;
+import edu.kestrel.syntheto.outcome.Outcome;
+import edu.kestrel.syntheto.outcome.TheoremFailure;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A property-based tester that looks for counterexamples to theorems and function specifications
+ * before they are submitted to ACL2.
+ * <p>
+ * A property is a formula over typed variables.
+ * Its cases are assignments of values to the variables, made by a {@link ValueGenerator} from their types:
+ * first all the combinations of small values (when there are not too many of them),
+ * then random values of growing sizes.
+ * The cases are numbered, and the ranges of numbers are split across the threads of a fork-join pool;
+ * each thread evaluates its cases with an {@link Evaluator} of its own,
+ * optionally with the functions compiled to JVM code.
+ * When a case makes the formula false, the cases after it are skipped,
+ * and the first such case (the same whatever the number of threads) is shrunk,
+ * by trying smaller values of the variables as long as the formula stays false.
+ * Cases that cannot be evaluated are skipped: a counterexample is an assignment
+ * for which the formula certainly evaluates to false.
+ * </p>
+ * <p>
+ * The random cases are drawn from a seed and the case number, so the search is reproducible.
+ * A falsifier is thread-safe.
+ * </p>
+ * <p>
+ * A falsifier may be given a time budget for each property, and a cancellation check,
+ * both of which are checked between cases (each evaluation being bounded, see {@link Evaluator}).
+ * When the budget runs out, the search stops:
+ * the counterexample found by then, if any, may not be the first one, and is not shrunk further.
+ * When the search is cancelled, no counterexample is reported.
+ * </p>
+ */
+public class Falsifier {
+
+    /**
+     * Default number of random cases of a property.
+     */
+    public static final int DEFAULT_RANDOM_CASES = 1000;
+
+    /**
+     * Default maximum number of combinations of small values of a property.
+     * If there are more, none are tried, and only random cases are.
+     */
+    public static final int DEFAULT_EXHAUSTIVE_CASES = 4096;
+
+    /**
+     * Size of the largest random values (see {@link ValueGenerator#random}).
+     */
+    public static final int MAX_SIZE = 10;
+
+    /**
+     * Maximum number of times a counterexample is shrunk.
+     */
+    public static final int MAX_SHRINKS = 1000;
+
+    /**
+     * Default time budget of the search on a property, in milliseconds,
+     * for falsifiers constructed with a cancellation check.
+     */
+    public static final long DEFAULT_TIME_BUDGET_MILLIS = 2000;
+
+    /**
+     * Number of cases below which a range of cases is not split.
+     */
+    static final int GRAIN = 16;
+
+    private final ForkJoinPool pool;
+
+    private final int randomCases;
+
+    private final int exhaustiveCases;
+
+    private final long seed;
+
+    private final boolean compile;
+
+    private final long budgetNanos;
+
+    private final BooleanSupplier cancelled;
+
+    /**
+     * Constructs a falsifier on the common fork-join pool, with the default numbers of cases.
+     */
+    public Falsifier() {
+        this(ForkJoinPool.commonPool(), DEFAULT_RANDOM_CASES, DEFAULT_EXHAUSTIVE_CASES, 0L);
+    }
+
+    /**
+     * Constructs a falsifier.
+     *
+     * @param pool The pool the cases are evaluated in.
+     * @param randomCases The number of random cases of a property.
+     * @param exhaustiveCases The maximum number of combinations of small values of a property.
+     * @param seed The seed of the random cases.
+     */
+    public Falsifier(ForkJoinPool pool, int randomCases, int exhaustiveCases, long seed) {
+        this(pool, randomCases, exhaustiveCases, seed, false);
+    }
+
+    /**
+     * Constructs a falsifier that may run the functions of the properties as compiled code.
+     *
+     * @param pool The pool the cases are evaluated in.
+     * @param randomCases The number of random cases of a property.
+     * @param exhaustiveCases The maximum number of combinations of small values of a property.
+     * @param seed The seed of the random cases.
+     * @param compile Whether the functions are compiled (see {@link CompiledFunctions}),
+     *                which pays off for many cases of properties that call expensive functions.
+     */
+    public Falsifier(ForkJoinPool pool, int randomCases, int exhaustiveCases, long seed, boolean compile) {
+        this(pool, randomCases, exhaustiveCases, seed, compile, 0, () -> false);
+    }
+
+    /**
+     * Constructs a falsifier on the common fork-join pool, with the default numbers of cases,
+     * that gives up on a property after a time budget, or when cancelled.
+     *
+     * @param budget The time budget of the search on each property; 0 or less for none.
+     * @param unit The unit of the time budget.
+     * @param cancelled Tells whether the search has been cancelled, e.g. with the request it is part of.
+     */
+    public Falsifier(long budget, TimeUnit unit, BooleanSupplier cancelled) {
+        this(ForkJoinPool.commonPool(), DEFAULT_RANDOM_CASES, DEFAULT_EXHAUSTIVE_CASES, 0L, false,
+                unit.toNanos(budget), cancelled);
+    }
+
+    private Falsifier(ForkJoinPool pool, int randomCases, int exhaustiveCases, long seed, boolean compile,
+                      long budgetNanos, BooleanSupplier cancelled) {
+        this.pool = pool;
+        this.randomCases = randomCases;
+        this.exhaustiveCases = exhaustiveCases;
+        this.seed = seed;
+        this.compile = compile;
+        this.budgetNanos = budgetNanos > 0 ? budgetNanos : Long.MAX_VALUE;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Whether the searches of this falsifier have been cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled.getAsBoolean();
+    }
+
+    /**
+     * Looks for a counterexample to a theorem.
+     *
+     * @param context The top-level constructs before the theorem, which define the functions and types it uses.
+     * @param theorem The theorem.
+     * @return A {@link TheoremFailure} with a counterexample, or null if none was found.
+     */
+    public Outcome falsify(List<TopLevel> context, Theorem theorem) {
+        Counterexample counterexample = falsify(context, theorem.getVariables(), theorem.getFormula());
+        if (counterexample == null)
+            return null;
+        return failure("The theorem " + theorem.getName().getName() + " is false", counterexample);
+    }
+
+    /**
+     * Looks for a counterexample to the claim that some functions satisfy a specification.
+     * The functions are the implementations of the function variables of the specification, in order.
+     * Specifications with an existential quantifier are not tested.
+     *
+     * @param context The top-level constructs that define the functions, and the functions and types they use.
+     * @param specification The specification.
+     * @param implementations The names of the functions.
+     * @return A {@link TheoremFailure} with a counterexample, or null if none was found.
+     * @throws IllegalArgumentException If the functions do not match the function variables of the specification.
+     */
+    public Outcome falsify(List<TopLevel> context, FunctionSpecification specification, List<String> implementations) {
+        List<FunctionHeader> headers = specification.getFunctions();
+        if (headers.size() != implementations.size())
+            throw new IllegalArgumentException("The specification " + specification.getName().getName()
+                    + " has " + headers.size() + " function variables, not " + implementations.size() + ".");
+        // The function variables are defined as the implementations, under their own names.
+        Evaluator definitions = new Evaluator(context);
+        List<TopLevel> extended = new ArrayList<>(context);
+        for (int i = 0; i < headers.size(); ++i) {
+            FunctionDefinition implementation = definitions.getFunctionDefinition(implementations.get(i));
+            if (implementation == null)
+                throw new IllegalArgumentException("Unknown function " + implementations.get(i) + ".");
+            extended.add(TopLevelFunction.make(FunctionDefinition.make(
+                    FunctionHeader.make(headers.get(i).getName(),
+                            implementation.getHeader().getInputs(), implementation.getHeader().getOutputs()),
+                    implementation.getPrecondition(), implementation.getPostcondition(), implementation.getDefiner())));
+        }
+        List<TypedVariable> variables;
+        Expression formula;
+        FunctionSpecifier specifier = specification.getSpecifier();
+        if (specifier instanceof FunctionSpecifierRegular) {
+            variables = new ArrayList<>();
+            formula = ((FunctionSpecifierRegular) specifier).getBody();
+        } else if (specifier instanceof FunctionSpecifierQuantified
+                && ((FunctionSpecifierQuantified) specifier).getQuantifier() instanceof QuantifierForall) {
+            variables = ((FunctionSpecifierQuantified) specifier).getVariables();
+            formula = ((FunctionSpecifierQuantified) specifier).getMatrix();
+        } else if (specifier instanceof FunctionSpecifierInputOutput && headers.size() == 1) {
+            // The relation holds between any inputs and the outputs of the function on them.
+            FunctionHeader header = headers.get(0);
+            variables = header.getInputs();
+            List<Expression> arguments = new ArrayList<>();
+            for (TypedVariable input : variables)
+                arguments.add(Variable.make(input.getName()));
+            formula = ExpressionBind.make(header.getOutputs(), ExpressionCall.make(header.getName(), arguments),
+                    ((FunctionSpecifierInputOutput) specifier).getRelation());
+        } else {
+            return null;
+        }
+        Counterexample counterexample = falsify(extended, variables, formula);
+        if (counterexample == null)
+            return null;
+        return failure(String.join(", ", implementations) + " do not satisfy the specification "
+                + specification.getName().getName(), counterexample);
+    }
+
+    private static TheoremFailure failure(String claim, Counterexample counterexample) {
+        String assignment = counterexample.toString();
+        return TheoremFailure.make(claim + " (found by evaluation, without ACL2)"
+                + (assignment.isEmpty() ? "" : " for " + assignment) + ".");
+    }
+
+    /**
+     * Looks for a counterexample to a property.
+     *
+     * @param context The top-level constructs that define the functions and types the property uses.
+     * @param variables The variables of the property.
+     * @param formula The formula, which should be true for all the values of the variables.
+     * @return The first counterexample found, shrunk, or null if none was found or the search was cancelled.
+     */
+    public Counterexample falsify(List<TopLevel> context, List<TypedVariable> variables, Expression formula) {
+        Search search = new Search(context, variables, formula);
+        if (search.total > 0)
+            pool.invoke(new Cases(search, 0, search.total));
+        long first = search.first.get();
+        if (first == Long.MAX_VALUE || isCancelled())
+            return null;
+        return search.shrink(search.found.get(first));
+    }
+
+    /**
+     * The compiled functions of a context, or null if they cannot be compiled,
+     * in which case they are evaluated.
+     */
+    private static CompiledFunctions compiled(List<TopLevel> context) {
+        try {
+            return CompiledFunctions.compile(context);
+        } catch (EvaluationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The state of the search for a counterexample to a property.
+     */
+    private final class Search {
+
+        final List<TopLevel> context;
+
+        final List<TypedVariable> variables;
+
+        final Expression formula;
+
+        /**
+         * The small values of each variable, if all their combinations are tried.
+         */
+        final List<List<Object>> small = new ArrayList<>();
+
+        final long exhaustive;
+
+        final long total;
+
+        /**
+         * The evaluator and generator of each thread.
+         */
+        final ThreadLocal<ValueGenerator> generators;
+
+        /**
+         * The number of the first case found to be a counterexample so far.
+         */
+        final AtomicLong first = new AtomicLong(Long.MAX_VALUE);
+
+        final Map<Long, Map<String, Object>> found = new ConcurrentHashMap<>();
+
+        final AtomicLong cases = new AtomicLong();
+
+        final long start = System.nanoTime();
+
+        volatile boolean stopped = false;
+
+        Search(List<TopLevel> context, List<TypedVariable> variables, Expression formula) {
+            this.context = context;
+            this.variables = variables;
+            this.formula = formula;
+            CompiledFunctions compiled = compile ? compiled(context) : null;
+            this.generators = ThreadLocal.withInitial(() -> {
+                Evaluator evaluator = new Evaluator(context);
+                evaluator.setCompiledFunctions(compiled);
+                return new ValueGenerator(evaluator);
+            });
+            ValueGenerator generator = generators.get();
+            long combinations = 1;
+            for (TypedVariable variable : variables) {
+                List<Object> values = generator.small(variable.getType());
+                small.add(values);
+                combinations = Math.min(combinations * values.size(), exhaustiveCases + 1L);
+            }
+            exhaustive = combinations <= exhaustiveCases ? combinations : 0;
+            total = exhaustive + (variables.isEmpty() ? 0 : randomCases);
+        }
+
+        /**
+         * The assignment of a case, or null if no values were found for it.
+         */
+        Map<String, Object> assignment(long index, ValueGenerator generator) {
+            Map<String, Object> assignment = new LinkedHashMap<>();
+            if (index < exhaustive) {
+                // The digits of the index, in the mixed radix of the numbers of small values.
+                for (int i = 0; i < variables.size(); ++i) {
+                    List<Object> values = small.get(i);
+                    assignment.put(variables.get(i).getName().getName(), values.get((int) (index % values.size())));
+                    index /= values.size();
+                }
+            } else {
+                long n = index - exhaustive;
+                Random random = new Random(seed ^ (index * 0x9E3779B97F4A7C15L));
+                int size = 1 + (int) (n * MAX_SIZE / Math.max(randomCases, 1));
+                for (TypedVariable variable : variables) {
+                    Object value = generator.random(variable.getType(), random, size);
+                    if (value == null) return null;
+                    assignment.put(variable.getName().getName(), value);
+                }
+            }
+            return assignment;
+        }
+
+        /**
+         * Whether the search has run out of time or been cancelled.
+         */
+        boolean stopped() {
+            if (!stopped && (System.nanoTime() - start > budgetNanos || isCancelled()))
+                stopped = true;
+            return stopped;
+        }
+
+        /**
+         * Whether the formula is false for an assignment.
+         */
+        boolean fails(Map<String, Object> assignment, Evaluator evaluator) {
+            try {
+                return Boolean.FALSE.equals(evaluator.evaluate(formula, assignment));
+            } catch (EvaluationException e) {
+                return false;
+            }
+        }
+
+        void run(long from, long to) {
+            ValueGenerator generator = generators.get();
+            Evaluator evaluator = generator.getEvaluator();
+            for (long index = from; index < to && index < first.get() && !stopped(); ++index) {
+                Map<String, Object> assignment = assignment(index, generator);
+                if (assignment == null)
+                    continue;
+                cases.incrementAndGet();
+                if (fails(assignment, evaluator)) {
+                    found.put(index, assignment);
+                    first.accumulateAndGet(index, Math::min);
+                    return;
+                }
+            }
+        }
+
+        Counterexample shrink(Map<String, Object> assignment) {
+            ValueGenerator generator = generators.get();
+            Evaluator evaluator = generator.getEvaluator();
+            int shrinks = 0;
+            boolean shrunk = true;
+            while (shrunk && shrinks < MAX_SHRINKS && !stopped()) {
+                shrunk = false;
+                for (int i = 0; i < variables.size() && !shrunk; ++i) {
+                    String name = variables.get(i).getName().getName();
+                    for (Object smaller : generator.shrink(variables.get(i).getType(), assignment.get(name))) {
+                        Map<String, Object> candidate = new LinkedHashMap<>(assignment);
+                        candidate.put(name, smaller);
+                        if (fails(candidate, evaluator)) {
+                            assignment = candidate;
+                            ++shrinks;
+                            shrunk = true;
+                            break;
+                        }
+                    }
+                }
+            }
+            return new Counterexample(assignment, cases.get(), shrinks);
+        }
+    }
+
+    /**
+     * A range of cases, split in halves across the pool until it is small.
+     */
+    private static final class Cases extends RecursiveAction {
+
+        private final Search search;
+
+        private final long from;
+
+        private final long to;
+
+        Cases(Search search, long from, long to) {
+            this.search = search;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (from >= search.first.get() || search.stopped())
+                return;
+            if (to - from <= GRAIN) {
+                search.run(from, to);
+                return;
+            }
+            long middle = from + (to - from) / 2;
+            invokeAll(new Cases(search, from, middle), new Cases(search, middle, to));
+        }
+    }
+}
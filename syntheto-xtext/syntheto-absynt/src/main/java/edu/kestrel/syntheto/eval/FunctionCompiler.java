@@ -0,0 +1,745 @@
+package edu.kestrel.syntheto.eval;
+
+import edu.kestrel.syntheto.ast.*;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The translation of the functions defined by expressions to the Java source of a subclass of {@link CompiledRuntime}.
+ * <p>
+ * Each function is translated to a method on values, like those of the {@link Evaluator}.
+ * The functions whose inputs and output are integers and booleans,
+ * and whose bodies only use integer and boolean operations and call such functions,
+ * are also translated to a method on {@code long} and {@code boolean},
+ * which is tried first (see {@link CompiledRuntime}).
+ * </p>
+ * <p>
+ * The translation covers literals, variables, unary and binary operators, conditionals,
+ * bindings (in the positions where they can become Java declarations: bodies of functions, bindings and branches),
+ * multi-valued expressions and their components,
+ * and calls of the built-in functions and of the functions translated here.
+ * A function that uses anything else, or calls a function that is not translated, is not translated;
+ * the {@link Evaluator} evaluates it instead.
+ * </p>
+ */
+final class FunctionCompiler {
+
+    /**
+     * The package of the generated classes.
+     */
+    static final String PACKAGE = "edu.kestrel.syntheto.eval.compiled";
+
+    private static final Set<String> BUILTINS = new HashSet<>(Arrays.asList(
+            "empty", "is_empty", "length", "first", "last", "rest", "member", "add", "append", "remove_first"));
+
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    /**
+     * The kinds of values of the specialized code.
+     */
+    private enum Kind {
+        LONG("long"), BOOLEAN("boolean");
+
+        final String java;
+
+        Kind(String java) {
+            this.java = java;
+        }
+    }
+
+    /**
+     * A Java expression, with its kind in the specialized code.
+     */
+    private static final class Code {
+
+        final String text;
+
+        final Kind kind;
+
+        Code(String text, Kind kind) {
+            this.text = text;
+            this.kind = kind;
+        }
+    }
+
+    /**
+     * Thrown when something cannot be translated.
+     */
+    private static final class Unsupported extends Exception {
+
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private final Map<String, FunctionDefinition> functions = new LinkedHashMap<>();
+
+    private final Set<String> compiled = new LinkedHashSet<>();
+
+    /**
+     * The kinds of the outputs of the specialized functions.
+     */
+    private final Map<String, Kind> specialized = new LinkedHashMap<>();
+
+    private final Map<BigInteger, String> constants = new LinkedHashMap<>();
+
+    private int locals;
+
+    /**
+     * Constructs a compiler of the functions defined by some top-level constructs.
+     * As in the {@link Evaluator}, a later definition of a function replaces an earlier one.
+     */
+    FunctionCompiler(List<TopLevel> tops) {
+        for (TopLevel top : tops) {
+            if (top instanceof TopLevelFunction) {
+                define(((TopLevelFunction) top).getFunctionDefinition());
+            } else if (top instanceof TopLevelFunctions) {
+                for (FunctionDefinition definition : ((TopLevelFunctions) top).getFunctionRecursion().getDefinitions())
+                    define(definition);
+            }
+        }
+    }
+
+    private void define(FunctionDefinition definition) {
+        functions.put(definition.getHeader().getName().getName(), definition);
+    }
+
+    /**
+     * The names of the functions translated, after {@link #generate}.
+     */
+    Set<String> getCompiled() {
+        return compiled;
+    }
+
+    /**
+     * The names of the functions also specialized to {@code long} and {@code boolean}, after {@link #generate}.
+     */
+    Set<String> getSpecialized() {
+        return specialized.keySet();
+    }
+
+    /**
+     * The number of inputs of a function.
+     */
+    int arity(String function) {
+        return functions.get(function).getHeader().getInputs().size();
+    }
+
+    /**
+     * Translates the functions that can be translated.
+     *
+     * @param className The simple name of the class, in {@link #PACKAGE}.
+     * @return The source of the class.
+     */
+    String generate(String className) {
+        compiled.clear();
+        specialized.clear();
+        for (Map.Entry<String, FunctionDefinition> entry : functions.entrySet()) {
+            FunctionDefinition definition = entry.getValue();
+            if (!(definition.getDefiner() instanceof FunctionDefinerRegular))
+                continue;
+            compiled.add(entry.getKey());
+            List<TypedVariable> outputs = definition.getHeader().getOutputs();
+            Kind output = outputs.size() == 1 ? kind(outputs.get(0).getType()) : null;
+            boolean primitive = output != null;
+            for (TypedVariable input : definition.getHeader().getInputs())
+                primitive &= kind(input.getType()) != null;
+            if (primitive)
+                specialized.put(entry.getKey(), output);
+        }
+        // Leave out the functions that cannot be translated, until the others only call each other.
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Iterator<String> i = compiled.iterator(); i.hasNext(); ) {
+                String name = i.next();
+                try {
+                    method(name, functions.get(name), new StringBuilder());
+                } catch (Unsupported e) {
+                    i.remove();
+                    specialized.remove(name);
+                    changed = true;
+                }
+            }
+            for (Iterator<String> i = specialized.keySet().iterator(); i.hasNext(); ) {
+                String name = i.next();
+                try {
+                    specializedMethod(name, functions.get(name), new StringBuilder());
+                } catch (Unsupported e) {
+                    i.remove();
+                    changed = true;
+                }
+            }
+        }
+        constants.clear();
+        locals = 0;
+        StringBuilder methods = new StringBuilder();
+        try {
+            for (String name : compiled) {
+                method(name, functions.get(name), methods);
+                if (specialized.containsKey(name)) {
+                    specializedMethod(name, functions.get(name), methods);
+                    bridge(name, functions.get(name), methods);
+                }
+            }
+        } catch (Unsupported e) {
+            throw new IllegalStateException("Translated before: " + e.getMessage());
+        }
+        StringBuilder source = new StringBuilder();
+        source.append("package ").append(PACKAGE).append(";\n\n")
+                .append("import edu.kestrel.syntheto.eval.CompiledRuntime;\n")
+                .append("import edu.kestrel.syntheto.eval.EvaluationException;\n")
+                .append("import java.math.BigInteger;\n\n")
+                .append("public final class ").append(className).append(" extends CompiledRuntime {\n\n");
+        for (Map.Entry<BigInteger, String> constant : constants.entrySet())
+            source.append("    private static final BigInteger ").append(constant.getValue())
+                    .append(" = new BigInteger(\"").append(constant.getKey()).append("\");\n\n");
+        source.append("    public ").append(className).append("(long callLimit) {\n")
+                .append("        super(callLimit);\n")
+                .append("    }\n\n")
+                .append("    @Override\n")
+                .append("    protected Object invoke(String function, Object[] a) throws EvaluationException {\n")
+                .append("        switch (function) {\n");
+        for (String name : compiled) {
+            source.append("            case ").append(quote(name)).append(":\n")
+                    .append("                return ").append(specialized.containsKey(name) ? "b_" : "f_")
+                    .append(mangle(name)).append('(');
+            for (int i = 0; i < arity(name); ++i)
+                source.append(i == 0 ? "" : ", ").append("a[").append(i).append(']');
+            source.append(");\n");
+        }
+        source.append("            default:\n")
+                .append("                throw unknown(function);\n")
+                .append("        }\n")
+                .append("    }\n")
+                .append(methods)
+                .append("}\n");
+        return source.toString();
+    }
+
+    private static Kind kind(Type type) {
+        if (type instanceof TypeInteger)
+            return Kind.LONG;
+        if (type instanceof TypeBoolean)
+            return Kind.BOOLEAN;
+        return null;
+    }
+
+    /**
+     * Appends the method on values of a function.
+     */
+    private void method(String name, FunctionDefinition definition, StringBuilder out) throws Unsupported {
+        Map<String, String> scope = new HashMap<>();
+        out.append("\n    private Object f_").append(mangle(name)).append('(');
+        parameters(definition, out, scope, null);
+        out.append(") throws EvaluationException {\n")
+                .append("        step();\n");
+        if (definition.getPrecondition() != null)
+            out.append("        if (!bool(").append(expression(definition.getPrecondition(), scope)).append("))\n")
+                    .append("            throw precondition(").append(quote(name)).append(");\n");
+        statement(((FunctionDefinerRegular) definition.getDefiner()).getBody(), scope, "        ", out);
+        out.append("    }\n");
+    }
+
+    /**
+     * Appends the method on {@code long} and {@code boolean} of a function.
+     */
+    private void specializedMethod(String name, FunctionDefinition definition, StringBuilder out) throws Unsupported {
+        Map<String, Code> scope = new HashMap<>();
+        out.append("\n    private ").append(specialized.get(name).java).append(" s_").append(mangle(name)).append('(');
+        parameters(definition, out, null, scope);
+        out.append(") throws EvaluationException {\n")
+                .append("        step();\n");
+        if (definition.getPrecondition() != null)
+            out.append("        if (!").append(expected(definition.getPrecondition(), scope, Kind.BOOLEAN)).append(")\n")
+                    .append("            throw precondition(").append(quote(name)).append(");\n");
+        specializedStatement(((FunctionDefinerRegular) definition.getDefiner()).getBody(), scope, specialized.get(name),
+                "        ", out);
+        out.append("    }\n");
+    }
+
+    /**
+     * Appends the method that calls the specialized method of a function when its arguments fit,
+     * and the method on values otherwise, or when the specialized method overflows.
+     */
+    private void bridge(String name, FunctionDefinition definition, StringBuilder out) {
+        List<TypedVariable> inputs = definition.getHeader().getInputs();
+        out.append("\n    private Object b_").append(mangle(name)).append('(');
+        for (int i = 0; i < inputs.size(); ++i)
+            out.append(i == 0 ? "" : ", ").append("Object a").append(i);
+        StringBuilder fits = new StringBuilder();
+        StringBuilder arguments = new StringBuilder();
+        for (int i = 0; i < inputs.size(); ++i) {
+            boolean isLong = kind(inputs.get(i).getType()) == Kind.LONG;
+            fits.append(i == 0 ? "" : " && ").append(isLong ? "isLong(a" : "isBoolean(a").append(i).append(')');
+            arguments.append(i == 0 ? "" : ", ").append(isLong ? "toLong(a" : "toBoolean(a").append(i).append(')');
+        }
+        out.append(") throws EvaluationException {\n")
+                .append("        if (").append(inputs.isEmpty() ? "true" : fits).append(") {\n")
+                .append("            try {\n")
+                .append("                return ").append(specialized.get(name) == Kind.LONG ? "BigInteger" : "Boolean")
+                .append(".valueOf(s_").append(mangle(name)).append('(').append(arguments).append("));\n")
+                .append("            } catch (ArithmeticException e) {\n")
+                .append("                // An intermediate result does not fit in a long.\n")
+                .append("            }\n")
+                .append("        }\n")
+                .append("        return f_").append(mangle(name)).append('(');
+        for (int i = 0; i < inputs.size(); ++i)
+            out.append(i == 0 ? "" : ", ").append('a').append(i);
+        out.append(");\n")
+                .append("    }\n");
+    }
+
+    private static void parameters(FunctionDefinition definition, StringBuilder out,
+                                   Map<String, String> scope, Map<String, Code> specializedScope) throws Unsupported {
+        boolean first = true;
+        for (TypedVariable input : definition.getHeader().getInputs()) {
+            String name = input.getName().getName();
+            String java = "p_" + mangle(name);
+            if (scope != null) {
+                if (scope.put(name, java) != null)
+                    throw new Unsupported("Repeated input " + name + ".");
+                out.append(first ? "" : ", ").append("Object ").append(java);
+            } else {
+                Kind kind = kind(input.getType());
+                if (specializedScope.put(name, new Code(java, kind)) != null)
+                    throw new Unsupported("Repeated input " + name + ".");
+                out.append(first ? "" : ", ").append(kind.java).append(' ').append(java);
+            }
+            first = false;
+        }
+    }
+
+    private String local(String name) {
+        return "l" + locals++ + "_" + mangle(name);
+    }
+
+    /**
+     * Appends the statements that return the value of an expression.
+     */
+    private void statement(Expression expression, Map<String, String> scope, String indent, StringBuilder out)
+            throws Unsupported {
+        if (expression instanceof ExpressionIf) {
+            ExpressionIf e = (ExpressionIf) expression;
+            branches(e.getTest(), e.getThen(), e.getElse_(), scope, indent, out);
+        } else if (expression instanceof ExpressionWhen) {
+            ExpressionWhen e = (ExpressionWhen) expression;
+            branches(e.getTest(), e.getThen(), e.getElse_(), scope, indent, out);
+        } else if (expression instanceof ExpressionUnless) {
+            ExpressionUnless e = (ExpressionUnless) expression;
+            branches(e.getTest(), e.getElse_(), e.getThen(), scope, indent, out);
+        } else if (expression instanceof ExpressionCond) {
+            for (Branch branch : ((ExpressionCond) expression).getBranches()) {
+                out.append(indent).append("if (bool(").append(expression(branch.getCondition(), scope)).append(")) {\n");
+                statement(branch.getAction(), scope, indent + "    ", out);
+                out.append(indent).append("}\n");
+            }
+            out.append(indent).append("throw noBranch();\n");
+        } else if (expression instanceof ExpressionBind) {
+            ExpressionBind e = (ExpressionBind) expression;
+            List<TypedVariable> variables = e.getVariables();
+            String value = expression(e.getValue(), scope);
+            Map<String, String> extended = new HashMap<>(scope);
+            if (variables.size() == 1) {
+                String java = local(variables.get(0).getName().getName());
+                out.append(indent).append("final Object ").append(java).append(" = ").append(value).append(";\n");
+                extended.put(variables.get(0).getName().getName(), java);
+            } else {
+                String components = local("components");
+                out.append(indent).append("final Object[] ").append(components).append(" = components(")
+                        .append(value).append(", ").append(variables.size()).append(");\n");
+                for (int i = 0; i < variables.size(); ++i) {
+                    String java = local(variables.get(i).getName().getName());
+                    out.append(indent).append("final Object ").append(java).append(" = ")
+                            .append(components).append('[').append(i).append("];\n");
+                    extended.put(variables.get(i).getName().getName(), java);
+                }
+            }
+            statement(e.getBody(), extended, indent, out);
+        } else {
+            out.append(indent).append("return ").append(expression(expression, scope)).append(";\n");
+        }
+    }
+
+    private void branches(Expression test, Expression then, Expression else_, Map<String, String> scope,
+                          String indent, StringBuilder out) throws Unsupported {
+        out.append(indent).append("if (bool(").append(expression(test, scope)).append(")) {\n");
+        statement(then, scope, indent + "    ", out);
+        out.append(indent).append("} else {\n");
+        statement(else_, scope, indent + "    ", out);
+        out.append(indent).append("}\n");
+    }
+
+    /**
+     * The Java expression of type {@code Object} for the value of an expression.
+     */
+    private String expression(Expression expression, Map<String, String> scope) throws Unsupported {
+        if (expression instanceof ExpressionLiteral)
+            return literal(((ExpressionLiteral) expression).getLiteral());
+        if (expression instanceof Variable) {
+            String java = scope.get(((Variable) expression).getName().getName());
+            if (java == null)
+                throw new Unsupported("Unbound variable.");
+            return java;
+        }
+        if (expression instanceof ExpressionUnary) {
+            ExpressionUnary e = (ExpressionUnary) expression;
+            String operand = expression(e.getOperand(), scope);
+            switch (e.getOperator()) {
+                case NOT:
+                    return "not(" + operand + ")";
+                case MINUS:
+                    return "neg(" + operand + ")";
+                default:
+                    throw new Unsupported(e.getOperator().toString());
+            }
+        }
+        if (expression instanceof ExpressionBinary) {
+            ExpressionBinary e = (ExpressionBinary) expression;
+            String l = expression(e.getLeftOperand(), scope);
+            String r = expression(e.getRightOperand(), scope);
+            switch (e.getOperator()) {
+                case AND:
+                    return "Boolean.valueOf(bool(" + l + ") && bool(" + r + "))";
+                case OR:
+                    return "Boolean.valueOf(bool(" + l + ") || bool(" + r + "))";
+                case IMPLIES:
+                    return "Boolean.valueOf(!bool(" + l + ") || bool(" + r + "))";
+                case IMPLIED:
+                    return "Boolean.valueOf(!bool(" + r + ") || bool(" + l + "))";
+                case IFF:
+                    return "Boolean.valueOf(bool(" + l + ") == bool(" + r + "))";
+                case EQ:
+                    return "Boolean.valueOf(equal(" + l + ", " + r + "))";
+                case NE:
+                    return "Boolean.valueOf(!equal(" + l + ", " + r + "))";
+                case LT:
+                    return "Boolean.valueOf(compare(" + l + ", " + r + ") < 0)";
+                case LE:
+                    return "Boolean.valueOf(compare(" + l + ", " + r + ") <= 0)";
+                case GT:
+                    return "Boolean.valueOf(compare(" + l + ", " + r + ") > 0)";
+                case GE:
+                    return "Boolean.valueOf(compare(" + l + ", " + r + ") >= 0)";
+                case ADD:
+                    return "add(" + l + ", " + r + ")";
+                case SUB:
+                    return "sub(" + l + ", " + r + ")";
+                case MUL:
+                    return "mul(" + l + ", " + r + ")";
+                case DIV:
+                    return "div(" + l + ", " + r + ")";
+                case REM:
+                    return "rem(" + l + ", " + r + ")";
+                default:
+                    throw new Unsupported(e.getOperator().toString());
+            }
+        }
+        if (expression instanceof ExpressionIf) {
+            ExpressionIf e = (ExpressionIf) expression;
+            return conditional(e.getTest(), e.getThen(), e.getElse_(), scope);
+        }
+        if (expression instanceof ExpressionWhen) {
+            ExpressionWhen e = (ExpressionWhen) expression;
+            return conditional(e.getTest(), e.getThen(), e.getElse_(), scope);
+        }
+        if (expression instanceof ExpressionUnless) {
+            ExpressionUnless e = (ExpressionUnless) expression;
+            return conditional(e.getTest(), e.getElse_(), e.getThen(), scope);
+        }
+        if (expression instanceof ExpressionCond) {
+            StringBuilder code = new StringBuilder("(");
+            for (Branch branch : ((ExpressionCond) expression).getBranches())
+                code.append("bool(").append(expression(branch.getCondition(), scope)).append(") ? (Object) ")
+                        .append(expression(branch.getAction(), scope)).append(" : ");
+            return code.append("noBranchValue())").toString();
+        }
+        if (expression instanceof ExpressionCall)
+            return call((ExpressionCall) expression, scope);
+        if (expression instanceof ExpressionMulti)
+            return "multi(" + array(((ExpressionMulti) expression).getarguments(), scope) + ")";
+        if (expression instanceof ExpressionComponent) {
+            ExpressionComponent e = (ExpressionComponent) expression;
+            return "component(" + expression(e.getMulti(), scope) + ", " + e.getIndex() + ")";
+        }
+        throw new Unsupported(expression.getClass().getSimpleName());
+    }
+
+    private String conditional(Expression test, Expression then, Expression else_, Map<String, String> scope)
+            throws Unsupported {
+        return "(bool(" + expression(test, scope) + ") ? (Object) " + expression(then, scope)
+                + " : " + expression(else_, scope) + ")";
+    }
+
+    private String array(List<Expression> expressions, Map<String, String> scope) throws Unsupported {
+        StringBuilder code = new StringBuilder("new Object[] {");
+        for (int i = 0; i < expressions.size(); ++i)
+            code.append(i == 0 ? "" : ", ").append(expression(expressions.get(i), scope));
+        return code.append('}').toString();
+    }
+
+    private String call(ExpressionCall expression, Map<String, String> scope) throws Unsupported {
+        String name = expression.getFunction().getName();
+        List<Expression> arguments = expression.getArguments();
+        if (functions.containsKey(name)) {
+            if (!compiled.contains(name) || arity(name) != arguments.size())
+                throw new Unsupported("Call of " + name + ".");
+            StringBuilder code = new StringBuilder(specialized.containsKey(name) ? "b_" : "f_")
+                    .append(mangle(name)).append('(');
+            for (int i = 0; i < arguments.size(); ++i)
+                code.append(i == 0 ? "" : ", ").append(expression(arguments.get(i), scope));
+            return code.append(')').toString();
+        }
+        if (!BUILTINS.contains(name))
+            throw new Unsupported("Call of " + name + ".");
+        if (name.equals("empty") && arguments.isEmpty()) {
+            List<Type> types = expression.getTypes();
+            Type type = types == null || types.isEmpty() ? null : types.get(0);
+            return type instanceof TypeSet ? "empty(\"set\")"
+                    : type instanceof TypeMap ? "empty(\"map\")"
+                    : type instanceof TypeString ? "empty(\"string\")"
+                    : "empty(\"sequence\")";
+        }
+        return "builtin(" + quote(name) + ", " + array(arguments, scope) + ")";
+    }
+
+    private String literal(Literal literal) throws Unsupported {
+        if (literal instanceof LiteralBoolean)
+            return ((LiteralBoolean) literal).getValue() ? "Boolean.TRUE" : "Boolean.FALSE";
+        if (literal instanceof LiteralInteger)
+            return constants.computeIfAbsent(((LiteralInteger) literal).getValue(), value -> "K" + constants.size());
+        if (literal instanceof LiteralCharacter)
+            return "Character.valueOf((char) " + (int) ((LiteralCharacter) literal).getValue() + ")";
+        if (literal instanceof LiteralString)
+            return quote(((LiteralString) literal).getValue());
+        throw new Unsupported(literal.getClass().getSimpleName());
+    }
+
+    /**
+     * Appends the statements that return the value of an expression, in the specialized code.
+     */
+    private void specializedStatement(Expression expression, Map<String, Code> scope, Kind kind, String indent,
+                                      StringBuilder out) throws Unsupported {
+        if (expression instanceof ExpressionIf) {
+            ExpressionIf e = (ExpressionIf) expression;
+            specializedBranches(e.getTest(), e.getThen(), e.getElse_(), scope, kind, indent, out);
+        } else if (expression instanceof ExpressionWhen) {
+            ExpressionWhen e = (ExpressionWhen) expression;
+            specializedBranches(e.getTest(), e.getThen(), e.getElse_(), scope, kind, indent, out);
+        } else if (expression instanceof ExpressionUnless) {
+            ExpressionUnless e = (ExpressionUnless) expression;
+            specializedBranches(e.getTest(), e.getElse_(), e.getThen(), scope, kind, indent, out);
+        } else if (expression instanceof ExpressionCond) {
+            for (Branch branch : ((ExpressionCond) expression).getBranches()) {
+                out.append(indent).append("if (").append(expected(branch.getCondition(), scope, Kind.BOOLEAN))
+                        .append(") {\n");
+                specializedStatement(branch.getAction(), scope, kind, indent + "    ", out);
+                out.append(indent).append("}\n");
+            }
+            out.append(indent).append("throw noBranch();\n");
+        } else if (expression instanceof ExpressionBind) {
+            ExpressionBind e = (ExpressionBind) expression;
+            if (e.getVariables().size() != 1)
+                throw new Unsupported("Binding of several variables.");
+            Code value = specialized(e.getValue(), scope);
+            String name = e.getVariables().get(0).getName().getName();
+            String java = local(name);
+            out.append(indent).append("final ").append(value.kind.java).append(' ').append(java).append(" = ")
+                    .append(value.text).append(";\n");
+            Map<String, Code> extended = new HashMap<>(scope);
+            extended.put(name, new Code(java, value.kind));
+            specializedStatement(e.getBody(), extended, kind, indent, out);
+        } else {
+            out.append(indent).append("return ").append(expected(expression, scope, kind)).append(";\n");
+        }
+    }
+
+    private void specializedBranches(Expression test, Expression then, Expression else_, Map<String, Code> scope,
+                                     Kind kind, String indent, StringBuilder out) throws Unsupported {
+        out.append(indent).append("if (").append(expected(test, scope, Kind.BOOLEAN)).append(") {\n");
+        specializedStatement(then, scope, kind, indent + "    ", out);
+        out.append(indent).append("} else {\n");
+        specializedStatement(else_, scope, kind, indent + "    ", out);
+        out.append(indent).append("}\n");
+    }
+
+    private String expected(Expression expression, Map<String, Code> scope, Kind kind) throws Unsupported {
+        Code code = specialized(expression, scope);
+        if (code.kind != kind)
+            throw new Unsupported("Not a " + kind.java + ".");
+        return code.text;
+    }
+
+    /**
+     * The Java expression of type {@code long} or {@code boolean} for the value of an expression.
+     */
+    private Code specialized(Expression expression, Map<String, Code> scope) throws Unsupported {
+        if (expression instanceof ExpressionLiteral) {
+            Literal literal = ((ExpressionLiteral) expression).getLiteral();
+            if (literal instanceof LiteralBoolean)
+                return new Code(String.valueOf(((LiteralBoolean) literal).getValue()), Kind.BOOLEAN);
+            if (literal instanceof LiteralInteger) {
+                BigInteger value = ((LiteralInteger) literal).getValue();
+                if (value.compareTo(LONG_MIN) >= 0 && value.compareTo(LONG_MAX) <= 0)
+                    return new Code(value + "L", Kind.LONG);
+            }
+            throw new Unsupported(literal.getClass().getSimpleName());
+        }
+        if (expression instanceof Variable) {
+            Code code = scope.get(((Variable) expression).getName().getName());
+            if (code == null)
+                throw new Unsupported("Unbound variable.");
+            return code;
+        }
+        if (expression instanceof ExpressionUnary) {
+            ExpressionUnary e = (ExpressionUnary) expression;
+            switch (e.getOperator()) {
+                case NOT:
+                    return new Code("!" + expected(e.getOperand(), scope, Kind.BOOLEAN), Kind.BOOLEAN);
+                case MINUS:
+                    return new Code("Math.negateExact(" + expected(e.getOperand(), scope, Kind.LONG) + ")", Kind.LONG);
+                default:
+                    throw new Unsupported(e.getOperator().toString());
+            }
+        }
+        if (expression instanceof ExpressionBinary)
+            return specializedBinary((ExpressionBinary) expression, scope);
+        if (expression instanceof ExpressionIf) {
+            ExpressionIf e = (ExpressionIf) expression;
+            return specializedConditional(e.getTest(), e.getThen(), e.getElse_(), scope);
+        }
+        if (expression instanceof ExpressionWhen) {
+            ExpressionWhen e = (ExpressionWhen) expression;
+            return specializedConditional(e.getTest(), e.getThen(), e.getElse_(), scope);
+        }
+        if (expression instanceof ExpressionUnless) {
+            ExpressionUnless e = (ExpressionUnless) expression;
+            return specializedConditional(e.getTest(), e.getElse_(), e.getThen(), scope);
+        }
+        if (expression instanceof ExpressionCall) {
+            ExpressionCall e = (ExpressionCall) expression;
+            String name = e.getFunction().getName();
+            if (!specialized.containsKey(name) || arity(name) != e.getArguments().size())
+                throw new Unsupported("Call of " + name + ".");
+            List<TypedVariable> inputs = functions.get(name).getHeader().getInputs();
+            StringBuilder code = new StringBuilder("s_").append(mangle(name)).append('(');
+            for (int i = 0; i < inputs.size(); ++i)
+                code.append(i == 0 ? "" : ", ")
+                        .append(expected(e.getArguments().get(i), scope, kind(inputs.get(i).getType())));
+            return new Code(code.append(')').toString(), specialized.get(name));
+        }
+        throw new Unsupported(expression.getClass().getSimpleName());
+    }
+
+    private Code specializedBinary(ExpressionBinary expression, Map<String, Code> scope) throws Unsupported {
+        Code l = specialized(expression.getLeftOperand(), scope);
+        Code r = specialized(expression.getRightOperand(), scope);
+        String operator;
+        switch (expression.getOperator()) {
+            case AND:
+            case OR:
+            case IMPLIES:
+            case IMPLIED:
+            case IFF:
+                if (l.kind != Kind.BOOLEAN || r.kind != Kind.BOOLEAN)
+                    throw new Unsupported("Not booleans.");
+                switch (expression.getOperator()) {
+                    case AND:
+                        return new Code("(" + l.text + " && " + r.text + ")", Kind.BOOLEAN);
+                    case OR:
+                        return new Code("(" + l.text + " || " + r.text + ")", Kind.BOOLEAN);
+                    case IMPLIES:
+                        return new Code("(!" + l.text + " || " + r.text + ")", Kind.BOOLEAN);
+                    case IMPLIED:
+                        return new Code("(!" + r.text + " || " + l.text + ")", Kind.BOOLEAN);
+                    default:
+                        return new Code("(" + l.text + " == " + r.text + ")", Kind.BOOLEAN);
+                }
+            case EQ:
+            case NE:
+                if (l.kind != r.kind)
+                    throw new Unsupported("Different kinds.");
+                operator = expression.getOperator() == ExpressionBinary.Operator.EQ ? " == " : " != ";
+                return new Code("(" + l.text + operator + r.text + ")", Kind.BOOLEAN);
+            default:
+                break;
+        }
+        if (l.kind != Kind.LONG || r.kind != Kind.LONG)
+            throw new Unsupported("Not integers.");
+        switch (expression.getOperator()) {
+            case LT:
+                return new Code("(" + l.text + " < " + r.text + ")", Kind.BOOLEAN);
+            case LE:
+                return new Code("(" + l.text + " <= " + r.text + ")", Kind.BOOLEAN);
+            case GT:
+                return new Code("(" + l.text + " > " + r.text + ")", Kind.BOOLEAN);
+            case GE:
+                return new Code("(" + l.text + " >= " + r.text + ")", Kind.BOOLEAN);
+            case ADD:
+                return new Code("Math.addExact(" + l.text + ", " + r.text + ")", Kind.LONG);
+            case SUB:
+                return new Code("Math.subtractExact(" + l.text + ", " + r.text + ")", Kind.LONG);
+            case MUL:
+                return new Code("Math.multiplyExact(" + l.text + ", " + r.text + ")", Kind.LONG);
+            case DIV:
+                return new Code("div(" + l.text + ", " + r.text + ")", Kind.LONG);
+            case REM:
+                return new Code("rem(" + l.text + ", " + r.text + ")", Kind.LONG);
+            default:
+                throw new Unsupported(expression.getOperator().toString());
+        }
+    }
+
+    private Code specializedConditional(Expression test, Expression then, Expression else_, Map<String, Code> scope)
+            throws Unsupported {
+        String t = expected(test, scope, Kind.BOOLEAN);
+        Code a = specialized(then, scope);
+        Code b = specialized(else_, scope);
+        if (a.kind != b.kind)
+            throw new Unsupported("Different kinds.");
+        return new Code("(" + t + " ? " + a.text + " : " + b.text + ")", a.kind);
+    }
+
+    /**
+     * A Java identifier for a Syntheto name,
+     * with the characters other than letters, digits and underscores escaped as {@code $} and four hexadecimal digits.
+     */
+    static String mangle(String name) {
+        StringBuilder java = new StringBuilder();
+        for (char c : name.toCharArray()) {
+            if (c != '$' && Character.isJavaIdentifierPart(c) && !Character.isIdentifierIgnorable(c))
+                java.append(c);
+            else
+                java.append('$').append(String.format("%04x", (int) c));
+        }
+        return java.toString();
+    }
+
+    /**
+     * A Java string literal.
+     */
+    static String quote(String string) {
+        StringBuilder java = new StringBuilder("\"");
+        for (char c : string.toCharArray()) {
+            if (c == '"' || c == '\\')
+                java.append('\\').append(c);
+            else if (c < ' ' || c == '\u007f')
+                // Not as a Unicode escape, which Java reads before the literal.
+                java.append(String.format("\\%03o", (int) c));
+            else
+                java.append(c);
+        }
+        return java.append('"').toString();
+    }
+}
@@ -0,0 +1,44 @@
+package edu.kestrel.syntheto.eval;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The values of a function with several outputs, or of a multi-valued expression,
+ * taken apart by bindings and component expressions.
+ * It is not a sequence: a sequence value is a {@link List}.
+ */
+public final class MultiValue {
+
+    private final List<Object> components;
+
+    private MultiValue(List<Object> components) {
+        this.components = Collections.unmodifiableList(components);
+    }
+
+    public static MultiValue make(List<Object> components) {
+        return new MultiValue(new ArrayList<>(components));
+    }
+
+    public List<Object> getComponents() {
+        return components;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return components.equals(((MultiValue) o).components);
+    }
+
+    @Override
+    public int hashCode() {
+        return components.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return Values.show(this);
+    }
+}
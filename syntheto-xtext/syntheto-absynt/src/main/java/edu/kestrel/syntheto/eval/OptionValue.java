@@ -0,0 +1,58 @@
+package edu.kestrel.syntheto.eval;
+
+import java.util.Objects;
+
+/**
+ * A value of a Syntheto option type: either none, or some value.
+ */
+public final class OptionValue {
+
+    /**
+     * The value that is none.
+     */
+    public static final OptionValue NONE = new OptionValue(null);
+
+    private final Object value;
+
+    private OptionValue(Object value) {
+        this.value = value;
+    }
+
+    /**
+     * Makes the option value that is some value.
+     *
+     * @param value The value, not null.
+     * @return The option value.
+     */
+    public static OptionValue some(Object value) {
+        return new OptionValue(Objects.requireNonNull(value));
+    }
+
+    public boolean isNone() {
+        return value == null;
+    }
+
+    /**
+     * The value, or null if this is none.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return Objects.equals(value, ((OptionValue) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(value);
+    }
+
+    @Override
+    public String toString() {
+        return Values.show(this);
+    }
+}
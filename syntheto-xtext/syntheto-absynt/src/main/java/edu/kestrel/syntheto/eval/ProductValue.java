@@ -0,0 +1,83 @@
+package edu.kestrel.syntheto.eval;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A value of a Syntheto product type: the name of the type and the values of the fields.
+ * Values are immutable; updating fields makes a new value.
+ */
+public final class ProductValue {
+
+    private final String type;
+
+    private final Map<String, Object> fields;
+
+    private ProductValue(String type, Map<String, Object> fields) {
+        this.type = type;
+        this.fields = Collections.unmodifiableMap(fields);
+    }
+
+    /**
+     * Makes a product value.
+     *
+     * @param type The name of the product type.
+     * @param fields The values of the fields, by name, in the order of the type.
+     * @return The value.
+     */
+    public static ProductValue make(String type, Map<String, Object> fields) {
+        return new ProductValue(type, new LinkedHashMap<>(fields));
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Map<String, Object> getFields() {
+        return fields;
+    }
+
+    /**
+     * The value of a field, or null if there is no such field.
+     */
+    public Object getField(String name) {
+        return fields.get(name);
+    }
+
+    /**
+     * This value with some fields replaced.
+     *
+     * @param updates The new values of the fields, by name.
+     * @return The new value.
+     * @throws IllegalArgumentException If some field is not a field of this value.
+     */
+    public ProductValue update(Map<String, Object> updates) {
+        Map<String, Object> updated = new LinkedHashMap<>(fields);
+        for (Map.Entry<String, Object> update : updates.entrySet()) {
+            if (!updated.containsKey(update.getKey()))
+                throw new IllegalArgumentException("No field " + update.getKey() + " in " + type + ".");
+            updated.put(update.getKey(), update.getValue());
+        }
+        return new ProductValue(type, updated);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ProductValue that = (ProductValue) o;
+        return type.equals(that.type) && fields.equals(that.fields);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, fields);
+    }
+
+    @Override
+    public String toString() {
+        return Values.show(this);
+    }
+}
@@ -0,0 +1,92 @@
+package edu.kestrel.syntheto.eval;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A value of a Syntheto sum type:
+ * the name of the type, the alternative, and the values of the fields of the alternative.
+ * Values are immutable; updating fields makes a new value.
+ */
+public final class SumValue {
+
+    private final String type;
+
+    private final String alternative;
+
+    private final Map<String, Object> fields;
+
+    private SumValue(String type, String alternative, Map<String, Object> fields) {
+        this.type = type;
+        this.alternative = alternative;
+        this.fields = Collections.unmodifiableMap(fields);
+    }
+
+    /**
+     * Makes a sum value.
+     *
+     * @param type The name of the sum type.
+     * @param alternative The name of the alternative.
+     * @param fields The values of the fields of the alternative, by name, in the order of the type.
+     * @return The value.
+     */
+    public static SumValue make(String type, String alternative, Map<String, Object> fields) {
+        return new SumValue(type, alternative, new LinkedHashMap<>(fields));
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getAlternative() {
+        return alternative;
+    }
+
+    public Map<String, Object> getFields() {
+        return fields;
+    }
+
+    /**
+     * The value of a field, or null if the alternative has no such field.
+     */
+    public Object getField(String name) {
+        return fields.get(name);
+    }
+
+    /**
+     * This value with some fields replaced.
+     *
+     * @param updates The new values of the fields, by name.
+     * @return The new value.
+     * @throws IllegalArgumentException If some field is not a field of the alternative.
+     */
+    public SumValue update(Map<String, Object> updates) {
+        Map<String, Object> updated = new LinkedHashMap<>(fields);
+        for (Map.Entry<String, Object> update : updates.entrySet()) {
+            if (!updated.containsKey(update.getKey()))
+                throw new IllegalArgumentException("No field " + update.getKey() + " in " + alternative + ".");
+            updated.put(update.getKey(), update.getValue());
+        }
+        return new SumValue(type, alternative, updated);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SumValue that = (SumValue) o;
+        return type.equals(that.type) && alternative.equals(that.alternative) && fields.equals(that.fields);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, alternative, fields);
+    }
+
+    @Override
+    public String toString() {
+        return Values.show(this);
+    }
+}
@@ -0,0 +1,149 @@
+package edu.kestrel.syntheto.eval;
+
+import edu.kestrel.syntheto.ast.Fingerprint;
+import edu.kestrel.syntheto.ast.TopLevel;
+import edu.kestrel.syntheto.ast.TopLevelTheorem;
+import edu.kestrel.syntheto.outcome.Outcome;
+import edu.kestrel.syntheto.outcome.TheoremFailure;
+
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A local pass over a program that falsifies theorems by evaluating them, without ACL2.
+ * <p>
+ * Each theorem is tested by a {@link Falsifier},
+ * with the functions and types defined before the theorem,
+ * on small and random values of its variables.
+ * When the formula is false for some values, the theorem does not hold,
+ * and its outcome is a {@link TheoremFailure} with that counterexample,
+ * which can be reported without submitting the theorem to ACL2 at all.
+ * The other theorems, and those that cannot be evaluated here, are left to ACL2:
+ * the screen only ever reports failures.
+ * </p>
+ * <p>
+ * An instance of this class caches the result of each theorem
+ * by a fingerprint of the whole prefix of constructs up to and including it
+ * (like {@link edu.kestrel.syntheto.check.TypeChecker}),
+ * so that screening a program again after an edit only tests the theorems from the edited construct on.
+ * The results of the searches that were cancelled are not cached.
+ * An instance is thread-safe.
+ * </p>
+ */
+public final class TheoremScreen {
+
+    /**
+     * Maximum number of cached theorems.
+     */
+    public static final int CACHE_CAPACITY = 4096;
+
+    /**
+     * The screened theorems, by prefix fingerprint, with their failures (null if none was found),
+     * and the least recently used one evicted when full.
+     */
+    private final Map<Fingerprint, Outcome> cache = new LinkedHashMap<Fingerprint, Outcome>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Fingerprint, Outcome> eldest) {
+            return size() > CACHE_CAPACITY;
+        }
+    };
+
+    private final AtomicLong searches = new AtomicLong();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    /**
+     * Screens the theorems of a sequence of top-level constructs with a default {@link Falsifier},
+     * which spends at most {@link Falsifier#DEFAULT_TIME_BUDGET_MILLIS} on each theorem,
+     * stopping when cancelled (e.g. with the request the screen is part of).
+     * The theorems not screened by then are left to ACL2.
+     *
+     * @param tops The constructs, in order.
+     * @param cancelled Tells whether the screen has been cancelled.
+     * @return The outcomes of the theorems falsified here, by index in {@code tops}, in order.
+     */
+    public Map<Integer, Outcome> screen(List<TopLevel> tops, BooleanSupplier cancelled) {
+        Falsifier falsifier = new Falsifier(Falsifier.DEFAULT_TIME_BUDGET_MILLIS, TimeUnit.MILLISECONDS, cancelled);
+        Map<Integer, Outcome> failures = new TreeMap<>();
+        MessageDigest digest = Fingerprint.newDigest();
+        byte[] previous = new byte[0];
+        for (int i = 0; i < tops.size() && !falsifier.isCancelled(); ++i) {
+            digest.update(previous);
+            tops.get(i).fingerprint().updateDigest(digest);
+            previous = digest.digest();
+            if (!(tops.get(i) instanceof TopLevelTheorem))
+                continue;
+            Fingerprint key = Fingerprint.fromBytes(previous);
+            Outcome failure;
+            boolean cached;
+            synchronized (cache) {
+                cached = cache.containsKey(key);
+                failure = cache.get(key);
+            }
+            if (cached) {
+                cacheHits.incrementAndGet();
+            } else {
+                failure = falsifier.falsify(tops.subList(0, i), ((TopLevelTheorem) tops.get(i)).getTheorem());
+                searches.incrementAndGet();
+                if (!falsifier.isCancelled()) {
+                    synchronized (cache) {
+                        cache.put(key, failure);
+                    }
+                }
+            }
+            if (failure != null)
+                failures.put(i, failure);
+        }
+        return failures;
+    }
+
+    /**
+     * Number of theorems tested so far, not counting those found in the cache.
+     */
+    public long getSearches() {
+        return searches.get();
+    }
+
+    /**
+     * Number of theorems found in the cache so far.
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * Screens the theorems of a sequence of top-level constructs with a default {@link Falsifier},
+     * without caching.
+     *
+     * @param tops The constructs, in order.
+     * @return The outcomes of the theorems falsified here, by index in {@code tops}, in order.
+     */
+    public static Map<Integer, Outcome> screen(List<TopLevel> tops) {
+        return screen(tops, new Falsifier(Falsifier.DEFAULT_TIME_BUDGET_MILLIS, TimeUnit.MILLISECONDS, () -> false));
+    }
+
+    /**
+     * Screens the theorems of a sequence of top-level constructs, without caching.
+     *
+     * @param tops The constructs, in order.
+     * @param falsifier The falsifier that tests the theorems.
+     * @return The outcomes of the theorems falsified here, by index in {@code tops}, in order.
+     */
+    public static Map<Integer, Outcome> screen(List<TopLevel> tops, Falsifier falsifier) {
+        Map<Integer, Outcome> failures = new TreeMap<>();
+        for (int i = 0; i < tops.size() && !falsifier.isCancelled(); ++i) {
+            if (tops.get(i) instanceof TopLevelTheorem) {
+                Outcome failure = falsifier.falsify(tops.subList(0, i), ((TopLevelTheorem) tops.get(i)).getTheorem());
+                if (failure != null)
+                    failures.put(i, failure);
+            }
+        }
+        return failures;
+    }
+}
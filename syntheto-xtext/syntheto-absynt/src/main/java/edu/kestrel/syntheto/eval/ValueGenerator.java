@@ -0,0 +1,455 @@
+package edu.kestrel.syntheto.eval;
+
+import edu.kestrel.syntheto.ast.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generators of values of Syntheto types, made from the types themselves, for property-based testing.
+ * <p>
+ * For each type there are random values (of a given size),
+ * a few small values (to try them all, since many counterexamples are small),
+ * and ways to shrink a value (to make a counterexample easier to read).
+ * The types are the primitive types, sequences, sets, maps, options,
+ * and the types defined in the {@link Evaluator} given to the generator.
+ * The invariants of products and sums and the restrictions of subsets are filters:
+ * a value is only produced if it satisfies them, as evaluated by the evaluator;
+ * a random value of a type whose filter rejects too many values may not be found,
+ * in which case null is returned.
+ * Recursive types are generated down to a bounded depth.
+ * </p>
+ * <p>
+ * A generator uses its evaluator, so it is not thread-safe either.
+ * </p>
+ */
+public class ValueGenerator {
+
+    /**
+     * Maximum number of small values of a type.
+     */
+    public static final int SMALL_LIMIT = 8;
+
+    /**
+     * Maximum depth of nested defined types.
+     */
+    public static final int MAX_DEPTH = 6;
+
+    /**
+     * Number of random values tried before giving up on a filter.
+     */
+    static final int ATTEMPTS = 20;
+
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+
+    private final Evaluator evaluator;
+
+    public ValueGenerator(Evaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * The evaluator of the filters, which knows the defined types.
+     */
+    public Evaluator getEvaluator() {
+        return evaluator;
+    }
+
+    /**
+     * A random value of a type.
+     *
+     * @param type The type.
+     * @param random The source of randomness.
+     * @param size The size of the value: the bound of small integers, and of the lengths of collections.
+     * @return The value, or null if none was found.
+     */
+    public Object random(Type type, Random random, int size) {
+        return random(type, random, Math.max(size, 0), MAX_DEPTH);
+    }
+
+    private Object random(Type type, Random random, int size, int depth) {
+        if (type instanceof TypeBoolean)
+            return random.nextBoolean();
+        if (type instanceof TypeInteger) {
+            // Mostly small integers, where the edge cases are, and sometimes large ones.
+            if (random.nextInt(10) == 0)
+                return new BigInteger(64, random).subtract(BigInteger.ONE.shiftLeft(63));
+            return BigInteger.valueOf(random.nextInt(2 * size + 1) - size);
+        }
+        if (type instanceof TypeCharacter)
+            return randomChar(random);
+        if (type instanceof TypeString) {
+            int length = random.nextInt(size + 1);
+            StringBuilder s = new StringBuilder();
+            for (int i = 0; i < length; ++i)
+                s.append(randomChar(random));
+            return new String(s);
+        }
+        if (type instanceof TypeSequence) {
+            int length = random.nextInt(size + 1);
+            List<Object> list = new ArrayList<>();
+            for (int i = 0; i < length; ++i) {
+                Object element = random(((TypeSequence) type).getElement(), random, size, depth);
+                if (element == null) return null;
+                list.add(element);
+            }
+            return Collections.unmodifiableList(list);
+        }
+        if (type instanceof TypeSet) {
+            int length = random.nextInt(size + 1);
+            Set<Object> set = new LinkedHashSet<>();
+            for (int i = 0; i < length; ++i) {
+                Object element = random(((TypeSet) type).getElement(), random, size, depth);
+                if (element == null) return null;
+                set.add(element);
+            }
+            return Collections.unmodifiableSet(set);
+        }
+        if (type instanceof TypeMap) {
+            int length = random.nextInt(size + 1);
+            Map<Object, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < length; ++i) {
+                Object key = random(((TypeMap) type).getDomain(), random, size, depth);
+                Object value = random(((TypeMap) type).getRange(), random, size, depth);
+                if (key == null || value == null) return null;
+                map.put(key, value);
+            }
+            return Collections.unmodifiableMap(map);
+        }
+        if (type instanceof TypeOption) {
+            if (random.nextInt(4) == 0)
+                return OptionValue.NONE;
+            Object value = random(((TypeOption) type).getBase(), random, size, depth);
+            return value == null ? null : OptionValue.some(value);
+        }
+        if (type instanceof TypeDefined)
+            return randomDefined(((TypeDefined) type).getName().getName(), random, size, depth);
+        return null;
+    }
+
+    private static Character randomChar(Random random) {
+        // Mostly printable ASCII characters, sometimes any of the 256 ACL2 characters.
+        return (char) (random.nextInt(8) == 0 ? random.nextInt(256) : ' ' + random.nextInt(95));
+    }
+
+    private Object randomDefined(String name, Random random, int size, int depth) {
+        TypeDefinition definition = evaluator.getTypeDefinition(name);
+        if (definition == null || depth <= 0)
+            return null;
+        TypeDefiner body = definition.getBody();
+        for (int attempt = 0; attempt < ATTEMPTS; ++attempt) {
+            Object value = null;
+            if (body instanceof TypeDefinerProduct) {
+                Map<String, Object> fields = randomFields(((TypeDefinerProduct) body).getProduct(), random, size, depth);
+                if (fields != null) value = ProductValue.make(name, fields);
+            } else if (body instanceof TypeDefinerSum) {
+                List<Alternative> alternatives = ((TypeDefinerSum) body).getSum().getAlternatives();
+                // Near the depth limit, only the alternatives with the fewest fields,
+                // so that values of recursive types end.
+                if (depth <= 2)
+                    alternatives = fewestFields(alternatives);
+                Alternative alternative = alternatives.get(random.nextInt(alternatives.size()));
+                Map<String, Object> fields = randomFields(alternative.getProduct(), random, size, depth);
+                if (fields != null) value = SumValue.make(name, alternative.getName().getName(), fields);
+            } else if (body instanceof TypeDefinerSubset) {
+                value = random(((TypeDefinerSubset) body).getSubset().getSupertype(), random, size, depth - 1);
+            }
+            if (value != null && accepts(definition, value))
+                return value;
+        }
+        if (body instanceof TypeDefinerSubset)
+            return witness(definition);
+        return null;
+    }
+
+    private Map<String, Object> randomFields(TypeProduct product, Random random, int size, int depth) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        for (Field field : product.getFields()) {
+            Object value = random(field.getType(), random, size, depth - 1);
+            if (value == null) return null;
+            fields.put(field.getName().getName(), value);
+        }
+        return fields;
+    }
+
+    private static List<Alternative> fewestFields(List<Alternative> alternatives) {
+        int fewest = Integer.MAX_VALUE;
+        for (Alternative alternative : alternatives)
+            fewest = Math.min(fewest, alternative.getProduct().getFields().size());
+        List<Alternative> result = new ArrayList<>();
+        for (Alternative alternative : alternatives)
+            if (alternative.getProduct().getFields().size() == fewest)
+                result.add(alternative);
+        return result;
+    }
+
+    /**
+     * The witness of a subset type, if it has one and it is in the subset, or null.
+     */
+    private Object witness(TypeDefinition definition) {
+        TypeSubset subset = ((TypeDefinerSubset) definition.getBody()).getSubset();
+        if (subset.getWitness() == null)
+            return null;
+        try {
+            Object value = evaluator.evaluate(subset.getWitness(), Collections.emptyMap());
+            return accepts(definition, value) ? value : null;
+        } catch (EvaluationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Small values of a type, at most {@link #SMALL_LIMIT}, smallest first.
+     *
+     * @param type The type.
+     * @return The values; empty if none is known.
+     */
+    public List<Object> small(Type type) {
+        return small(type, MAX_DEPTH);
+    }
+
+    private List<Object> small(Type type, int depth) {
+        List<Object> values = new ArrayList<>();
+        if (type instanceof TypeBoolean) {
+            values.add(false);
+            values.add(true);
+        } else if (type instanceof TypeInteger) {
+            for (long i : new long[]{0, 1, -1, 2, -2})
+                values.add(BigInteger.valueOf(i));
+        } else if (type instanceof TypeCharacter) {
+            values.add('a');
+            values.add('b');
+        } else if (type instanceof TypeString) {
+            values.add("");
+            values.add("a");
+            values.add("ab");
+        } else if (type instanceof TypeSequence || type instanceof TypeSet) {
+            boolean isSet = type instanceof TypeSet;
+            List<Object> elements = small(isSet ? ((TypeSet) type).getElement() : ((TypeSequence) type).getElement(), depth);
+            values.add(isSet ? Collections.emptySet() : Collections.emptyList());
+            for (Object element : elements.subList(0, Math.min(3, elements.size())))
+                values.add(isSet ? Collections.singleton(element) : Collections.singletonList(element));
+            if (elements.size() >= 2) {
+                List<Object> two = Collections.unmodifiableList(new ArrayList<>(elements.subList(0, 2)));
+                values.add(isSet ? Collections.unmodifiableSet(new LinkedHashSet<>(two)) : two);
+                if (!isSet)
+                    values.add(Collections.unmodifiableList(new ArrayList<>(Collections.nCopies(2, elements.get(1)))));
+            }
+        } else if (type instanceof TypeMap) {
+            values.add(Collections.emptyMap());
+            List<Object> keys = small(((TypeMap) type).getDomain(), depth);
+            List<Object> ranges = small(((TypeMap) type).getRange(), depth);
+            for (int i = 0; i < Math.min(2, Math.min(keys.size(), ranges.size())); ++i)
+                values.add(Collections.singletonMap(keys.get(i), ranges.get(i)));
+        } else if (type instanceof TypeOption) {
+            values.add(OptionValue.NONE);
+            for (Object value : small(((TypeOption) type).getBase(), depth))
+                values.add(OptionValue.some(value));
+        } else if (type instanceof TypeDefined) {
+            values.addAll(smallDefined(((TypeDefined) type).getName().getName(), depth));
+        }
+        return values.size() > SMALL_LIMIT ? new ArrayList<>(values.subList(0, SMALL_LIMIT)) : values;
+    }
+
+    private List<Object> smallDefined(String name, int depth) {
+        TypeDefinition definition = evaluator.getTypeDefinition(name);
+        List<Object> values = new ArrayList<>();
+        if (definition == null || depth <= 0)
+            return values;
+        TypeDefiner body = definition.getBody();
+        List<Object> candidates = new ArrayList<>();
+        if (body instanceof TypeDefinerProduct) {
+            for (Map<String, Object> fields : smallFields(((TypeDefinerProduct) body).getProduct(), depth))
+                candidates.add(ProductValue.make(name, fields));
+        } else if (body instanceof TypeDefinerSum) {
+            for (Alternative alternative : ((TypeDefinerSum) body).getSum().getAlternatives())
+                for (Map<String, Object> fields : smallFields(alternative.getProduct(), depth))
+                    candidates.add(SumValue.make(name, alternative.getName().getName(), fields));
+        } else if (body instanceof TypeDefinerSubset) {
+            candidates.addAll(small(((TypeDefinerSubset) body).getSubset().getSupertype(), depth - 1));
+        }
+        for (Object candidate : candidates)
+            if (values.size() < SMALL_LIMIT && accepts(definition, candidate))
+                values.add(candidate);
+        if (values.isEmpty() && body instanceof TypeDefinerSubset) {
+            Object witness = witness(definition);
+            if (witness != null) values.add(witness);
+        }
+        return values;
+    }
+
+    /**
+     * Combinations of small values of the fields of a product, at most {@link #SMALL_LIMIT} of them.
+     */
+    private List<Map<String, Object>> smallFields(TypeProduct product, int depth) {
+        List<Map<String, Object>> combinations = new ArrayList<>();
+        combinations.add(new LinkedHashMap<>());
+        for (Field field : product.getFields()) {
+            List<Object> values = small(field.getType(), depth - 1);
+            List<Map<String, Object>> extended = new ArrayList<>();
+            for (Map<String, Object> combination : combinations) {
+                for (Object value : values) {
+                    if (extended.size() >= SMALL_LIMIT) break;
+                    Map<String, Object> fields = new LinkedHashMap<>(combination);
+                    fields.put(field.getName().getName(), value);
+                    extended.add(fields);
+                }
+            }
+            combinations = extended;
+        }
+        return combinations;
+    }
+
+    /**
+     * Values of a type that are smaller than a value, most promising first.
+     *
+     * @param type The type.
+     * @param value A value of the type.
+     * @return The smaller values; empty if there are none.
+     */
+    public List<Object> shrink(Type type, Object value) {
+        List<Object> candidates = new ArrayList<>();
+        if (type instanceof TypeBoolean) {
+            if (Boolean.TRUE.equals(value)) candidates.add(false);
+        } else if (type instanceof TypeInteger) {
+            BigInteger i = (BigInteger) value;
+            if (i.signum() != 0) {
+                candidates.add(BigInteger.ZERO);
+                if (i.signum() < 0) candidates.add(i.negate());
+                BigInteger half = i.divide(TWO);
+                if (half.signum() != 0) candidates.add(half);
+                BigInteger closer = i.subtract(BigInteger.valueOf(i.signum()));
+                if (closer.signum() != 0 && !closer.equals(half)) candidates.add(closer);
+            }
+        } else if (type instanceof TypeCharacter) {
+            if (!value.equals('a')) candidates.add('a');
+        } else if (type instanceof TypeString) {
+            String s = (String) value;
+            if (!s.isEmpty()) candidates.add("");
+            for (int i = 0; i < s.length(); ++i)
+                candidates.add(s.substring(0, i) + s.substring(i + 1));
+        } else if (type instanceof TypeSequence) {
+            List<?> list = (List<?>) value;
+            Type element = ((TypeSequence) type).getElement();
+            if (!list.isEmpty()) candidates.add(Collections.emptyList());
+            for (int i = 0; i < list.size(); ++i) {
+                List<Object> removed = new ArrayList<>(list);
+                removed.remove(i);
+                candidates.add(Collections.unmodifiableList(removed));
+            }
+            for (int i = 0; i < list.size(); ++i) {
+                for (Object smaller : shrink(element, list.get(i))) {
+                    List<Object> replaced = new ArrayList<>(list);
+                    replaced.set(i, smaller);
+                    candidates.add(Collections.unmodifiableList(replaced));
+                }
+            }
+        } else if (type instanceof TypeSet) {
+            Set<?> set = (Set<?>) value;
+            if (!set.isEmpty()) candidates.add(Collections.emptySet());
+            for (Object element : set) {
+                Set<Object> removed = new LinkedHashSet<>(set);
+                removed.remove(element);
+                candidates.add(Collections.unmodifiableSet(removed));
+            }
+        } else if (type instanceof TypeMap) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            if (!map.isEmpty()) candidates.add(Collections.emptyMap());
+            for (Object key : map.keySet()) {
+                Map<Object, Object> removed = new LinkedHashMap<>(map);
+                removed.remove(key);
+                candidates.add(Collections.unmodifiableMap(removed));
+            }
+        } else if (type instanceof TypeOption) {
+            OptionValue option = (OptionValue) value;
+            if (!option.isNone()) {
+                candidates.add(OptionValue.NONE);
+                for (Object smaller : shrink(((TypeOption) type).getBase(), option.getValue()))
+                    candidates.add(OptionValue.some(smaller));
+            }
+        } else if (type instanceof TypeDefined) {
+            candidates.addAll(shrinkDefined(((TypeDefined) type).getName().getName(), value));
+        }
+        return candidates;
+    }
+
+    private List<Object> shrinkDefined(String name, Object value) {
+        TypeDefinition definition = evaluator.getTypeDefinition(name);
+        List<Object> candidates = new ArrayList<>();
+        if (definition == null)
+            return candidates;
+        TypeDefiner body = definition.getBody();
+        if (body instanceof TypeDefinerProduct && value instanceof ProductValue) {
+            ProductValue product = (ProductValue) value;
+            for (Map<String, Object> fields : shrinkFields(((TypeDefinerProduct) body).getProduct(), product.getFields()))
+                candidates.add(ProductValue.make(name, fields));
+        } else if (body instanceof TypeDefinerSum && value instanceof SumValue) {
+            SumValue sum = (SumValue) value;
+            // A value of a recursive sum may shrink to one of its fields of the same type.
+            for (Object field : sum.getFields().values())
+                if (field instanceof SumValue && ((SumValue) field).getType().equals(name))
+                    candidates.add(field);
+            for (Alternative alternative : ((TypeDefinerSum) body).getSum().getAlternatives())
+                if (alternative.getName().getName().equals(sum.getAlternative()))
+                    for (Map<String, Object> fields : shrinkFields(alternative.getProduct(), sum.getFields()))
+                        candidates.add(SumValue.make(name, sum.getAlternative(), fields));
+        } else if (body instanceof TypeDefinerSubset) {
+            candidates.addAll(shrink(((TypeDefinerSubset) body).getSubset().getSupertype(), value));
+        }
+        candidates.removeIf(candidate -> !accepts(definition, candidate));
+        return candidates;
+    }
+
+    private List<Map<String, Object>> shrinkFields(TypeProduct product, Map<String, Object> fields) {
+        List<Map<String, Object>> candidates = new ArrayList<>();
+        for (Field field : product.getFields()) {
+            String name = field.getName().getName();
+            for (Object smaller : shrink(field.getType(), fields.get(name))) {
+                Map<String, Object> replaced = new LinkedHashMap<>(fields);
+                replaced.put(name, smaller);
+                candidates.add(replaced);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Whether a value of a defined type passes the filter of the type:
+     * the invariant of a product or of the alternative of a sum, or the restriction of a subset.
+     * A filter that cannot be evaluated rejects the value.
+     */
+    private boolean accepts(TypeDefinition definition, Object value) {
+        TypeDefiner body = definition.getBody();
+        Expression filter = null;
+        Map<String, Object> environment = Collections.emptyMap();
+        if (body instanceof TypeDefinerProduct && value instanceof ProductValue) {
+            filter = ((TypeDefinerProduct) body).getProduct().getInvariant();
+            environment = ((ProductValue) value).getFields();
+        } else if (body instanceof TypeDefinerSum && value instanceof SumValue) {
+            for (Alternative alternative : ((TypeDefinerSum) body).getSum().getAlternatives())
+                if (alternative.getName().getName().equals(((SumValue) value).getAlternative()))
+                    filter = alternative.getProduct().getInvariant();
+            environment = ((SumValue) value).getFields();
+        } else if (body instanceof TypeDefinerSubset) {
+            TypeSubset subset = ((TypeDefinerSubset) body).getSubset();
+            filter = subset.getRestriction();
+            environment = Collections.singletonMap(subset.getVariable().getName(), value);
+        } else {
+            return false;
+        }
+        if (filter == null)
+            return true;
+        try {
+            return Boolean.TRUE.equals(evaluator.evaluate(filter, environment));
+        } catch (EvaluationException e) {
+            return false;
+        }
+    }
+}
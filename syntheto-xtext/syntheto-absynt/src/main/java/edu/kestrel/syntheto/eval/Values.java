@@ -0,0 +1,116 @@
+package edu.kestrel.syntheto.eval;
+
+import java.math.BigInteger;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The Java representation of Syntheto values, as used by the {@link Evaluator}.
+ * <p>
+ * Booleans are {@link Boolean}s, integers are {@link BigInteger}s,
+ * characters are {@link Character}s and strings are {@link String}s.
+ * Sequences are unmodifiable {@link List}s, sets are unmodifiable {@link Set}s,
+ * and maps are unmodifiable {@link Map}s.
+ * Options, products and sums are {@link OptionValue}s, {@link ProductValue}s and {@link SumValue}s,
+ * and the values of functions with several outputs are {@link MultiValue}s.
+ * Values are compared with {@link Object#equals(Object)}, so they can be used as keys.
+ * </p>
+ */
+public final class Values {
+
+    private Values() {
+    }
+
+    /**
+     * A human-readable representation of a value, close to Syntheto syntax,
+     * e.g. to show a counterexample.
+     */
+    public static String show(Object value) {
+        StringBuilder s = new StringBuilder();
+        show(value, s);
+        return new String(s);
+    }
+
+    private static void show(Object value, StringBuilder s) {
+        if (value instanceof String) {
+            s.append('"');
+            for (char c : ((String) value).toCharArray())
+                showChar(c, '"', s);
+            s.append('"');
+        } else if (value instanceof Character) {
+            s.append('\'');
+            showChar((Character) value, '\'', s);
+            s.append('\'');
+        } else if (value instanceof List) {
+            s.append('[');
+            showAll(((List<?>) value).iterator(), s);
+            s.append(']');
+        } else if (value instanceof Set) {
+            s.append('{');
+            showAll(((Set<?>) value).iterator(), s);
+            s.append('}');
+        } else if (value instanceof Map) {
+            s.append('{');
+            Iterator<? extends Map.Entry<?, ?>> entries = ((Map<?, ?>) value).entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<?, ?> entry = entries.next();
+                show(entry.getKey(), s);
+                s.append(" -> ");
+                show(entry.getValue(), s);
+                if (entries.hasNext()) s.append(", ");
+            }
+            s.append('}');
+        } else if (value instanceof OptionValue) {
+            OptionValue option = (OptionValue) value;
+            if (option.isNone()) {
+                s.append("none");
+            } else {
+                s.append("some(");
+                show(option.getValue(), s);
+                s.append(')');
+            }
+        } else if (value instanceof ProductValue) {
+            ProductValue product = (ProductValue) value;
+            s.append(product.getType());
+            showFields(product.getFields(), s);
+        } else if (value instanceof SumValue) {
+            SumValue sum = (SumValue) value;
+            s.append(sum.getType()).append('.').append(sum.getAlternative());
+            showFields(sum.getFields(), s);
+        } else if (value instanceof MultiValue) {
+            s.append('(');
+            showAll(((MultiValue) value).getComponents().iterator(), s);
+            s.append(')');
+        } else {
+            s.append(value);
+        }
+    }
+
+    private static void showAll(Iterator<?> values, StringBuilder s) {
+        while (values.hasNext()) {
+            show(values.next(), s);
+            if (values.hasNext()) s.append(", ");
+        }
+    }
+
+    private static void showFields(Map<String, Object> fields, StringBuilder s) {
+        s.append('(');
+        Iterator<Map.Entry<String, Object>> entries = fields.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Object> entry = entries.next();
+            s.append(entry.getKey()).append(" = ");
+            show(entry.getValue(), s);
+            if (entries.hasNext()) s.append(", ");
+        }
+        s.append(')');
+    }
+
+    private static void showChar(char c, char quote, StringBuilder s) {
+        if (c == quote || c == '\\') s.append('\\').append(c);
+        else if (c == '\n') s.append("\\n");
+        else if (c == '\t') s.append("\\t");
+        else s.append(c);
+    }
+}
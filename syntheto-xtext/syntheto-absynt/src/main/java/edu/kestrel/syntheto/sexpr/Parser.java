@@ -9,8 +9,8 @@ package edu.kestrel.syntheto.sexpr;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.LinkedList;
 
 
 /**
@@ -41,7 +41,7 @@ public class Parser {
         //System.out.println("nextToken: " + nextToken.toString());
 
         // thisListElements may contain a mixture of SExpression and Token objects.
-        List<Object> thisListElements = new LinkedList<>();
+        List<Object> thisListElements = new ArrayList<>();
 
         while (true) {
             if (nextToken instanceof TokenEOF) {
@@ -86,11 +86,11 @@ public class Parser {
             // TODO: add condition and code to handle TokenDot
             return null;
         } else {
-            List<SExpression> sexprs = new LinkedList<>();
+            SExpressionList.Builder sexprs = SExpressionList.builder();
             for (Object item: items) {
                 sexprs.add((item instanceof SExpression) ? ((SExpression) item) : ((Token) item).toSExpression());
             }
-            return SExpression.list(sexprs);
+            return sexprs.build();
         }
     }
 
@@ -108,7 +108,7 @@ public class Parser {
     }
 
     public Parser(String s) {
-        this(new StringReader(s));
+        this(new Tokenizer(s));
     }
 
 }
@@ -7,6 +7,8 @@
 
 package edu.kestrel.syntheto.sexpr;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.math.BigInteger;
 import java.util.List;
 
@@ -204,6 +206,35 @@ public abstract class SExpression {
     @Override
     public abstract String toString();
 
+    /**
+     * Computes the number of characters of {@link #toString()}
+     * without building the string.
+     * Since s-expressions are limited to 8-bit characters (see {@link SExpressionCharacter}),
+     * this is also the number of bytes of the ISO-8859-1 encoding of the string.
+     * Subclasses whose strings can be large or numerous override this.
+     *
+     * @return The length of the serialized s-expression.
+     * @throws IllegalArgumentException If the s-expression contains a string
+     *                                  with a character that is not 8-bit.
+     */
+    public long encodedLength() {
+        return toString().length();
+    }
+
+    /**
+     * Writes the same characters as {@link #toString()} to a writer,
+     * without building the string.
+     * Together with {@link #encodedLength()},
+     * this sends a large s-expression (e.g. to the ACL2 bridge)
+     * without ever holding its serialization in memory.
+     *
+     * @param out The writer to write the serialized s-expression to.
+     * @throws IOException If the writer does.
+     */
+    public void encode(Writer out) throws IOException {
+        out.write(toString());
+    }
+
     /**
      * Checks if this object is equal to another object.
      *
@@ -7,10 +7,11 @@
 
 package edu.kestrel.syntheto.sexpr;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Objects;
 
 /**
  * S-expressions that are lists.
@@ -19,52 +20,119 @@ import java.util.Objects;
  * We use this class to represent any {@code cons} pairs,
  * by flattening the {@code cdr}s till the final one.
  * This representation is more convenient for the Syntheto S-expressions.
+ * <p>
+ * Lists are immutable.
+ * The elements are stored in a slice of an array, which may be shared:
+ * {@link #rest()} returns a list over the same array, one element shorter,
+ * so it takes constant time, like indexed access.
+ * The parser builds lists with a {@link Builder}, which hands its array over to the list.
+ * </p>
  */
 public class SExpressionList extends SExpression {
 
-    private final List<SExpression> elements;
+    private static final SExpression[] NO_ELEMENTS = new SExpression[0];
+
+    /**
+     * The elements are items[offset] to items[offset + length - 1].
+     * The array is never modified after the list is created.
+     */
+    private final SExpression[] items;
+
+    private final int offset;
+
+    private final int length;
 
     private final SExpressionAtom finalCdr;
 
-    private SExpressionList(List<SExpression> elements,
-                           SExpressionAtom finalCdr) {
-        this.elements = elements;
+    private SExpressionList(SExpression[] items, int offset, int length,
+                            SExpressionAtom finalCdr) {
+        this.items = items;
+        this.offset = offset;
+        this.length = length;
         this.finalCdr = finalCdr;
     }
 
-    private static List<SExpression> makeElements(SExpression... sexprs) {
-        List<SExpression> elements = new LinkedList<>();
-        Collections.addAll(elements, sexprs);
-        return elements;
+    private static SExpression[] makeElements(SExpression... sexprs) {
+        return sexprs.length == 0 ? NO_ELEMENTS : sexprs.clone();
     }
 
     // Creation code.  We recommend using the interface methods from SExpression for creation.
 
     static SExpressionList makeProper(SExpression... sexprs) {
-        return new SExpressionList(makeElements(sexprs), null);
+        SExpression[] elements = makeElements(sexprs);
+        return new SExpressionList(elements, 0, elements.length, null);
     }
     static SExpressionList makeProper(List<SExpression> sexprs) {
-        return new SExpressionList(sexprs, null);
+        SExpression[] elements = sexprs.toArray(NO_ELEMENTS);
+        return new SExpressionList(elements, 0, elements.length, null);
     }
 
     static SExpressionList makeDotted(SExpressionAtom finalCdr,
                                       SExpression... sexprs) {
-        return new SExpressionList(makeElements(sexprs), finalCdr);
+        SExpression[] elements = makeElements(sexprs);
+        return new SExpressionList(elements, 0, elements.length, finalCdr);
     }
 
     static SExpressionList cons(SExpression first,
                                 SExpressionList rest) {
-        List<SExpression> newElements = new LinkedList<>(rest.elements);
-        newElements.add(0, first);
-        return new SExpressionList(newElements, null);
+        SExpression[] newElements = new SExpression[rest.length + 1];
+        newElements[0] = first;
+        System.arraycopy(rest.items, rest.offset, newElements, 1, rest.length);
+        return new SExpressionList(newElements, 0, newElements.length, null);
+    }
+
+    /**
+     * Accumulates the elements of a proper list, in order,
+     * without copying them when the list is built.
+     */
+    public static class Builder {
+
+        private SExpression[] items;
+
+        private int length = 0;
+
+        public Builder() {
+            this.items = new SExpression[8];
+        }
+
+        public Builder add(SExpression sexpr) {
+            if (length == items.length)
+                items = Arrays.copyOf(items, length * 2);
+            items[length++] = sexpr;
+            return this;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Builds the list of the elements added so far,
+         * and resets this builder to no elements.
+         */
+        public SExpressionList build() {
+            SExpressionList list = new SExpressionList(length == 0 ? NO_ELEMENTS : items, 0, length, null);
+            items = new SExpression[8];
+            length = 0;
+            return list;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
     }
 
     // Inspection code.  These are public.
 
-    public List<SExpression> getElements() { return this.elements; }
+    /**
+     * The elements of the list, in an unmodifiable random-access list.
+     */
+    public List<SExpression> getElements() {
+        return Collections.unmodifiableList(Arrays.asList(items).subList(offset, offset + length));
+    }
 
     public int length() {
-        return elements.size();
+        return length;
     }
 
     public boolean isEmpty() {
@@ -73,61 +141,62 @@ public class SExpressionList extends SExpression {
 
     public SExpression first()  {
         if (this.isEmpty()) throw new IllegalArgumentException("Cannot get element of empty list.");
-        return elements.get(0);
+        return items[offset];
     }
 
     public SExpressionList rest()  {
         if (this.isEmpty()) throw new IllegalArgumentException("Cannot get rest of empty list.");
-        return new SExpressionList(elements.subList(1, elements.size()), this.finalCdr);
+        return new SExpressionList(items, offset + 1, length - 1, this.finalCdr);
     }
 
     public SExpression nth(int n)  {
         if (this.length() < n) throw new IllegalArgumentException("Cannot get nth element of list that is too small.");
-        return elements.get(n - 1);
+        if (n < 1) throw new IndexOutOfBoundsException("Index: " + (n - 1));
+        return items[offset + n - 1];
     }
 
     public SExpression second()  {
         if (this.length() < 2) throw new IllegalArgumentException("Cannot get nth element of list that is too small.");
-        return elements.get(1);
+        return items[offset + 1];
     }
 
     public SExpression third()  {
         if (this.length() < 3) throw new IllegalArgumentException("Cannot get nth element of list that is too small.");
-        return elements.get(2);
+        return items[offset + 2];
     }
 
     public SExpression fourth()  {
         if (this.length() < 4) throw new IllegalArgumentException("Cannot get nth element of list that is too small.");
-        return elements.get(3);
+        return items[offset + 3];
     }
 
     public SExpression fifth()  {
         if (this.length() < 5) throw new IllegalArgumentException("Cannot get nth element of list that is too small.");
-        return elements.get(4);
+        return items[offset + 4];
     }
 
     public SExpression sixth()  {
         if (this.length() < 6) throw new IllegalArgumentException("Cannot get nth element of list that is too small.");
-        return elements.get(5);
+        return items[offset + 5];
     }
 
     public SExpression seventh()  {
         if (this.length() < 7) throw new IllegalArgumentException("Cannot get nth element of list that is too small.");
-        return elements.get(6);
+        return items[offset + 6];
     }
     public SExpression eighth()  {
         if (this.length() < 8) throw new IllegalArgumentException("Cannot get nth element of list that is too small.");
-        return elements.get(7);
+        return items[offset + 7];
     }
 
     public SExpression ninth()  {
         if (this.length() < 9) throw new IllegalArgumentException("Cannot get nth element of list that is too small.");
-        return elements.get(8);
+        return items[offset + 8];
     }
 
     public SExpression tenth()  {
         if (this.length() < 10) throw new IllegalArgumentException("Cannot get nth element of list that is too small.");
-        return elements.get(9);
+        return items[offset + 9];
     }
 
 
@@ -135,12 +204,13 @@ public class SExpressionList extends SExpression {
     public String toString() {
         StringBuilder string = new StringBuilder();
         string.append('(');
-        for (int i = 0; i < this.elements.size() - 1; ++i) {
-            string.append(this.elements.get(i).toString());
+        int end = offset + length;
+        for (int i = offset; i < end - 1; ++i) {
+            string.append(this.items[i].toString());
             string.append(' ');
         }
-        if (this.elements.size() > 0) {
-            string.append(this.elements.get(this.elements.size() - 1).toString());
+        if (length > 0) {
+            string.append(this.items[end - 1].toString());
             if (this.finalCdr != null) {
                 string.append(" . ");
                 string.append(this.finalCdr.toString());
@@ -150,6 +220,37 @@ public class SExpressionList extends SExpression {
         return string.toString();
     }
 
+    @Override
+    public long encodedLength() {
+        if (length == 0)
+            return 2;
+        long result = 2 + (length - 1);
+        int end = offset + length;
+        for (int i = offset; i < end; ++i)
+            result += this.items[i].encodedLength();
+        if (this.finalCdr != null)
+            result += 3 + this.finalCdr.encodedLength();
+        return result;
+    }
+
+    @Override
+    public void encode(Writer out) throws IOException {
+        out.write('(');
+        int end = offset + length;
+        for (int i = offset; i < end - 1; ++i) {
+            this.items[i].encode(out);
+            out.write(' ');
+        }
+        if (length > 0) {
+            this.items[end - 1].encode(out);
+            if (this.finalCdr != null) {
+                out.write(" . ");
+                this.finalCdr.encode(out);
+            }
+        }
+        out.write(')');
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -160,13 +261,21 @@ public class SExpressionList extends SExpression {
         // (The finalCdr.equals() below does not tolerate a null.)
         if ((finalCdr == null) != (that.finalCdr == null))
             return false;
-        return elements.equals(that.elements) &&
-                ( ((finalCdr == null) && (that.finalCdr == null))
-                        || finalCdr.equals(that.finalCdr));
+        if (length != that.length)
+            return false;
+        for (int i = 0; i < length; ++i)
+            if (!items[offset + i].equals(that.items[that.offset + i]))
+                return false;
+        return ((finalCdr == null) && (that.finalCdr == null))
+                        || finalCdr.equals(that.finalCdr);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(elements, finalCdr);
+        // Same as Objects.hash(elements, finalCdr), with elements a java.util.List.
+        int elementsHash = 1;
+        for (int i = offset; i < offset + length; ++i)
+            elementsHash = 31 * elementsHash + items[i].hashCode();
+        return 31 * (31 + elementsHash) + (finalCdr == null ? 0 : finalCdr.hashCode());
     }
 }
@@ -7,6 +7,8 @@
 
 package edu.kestrel.syntheto.sexpr;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Objects;
 
 /**
@@ -26,10 +28,54 @@ public class SExpressionString extends SExpressionAtom {
 
     public String getValue() { return this.value; }
 
+    /**
+     * Whether a character must be preceded by a backslash in the Lisp syntax of strings.
+     */
+    private static boolean needsEscape(char ch) {
+        return ch == '"' || ch == '\\';
+    }
+
     @Override
     public String toString() {
         // TODO: handle strings with characters not representable in "..."
-        return '"' + this.value + '"';
+        StringBuilder sb = new StringBuilder(this.value.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < this.value.length(); ++i) {
+            char ch = this.value.charAt(i);
+            if (needsEscape(ch))
+                sb.append('\\');
+            sb.append(ch);
+        }
+        return sb.append('"').toString();
+    }
+
+    @Override
+    public long encodedLength() {
+        long length = 2 + this.value.length();
+        for (int i = 0; i < this.value.length(); ++i) {
+            char ch = this.value.charAt(i);
+            if (ch > 255)
+                throw new IllegalArgumentException("Cannot encode non-8-bit character "
+                        + (int) ch + " in string.");
+            if (needsEscape(ch))
+                ++length;
+        }
+        return length;
+    }
+
+    @Override
+    public void encode(Writer out) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < this.value.length(); ++i) {
+            if (needsEscape(this.value.charAt(i))) {
+                out.write(this.value, start, i - start);
+                out.write('\\');
+                start = i;
+            }
+        }
+        out.write(this.value, start, this.value.length() - start);
+        out.write('"');
     }
 
     @Override
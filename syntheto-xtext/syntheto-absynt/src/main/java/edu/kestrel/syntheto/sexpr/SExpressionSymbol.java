@@ -7,15 +7,29 @@
 
 package edu.kestrel.syntheto.sexpr;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * S-expressions that are symbols.
  * Standard symbols have a non-null, nonempty {@code pkg}, and are
  *
+ * <p>
+ * Symbols are interned: the creation methods return
+ * one canonical instance for each package and name,
+ * so symbols can be compared by reference,
+ * and their hash code is computed only once.
+ * Whether a symbol is special, a keyword, or a Syntheto symbol
+ * is recorded in flags when the symbol is created.
+ * The intern table is safe for concurrent use;
+ * it is never cleared, which is fine because the symbols
+ * come from a bounded vocabulary (constructor names, keywords, and the like).
+ * </p>
  */
 public class SExpressionSymbol extends SExpressionAtom {
 
@@ -23,6 +37,14 @@ public class SExpressionSymbol extends SExpressionAtom {
 
     protected final String name;
 
+    private final int hash;
+
+    private final byte flags;
+
+    private static final byte SPECIAL = 1;
+    private static final byte KEYWORD = 2;
+    private static final byte SYNTHETO = 4;
+
     /**
      * {@code CLspecialNames} are names of symbols which can be retrieved without specifying a package,
      * and that are printed without a package prefix.
@@ -39,6 +61,24 @@ public class SExpressionSymbol extends SExpressionAtom {
     private static final List<String> CLspecialNames =
             Arrays.asList("T", "NIL", "LIST", "CODE-CHAR");
 
+    /**
+     * The intern table: for each package, the symbols by name.
+     * Symbols with a null package (see {@link TokenSymbol}) are kept apart,
+     * since the table cannot have null keys.
+     */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, SExpressionSymbol>> internTable =
+            new ConcurrentHashMap<>();
+
+    private static final ConcurrentHashMap<String, SExpressionSymbol> noPackageSymbols =
+            new ConcurrentHashMap<>();
+
+    // The most used packages, looked up once.
+    private static final ConcurrentHashMap<String, SExpressionSymbol> keywordSymbols =
+            packageSymbols("KEYWORD");
+
+    private static final ConcurrentHashMap<String, SExpressionSymbol> synthetoSymbols =
+            packageSymbols("SYNTHETO");
+
     private static final HashMap<String, SExpressionSymbol> SpecialSymbols = new HashMap<>();
     static {
         for (String s: CLspecialNames) {
@@ -50,18 +90,44 @@ public class SExpressionSymbol extends SExpressionAtom {
         // TODO: check for allowable characters in pkg and name
         this.pkg = pkg;
         this.name = name;
+        this.hash = Objects.hash(pkg, name);
+        byte f = 0;
+        if ("COMMON-LISP".equals(pkg) && CLspecialNames.contains(name))
+            f |= SPECIAL;
+        if ("KEYWORD".equals(pkg))
+            f |= KEYWORD;
+        if ("SYNTHETO".equals(pkg))
+            f |= SYNTHETO;
+        this.flags = f;
+    }
+
+    private static ConcurrentHashMap<String, SExpressionSymbol> packageSymbols(String pkg) {
+        if (pkg == null)
+            return noPackageSymbols;
+        ConcurrentHashMap<String, SExpressionSymbol> symbols = internTable.get(pkg);
+        if (symbols == null)
+            symbols = internTable.computeIfAbsent(pkg, p -> new ConcurrentHashMap<>());
+        return symbols;
+    }
+
+    private static SExpressionSymbol intern(ConcurrentHashMap<String, SExpressionSymbol> symbols,
+                                            String pkg, String name) {
+        SExpressionSymbol sym = symbols.get(name);
+        if (sym == null)
+            sym = symbols.computeIfAbsent(name, n -> new SExpressionSymbol(pkg, n));
+        return sym;
     }
 
     static SExpressionSymbol make(String pkg, String name) {
-        return new SExpressionSymbol(pkg, name);
+        return intern(packageSymbols(pkg), pkg, name);
     }
 
     static SExpressionSymbol makeKeyword(String name) {
-        return new SExpressionSymbol("KEYWORD", name);
+        return intern(keywordSymbols, "KEYWORD", name);
     }
 
     static SExpressionSymbol makeSyntheto(String name) {
-        return new SExpressionSymbol("SYNTHETO", name);
+        return intern(synthetoSymbols, "SYNTHETO", name);
     }
 
     static SExpressionSymbol makeSpecial(String name) {
@@ -74,13 +140,13 @@ public class SExpressionSymbol extends SExpressionAtom {
     }
 
     public boolean is_Keyword() {
-        return this.pkg.equals("KEYWORD");
+        return (flags & KEYWORD) != 0;
     }
     public boolean is_Syntheto() {
-        return this.pkg.equals("SYNTHETO");
+        return (flags & SYNTHETO) != 0;
     }
     public boolean is_Special() {
-        return SpecialSymbols.containsValue(this);
+        return (flags & SPECIAL) != 0;
     }
 
     // Hopefully this next one will not be needed with the interface above.
@@ -94,26 +160,55 @@ public class SExpressionSymbol extends SExpressionAtom {
 
     @Override
     public String toString() {
-        if (SpecialSymbols.containsValue(this)) {
+        if (is_Special()) {
             return this.name;
-        } else if (this.pkg.equals("KEYWORD")) {
+        } else if (is_Keyword()) {
             return ":" + this.name;
         } else {
             return this.pkg + "::" + this.name;
         }
     }
 
+    @Override
+    public long encodedLength() {
+        if (is_Special()) {
+            return this.name.length();
+        } else if (is_Keyword()) {
+            return 1 + this.name.length();
+        } else {
+            return this.pkg.length() + 2 + this.name.length();
+        }
+    }
+
+    @Override
+    public void encode(Writer out) throws IOException {
+        if (is_Special()) {
+            out.write(this.name);
+        } else if (is_Keyword()) {
+            out.write(':');
+            out.write(this.name);
+        } else {
+            out.write(this.pkg);
+            out.write("::");
+            out.write(this.name);
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         SExpressionSymbol that = (SExpressionSymbol) o;
-        return pkg.equals(that.pkg) &&
+        // Interned symbols that are not the same object are different,
+        // so this comparison is only reached on a hash collision
+        // (or for symbols made directly by a subclass).
+        return hash == that.hash &&
+                Objects.equals(pkg, that.pkg) &&
                 name.equals(that.name);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(pkg, name);
+        return hash;
     }
 }
@@ -21,6 +21,10 @@ public class TokenInteger extends Token {
         this.value = new BigInteger(lexed);
     }
 
+    public TokenInteger(long value) {
+        this.value = BigInteger.valueOf(value);
+    }
+
 
 
     @Override
@@ -8,6 +8,7 @@
 package edu.kestrel.syntheto.sexpr;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.ArrayList;
 import java.util.function.Consumer;
@@ -44,6 +45,13 @@ import java.util.stream.Collectors;
  * TokenString (delimited by double quotes, with backslash an escape character)
  * TokenInteger, a decimal big signed integer represented as a java.math.BigInteger
  * TokenError, used to describe an IO Error or EOF or lexing problem
+ *
+ * The input is lexed from a window of characters:
+ * the whole input if the tokenizer is made from a String,
+ * or successive blocks read from the Reader otherwise.
+ * The characters of the current token are collected into a reusable buffer,
+ * and the character classes are looked up in a precomputed table.
+ * Integers that fit in a long are converted without going through a String.
   */
 
 public class Tokenizer implements Iterator<Token> {
@@ -78,14 +86,109 @@ public class Tokenizer implements Iterator<Token> {
     // is not currently processing the strings prior to sending them back over the bridge.
     // Java just sees ACL2's literal string syntax, which is not 100% compatible.
 
+    // Character classes, as bits in charClasses, for the characters below 256.
+    // All the characters from 256 up belong to no class.
+    static private final byte SYMBOL_START = 1;
+    static private final byte SYMBOL_CONTINUE = 2;
+    static private final byte STANDARD_STRING = 4;
+    static private final byte[] charClasses = new byte[256];
+
+    static {
+        for (char c : symbolStartChars.toCharArray())
+            charClasses[c] |= SYMBOL_START;
+        for (char c : symbolContinueChars.toCharArray())
+            charClasses[c] |= SYMBOL_CONTINUE;
+        for (char c : standardStringChars.toCharArray())
+            charClasses[c] |= STANDARD_STRING;
+    }
+
+    private static boolean hasClass(char c, byte charClass) {
+        return c < 256 && (charClasses[c] & charClass) != 0;
+    }
+
+    // Integers with at most this many digits fit in a long.
+    static private final int maxLongDigits = 18;
+
     // Helper
     static String chars_to_string(ArrayList<Character> chars) {
         return chars.stream().map(Object::toString).collect(Collectors.joining());
     }
 
-    private PushbackReader pbr;
+    /**
+     * Source of further input, or null if the whole input is in the window.
+     */
+    private final Reader reader;
+
+    /**
+     * The window: the characters from position to limit - 1 are still to be lexed.
+     * The character before position, if any, is the last one lexed,
+     * so it can always be pushed back by decrementing position.
+     */
+    private char[] window;
+    private int position = 0;
+    private int limit;
+
+    /**
+     * The characters of the current token, reused across tokens.
+     */
+    private char[] tokenChars = new char[64];
+    private int tokenLength = 0;
+
     private boolean allDone = false;
 
+    private void addTokenChar(char c) {
+        if (tokenLength == tokenChars.length)
+            tokenChars = Arrays.copyOf(tokenChars, tokenLength * 2);
+        tokenChars[tokenLength++] = c;
+    }
+
+    private String tokenString() {
+        return new String(tokenChars, 0, tokenLength);
+    }
+
+    /**
+     * Returns the next character, or -1 at the end of the input.
+     */
+    private int read() throws IOException {
+        if (position == limit) {
+            if (reader == null)
+                return -1;
+            int n;
+            do {
+                n = reader.read(window, 0, window.length);
+            } while (n == 0);
+            if (n < 0)
+                return -1;
+            position = 0;
+            limit = n;
+        }
+        return window[position++];
+    }
+
+    /**
+     * Pushes back the character just returned by read().
+     */
+    private void unread() {
+        --position;
+    }
+
+    /**
+     * Makes the integer token from the token characters,
+     * which are a '-' or a digit, followed by digits.
+     */
+    private TokenInteger integerToken() {
+        boolean negative = tokenChars[0] == '-';
+        int firstDigit = negative ? 1 : 0;
+        int numDigits = tokenLength - firstDigit;
+        // A lone '-' goes through the String path, which rejects it as before.
+        if (numDigits == 0 || numDigits > maxLongDigits)
+            return new TokenInteger(tokenString());
+        long value = 0;
+        for (int i = firstDigit; i < tokenLength; ++i)
+            value = value * 10 + (tokenChars[i] - '0');
+        return new TokenInteger(negative ? -value : value);
+    }
+
     @Override
     public boolean hasNext() {
        return !allDone;
@@ -94,8 +197,7 @@ public class Tokenizer implements Iterator<Token> {
     @Override
     public Token next() {
 
-        ArrayList<Character> currentTokenChars;
-        currentTokenChars = new ArrayList<Character>();
+        tokenLength = 0;
         State currentState = State.NEW;
         int nextCharInt;
         char nextChar;
@@ -103,23 +205,21 @@ public class Tokenizer implements Iterator<Token> {
         // substate for string backslash u escapes
         // These two initial values are unused.  They are here so the IDE does not complain.
         int string_U_NumDigits = 0;
-        ArrayList<Character> string_U_Digits = new ArrayList<Character>();
+        int string_U_CodePoint = 0;
 
         while (true) {
             // Read a char.  If IOError or EOF, return a TokenError describing the problem
             try {
-                nextCharInt = pbr.read();
+                nextCharInt = read();
             } catch (IOException e) {
                 allDone = true;
-                return new TokenError("IO Error reading from stream", chars_to_string(currentTokenChars));
+                return new TokenError("IO Error reading from stream", tokenString());
             }
             if (nextCharInt == -1) {
                 allDone = true;
-                return new TokenError("EOF encountered reading from stream", chars_to_string(currentTokenChars));
+                return new TokenError("EOF encountered reading from stream", tokenString());
             }
             nextChar = (char) nextCharInt;
-            //System.out.println("next char: " + nextChar);
-            //System.out.println("state is " + currentState);
             switch (currentState)
             {
                 case NEW:
@@ -141,12 +241,12 @@ public class Tokenizer implements Iterator<Token> {
                         case '0': case '1': case '2': case '3': case '4':
                         case '5': case '6': case '7': case '8': case '9':
                             currentState = State.INTEGER;
-                            currentTokenChars.add(nextChar);
+                            addTokenChar(nextChar);
                             break;
                         default:
-                            if ( symbolStartChars.indexOf(nextChar) != -1 ) {
+                            if (hasClass(nextChar, SYMBOL_START)) {
                                 currentState = State.SYMBOL;
-                                currentTokenChars.add(nextChar);
+                                addTokenChar(nextChar);
                             } else {
                                 return new TokenError("Invalid token start character", String.valueOf(nextChar));
                             }
@@ -159,38 +259,37 @@ public class Tokenizer implements Iterator<Token> {
                         // If we are lexing an integer, the following will end the integer
                         // and we have to push them back for the next token.
                         case '(': case ')': case '"':
-                            try { pbr.unread(nextChar); }
-                            catch (IOException e) { allDone = true; }
-                            return new TokenInteger(chars_to_string(currentTokenChars));
+                            unread();
+                            return integerToken();
                         // Whitespace ends the integer but doesn't need to be pushed back
                         case ' ': case '\r': case '\n': case '\t':
-                            return new TokenInteger(chars_to_string(currentTokenChars));
+                            return integerToken();
                         // continue the integer
                         case '0': case '1': case '2': case '3': case '4':
                         case '5': case '6': case '7': case '8': case '9':
-                            currentTokenChars.add(nextChar);
+                            addTokenChar(nextChar);
                             break;
                         // If we are in the middle of an integer, we disallow all other characters not mentioned above.
                         default:
-                            currentTokenChars.add(nextChar);
+                            addTokenChar(nextChar);
                             return new TokenError("Invalid character encountered while lexing integer: "+nextChar,
-                                                    chars_to_string(currentTokenChars));
+                                                    tokenString());
                     }
                     break;
                 case STRING:
                     switch (nextChar)
                     {
                         case '"':
-                            return new TokenString(chars_to_string(currentTokenChars));
+                            return new TokenString(tokenString());
                         case '\\':
                             currentState = State.STRING_ESCAPE;
                             break;
                         default:
-                            if ( standardStringChars.indexOf(nextChar) != -1 ) {
-                                currentTokenChars.add(nextChar);
+                            if (hasClass(nextChar, STANDARD_STRING)) {
+                                addTokenChar(nextChar);
                             } else {
                                 return new TokenError("Invalid character (code " + nextCharInt + ") encountered while lexing string",
-                                                        chars_to_string(currentTokenChars));
+                                                        tokenString());
                             }
                             break;
                     }
@@ -201,31 +300,31 @@ public class Tokenizer implements Iterator<Token> {
                         case 'u':
                             currentState = State.STRING_U;
                             string_U_NumDigits = 0;
-                            string_U_Digits = new ArrayList<Character>();
+                            string_U_CodePoint = 0;
                             break;
                         // Backslash and double-quote must be escaped, but after the escape
                         // they are literal.
                         case '\\': case '"':
                             currentState = State.STRING;
-                            currentTokenChars.add(nextChar);
+                            addTokenChar(nextChar);
                             break;
                         // The following escapes describe certain common whitespace characters.
                         case 'r':
                             currentState = State.STRING;
-                            currentTokenChars.add('\r');
+                            addTokenChar('\r');
                             break;
                         case 'n':
                             currentState = State.STRING;
-                            currentTokenChars.add('\n');
+                            addTokenChar('\n');
                             break;
                         case 't':
                             currentState = State.STRING;
-                            currentTokenChars.add('\t');
+                            addTokenChar('\t');
                             break;
                         // No other escapes are allowed in our string syntax.
                         default:
                             return new TokenError("Invalid character (code " + nextCharInt + ") after backslash escape while lexing string",
-                                                   chars_to_string(currentTokenChars));
+                                                   tokenString());
                     }
                     break;
                 case STRING_U:
@@ -236,15 +335,15 @@ public class Tokenizer implements Iterator<Token> {
                     if ((isFirst2 && nextChar=='0')
                         || (!isFirst2 && isHexDigit)) {
                         string_U_NumDigits++;
-                        string_U_Digits.add(nextChar);
+                        string_U_CodePoint = string_U_CodePoint * 16
+                                + (nextChar <= '9' ? nextChar - '0' : nextChar - 'A' + 10);
                     } else {
                         return new TokenError("Invalid hex digit in string unicode escape (code " + nextCharInt + ")",
-                                              chars_to_string(currentTokenChars));
+                                              tokenString());
                     }
                     if (string_U_NumDigits == 4) {
                         currentState = State.STRING;
-                        int codePoint = Integer.parseUnsignedInt(chars_to_string(string_U_Digits), 16);
-                        currentTokenChars.add((char) codePoint);
+                        addTokenChar((char) string_U_CodePoint);
                     }
                     break;
                 case SYMBOL:
@@ -253,24 +352,15 @@ public class Tokenizer implements Iterator<Token> {
                     // we see symbol continuation characters, we continue to read the symbol.
                     // Then when the symbol is done, we check that the package prefix makes sense (see below).
                     // TODO: we might need to support vertical bars in the future.
-                    if ( symbolContinueChars.indexOf(nextChar) != -1 ) {
-                        currentTokenChars.add(nextChar);
+                    if (hasClass(nextChar, SYMBOL_CONTINUE)) {
+                        addTokenChar(nextChar);
                     } else {
-                        // If nextChar is not a symbol continuation character, unread it and
+                        // If nextChar is not a symbol continuation character, push it back and
                         // return the symbol token.
-                        // System.out.println("About to unread " + nextChar);
-                        try { pbr.unread(nextChar); }
-                        catch (IOException e) {
-                            // System.out.println("There was a problem unreading");
-                            allDone = true; }
-                        // System.out.println("No problem unreading.  CurrentTokenChars: " + chars_to_string(currentTokenChars));
-                        return TokenSymbol.ParseSymbol(chars_to_string(currentTokenChars));
+                        unread();
+                        return TokenSymbol.ParseSymbol(tokenString());
                     }
                     break;
-
-
-
-
             }
         }
     }
@@ -289,11 +379,24 @@ public class Tokenizer implements Iterator<Token> {
 
     /**
      * Regular constructor that makes a tokenizer for a given input reader.
+     * The reader is read in blocks, so it should not be shared with other readers.
      *
      * @param r
      */
     public Tokenizer(Reader r) {
-        this.pbr = new PushbackReader(r);
+        this.reader = r;
+        this.window = new char[8192];
+        this.limit = 0;
+    }
 
+    /**
+     * Makes a tokenizer for a given input string, lexing directly from its characters.
+     *
+     * @param s
+     */
+    public Tokenizer(CharSequence s) {
+        this.reader = null;
+        this.window = s.toString().toCharArray();
+        this.limit = window.length;
     }
 }
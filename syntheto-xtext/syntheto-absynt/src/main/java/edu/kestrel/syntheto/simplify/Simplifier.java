@@ -0,0 +1,737 @@
+package edu.kestrel.syntheto.simplify;
+
+import edu.kestrel.syntheto.ast.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A rewriting pass over the expressions of Syntheto top-level constructs,
+ * which makes them smaller before they are submitted to ACL2, without changing their values.
+ * <p>
+ * The {@link Rule}s of a simplifier are chosen when it is constructed:
+ * constant folding evaluates operators on literals,
+ * boolean simplification removes boolean literals from logical operators,
+ * and dead-branch elimination removes the branches of conditionals that a literal test never selects.
+ * Expressions are simplified bottom-up, so each rule also applies to what the others produce,
+ * e.g. {@code if 1 < 2 then a else b} becomes {@code a}.
+ * </p>
+ * <p>
+ * Operators are only folded where their value is defined:
+ * a division with a negative dividend or a non-positive divisor is left for ACL2 to report.
+ * An operand that cannot change the value is only dropped when it follows the literal (as in {@code false && x}),
+ * where ACL2 does not evaluate it either, or when it is a variable or a literal:
+ * dropping another one (as in {@code f(x) && false}) would drop the guard obligations of its calls.
+ * Transformations are left as they are, since their arguments are interpreted by the transformation.
+ * Nodes are shared between the original and the simplified construct where nothing changed,
+ * and a construct that cannot be simplified is returned as is.
+ * </p>
+ * <p>
+ * A simplifier counts the expression nodes it removed, and the rewrites that removed them.
+ * It is thread-safe.
+ * </p>
+ */
+public final class Simplifier {
+
+    /**
+     * The rewrites of a simplifier.
+     */
+    public enum Rule {
+        /**
+         * Arithmetic, comparisons and negations of literals.
+         */
+        FOLD_CONSTANTS,
+        /**
+         * Logical operators with a boolean literal operand, and double negations.
+         */
+        SIMPLIFY_BOOLEANS,
+        /**
+         * Conditionals whose tests are boolean literals.
+         */
+        ELIMINATE_DEAD_BRANCHES
+    }
+
+    private final Set<Rule> rules;
+
+    private final AtomicLong removedNodes = new AtomicLong();
+
+    private final AtomicLong rewrites = new AtomicLong();
+
+    /**
+     * Constructs a simplifier with all the rules.
+     */
+    public Simplifier() {
+        this(EnumSet.allOf(Rule.class));
+    }
+
+    /**
+     * Constructs a simplifier with some of the rules.
+     *
+     * @param rules The rules.
+     */
+    public Simplifier(Set<Rule> rules) {
+        this.rules = rules.isEmpty() ? EnumSet.noneOf(Rule.class) : EnumSet.copyOf(rules);
+    }
+
+    /**
+     * The rules named in a configuration string: {@code true} or {@code all} for all the rules,
+     * {@code false} or {@code none} for none of them,
+     * or a comma-separated list of rule names, in any case (e.g. {@code fold_constants,simplify_booleans}).
+     *
+     * @param names The configuration string.
+     * @return The rules.
+     * @throws IllegalArgumentException If a name is not the name of a rule.
+     */
+    public static Set<Rule> rules(String names) {
+        String trimmed = names.trim().toUpperCase(Locale.ROOT);
+        if (trimmed.isEmpty() || trimmed.equals("TRUE") || trimmed.equals("ALL"))
+            return EnumSet.allOf(Rule.class);
+        Set<Rule> rules = EnumSet.noneOf(Rule.class);
+        if (trimmed.equals("FALSE") || trimmed.equals("NONE"))
+            return rules;
+        for (String name : trimmed.split(","))
+            rules.add(Rule.valueOf(name.trim()));
+        return rules;
+    }
+
+    public Set<Rule> getRules() {
+        return Collections.unmodifiableSet(rules);
+    }
+
+    /**
+     * Number of expression nodes removed so far.
+     */
+    public long getRemovedNodes() {
+        return removedNodes.get();
+    }
+
+    /**
+     * Number of rewrites done so far.
+     */
+    public long getRewrites() {
+        return rewrites.get();
+    }
+
+    /**
+     * Simplifies a sequence of top-level constructs.
+     *
+     * @param tops The constructs.
+     * @return The simplified constructs, in the same order.
+     */
+    public List<TopLevel> simplify(List<TopLevel> tops) {
+        List<TopLevel> simplified = new ArrayList<>(tops.size());
+        for (TopLevel top : tops)
+            simplified.add(simplify(top));
+        return simplified;
+    }
+
+    /**
+     * Simplifies the expressions of a top-level construct.
+     *
+     * @param top The construct.
+     * @return The simplified construct, which is {@code top} itself if nothing was simplified.
+     */
+    public TopLevel simplify(TopLevel top) {
+        if (rules.isEmpty())
+            return top;
+        if (top instanceof TopLevelType) {
+            TypeDefinition definition = ((TopLevelType) top).getTypeDefinition();
+            TypeDefinition simplified = typeDefinition(definition);
+            return simplified == definition ? top : TopLevelType.make(simplified);
+        }
+        if (top instanceof TopLevelTypes) {
+            List<TypeDefinition> definitions = ((TopLevelTypes) top).getTypeRecursion().getDefinitions();
+            List<TypeDefinition> simplified = new ArrayList<>(definitions.size());
+            boolean changed = false;
+            for (TypeDefinition definition : definitions) {
+                simplified.add(typeDefinition(definition));
+                changed |= simplified.get(simplified.size() - 1) != definition;
+            }
+            return changed ? TopLevelTypes.make(TypeRecursion.make(simplified)) : top;
+        }
+        if (top instanceof TopLevelFunction) {
+            FunctionDefinition definition = ((TopLevelFunction) top).getFunctionDefinition();
+            FunctionDefinition simplified = function(definition);
+            return simplified == definition ? top : TopLevelFunction.make(simplified);
+        }
+        if (top instanceof TopLevelFunctions) {
+            List<FunctionDefinition> definitions = ((TopLevelFunctions) top).getFunctionRecursion().getDefinitions();
+            List<FunctionDefinition> simplified = new ArrayList<>(definitions.size());
+            boolean changed = false;
+            for (FunctionDefinition definition : definitions) {
+                simplified.add(function(definition));
+                changed |= simplified.get(simplified.size() - 1) != definition;
+            }
+            return changed ? TopLevelFunctions.make(FunctionRecursion.make(simplified)) : top;
+        }
+        if (top instanceof TopLevelTheorem) {
+            Theorem theorem = ((TopLevelTheorem) top).getTheorem();
+            Expression formula = simplify(theorem.getFormula());
+            return formula == theorem.getFormula() ? top
+                    : TopLevelTheorem.make(Theorem.make(theorem.getName(), theorem.getVariables(), formula));
+        }
+        if (top instanceof TopLevelSpecification) {
+            FunctionSpecification specification = ((TopLevelSpecification) top).getFunctionSpecification();
+            FunctionSpecifier specifier = specification.getSpecifier();
+            FunctionSpecifier simplified = specifier;
+            if (specifier instanceof FunctionSpecifierRegular) {
+                Expression body = simplify(((FunctionSpecifierRegular) specifier).getBody());
+                if (body != ((FunctionSpecifierRegular) specifier).getBody())
+                    simplified = FunctionSpecifierRegular.make(body);
+            } else if (specifier instanceof FunctionSpecifierQuantified) {
+                FunctionSpecifierQuantified quantified = (FunctionSpecifierQuantified) specifier;
+                Expression matrix = simplify(quantified.getMatrix());
+                if (matrix != quantified.getMatrix())
+                    simplified = FunctionSpecifierQuantified.make(quantified.getQuantifier(),
+                            quantified.getVariables(), matrix);
+            } else if (specifier instanceof FunctionSpecifierInputOutput) {
+                Expression relation = simplify(((FunctionSpecifierInputOutput) specifier).getRelation());
+                if (relation != ((FunctionSpecifierInputOutput) specifier).getRelation())
+                    simplified = FunctionSpecifierInputOutput.make(relation);
+            }
+            return simplified == specifier ? top : TopLevelSpecification.make(
+                    FunctionSpecification.make(specification.getName(), specification.getFunctions(), simplified));
+        }
+        return top;
+    }
+
+    private TypeDefinition typeDefinition(TypeDefinition definition) {
+        TypeDefiner body = definition.getBody();
+        TypeDefiner simplified = body;
+        if (body instanceof TypeDefinerProduct) {
+            TypeProduct product = ((TypeDefinerProduct) body).getProduct();
+            TypeProduct simplifiedProduct = product(product);
+            if (simplifiedProduct != product)
+                simplified = TypeDefinerProduct.make(simplifiedProduct);
+        } else if (body instanceof TypeDefinerSum) {
+            List<Alternative> alternatives = ((TypeDefinerSum) body).getSum().getAlternatives();
+            List<Alternative> simplifiedAlternatives = new ArrayList<>(alternatives.size());
+            boolean changed = false;
+            for (Alternative alternative : alternatives) {
+                TypeProduct product = product(alternative.getProduct());
+                changed |= product != alternative.getProduct();
+                simplifiedAlternatives.add(product == alternative.getProduct() ? alternative
+                        : Alternative.make(alternative.getName(), product));
+            }
+            if (changed)
+                simplified = TypeDefinerSum.make(TypeSum.make(simplifiedAlternatives));
+        } else if (body instanceof TypeDefinerSubset) {
+            TypeSubset subset = ((TypeDefinerSubset) body).getSubset();
+            Expression restriction = simplify(subset.getRestriction());
+            Expression witness = simplifyOptional(subset.getWitness());
+            if (restriction != subset.getRestriction() || witness != subset.getWitness())
+                simplified = TypeDefinerSubset.make(TypeSubset.make(subset.getSupertype(), subset.getVariable(),
+                        restriction, witness));
+        }
+        return simplified == body ? definition : TypeDefinition.make(definition.getName(), simplified);
+    }
+
+    private TypeProduct product(TypeProduct product) {
+        Expression invariant = simplifyOptional(product.getInvariant());
+        return invariant == product.getInvariant() ? product : TypeProduct.make(product.getFields(), invariant);
+    }
+
+    private FunctionDefinition function(FunctionDefinition definition) {
+        Expression precondition = simplifyOptional(definition.getPrecondition());
+        Expression postcondition = simplifyOptional(definition.getPostcondition());
+        FunctionDefiner definer = definition.getDefiner();
+        FunctionDefiner simplified = definer;
+        if (definer instanceof FunctionDefinerRegular) {
+            FunctionDefinerRegular regular = (FunctionDefinerRegular) definer;
+            Expression body = simplify(regular.getBody());
+            Expression measure = simplifyOptional(regular.getMeasure());
+            if (body != regular.getBody() || measure != regular.getMeasure())
+                simplified = FunctionDefinerRegular.make(body, measure);
+        } else if (definer instanceof FunctionDefinerQuantified) {
+            FunctionDefinerQuantified quantified = (FunctionDefinerQuantified) definer;
+            Expression matrix = simplify(quantified.getMatrix());
+            if (matrix != quantified.getMatrix())
+                simplified = FunctionDefinerQuantified.make(quantified.getQuantifier(), quantified.getVariables(),
+                        matrix);
+        }
+        if (precondition == definition.getPrecondition() && postcondition == definition.getPostcondition()
+                && simplified == definer)
+            return definition;
+        return FunctionDefinition.make(definition.getHeader(), precondition, postcondition, simplified);
+    }
+
+    private Expression simplifyOptional(Expression expression) {
+        return expression == null ? null : simplify(expression);
+    }
+
+    /**
+     * Simplifies an expression.
+     *
+     * @param expression The expression.
+     * @return The simplified expression, which is {@code expression} itself if nothing was simplified.
+     */
+    public Expression simplify(Expression expression) {
+        Expression simplified = rewrite(expression);
+        if (simplified != expression)
+            removedNodes.addAndGet(size(expression) - size(simplified));
+        return simplified;
+    }
+
+    /**
+     * The number of expression nodes in an expression.
+     */
+    public static int size(Expression expression) {
+        int size = 1;
+        for (Expression subexpression : subexpressions(expression))
+            size += size(subexpression);
+        return size;
+    }
+
+    private static List<Expression> subexpressions(Expression expression) {
+        List<Expression> subexpressions = new ArrayList<>();
+        if (expression instanceof ExpressionUnary) {
+            subexpressions.add(((ExpressionUnary) expression).getOperand());
+        } else if (expression instanceof ExpressionBinary) {
+            subexpressions.add(((ExpressionBinary) expression).getLeftOperand());
+            subexpressions.add(((ExpressionBinary) expression).getRightOperand());
+        } else if (expression instanceof ExpressionIf) {
+            ExpressionIf e = (ExpressionIf) expression;
+            Collections.addAll(subexpressions, e.getTest(), e.getThen(), e.getElse_());
+        } else if (expression instanceof ExpressionWhen) {
+            ExpressionWhen e = (ExpressionWhen) expression;
+            Collections.addAll(subexpressions, e.getTest(), e.getThen(), e.getElse_());
+        } else if (expression instanceof ExpressionUnless) {
+            ExpressionUnless e = (ExpressionUnless) expression;
+            Collections.addAll(subexpressions, e.getTest(), e.getThen(), e.getElse_());
+        } else if (expression instanceof ExpressionCond) {
+            for (Branch branch : ((ExpressionCond) expression).getBranches())
+                Collections.addAll(subexpressions, branch.getCondition(), branch.getAction());
+        } else if (expression instanceof ExpressionCall) {
+            subexpressions.addAll(((ExpressionCall) expression).getArguments());
+        } else if (expression instanceof ExpressionBind) {
+            subexpressions.add(((ExpressionBind) expression).getValue());
+            subexpressions.add(((ExpressionBind) expression).getBody());
+        } else if (expression instanceof ExpressionMulti) {
+            subexpressions.addAll(((ExpressionMulti) expression).getarguments());
+        } else if (expression instanceof ExpressionComponent) {
+            subexpressions.add(((ExpressionComponent) expression).getMulti());
+        } else if (expression instanceof ExpressionProductConstruct) {
+            for (Initializer initializer : ((ExpressionProductConstruct) expression).getFields())
+                subexpressions.add(initializer.getValue());
+        } else if (expression instanceof ExpressionProductField) {
+            subexpressions.add(((ExpressionProductField) expression).getTarget());
+        } else if (expression instanceof ExpressionProductUpdate) {
+            subexpressions.add(((ExpressionProductUpdate) expression).getTarget());
+            for (Initializer initializer : ((ExpressionProductUpdate) expression).getFields())
+                subexpressions.add(initializer.getValue());
+        } else if (expression instanceof ExpressionSumConstruct) {
+            for (Initializer initializer : ((ExpressionSumConstruct) expression).getFields())
+                subexpressions.add(initializer.getValue());
+        } else if (expression instanceof ExpressionSumField) {
+            subexpressions.add(((ExpressionSumField) expression).getTarget());
+        } else if (expression instanceof ExpressionSumTest) {
+            subexpressions.add(((ExpressionSumTest) expression).getTarget());
+        } else if (expression instanceof ExpressionSumUpdate) {
+            subexpressions.add(((ExpressionSumUpdate) expression).getTarget());
+            for (Initializer initializer : ((ExpressionSumUpdate) expression).getFields())
+                subexpressions.add(initializer.getValue());
+        }
+        return subexpressions;
+    }
+
+    private boolean enabled(Rule rule) {
+        return rules.contains(rule);
+    }
+
+    /**
+     * Counts a rewrite, and returns its result.
+     */
+    private Expression rewritten(Expression result) {
+        rewrites.incrementAndGet();
+        return result;
+    }
+
+    private Expression rewrite(Expression expression) {
+        if (expression instanceof ExpressionUnary)
+            return unary((ExpressionUnary) expression);
+        if (expression instanceof ExpressionBinary)
+            return binary((ExpressionBinary) expression);
+        if (expression instanceof ExpressionIf) {
+            ExpressionIf e = (ExpressionIf) expression;
+            return conditional(e, e.getTest(), e.getThen(), e.getElse_(), ExpressionIf::make);
+        }
+        if (expression instanceof ExpressionWhen) {
+            ExpressionWhen e = (ExpressionWhen) expression;
+            return conditional(e, e.getTest(), e.getThen(), e.getElse_(), ExpressionWhen::make);
+        }
+        if (expression instanceof ExpressionUnless) {
+            // unless c then a else b is if c then b else a.
+            ExpressionUnless e = (ExpressionUnless) expression;
+            return conditional(e, e.getTest(), e.getElse_(), e.getThen(),
+                    (test, else_, then) -> ExpressionUnless.make(test, then, else_));
+        }
+        if (expression instanceof ExpressionCond)
+            return cond((ExpressionCond) expression);
+        if (expression instanceof ExpressionCall) {
+            ExpressionCall e = (ExpressionCall) expression;
+            List<Expression> arguments = rewriteAll(e.getArguments());
+            return arguments == e.getArguments() ? e : ExpressionCall.make(e.getFunction(), e.getTypes(), arguments);
+        }
+        if (expression instanceof ExpressionBind) {
+            ExpressionBind e = (ExpressionBind) expression;
+            Expression value = rewrite(e.getValue());
+            Expression body = rewrite(e.getBody());
+            return value == e.getValue() && body == e.getBody() ? e
+                    : ExpressionBind.make(e.getVariables(), value, body);
+        }
+        if (expression instanceof ExpressionMulti) {
+            ExpressionMulti e = (ExpressionMulti) expression;
+            List<Expression> arguments = rewriteAll(e.getarguments());
+            return arguments == e.getarguments() ? e : ExpressionMulti.make(arguments);
+        }
+        if (expression instanceof ExpressionComponent) {
+            ExpressionComponent e = (ExpressionComponent) expression;
+            Expression multi = rewrite(e.getMulti());
+            return multi == e.getMulti() ? e : ExpressionComponent.make(multi, e.getIndex());
+        }
+        if (expression instanceof ExpressionProductConstruct) {
+            ExpressionProductConstruct e = (ExpressionProductConstruct) expression;
+            List<Initializer> fields = initializers(e.getFields());
+            return fields == e.getFields() ? e : ExpressionProductConstruct.make(e.getType(), fields);
+        }
+        if (expression instanceof ExpressionProductField) {
+            ExpressionProductField e = (ExpressionProductField) expression;
+            Expression target = rewrite(e.getTarget());
+            return target == e.getTarget() ? e : ExpressionProductField.make(e.getType(), target, e.getField());
+        }
+        if (expression instanceof ExpressionProductUpdate) {
+            ExpressionProductUpdate e = (ExpressionProductUpdate) expression;
+            Expression target = rewrite(e.getTarget());
+            List<Initializer> fields = initializers(e.getFields());
+            return target == e.getTarget() && fields == e.getFields() ? e
+                    : ExpressionProductUpdate.make(e.getType(), target, fields);
+        }
+        if (expression instanceof ExpressionSumConstruct) {
+            ExpressionSumConstruct e = (ExpressionSumConstruct) expression;
+            List<Initializer> fields = initializers(e.getFields());
+            return fields == e.getFields() ? e : ExpressionSumConstruct.make(e.getType(), e.getAlternative(), fields);
+        }
+        if (expression instanceof ExpressionSumField) {
+            ExpressionSumField e = (ExpressionSumField) expression;
+            Expression target = rewrite(e.getTarget());
+            return target == e.getTarget() ? e
+                    : ExpressionSumField.make(e.getType(), target, e.getAlternative(), e.getField());
+        }
+        if (expression instanceof ExpressionSumTest) {
+            ExpressionSumTest e = (ExpressionSumTest) expression;
+            Expression target = rewrite(e.getTarget());
+            return target == e.getTarget() ? e : ExpressionSumTest.make(e.getType(), target, e.getAlternative());
+        }
+        if (expression instanceof ExpressionSumUpdate) {
+            ExpressionSumUpdate e = (ExpressionSumUpdate) expression;
+            Expression target = rewrite(e.getTarget());
+            List<Initializer> fields = initializers(e.getFields());
+            return target == e.getTarget() && fields == e.getFields() ? e
+                    : ExpressionSumUpdate.make(e.getType(), target, e.getAlternative(), fields);
+        }
+        return expression;
+    }
+
+    /**
+     * Rewrites a list of expressions, returning the list itself if none of them changed.
+     */
+    private List<Expression> rewriteAll(List<Expression> expressions) {
+        List<Expression> rewritten = new ArrayList<>(expressions.size());
+        boolean changed = false;
+        for (Expression expression : expressions) {
+            rewritten.add(rewrite(expression));
+            changed |= rewritten.get(rewritten.size() - 1) != expression;
+        }
+        return changed ? rewritten : expressions;
+    }
+
+    private List<Initializer> initializers(List<Initializer> initializers) {
+        List<Initializer> rewritten = new ArrayList<>(initializers.size());
+        boolean changed = false;
+        for (Initializer initializer : initializers) {
+            Expression value = rewrite(initializer.getValue());
+            changed |= value != initializer.getValue();
+            rewritten.add(value == initializer.getValue() ? initializer
+                    : Initializer.make(initializer.getField(), value));
+        }
+        return changed ? rewritten : initializers;
+    }
+
+    private Expression unary(ExpressionUnary expression) {
+        Expression operand = rewrite(expression.getOperand());
+        if (expression.getOperator() == ExpressionUnary.Operator.NOT) {
+            Boolean value = booleanValue(operand);
+            if (value != null && enabled(Rule.FOLD_CONSTANTS))
+                return rewritten(bool(!value));
+            if (isNot(operand) && enabled(Rule.SIMPLIFY_BOOLEANS))
+                return rewritten(((ExpressionUnary) operand).getOperand());
+        } else if (enabled(Rule.FOLD_CONSTANTS)) {
+            // A negative literal is the negation of a literal: only a double negation is folded.
+            BigInteger value = integerValue(operand);
+            if (value != null && operand instanceof ExpressionUnary)
+                return rewritten(integer(value.negate()));
+        }
+        return operand == expression.getOperand() ? expression : ExpressionUnary.make(expression.getOperator(), operand);
+    }
+
+    private Expression binary(ExpressionBinary expression) {
+        Expression left = rewrite(expression.getLeftOperand());
+        Expression right = rewrite(expression.getRightOperand());
+        if (enabled(Rule.FOLD_CONSTANTS)) {
+            Expression folded = fold(expression.getOperator(), left, right);
+            if (folded != null)
+                return rewritten(folded);
+        }
+        if (enabled(Rule.SIMPLIFY_BOOLEANS)) {
+            Expression simplified = logical(expression.getOperator(), left, right);
+            if (simplified != null)
+                return rewritten(simplified);
+        }
+        return left == expression.getLeftOperand() && right == expression.getRightOperand() ? expression
+                : ExpressionBinary.make(expression.getOperator(), left, right);
+    }
+
+    /**
+     * The value of an operator on literals, or null if the operands are not literals,
+     * or if the value is not defined.
+     */
+    private static Expression fold(ExpressionBinary.Operator operator, Expression left, Expression right) {
+        BigInteger l = integerValue(left);
+        BigInteger r = integerValue(right);
+        if (l != null && r != null) {
+            switch (operator) {
+                case ADD:
+                    return integer(l.add(r));
+                case SUB:
+                    return integer(l.subtract(r));
+                case MUL:
+                    return integer(l.multiply(r));
+                case DIV:
+                    return l.signum() < 0 || r.signum() <= 0 ? null : integer(l.divide(r));
+                case REM:
+                    return l.signum() < 0 || r.signum() <= 0 ? null : integer(l.remainder(r));
+                default:
+                    return compare(operator, l.compareTo(r));
+            }
+        }
+        Boolean lb = booleanValue(left);
+        Boolean rb = booleanValue(right);
+        if (lb != null && rb != null) {
+            switch (operator) {
+                case AND:
+                    return bool(lb && rb);
+                case OR:
+                    return bool(lb || rb);
+                case IMPLIES:
+                    return bool(!lb || rb);
+                case IMPLIED:
+                    return bool(lb || !rb);
+                case IFF:
+                case EQ:
+                    return bool(lb.equals(rb));
+                case NE:
+                    return bool(!lb.equals(rb));
+                default:
+                    return null;
+            }
+        }
+        if (left instanceof ExpressionLiteral && right instanceof ExpressionLiteral) {
+            Literal ll = ((ExpressionLiteral) left).getLiteral();
+            Literal rl = ((ExpressionLiteral) right).getLiteral();
+            if (ll instanceof LiteralCharacter && rl instanceof LiteralCharacter)
+                return compare(operator,
+                        Character.compare(((LiteralCharacter) ll).getValue(), ((LiteralCharacter) rl).getValue()));
+            if (ll instanceof LiteralString && rl instanceof LiteralString) {
+                if (operator == ExpressionBinary.Operator.EQ)
+                    return bool(ll.equals(rl));
+                if (operator == ExpressionBinary.Operator.NE)
+                    return bool(!ll.equals(rl));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The value of a comparison, given the sign of the comparison of its operands,
+     * or null if the operator is not a comparison.
+     */
+    private static Expression compare(ExpressionBinary.Operator operator, int sign) {
+        switch (operator) {
+            case EQ:
+                return bool(sign == 0);
+            case NE:
+                return bool(sign != 0);
+            case LT:
+                return bool(sign < 0);
+            case LE:
+                return bool(sign <= 0);
+            case GT:
+                return bool(sign > 0);
+            case GE:
+                return bool(sign >= 0);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * A logical operator with a boolean literal operand, simplified,
+     * or null if neither operand is a literal, or if simplifying would drop an operand with obligations.
+     */
+    private static Expression logical(ExpressionBinary.Operator operator, Expression left, Expression right) {
+        Boolean l = booleanValue(left);
+        Boolean r = booleanValue(right);
+        if (l == null && r == null)
+            return null;
+        switch (operator) {
+            case AND:
+                // true && x is x, false && x is false, x && true is x, and x && false is false.
+                if (l != null)
+                    return l ? right : left;
+                return r ? left : droppable(left) ? right : null;
+            case OR:
+                if (l != null)
+                    return l ? left : right;
+                return r ? (droppable(left) ? right : null) : left;
+            case IMPLIES:
+                // true ==> x is x, false ==> x is true, x ==> true is true, and x ==> false is !x.
+                if (l != null)
+                    return l ? right : bool(true);
+                return r ? (droppable(left) ? right : null) : not(left);
+            case IMPLIED:
+                if (l != null)
+                    return l ? left : not(right);
+                return r ? left : droppable(left) ? bool(true) : null;
+            case IFF:
+                return l != null ? (l ? right : not(right)) : (r ? left : not(left));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Tells whether an operand can be dropped from a logical operator after the literal that decides it,
+     * i.e. whether it has no guard obligations of its own.
+     */
+    private static boolean droppable(Expression operand) {
+        return operand instanceof Variable || operand instanceof ExpressionLiteral;
+    }
+
+    @FunctionalInterface
+    private interface ConditionalMaker {
+        Expression make(Expression test, Expression then, Expression else_);
+    }
+
+    /**
+     * Rewrites a conditional that is {@code then} if {@code test} is true, and {@code else_} otherwise.
+     */
+    private Expression conditional(Expression expression, Expression test, Expression then, Expression else_,
+                                   ConditionalMaker maker) {
+        Expression t = rewrite(test);
+        Boolean value = booleanValue(t);
+        if (value != null && enabled(Rule.ELIMINATE_DEAD_BRANCHES))
+            return rewritten(rewrite(value ? then : else_));
+        Expression a = rewrite(then);
+        Expression b = rewrite(else_);
+        if (enabled(Rule.SIMPLIFY_BOOLEANS)) {
+            Boolean av = booleanValue(a);
+            Boolean bv = booleanValue(b);
+            // if c then true else false is c, and if c then false else true is !c.
+            if (av != null && bv != null && !av.equals(bv))
+                return rewritten(av ? t : not(t));
+        }
+        return t == test && a == then && b == else_ ? expression : maker.make(t, a, b);
+    }
+
+    private Expression cond(ExpressionCond expression) {
+        List<Branch> original = expression.getBranches();
+        List<Branch> branches = new ArrayList<>(original.size());
+        boolean changed = false;
+        for (int i = 0; i < original.size(); ++i) {
+            Branch branch = original.get(i);
+            Expression condition = rewrite(branch.getCondition());
+            Boolean value = booleanValue(condition);
+            boolean dead = enabled(Rule.ELIMINATE_DEAD_BRANCHES) && value != null;
+            // A branch that is never taken is removed, unless it is the only one left.
+            if (dead && !value && (!branches.isEmpty() || i + 1 < original.size())) {
+                changed = true;
+                rewrites.incrementAndGet();
+                continue;
+            }
+            Expression action = rewrite(branch.getAction());
+            // A branch that is always taken is the whole expression if it is the first one,
+            // and the last one otherwise.
+            if (dead && value && branches.isEmpty())
+                return rewritten(action);
+            changed |= condition != branch.getCondition() || action != branch.getAction();
+            branches.add(condition == branch.getCondition() && action == branch.getAction() ? branch
+                    : Branch.make(condition, action));
+            if (dead && value && i + 1 < original.size()) {
+                changed = true;
+                rewrites.incrementAndGet();
+                break;
+            }
+        }
+        return changed ? ExpressionCond.make(branches) : expression;
+    }
+
+    private static boolean isNot(Expression expression) {
+        return expression instanceof ExpressionUnary
+                && ((ExpressionUnary) expression).getOperator() == ExpressionUnary.Operator.NOT;
+    }
+
+    /**
+     * The negation of an expression, without a double negation.
+     */
+    private static Expression not(Expression expression) {
+        Boolean value = booleanValue(expression);
+        if (value != null)
+            return bool(!value);
+        if (isNot(expression))
+            return ((ExpressionUnary) expression).getOperand();
+        return ExpressionUnary.make(ExpressionUnary.Operator.NOT, expression);
+    }
+
+    /**
+     * The value of a boolean literal, or null if the expression is not one.
+     */
+    private static Boolean booleanValue(Expression expression) {
+        if (expression instanceof ExpressionLiteral
+                && ((ExpressionLiteral) expression).getLiteral() instanceof LiteralBoolean)
+            return ((LiteralBoolean) ((ExpressionLiteral) expression).getLiteral()).getValue();
+        return null;
+    }
+
+    /**
+     * The value of an integer literal, or of the negation of one, or null if the expression is neither.
+     */
+    private static BigInteger integerValue(Expression expression) {
+        if (expression instanceof ExpressionLiteral
+                && ((ExpressionLiteral) expression).getLiteral() instanceof LiteralInteger)
+            return ((LiteralInteger) ((ExpressionLiteral) expression).getLiteral()).getValue();
+        if (expression instanceof ExpressionUnary
+                && ((ExpressionUnary) expression).getOperator() == ExpressionUnary.Operator.MINUS) {
+            BigInteger value = integerValue(((ExpressionUnary) expression).getOperand());
+            return value == null ? null : value.negate();
+        }
+        return null;
+    }
+
+    private static Expression bool(boolean value) {
+        return ExpressionLiteral.make(LiteralBoolean.make(value));
+    }
+
+    /**
+     * An integer literal, or the negation of one for a negative integer.
+     */
+    private static Expression integer(BigInteger value) {
+        Expression literal = ExpressionLiteral.make(LiteralInteger.make(value.abs()));
+        return value.signum() < 0 ? ExpressionUnary.make(ExpressionUnary.Operator.MINUS, literal) : literal;
+    }
+}
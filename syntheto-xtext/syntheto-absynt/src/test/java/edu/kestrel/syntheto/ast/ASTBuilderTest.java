@@ -0,0 +1,89 @@
+package edu.kestrel.syntheto.ast;
+
+import edu.kestrel.syntheto.sexpr.Parser;
+import edu.kestrel.syntheto.sexpr.SExpression;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ASTBuilderTest {
+
+    /**
+     * The serialized forms of the constructs in syntheto-core-ast-examples.txt,
+     * as built by the tests of the corresponding AST classes.
+     */
+    static final String[] EXAMPLE_FORMS = {
+            // types
+            TypeDefinitionTest.expectedString,
+            TypeDefinerProductTest.expectedString,
+            TypeDefinerSumTest.expectedString,
+            TypeSubsetTest.expectedString1,
+            TypeSubsetTest.expectedString2,
+            // expressions
+            ExpressionLiteralTest.expectedString,
+            VariableTest.expectedString,
+            ExpressionUnaryTest.expectedString,
+            ExpressionBinaryTest.expectedString,
+            ExpressionIfTest.expectedString,
+            ExpressionWhenTest.expectedString,
+            ExpressionUnlessTest.expectedString,
+            ExpressionCondTest.expectedString,
+            ExpressionCallTest.expectedString,
+            ExpressionMultiTest.expectedString,
+            ExpressionComponentTest.expectedString,
+            ExpressionBindTest.expectedString1,
+            ExpressionBindTest.expectedString2,
+            ExpressionProductConstructTest.expectedString,
+            ExpressionProductFieldTest.expectedString,
+            ExpressionProductUpdateTest.expectedString,
+            ExpressionSumConstructTest.expectedString,
+            ExpressionSumFieldTest.expectedString,
+            ExpressionSumUpdateTest.expectedString,
+            ExpressionSumTestTest.expectedString,
+            // theorems and functions
+            TheoremTest.expectedString,
+            FunctionDefinitionTest.expectedString,
+            // a whole program
+            ProgramTest.expectedString,
+    };
+
+    static List<SExpression> exampleSExpressions() {
+        List<SExpression> result = new ArrayList<>();
+        for (String form : EXAMPLE_FORMS)
+            result.add(new Parser(form).parseTop());
+        return result;
+    }
+
+    @Test
+    void everyClassIsRegistered() {
+        assertEquals(ASTBuilder.ASTClasses.length, ASTBuilder.makerToBuilder.size());
+        assertTrue(ASTBuilder.makerToBuilder.containsKey(Identifier.classMakerFn));
+    }
+
+    @Test
+    void roundTripExamples() {
+        for (SExpression sExpr : exampleSExpressions()) {
+            ASTNode node = ASTBuilder.fromSExpression(sExpr);
+            assertNotNull(node);
+            assertEquals(sExpr, node.toSExpression());
+        }
+    }
+
+    @Test
+    void malformedForms() {
+        assertThrows(IllegalArgumentException.class, () -> ASTBuilder.fromSExpression(SExpression.integer(3)));
+        assertThrows(IllegalArgumentException.class,
+                () -> ASTBuilder.fromSExpression(new Parser("(\"x\")").parseTop()));
+        assertThrows(IllegalArgumentException.class,
+                () -> ASTBuilder.fromSExpression(new Parser("(SYNTHETO::MAKE-NO-SUCH-THING)").parseTop()));
+        // Errors in nested forms reach the caller instead of turning into null.
+        SExpression nested = new Parser("(SYNTHETO::MAKE-TYPED-VARIABLE :NAME (SYNTHETO::MAKE-NO-SUCH-THING)"
+                + " :TYPE (SYNTHETO::MAKE-TYPE-INTEGER))").parseTop();
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> ASTBuilder.fromSExpression(nested));
+        assertEquals("Cannot find class for: SYNTHETO::MAKE-NO-SUCH-THING", e.getMessage());
+    }
+}
@@ -0,0 +1,97 @@
+package edu.kestrel.syntheto.ast;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DependencyGraphTest {
+
+    private static TopLevel function(String name, Expression body, TypedVariable... inputs) {
+        FunctionHeader header = FunctionHeader.make(Identifier.make(name),
+                Arrays.asList(inputs),
+                Collections.singletonList(TypedVariable.make(Identifier.make("y"), TypeInteger.make())));
+        return TopLevelFunction.make(FunctionDefinition.make(header, null, null,
+                FunctionDefinerRegular.make(body, null)));
+    }
+
+    private static Expression call(String function) {
+        return ExpressionCall.make(Identifier.make(function),
+                Collections.singletonList(ExpressionLiteral.make(LiteralInteger.make(0))));
+    }
+
+    private static TopLevel theorem(String name, Expression formula) {
+        return TopLevelTheorem.make(Theorem.make(Identifier.make(name), Collections.emptyList(), formula));
+    }
+
+    private static Expression zero() {
+        return ExpressionLiteral.make(LiteralInteger.make(0));
+    }
+
+    /**
+     * A program whose nodes are:
+     * 0: type point; 1: function f on points; 2: function g calling f;
+     * 3: theorem about f; 4: theorem about g; 5: theorem about nothing;
+     * 6: transform of g with an argument naming f.
+     */
+    static List<TopLevel> program() {
+        return Arrays.asList(
+                TopLevelType.make(TypeDefinition.make(Identifier.make("point"),
+                        TypeDefinerProduct.make(TypeProduct.make(
+                                Collections.singletonList(Field.make(Identifier.make("x"), TypeInteger.make())),
+                                null)))),
+                function("f", zero(), TypedVariable.make(Identifier.make("p"), TypeDefined.make(Identifier.make("point")))),
+                function("g", call("f")),
+                theorem("t1", call("f")),
+                theorem("t2", call("g")),
+                theorem("t3", zero()),
+                TopLevelTransform.make(Transform.make(Identifier.make("h"), Identifier.make("g"), "tail_recursion",
+                        Collections.singletonList(TransformArgument.make(Identifier.make("helper"),
+                                TransformArgumentValueIdentifier.make(Identifier.make("f")))))));
+    }
+
+    @Test
+    void dependencies() {
+        DependencyGraph graph = DependencyGraph.of(program());
+        assertEquals(7, graph.size());
+        assertArrayEquals(new int[]{}, graph.getDependencies(0));
+        assertArrayEquals(new int[]{0}, graph.getDependencies(1));
+        assertArrayEquals(new int[]{1}, graph.getDependencies(2));
+        assertArrayEquals(new int[]{1}, graph.getDependencies(3));
+        assertArrayEquals(new int[]{2}, graph.getDependencies(4));
+        assertArrayEquals(new int[]{}, graph.getDependencies(5));
+        assertArrayEquals(new int[]{1, 2}, graph.getDependencies(6));
+        assertArrayEquals(new int[]{2, 3, 6}, graph.getDependents(1));
+        assertEquals(Collections.singleton("h"), graph.getDefinedNames(6));
+    }
+
+    @Test
+    void wavesLeavesAndClosures() {
+        DependencyGraph graph = DependencyGraph.of(program());
+        List<int[]> waves = graph.waves();
+        assertEquals(4, waves.size());
+        assertArrayEquals(new int[]{0, 5}, waves.get(0));
+        assertArrayEquals(new int[]{1}, waves.get(1));
+        assertArrayEquals(new int[]{2, 3}, waves.get(2));
+        assertArrayEquals(new int[]{4, 6}, waves.get(3));
+        assertArrayEquals(new int[]{3, 4, 5, 6}, graph.leaves());
+        assertArrayEquals(new int[]{0, 1, 2, 4}, graph.closure(4));
+        assertArrayEquals(new int[]{0, 1, 3, 5}, graph.closure(3, 5));
+    }
+
+    @Test
+    void referencesOnlyToEarlierDefinitions() {
+        // A recursive call refers to the function itself, and a call to an undefined function to nothing.
+        DependencyGraph graph = DependencyGraph.of(Arrays.asList(
+                function("f", call("f")),
+                function("g", call("undefined")),
+                function("f", call("g")),
+                theorem("t", call("f"))));
+        assertArrayEquals(new int[]{}, graph.getDependencies(0));
+        assertArrayEquals(new int[]{}, graph.getDependencies(1));
+        assertArrayEquals(new int[]{1}, graph.getDependencies(2));
+        // The later definition of f shadows the earlier one.
+        assertArrayEquals(new int[]{2}, graph.getDependencies(3));
+    }
+}
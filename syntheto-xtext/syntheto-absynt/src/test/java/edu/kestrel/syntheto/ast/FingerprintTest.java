@@ -0,0 +1,55 @@
+package edu.kestrel.syntheto.ast;
+
+import edu.kestrel.syntheto.sexpr.SExpression;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FingerprintTest {
+
+    private static Expression integer(int value) {
+        return ExpressionLiteral.make(LiteralInteger.make(value));
+    }
+
+    private static Expression sum(Expression left, Expression right) {
+        return ExpressionBinary.make(ExpressionBinary.Operator.ADD, left, right);
+    }
+
+    @Test
+    void equalNodesHaveEqualFingerprints() {
+        List<SExpression> examples = ASTBuilderTest.exampleSExpressions();
+        Set<Fingerprint> distinct = new HashSet<>();
+        for (SExpression sExpr : examples) {
+            ASTNode node = ASTBuilder.fromSExpression(sExpr);
+            ASTNode again = ASTBuilder.fromSExpression(sExpr);
+            assertNotSame(node, again);
+            assertEquals(node.fingerprint(), again.fingerprint(), sExpr.toString());
+            distinct.add(node.fingerprint());
+        }
+        assertEquals(new HashSet<>(examples).size(), distinct.size());
+    }
+
+    @Test
+    void differentNodesHaveDifferentFingerprints() {
+        assertNotEquals(integer(1).fingerprint(), integer(2).fingerprint());
+        assertNotEquals(sum(integer(1), integer(2)).fingerprint(), sum(integer(2), integer(1)).fingerprint());
+        assertNotEquals(ExpressionBinary.make(ExpressionBinary.Operator.SUB, integer(1), integer(2)).fingerprint(),
+                sum(integer(1), integer(2)).fingerprint());
+        // Same (no) fields, different classes.
+        assertNotEquals(QuantifierForall.make().fingerprint(), QuantifierExists.make().fingerprint());
+        assertNotEquals(LiteralBoolean.make(true).fingerprint(), LiteralBoolean.make(false).fingerprint());
+        assertNotEquals(LiteralString.make("ab").fingerprint(), LiteralString.make("a").fingerprint());
+    }
+
+    @Test
+    void computedOnce() {
+        Expression e = sum(integer(1), integer(2));
+        assertSame(e.fingerprint(), e.fingerprint());
+        Fingerprint f = e.fingerprint();
+        assertEquals(f, Fingerprint.fromBytes(f.toByteArray()));
+        assertEquals(2 * Fingerprint.LENGTH, f.toString().length());
+        assertThrows(IllegalArgumentException.class, () -> Fingerprint.fromBytes(new byte[3]));
+    }
+}
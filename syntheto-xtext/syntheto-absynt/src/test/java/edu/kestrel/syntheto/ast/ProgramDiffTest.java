@@ -0,0 +1,65 @@
+package edu.kestrel.syntheto.ast;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProgramDiffTest {
+
+    private static TopLevel theorem(String name, int value) {
+        return TopLevelTheorem.make(Theorem.make(Identifier.make(name), Collections.emptyList(),
+                ExpressionLiteral.make(LiteralInteger.make(value))));
+    }
+
+    private static ProgramDiff.Change change(ProgramDiff.Kind kind, int oldIndex, int newIndex) {
+        return new ProgramDiff.Change(kind, oldIndex, newIndex);
+    }
+
+    @Test
+    void keptChangedAddedRemoved() {
+        Program before = Program.make(Arrays.asList(
+                theorem("a", 0), theorem("b", 0), theorem("c", 0), theorem("d", 0)));
+        // b changed, c removed, e added, and d moved before a.
+        Program after = Program.make(Arrays.asList(
+                theorem("d", 0), theorem("a", 0), theorem("b", 1), theorem("e", 0)));
+        ProgramDiff diff = ProgramDiff.of(before, after);
+        assertEquals(Arrays.asList(
+                change(ProgramDiff.Kind.KEPT, 3, 0),
+                change(ProgramDiff.Kind.KEPT, 0, 1),
+                change(ProgramDiff.Kind.CHANGED, 1, 2),
+                change(ProgramDiff.Kind.ADDED, -1, 3),
+                change(ProgramDiff.Kind.REMOVED, 2, -1)), diff.getChanges());
+        assertEquals(Collections.singletonList(change(ProgramDiff.Kind.CHANGED, 1, 2)),
+                diff.getChanges(ProgramDiff.Kind.CHANGED));
+        assertEquals(0, diff.commonPrefixLength());
+        assertFalse(diff.isIdentity());
+    }
+
+    @Test
+    void identicalAndExtendedPrograms() {
+        List<TopLevel> tops = Arrays.asList(theorem("a", 0), theorem("b", 0));
+        // Equal but separately built constructs are kept.
+        ProgramDiff same = ProgramDiff.of(tops, Arrays.asList(theorem("a", 0), theorem("b", 0)));
+        assertTrue(same.isIdentity());
+        assertEquals(2, same.commonPrefixLength());
+
+        ProgramDiff extended = ProgramDiff.of(tops, Arrays.asList(theorem("a", 0), theorem("b", 0), theorem("c", 0)));
+        assertFalse(extended.isIdentity());
+        assertEquals(2, extended.commonPrefixLength());
+        assertEquals(Collections.singletonList(change(ProgramDiff.Kind.ADDED, -1, 2)),
+                extended.getChanges(ProgramDiff.Kind.ADDED));
+    }
+
+    @Test
+    void duplicatesAreMatchedInOrder() {
+        ProgramDiff diff = ProgramDiff.of(
+                Arrays.asList(theorem("a", 0), theorem("a", 0), theorem("a", 1)),
+                Arrays.asList(theorem("a", 0), theorem("a", 2)));
+        assertEquals(Arrays.asList(
+                change(ProgramDiff.Kind.KEPT, 0, 0),
+                change(ProgramDiff.Kind.CHANGED, 1, 1),
+                change(ProgramDiff.Kind.REMOVED, 2, -1)), diff.getChanges());
+    }
+}
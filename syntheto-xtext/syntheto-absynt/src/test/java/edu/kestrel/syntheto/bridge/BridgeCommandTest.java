@@ -0,0 +1,71 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.ast.*;
+import edu.kestrel.syntheto.sexpr.Parser;
+import edu.kestrel.syntheto.sexpr.SExpression;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BridgeCommandTest {
+
+    private static TopLevel exampleTopLevel() {
+        return (TopLevel) ASTBuilder.fromSExpression(new Parser(TopLevelFunctionTest.expectedString).parseTop());
+    }
+
+    private static String written(BridgeCommand.Writer writer) throws BridgeException {
+        StringWriter out = new StringWriter();
+        writer.writeTo(new BridgeCommand(new PrintWriter(out), "LISP_MV"));
+        return out.toString();
+    }
+
+    @Test
+    void streamedCommandsMatchStringCommands() throws BridgeException {
+        TopLevel topLevel = exampleTopLevel();
+        assertEquals(written(c -> c.writeBridgeCommand(Util.wrapTopLevelCommand(topLevel.toSExpression().toString()))),
+                written(c -> c.writeTopLevelCommand(topLevel)));
+        SExpression sexpr = new Parser("(SYNTHETO::F :X (LIST 1 \"a\"))").parseTop();
+        String expected = "(bridge::try-in-main-thread (nld '(SYNTHETO::F :X (LIST 1 \"a\"))))";
+        assertEquals("LISP_MV " + expected.length() + "\n" + expected + "\n",
+                written(c -> c.writeBridgeCommand(sexpr)));
+        assertEquals(written(c -> c.writeBridgeCommand(sexpr.toString())), written(c -> c.writeBridgeCommand(sexpr)));
+    }
+
+    @Test
+    void nonEightBitCharacterIsRejectedBeforeWriting() {
+        StringWriter out = new StringWriter();
+        BridgeCommand command = new BridgeCommand(new PrintWriter(out), "LISP_MV");
+        SExpression sexpr = SExpression.list(SExpression.string("\u0151"));
+        assertThrows(IllegalArgumentException.class, () -> command.writeBridgeCommand(sexpr));
+        assertEquals("", out.toString());
+    }
+
+    @Test
+    void sessionSendsLatinOneAndSurvivesRejectedCommands() throws Exception {
+        AtomicReference<String> received = new AtomicReference<>();
+        try (StandInBridge bridge = new StandInBridge(form -> {
+            received.set(form);
+            return "(NIL NIL NIL)";
+        })) {
+            try (BridgeSession session = BridgeSession.connect("localhost", bridge.getPort(), "LISP_MV")) {
+                SExpression cafe = SExpression.list(SExpression.string("caf\u00e9"));
+                session.sendCommand(cafe);
+                assertEquals("(bridge::try-in-main-thread (nld '(\"caf\u00e9\")))", received.get());
+
+                BridgeException e = assertThrows(BridgeException.class,
+                        () -> session.sendCommand(SExpression.list(SExpression.string("\u0151"))));
+                assertTrue(e.getCause() instanceof IllegalArgumentException);
+                assertTrue(session.isUsable());
+
+                TopLevel topLevel = exampleTopLevel();
+                session.sendTopLevel(topLevel);
+                assertEquals(Util.wrapCommand(Util.wrapTopLevelCommand(topLevel.toSExpression().toString())),
+                        received.get());
+                assertEquals(2, bridge.commandsReceived());
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.outcome.Outcome;
+import edu.kestrel.syntheto.outcome.TypeSuccess;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BridgePipelineTest {
+
+    private static final Pattern NUMBER = Pattern.compile("\\(F (\\d+)\\)");
+
+    /**
+     * Answers (F n) with a type success outcome whose message is n,
+     * and anything else with a return value that has no outcome in it.
+     */
+    static String typeSuccessResponder(String form) {
+        Matcher m = NUMBER.matcher(form);
+        if (!m.find())
+            return "(NIL NIL NIL)";
+        return "(NIL (NIL (NIL NIL STATE) NIL (SYNTHETO::MAKE-OUTCOME-TYPE-SUCCESS :MESSAGE \""
+                + m.group(1) + "\") REPLACED-STATE) NIL)";
+    }
+
+    @Test
+    void outcomesInOrder() throws Exception {
+        try (StandInBridge bridge = new StandInBridge(BridgePipelineTest::typeSuccessResponder)) {
+            BridgePipeline pipeline = new BridgePipeline(
+                    BridgeSession.connect("localhost", bridge.getPort(), "LISP_MV"), 4);
+            List<CompletableFuture<Outcome>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; ++i)
+                futures.add(pipeline.submit("(F " + i + ")"));
+            for (int i = 0; i < 20; ++i)
+                assertEquals(TypeSuccess.make(Integer.toString(i)), futures.get(i).get(5, TimeUnit.SECONDS));
+            assertEquals(0, pipeline.pendingCount());
+            assertEquals(20, bridge.commandsReceived());
+            pipeline.close();
+        }
+    }
+
+    @Test
+    void responseWithoutOutcomeFailsOnlyItsCommand() throws Exception {
+        try (StandInBridge bridge = new StandInBridge(BridgePipelineTest::typeSuccessResponder)) {
+            BridgePipeline pipeline = new BridgePipeline(
+                    BridgeSession.connect("localhost", bridge.getPort(), "LISP_MV"), 2);
+            CompletableFuture<Outcome> bad = pipeline.submit("(G)");
+            CompletableFuture<Outcome> good = pipeline.submit("(F 7)");
+            ExecutionException e = assertThrows(ExecutionException.class, () -> bad.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof BridgeException);
+            assertEquals(TypeSuccess.make("7"), good.get(5, TimeUnit.SECONDS));
+            pipeline.close();
+        }
+    }
+
+    @Test
+    void closeFailsPendingCommands() throws Exception {
+        try (StandInBridge bridge = new StandInBridge(BridgePipelineTest::typeSuccessResponder, 10000)) {
+            BridgeSession session = BridgeSession.connect("localhost", bridge.getPort(), "LISP_MV");
+            BridgePipeline pipeline = new BridgePipeline(session, 2);
+            CompletableFuture<Outcome> future = pipeline.submit("(F 1)");
+            pipeline.close();
+            ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof BridgeException);
+            assertFalse(session.isUsable());
+            assertThrows(BridgeException.class, () -> pipeline.submit("(F 2)"));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package edu.kestrel.syntheto.bridge;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BridgeResponseTest {
+
+    private static final String JSON_T = "[\"NIL\",[\"NIL\",[\"NIL\"],\"T\"],\"The Live State Itself\"]";
+
+    private static String frame(String type, String payload) {
+        return type + " " + payload.length() + "\n" + payload + "\n";
+    }
+
+    private static BridgeResponse quietResponse(Reader reader, String responseType) {
+        BridgeResponse response = new BridgeResponse(reader, responseType);
+        response.Log = Logger.getLogger(BridgeResponseTest.class.getName());
+        return response;
+    }
+
+    @Test
+    void readHelloAndResponses() throws BridgeException {
+        String stream = "ACL2_BRIDGE_HELLO 6\nworker\nREADY 0\n\n"
+                + frame("STDOUT", "first chunk") + frame("STDOUT", " second chunk")
+                + frame("RETURN", JSON_T) + "READY 0\n\n"
+                + frame("RETURN", JSON_T) + "READY 0\n\n";
+        BridgeResponse response = quietResponse(new StringReader(stream), "JSON_MV");
+        response.readHello();
+        assertEquals("first chunk second chunk", response.readResponse());
+        assertEquals(JSON_T, response.getReturnValueString());
+        assertTrue(response.response_JSON_p());
+        assertEquals("", response.readResponse());
+        assertEquals(JSON_T, response.getReturnValueString());
+    }
+
+    @Test
+    void payloadsLargerThanTheBuffer() throws BridgeException {
+        char[] chars = new char[100000];
+        for (int i = 0; i < chars.length; ++i)
+            chars[i] = (char) ('a' + i % 26);
+        String output = new String(chars);
+        String payload = "(NIL NIL NIL)";
+        BridgeResponse response = quietResponse(
+                new StringReader(frame("STDOUT", output) + frame("RETURN", payload) + "READY 0\n\n"),
+                "LISP_MV");
+        assertEquals(output, response.readResponse());
+        assertEquals(payload, response.getReturnValueString());
+    }
+
+    @Test
+    void nonEightBitCharacter() {
+        BridgeResponse response = quietResponse(
+                new StringReader(frame("STDOUT", "caf\u0151") + frame("RETURN", JSON_T) + "READY 0\n\n"),
+                "JSON_MV");
+        BridgeException e = assertThrows(BridgeException.class, response::readResponse);
+        assertEquals("Found non-8-bit character 337.", e.getMessage());
+    }
+
+    @Test
+    void truncatedPayload() {
+        BridgeResponse response = quietResponse(new StringReader("RETURN 100\n(NIL"), "LISP_MV");
+        assertThrows(BridgeException.class, response::readResponse);
+    }
+
+    @Test
+    void unexpectedMessage() {
+        BridgeResponse response = quietResponse(new StringReader("XYZ"), "JSON_MV");
+        BridgeException e = assertThrows(BridgeException.class, response::readResponse);
+        assertEquals("Expected a literal string 'RETURN', but the first character found was 'X'.", e.getMessage());
+    }
+
+    @Test
+    void screenOutputStreamedToTheListener() throws BridgeException {
+        char[] chars = new char[20000];
+        for (int i = 0; i < chars.length; ++i)
+            chars[i] = (char) ('a' + i % 26);
+        String output = new String(chars);
+        BridgeResponse response = quietResponse(
+                new StringReader(frame("STDOUT", output) + frame("STDOUT", "FAILED")
+                        + frame("RETURN", JSON_T) + "READY 0\n\n"),
+                "JSON_MV");
+        StringBuilder streamed = new StringBuilder();
+        int[] pieces = {0};
+        response.setScreenOutputListener(piece -> {
+            streamed.append(piece);
+            pieces[0]++;
+        });
+        response.setScreenOutputLimits(1000, 100);
+        response.readStreamedResponse();
+        assertEquals(output + "FAILED", streamed.toString());
+        assertTrue(pieces[0] > 2);
+        assertTrue(response.getScreenOutputBuffer().isSpilled());
+        assertEquals(output.substring(output.length() - 4) + "FAILED", response.getScreenOutputTail(10));
+        assertTrue(response.screenOutputContains("FAILED"));
+        assertEquals(output + "FAILED", response.getScreenOutput());
+        assertEquals(JSON_T, response.getReturnValueString());
+        response.getScreenOutputBuffer().close();
+    }
+
+    @Test
+    void truncatedScreenOutput() {
+        BridgeResponse response = quietResponse(new StringReader("STDOUT 100\nabc"), "JSON_MV");
+        BridgeException e = assertThrows(BridgeException.class, response::readStreamedResponse);
+        assertEquals("Expected 100 characters, found end of stream after 3.", e.getMessage());
+    }
+}
@@ -0,0 +1,120 @@
+package edu.kestrel.syntheto.bridge;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BridgeSessionPoolTest {
+
+    private static final String JSON_T = "[\"NIL\",[\"NIL\",[\"NIL\"],\"T\"],\"The Live State Itself\"]";
+
+    @Test
+    void leaseAndRelease() throws Exception {
+        try (StandInBridge bridge1 = new StandInBridge(form -> JSON_T);
+             StandInBridge bridge2 = new StandInBridge(form -> JSON_T)) {
+            BridgeSessionPool pool = BridgeSessionPool.onPorts("localhost",
+                    Arrays.asList(bridge1.getPort(), bridge2.getPort()), "JSON_MV");
+            assertEquals(2, pool.capacity());
+            assertEquals(0, pool.openCount());
+
+            BridgeSession s1 = pool.lease();
+            BridgeSession s2 = pool.lease();
+            // Sessions are spread over the endpoints.
+            assertNotEquals(s1.getPort(), s2.getPort());
+            // The pool is exhausted.
+            assertNull(pool.lease(10, TimeUnit.MILLISECONDS));
+
+            assertTrue(s1.sendCommand("(+ 1 2)").response_JSON_p());
+            assertTrue(s2.sendCommand("(+ 3 4)").response_JSON_p());
+            assertEquals(1, bridge1.commandsReceived());
+            assertEquals(1, bridge2.commandsReceived());
+
+            pool.release(s1);
+            assertSame(s1, pool.lease());
+            pool.release(s1);
+            pool.release(s2);
+            assertEquals(0, pool.leasedCount());
+            assertEquals(2, pool.openCount());
+            pool.close();
+            assertFalse(s1.isUsable());
+        }
+    }
+
+    @Test
+    void brokenSessionIsReplaced() throws Exception {
+        try (StandInBridge bridge = new StandInBridge(form -> JSON_T)) {
+            BridgeSessionPool pool = BridgeSessionPool.onPorts("localhost",
+                    Arrays.asList(bridge.getPort()), "JSON_MV");
+            BridgeSession s1 = pool.lease();
+            s1.markBroken();
+            pool.release(s1);
+            assertEquals(0, pool.openCount());
+            BridgeSession s2 = pool.lease();
+            assertNotSame(s1, s2);
+            assertTrue(s2.sendCommand("(+ 1 2)").response_JSON_p());
+            pool.release(s2);
+            pool.close();
+        }
+    }
+
+    @Test
+    void concurrentLeases() throws Exception {
+        try (StandInBridge bridge1 = new StandInBridge(form -> JSON_T, 50);
+             StandInBridge bridge2 = new StandInBridge(form -> JSON_T, 50)) {
+            BridgeSessionPool pool = BridgeSessionPool.onPorts("localhost",
+                    Arrays.asList(bridge1.getPort(), bridge2.getPort()), "JSON_MV");
+            Thread[] threads = new Thread[4];
+            boolean[] ok = new boolean[threads.length];
+            for (int i = 0; i < threads.length; ++i) {
+                final int index = i;
+                threads[i] = new Thread(() -> {
+                    try {
+                        BridgeSession session = pool.lease();
+                        try {
+                            ok[index] = session.sendCommand("(+ 1 2)").response_JSON_p();
+                        } finally {
+                            pool.release(session);
+                        }
+                    } catch (BridgeException e) {
+                        ok[index] = false;
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+            for (boolean b : ok)
+                assertTrue(b);
+            assertEquals(4, bridge1.commandsReceived() + bridge2.commandsReceived());
+            assertEquals(2, pool.openCount());
+            pool.close();
+        }
+    }
+
+    @Test
+    void connectionFailureFreesTheSlot() throws Exception {
+        int port;
+        try (StandInBridge bridge = new StandInBridge(form -> JSON_T)) {
+            port = bridge.getPort();
+        }
+        BridgeSessionPool pool = BridgeSessionPool.onPorts("localhost", Arrays.asList(port), "JSON_MV");
+        assertThrows(BridgeException.class, pool::lease);
+        assertEquals(0, pool.leasedCount());
+        assertEquals(0, pool.openCount());
+    }
+
+    @Test
+    void nonAsciiResponsesKeepTheirFraming() throws Exception {
+        // The lengths in the headers are byte counts, whatever the platform charset.
+        String accented = "[\"NIL\",[\"NIL\",[\"NIL\"],\"caf\u00e9\"],\"The Live State Itself\"]";
+        try (StandInBridge bridge = new StandInBridge(form -> form.contains("1") ? accented : JSON_T)) {
+            BridgeSession session = BridgeSession.connect("localhost", bridge.getPort(), "JSON_MV");
+            assertTrue(session.sendCommand("(+ 1 2)").getReturnValueString().contains("caf\u00e9"));
+            assertTrue(session.sendCommand("(+ 3 4)").response_JSON_p());
+            session.close();
+        }
+    }
+}
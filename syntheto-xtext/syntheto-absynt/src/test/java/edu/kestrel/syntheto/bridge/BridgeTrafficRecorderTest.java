@@ -0,0 +1,90 @@
+package edu.kestrel.syntheto.bridge;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BridgeTrafficRecorderTest {
+
+    private static final String JSON_T = "[\"NIL\",[\"NIL\",[\"NIL\"],\"T\"],\"The Live State Itself\"]";
+
+    private static BridgeTrafficRecorder.Frame command(int connection, String form) {
+        return new BridgeTrafficRecorder.Frame(connection, BridgeTrafficRecorder.Direction.COMMAND, "JSON_MV",
+                Util.COMMAND_PREFIX + form + Util.COMMAND_SUFFIX);
+    }
+
+    private static BridgeTrafficRecorder.Frame response(int connection, String type, String payload) {
+        return new BridgeTrafficRecorder.Frame(connection, BridgeTrafficRecorder.Direction.RESPONSE, type, payload);
+    }
+
+    @Test
+    void recordsCommandsAndResponses() throws Exception {
+        BridgeTrafficRecorder recorder = new BridgeTrafficRecorder();
+        try (StandInBridge bridge = new StandInBridge(form -> JSON_T);
+             BridgeSession first = BridgeSession.connect("localhost", bridge.getPort(), "JSON_MV", recorder);
+             BridgeSession second = BridgeSession.connect("localhost", bridge.getPort(), "JSON_MV", recorder)) {
+            first.getResponse().Log = Logger.getLogger(BridgeTrafficRecorderTest.class.getName());
+            second.getResponse().Log = Logger.getLogger(BridgeTrafficRecorderTest.class.getName());
+            first.sendCommand("(+ 3 4)");
+            second.sendCommand("'a");
+            first.sendCommand("(pbt 1)");
+        }
+        List<BridgeTrafficRecorder.Frame> frames = recorder.getFrames();
+        assertEquals(Arrays.asList(
+                response(0, "ACL2_BRIDGE_HELLO", "replay"), response(0, "READY", ""),
+                response(1, "ACL2_BRIDGE_HELLO", "replay"), response(1, "READY", ""),
+                command(0, "(+ 3 4)"), response(0, "RETURN", JSON_T), response(0, "READY", ""),
+                command(1, "'a"), response(1, "RETURN", JSON_T), response(1, "READY", ""),
+                command(0, "(pbt 1)"), response(0, "RETURN", JSON_T), response(0, "READY", "")), frames);
+
+        List<BridgeTrafficRecorder.Exchange> exchanges = BridgeTrafficRecorder.exchanges(frames);
+        assertEquals(5, exchanges.size());
+        assertNull(exchanges.get(0).getCommand());
+        assertEquals(command(1, "'a"), exchanges.get(3).getCommand());
+        assertEquals(Arrays.asList(response(1, "RETURN", JSON_T), response(1, "READY", "")),
+                exchanges.get(3).getResponse());
+    }
+
+    @Test
+    void journalRoundTrip() throws IOException {
+        StringWriter journal = new StringWriter();
+        BridgeTrafficRecorder recorder = new BridgeTrafficRecorder(journal);
+        BridgeTrafficRecorder.Connection connection = recorder.connection();
+        // Frames split across writes and reads, with payloads containing newlines and spaces.
+        String commands = command(0, "(cw \"a b~%\")").toWire() + command(0, "\n").toWire();
+        Writer out = connection.commands(new StringWriter());
+        out.write(commands.substring(0, 5));
+        out.write(commands.substring(5).toCharArray());
+        String responses = response(0, "STDOUT", "a b\n").toWire() + response(0, "RETURN", JSON_T).toWire()
+                + response(0, "READY", "").toWire();
+        Reader in = connection.responses(new StringReader(responses));
+        assertEquals('S', in.read());
+        char[] rest = new char[responses.length()];
+        assertEquals(responses.length() - 1, in.read(rest, 0, rest.length));
+        recorder.close();
+
+        List<BridgeTrafficRecorder.Frame> frames = recorder.getFrames();
+        assertEquals(5, frames.size());
+        assertEquals(frames, BridgeTrafficRecorder.read(new StringReader(journal.toString())));
+        // A frame cut off at the end is ignored.
+        String cut = journal.toString().substring(0, journal.toString().length() - 3);
+        assertEquals(frames.subList(0, 4), BridgeTrafficRecorder.read(new StringReader(cut)));
+        assertThrows(IOException.class, () -> BridgeTrafficRecorder.read(new StringReader("0 X READY 0\n\n")));
+    }
+
+    @Test
+    void unansweredCommandsAreNotExchanges() {
+        List<BridgeTrafficRecorder.Frame> frames = Arrays.asList(
+                response(0, "ACL2_BRIDGE_HELLO", "worker"), response(0, "READY", ""),
+                command(0, "(u)"));
+        List<BridgeTrafficRecorder.Exchange> exchanges = BridgeTrafficRecorder.exchanges(frames);
+        assertEquals(1, exchanges.size());
+        assertEquals(Collections.emptyList(), BridgeTrafficRecorder.exchanges(Collections.emptyList()));
+    }
+}
@@ -0,0 +1,81 @@
+package edu.kestrel.syntheto.bridge;
+
+import org.json.JSONArray;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonMvDecoderTest {
+
+    /**
+     * JSON_MV return values of the shapes produced by the bridge,
+     * with the error classification of each.
+     */
+    static final String[][] RECORDED_RESPONSES = {
+            // (+ 1 2) style stateless call returning T
+            {"[\"NIL\",[\"NIL\",[\"NIL\"],\"T\"],\"The Live State Itself\"]", ""},
+            // stateless call returning NIL
+            {"[\"NIL\",[\"NIL\",[\"NIL\"]],\"The Live State Itself\"]", ""},
+            // successful event
+            {"[\"NIL\",[\"NIL\",[\"NIL\",\"NIL\",\"STATE\"],\"NIL\",\"FOO\",\"REPLACED-STATE\"],"
+                    + "\"The Live State Itself\"]", ""},
+            // event with a classified error
+            {"[\"NIL\",[\"NIL\",[\"NIL\",\"NIL\",\"STATE\"],[\"ACL2 Error in ( DEFUN FOO ...):  The guard"
+                    + " \\\"conjecture\\\" failed.\\n\"],\"NIL\",\"REPLACED-STATE\"],\"The Live State Itself\"]",
+                    "ACL2 Error in ( DEFUN FOO ...):  The guard \"conjecture\" failed.\n"},
+            // event with an unclassified error
+            {"[\"NIL\",[\"NIL\",[\"NIL\",\"NIL\",\"STATE\"],\"T\",\"NIL\",\"REPLACED-STATE\"],"
+                    + "\"The Live State Itself\"]", "ACL2GeneralError"},
+            // general error, e.g. (cons 3)
+            {"[\"NIL\",[\"T\"],\"The Live State Itself\"]", "ACL2GeneralError"},
+            // malformed shapes
+            {"[\"NIL\",[\"NIL\",[\"NIL\"]]]", "JSONTopArrayWrongLength"},
+            {"[\"NIL\",[],\"The Live State Itself\"]", "JSONTopArrayBadSecondElement"},
+            {"[\"NIL\",[\"NIL\",[\"NIL\",\"NIL\"],\"A\"],\"The Live State Itself\"]",
+                    "JSONstobjs_outResultsLengthMismatch"},
+    };
+
+    @Test
+    void decode() {
+        assertEquals(Arrays.asList("NIL", Arrays.asList("NIL", Collections.singletonList("NIL"), "T"), "X"),
+                JsonMvDecoder.decode(" [ \"NIL\" , [\"NIL\",[\"NIL\"],\"T\"],\"X\" ] "));
+        assertEquals(Collections.emptyList(), JsonMvDecoder.decode("[]"));
+        assertEquals(Collections.singletonList("a\"b\\c\nd\u00e9/"),
+                JsonMvDecoder.decode("[\"a\\\"b\\\\c\\nd\\u00e9\\/\"]"));
+    }
+
+    @Test
+    void outsideTheSubset() {
+        // These are left to the general JSON parser.
+        assertNull(JsonMvDecoder.decode("[1,2]"));
+        assertNull(JsonMvDecoder.decode("[\"A\",{\"B\":\"C\"}]"));
+        assertNull(JsonMvDecoder.decode("[true]"));
+        assertNull(JsonMvDecoder.decode("\"A\""));
+        // And these are not JSON at all.
+        assertNull(JsonMvDecoder.decode("[\"A\""));
+        assertNull(JsonMvDecoder.decode("[\"A\",]"));
+        assertNull(JsonMvDecoder.decode("[\"A\"] x"));
+        assertNull(JsonMvDecoder.decode("[\"\\q\"]"));
+        assertNull(JsonMvDecoder.decode(""));
+    }
+
+    @Test
+    void agreesWithTheGeneralParser() {
+        for (String[] response : RECORDED_RESPONSES) {
+            List<Object> decoded = JsonMvDecoder.decode(response[0]);
+            assertEquals(new JSONArray(response[0]).toList(), decoded);
+            assertEquals(response[1], BridgeResponse.ACL2RetvalError(decoded));
+        }
+    }
+
+    @Test
+    void fallbackClassification() {
+        // Numbers are outside the subset, and are classified via the general parser.
+        List<Object> list = new JSONArray("[\"NIL\",[\"NIL\",[\"NIL\"],3],\"The Live State Itself\"]").toList();
+        assertEquals("", BridgeResponse.ACL2RetvalError(list));
+    }
+}
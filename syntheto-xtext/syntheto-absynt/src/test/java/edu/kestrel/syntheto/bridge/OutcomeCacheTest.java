@@ -0,0 +1,82 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.ast.TopLevel;
+import edu.kestrel.syntheto.outcome.FunctionSuccess;
+import edu.kestrel.syntheto.outcome.Outcome;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutcomeCacheTest {
+
+    private static OutcomeCache.Key key(int world, String top) {
+        return new OutcomeCache.Key((world + ":" + top).getBytes());
+    }
+
+    private static Outcome outcome(String message) {
+        return FunctionSuccess.make(message);
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() {
+        OutcomeCache cache = new OutcomeCache(2);
+        cache.put(key(0, "a"), outcome("a"));
+        cache.put(key(0, "b"), outcome("b"));
+        // Using a makes b the least recently used.
+        assertEquals(outcome("a"), cache.get(key(0, "a")));
+        cache.put(key(0, "c"), outcome("c"));
+        assertEquals(2, cache.size());
+        assertNull(cache.get(key(0, "b")));
+        assertEquals(outcome("a"), cache.get(key(0, "a")));
+        assertEquals(outcome("c"), cache.get(key(0, "c")));
+        assertEquals(3, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.hitCount());
+    }
+
+    @Test
+    void keyIncludesTheWorld() {
+        OutcomeCache cache = new OutcomeCache(8);
+        cache.put(key(0, "a"), outcome("a"));
+        assertNull(cache.get(key(1, "a")));
+        assertNull(cache.get(key(0, "b")));
+        assertNotNull(cache.get(key(0, "a")));
+    }
+
+    @Test
+    void sharedBetweenSessions() throws Exception {
+        WorldCheckpointsTest.SimulatedWorld world = new WorldCheckpointsTest.SimulatedWorld();
+        OutcomeCache cache = new OutcomeCache(16);
+        try (StandInBridge bridge = new StandInBridge(world);
+             BridgeSession first = BridgeSession.connect("localhost", bridge.getPort(), "LISP_MV");
+             BridgeSession second = BridgeSession.connect("localhost", bridge.getPort(), "LISP_MV")) {
+            first.getResponse().Log = Logger.getLogger(OutcomeCacheTest.class.getName());
+            second.getResponse().Log = Logger.getLogger(OutcomeCacheTest.class.getName());
+            first.getCheckpoints().setCache(cache);
+            second.getCheckpoints().setCache(cache);
+
+            List<TopLevel> tops = WorldCheckpointsTest.functions("a", "b", "c");
+            List<Outcome> outcomes = first.getCheckpoints().process(tops);
+            assertEquals(3, cache.size());
+
+            // The second session finds all the outcomes in the cache, and submits nothing.
+            world.submitted.clear();
+            assertEquals(outcomes, second.getCheckpoints().process(tops));
+            assertEquals(Collections.emptyList(), world.submitted);
+            assertEquals(0, second.getCheckpoints().size());
+
+            // When something is not in the cache, the world is built for real.
+            List<TopLevel> longer = WorldCheckpointsTest.functions("a", "b", "c", "d");
+            assertEquals(outcomes, second.getCheckpoints().process(longer).subList(0, 3));
+            assertEquals(Arrays.asList("a", "b", "c", "d"), world.submitted);
+            assertEquals(4, second.getCheckpoints().size());
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.ast.TopLevel;
+import edu.kestrel.syntheto.outcome.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutcomeStoreTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("outcome-store-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.walk(directory).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+
+    private static byte[] key(int n) {
+        byte[] key = new byte[OutcomeStore.KEY_LENGTH];
+        key[0] = (byte) n;
+        key[1] = (byte) (n >> 8);
+        return key;
+    }
+
+    @Test
+    void persistsAcrossReopening() throws Exception {
+        Path file = directory.resolve("store").resolve("outcomes.log");
+        try (OutcomeStore store = OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES)) {
+            assertTrue(store.put(key(1), FunctionSuccess.make("f")));
+            assertTrue(store.put(key(2), TheoremSuccess.make("t \"quoted\"")));
+            assertTrue(store.put(key(3), TypeSuccess.make("ty")));
+            // Failures are not stored.
+            assertFalse(store.put(key(4), TheoremFailure.make("no proof")));
+            assertTrue(store.put(key(1), FunctionSuccess.make("f again")));
+            assertEquals(3, store.size());
+        }
+        try (OutcomeStore store = OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES)) {
+            assertEquals(3, store.size());
+            assertEquals(FunctionSuccess.make("f again"), store.get(key(1)));
+            assertEquals(TheoremSuccess.make("t \"quoted\""), store.get(key(2)));
+            assertEquals(TypeSuccess.make("ty"), store.get(key(3)));
+            assertNull(store.get(key(4)));
+        }
+    }
+
+    @Test
+    void outcomesAreOnlyFoundWithTheSaltTheyWereStoredWith() throws Exception {
+        Path file = directory.resolve("outcomes.log");
+        try (OutcomeStore store = OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES, "acl2-8.3")) {
+            assertTrue(store.put(key(1), FunctionSuccess.make("f")));
+            assertEquals(FunctionSuccess.make("f"), store.get(key(1)));
+        }
+        try (OutcomeStore store = OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES, "acl2-8.4")) {
+            assertNull(store.get(key(1)));
+            assertTrue(store.put(key(1), FunctionSuccess.make("f with 8.4")));
+        }
+        try (OutcomeStore store = OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES)) {
+            assertNull(store.get(key(1)));
+        }
+        try (OutcomeStore store = OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES, "acl2-8.3")) {
+            assertEquals(2, store.size());
+            assertEquals(FunctionSuccess.make("f"), store.get(key(1)));
+        }
+    }
+
+    @Test
+    void damagedTailIsCutOff() throws Exception {
+        Path file = directory.resolve("outcomes.log");
+        long intact;
+        try (OutcomeStore store = OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES)) {
+            store.put(key(1), FunctionSuccess.make("f"));
+            intact = store.fileLength();
+            store.put(key(2), FunctionSuccess.make("g"));
+        }
+        // Simulate a crash in the middle of the second record.
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        try (OutcomeStore store = OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES)) {
+            assertEquals(1, store.size());
+            assertEquals(intact, store.fileLength());
+            assertEquals(FunctionSuccess.make("f"), store.get(key(1)));
+            // Appending continues after the intact records.
+            store.put(key(2), FunctionSuccess.make("g"));
+        }
+        try (OutcomeStore store = OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES)) {
+            assertEquals(FunctionSuccess.make("g"), store.get(key(2)));
+        }
+    }
+
+    @Test
+    void corruptedRecordIsCutOff() throws Exception {
+        Path file = directory.resolve("outcomes.log");
+        try (OutcomeStore store = OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES)) {
+            store.put(key(1), FunctionSuccess.make("f"));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(raf.length() - 6);
+            raf.write(raf.read() ^ 1);
+        }
+        try (OutcomeStore store = OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES)) {
+            assertEquals(0, store.size());
+        }
+        // A file that is not a store is replaced.
+        Files.write(file, "something else".getBytes());
+        try (OutcomeStore store = OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES)) {
+            assertEquals(0, store.size());
+            store.put(key(1), FunctionSuccess.make("f"));
+            assertEquals(FunctionSuccess.make("f"), store.get(key(1)));
+        }
+    }
+
+    @Test
+    void compactionKeepsTheLogWithinItsLimit() throws Exception {
+        Path file = directory.resolve("outcomes.log");
+        long limit = 4096;
+        try (OutcomeStore store = OutcomeStore.open(file, limit)) {
+            for (int i = 0; i < 500; ++i) {
+                store.put(key(i % 10), FunctionSuccess.make("function number " + i));
+                assertTrue(store.fileLength() <= limit);
+            }
+            // Superseded records are dropped, and the most recent ones are kept.
+            assertEquals(10, store.size());
+            assertEquals(FunctionSuccess.make("function number 499"), store.get(key(9)));
+            for (int i = 0; i < 500; ++i) {
+                store.put(key(i), FunctionSuccess.make("function number " + i));
+                assertTrue(store.fileLength() <= limit);
+            }
+            assertTrue(store.size() < 500);
+            assertEquals(FunctionSuccess.make("function number 499"), store.get(key(499)));
+            assertNull(store.get(key(0)));
+        }
+        assertFalse(Files.exists(directory.resolve("outcomes.log.compacting")));
+    }
+
+    @Test
+    void encoding() {
+        Outcome outcome = TheoremSuccess.make("a theorem with a long message, a long message, a long message");
+        byte[] payload = OutcomeStore.encode(outcome);
+        assertTrue(payload.length < outcome.toSExpression().encodedLength());
+        assertEquals(outcome, OutcomeStore.decode(payload));
+        assertThrows(IllegalArgumentException.class, () -> OutcomeStore.decode(new byte[]{1, 2, 3}));
+    }
+
+    @Test
+    void backsACacheAcrossRestarts() throws Exception {
+        Path file = directory.resolve("outcomes.log");
+        WorldCheckpointsTest.SimulatedWorld world = new WorldCheckpointsTest.SimulatedWorld();
+        List<TopLevel> tops = WorldCheckpointsTest.functions("a", "b", "c");
+        List<Outcome> outcomes;
+        try (StandInBridge bridge = new StandInBridge(world);
+             OutcomeStore store = OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES);
+             BridgeSession session = BridgeSession.connect("localhost", bridge.getPort(), "LISP_MV")) {
+            session.getResponse().Log = Logger.getLogger(OutcomeStoreTest.class.getName());
+            session.getCheckpoints().setCache(new OutcomeCache(16, store));
+            outcomes = session.getCheckpoints().process(tops);
+        }
+        // After a restart, nothing is submitted.
+        world.submitted.clear();
+        try (StandInBridge bridge = new StandInBridge(world);
+             OutcomeStore store = OutcomeStore.open(file, OutcomeStore.DEFAULT_MAX_BYTES);
+             BridgeSession session = BridgeSession.connect("localhost", bridge.getPort(), "LISP_MV")) {
+            session.getResponse().Log = Logger.getLogger(OutcomeStoreTest.class.getName());
+            OutcomeCache cache = new OutcomeCache(16, store);
+            session.getCheckpoints().setCache(cache);
+            assertEquals(outcomes, session.getCheckpoints().process(tops));
+            assertEquals(Collections.emptyList(), world.submitted);
+            assertEquals(3, cache.storeHitCount());
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.ast.*;
+import edu.kestrel.syntheto.outcome.FunctionSuccess;
+import edu.kestrel.syntheto.outcome.Outcome;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelVerifierTest {
+
+    private static TopLevel theorem(String name, int argument) {
+        return TopLevelTheorem.make(Theorem.make(Identifier.make(name), Collections.emptyList(),
+                ExpressionCall.make(Identifier.make("f"),
+                        Collections.singletonList(ExpressionLiteral.make(LiteralInteger.make(argument))))));
+    }
+
+    /**
+     * A function f followed by theorems about it.
+     */
+    private static List<TopLevel> theorems(int count) {
+        List<TopLevel> tops = new ArrayList<>();
+        tops.add(WorldCheckpointsTest.function("f", 0));
+        for (int i = 1; i <= count; ++i)
+            tops.add(theorem("t" + i, 0));
+        return tops;
+    }
+
+    private static List<String> messages(List<Outcome> outcomes) {
+        List<String> result = new ArrayList<>();
+        for (Outcome outcome : outcomes)
+            result.add(((FunctionSuccess) outcome).getInfo());
+        return result;
+    }
+
+    @Test
+    void independentTheoremsOnSeveralSessions() throws Exception {
+        WorldCheckpointsTest.SimulatedWorld first = new WorldCheckpointsTest.SimulatedWorld();
+        WorldCheckpointsTest.SimulatedWorld second = new WorldCheckpointsTest.SimulatedWorld();
+        try (StandInBridge firstBridge = new StandInBridge(first);
+             StandInBridge secondBridge = new StandInBridge(second);
+             BridgeSessionPool pool = BridgeSessionPool.onPorts("localhost",
+                     Arrays.asList(firstBridge.getPort(), secondBridge.getPort()), "LISP_MV")) {
+            ParallelVerifier verifier = new ParallelVerifier(pool, 2);
+
+            // Each world gets f and half of the theorems.
+            List<TopLevel> tops = theorems(4);
+            assertEquals(Arrays.asList("f@1", "t1@2", "t2@2", "t3@3", "t4@3"), messages(verifier.verify(tops)));
+            Set<List<String>> worlds = new HashSet<>(Arrays.asList(first.events, second.events));
+            assertEquals(new HashSet<>(Arrays.asList(Arrays.asList("f", "t1", "t3"), Arrays.asList("f", "t2", "t4"))),
+                    worlds);
+            assertEquals(0, pool.leasedCount());
+
+            // Nothing is submitted again.
+            first.submitted.clear();
+            second.submitted.clear();
+            verifier.verify(tops);
+            assertEquals(Collections.emptyList(), first.submitted);
+            assertEquals(Collections.emptyList(), second.submitted);
+
+            // An edited theorem goes to the session that already holds what comes before it.
+            tops.set(4, theorem("t4", 1));
+            assertEquals(Arrays.asList("f@1", "t1@2", "t2@2", "t3@3", "t4@3"), messages(verifier.verify(tops)));
+            List<String> submitted = new ArrayList<>(first.submitted);
+            submitted.addAll(second.submitted);
+            assertEquals(Collections.singletonList("t4"), submitted);
+        }
+    }
+
+    @Test
+    void listenerHearsEachOutcomeOnce() throws Exception {
+        WorldCheckpointsTest.SimulatedWorld first = new WorldCheckpointsTest.SimulatedWorld();
+        WorldCheckpointsTest.SimulatedWorld second = new WorldCheckpointsTest.SimulatedWorld();
+        try (StandInBridge firstBridge = new StandInBridge(first);
+             StandInBridge secondBridge = new StandInBridge(second);
+             BridgeSessionPool pool = BridgeSessionPool.onPorts("localhost",
+                     Arrays.asList(firstBridge.getPort(), secondBridge.getPort()), "LISP_MV")) {
+            List<TopLevel> tops = theorems(4);
+            Map<Integer, String> heard = new ConcurrentHashMap<>();
+            AtomicInteger calls = new AtomicInteger();
+            List<Outcome> outcomes = new ParallelVerifier(pool, 2).verify(tops, CommandDeadline.NONE,
+                    (index, outcome) -> {
+                        heard.put(index, ((FunctionSuccess) outcome).getInfo());
+                        calls.incrementAndGet();
+                    });
+            // f is processed by both workers, but heard once, as it is returned.
+            assertEquals(5, calls.get());
+            for (int i = 0; i < tops.size(); ++i)
+                assertEquals(messages(outcomes).get(i), heard.get(i));
+        }
+    }
+
+    @Test
+    void cancelledWhileWaitingForSessions() throws Exception {
+        WorldCheckpointsTest.SimulatedWorld world = new WorldCheckpointsTest.SimulatedWorld();
+        try (StandInBridge bridge = new StandInBridge(world);
+             BridgeSessionPool pool = BridgeSessionPool.onPorts("localhost",
+                     Collections.singletonList(bridge.getPort()), "LISP_MV")) {
+            BridgeSession leased = pool.lease();
+            BridgeInterruptedException e = assertThrows(BridgeInterruptedException.class,
+                    () -> new ParallelVerifier(pool, 1).verify(theorems(1),
+                            CommandDeadline.of(0, TimeUnit.SECONDS, () -> true), null));
+            assertEquals(BridgeInterruptedException.Reason.CANCELLED, e.getReason());
+            pool.release(leased);
+            assertEquals(0, pool.leasedCount());
+        }
+    }
+
+    @Test
+    void singleWorkerProcessesEverything() throws Exception {
+        WorldCheckpointsTest.SimulatedWorld world = new WorldCheckpointsTest.SimulatedWorld();
+        try (StandInBridge bridge = new StandInBridge(world);
+             BridgeSessionPool pool = BridgeSessionPool.onPorts("localhost",
+                     Collections.singletonList(bridge.getPort()), "LISP_MV")) {
+            // With a single session, the workers are capped at one.
+            ParallelVerifier verifier = new ParallelVerifier(pool, 4);
+            assertEquals(Arrays.asList("f@1", "t1@2", "t2@3"), messages(verifier.verify(theorems(2))));
+            assertEquals(Arrays.asList("f", "t1", "t2"), world.events);
+        }
+    }
+
+    @Test
+    void failureIsReported() throws Exception {
+        WorldCheckpointsTest.SimulatedWorld first = new WorldCheckpointsTest.SimulatedWorld();
+        WorldCheckpointsTest.SimulatedWorld second = new WorldCheckpointsTest.SimulatedWorld();
+        try (StandInBridge firstBridge = new StandInBridge(form ->
+                     form.contains("\"t2\"") ? "(NIL NIL NIL)" : first.apply(form));
+             StandInBridge secondBridge = new StandInBridge(form ->
+                     form.contains("\"t2\"") ? "(NIL NIL NIL)" : second.apply(form));
+             BridgeSessionPool pool = BridgeSessionPool.onPorts("localhost",
+                     Arrays.asList(firstBridge.getPort(), secondBridge.getPort()), "LISP_MV")) {
+            ParallelVerifier verifier = new ParallelVerifier(pool, 2);
+            assertThrows(BridgeException.class, () -> verifier.verify(theorems(2)));
+            assertEquals(0, pool.leasedCount());
+        }
+    }
+
+    @Test
+    void failureStopsTheOtherWorkersBeforeReleasingTheirSessions() throws Exception {
+        WorldCheckpointsTest.SlowWorld first = new WorldCheckpointsTest.SlowWorld(false);
+        WorldCheckpointsTest.SlowWorld second = new WorldCheckpointsTest.SlowWorld(false);
+        AtomicInteger exchanging = new AtomicInteger();
+        Function<WorldCheckpointsTest.SlowWorld, Function<String, String>> failingOnT1 = world -> form -> {
+            exchanging.incrementAndGet();
+            try {
+                if (!form.contains("\"t1\""))
+                    return world.apply(form);
+                // Fail once the other worker is in the middle of its slow command.
+                long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (!first.slowStarted.get() && !second.slowStarted.get() && System.nanoTime() < until)
+                    Thread.yield();
+                return "(NIL NIL NIL)";
+            } finally {
+                exchanging.decrementAndGet();
+            }
+        };
+        try (StandInBridge firstBridge = new StandInBridge(failingOnT1.apply(first));
+             StandInBridge secondBridge = new StandInBridge(failingOnT1.apply(second));
+             BridgeSessionPool pool = BridgeSessionPool.onPorts("localhost",
+                     Arrays.asList(firstBridge.getPort(), secondBridge.getPort()), "LISP_MV")) {
+            List<TopLevel> tops = theorems(1);
+            tops.add(theorem("slow", 0));
+            assertThrows(BridgeException.class, () -> new ParallelVerifier(pool, 2).verify(tops));
+            assertTrue(first.slowStarted.get() || second.slowStarted.get());
+            // The slow command was interrupted before its session went back to the pool.
+            assertEquals(0, exchanging.get());
+            assertEquals(0, pool.leasedCount());
+        }
+    }
+
+    @Test
+    void sessionsAreNotHeldWhileWaitingForOthers() throws Exception {
+        WorldCheckpointsTest.SimulatedWorld first = new WorldCheckpointsTest.SimulatedWorld();
+        WorldCheckpointsTest.SimulatedWorld second = new WorldCheckpointsTest.SimulatedWorld();
+        try (StandInBridge firstBridge = new StandInBridge(first);
+             StandInBridge secondBridge = new StandInBridge(second);
+             BridgeSessionPool pool = BridgeSessionPool.onPorts("localhost",
+                     Arrays.asList(firstBridge.getPort(), secondBridge.getPort()), "LISP_MV")) {
+            // Another request holds one of the two sessions: the verifier goes on with the other.
+            BridgeSession other = pool.lease();
+            assertEquals(Arrays.asList("f@1", "t1@2", "t2@3"),
+                    messages(new ParallelVerifier(pool, 2).verify(theorems(2))));
+            assertEquals(1, pool.leasedCount());
+            pool.release(other);
+        }
+    }
+
+    @Test
+    void partition() {
+        DependencyGraph graph = DependencyGraph.of(theorems(5));
+        List<int[]> parts = ParallelVerifier.partition(graph, 2);
+        assertEquals(2, parts.size());
+        assertArrayEquals(new int[]{0, 1, 3, 5}, parts.get(0));
+        assertArrayEquals(new int[]{0, 2, 4}, parts.get(1));
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4, 5}, ParallelVerifier.partition(graph, 1).get(0));
+        // There are never more parts than leaves.
+        assertEquals(5, ParallelVerifier.partition(graph, 8).size());
+    }
+}
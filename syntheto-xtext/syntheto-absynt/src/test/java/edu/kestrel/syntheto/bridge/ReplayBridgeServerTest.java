@@ -0,0 +1,89 @@
+package edu.kestrel.syntheto.bridge;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplayBridgeServerTest {
+
+    private static BridgeSession connect(int port, BridgeTrafficRecorder recorder) throws BridgeException {
+        BridgeSession session = BridgeSession.connect("localhost", port, "JSON_MV", recorder);
+        session.getResponse().Log = Logger.getLogger(ReplayBridgeServerTest.class.getName());
+        return session;
+    }
+
+    /**
+     * Records the exchanges of a few commands with a stand-in bridge
+     * that numbers its responses.
+     */
+    private static List<BridgeTrafficRecorder.Frame> record(String... forms) throws Exception {
+        BridgeTrafficRecorder recorder = new BridgeTrafficRecorder();
+        int[] count = {0};
+        try (StandInBridge bridge = new StandInBridge(form -> "[\"" + count[0]++ + "\"]");
+             BridgeSession session = connect(bridge.getPort(), recorder)) {
+            for (String form : forms)
+                session.sendCommand(form);
+        }
+        return recorder.getFrames();
+    }
+
+    @Test
+    void servesRecordedResponses() throws Exception {
+        List<BridgeTrafficRecorder.Frame> recording = record("(+ 3 4)", "(ubu 0)", "'a", "(ubu 0)");
+        try (ReplayBridgeServer server = new ReplayBridgeServer(recording);
+             BridgeSession session = connect(server.getPort(), null)) {
+            List<String> returned = new ArrayList<>();
+            for (String form : Arrays.asList("'a", "(ubu 0)", "(+ 3 4)", "(ubu 0)", "(ubu 0)"))
+                returned.add(session.sendCommand(form).getReturnValueString());
+            // Repeated commands get their responses in order, then the last one again.
+            assertEquals(Arrays.asList("[\"2\"]", "[\"1\"]", "[\"0\"]", "[\"3\"]", "[\"3\"]"), returned);
+            assertEquals(5, server.commandsReceived());
+            assertEquals(0, server.commandsUnmatched());
+
+            // Without a fallback, an unknown command closes the connection.
+            assertThrows(BridgeException.class, () -> session.sendCommand("(+ 1 1)"));
+            assertFalse(session.isUsable());
+            assertEquals(1, server.commandsUnmatched());
+        }
+    }
+
+    @Test
+    void replayIsRecordedAgainIdentically() throws Exception {
+        List<BridgeTrafficRecorder.Frame> recording = record("(defun f (x) x)", "(f 3)");
+        BridgeTrafficRecorder again = new BridgeTrafficRecorder();
+        try (ReplayBridgeServer server = new ReplayBridgeServer(recording);
+             BridgeSession session = connect(server.getPort(), again)) {
+            session.sendCommand("(defun f (x) x)");
+            session.sendCommand("(f 3)");
+        }
+        assertEquals(recording, again.getFrames());
+    }
+
+    @Test
+    void fallbackAndJitterKeepOrder() throws Exception {
+        List<BridgeTrafficRecorder.Frame> recording = record("'a");
+        try (ReplayBridgeServer server = new ReplayBridgeServer(recording, form -> "[\"fallback\"]", 0, 5, 20, 42)) {
+            // All the commands are written before any response is read,
+            // so the responses must come back in order despite the jitter.
+            List<String> forms = new ArrayList<>();
+            for (int i = 0; i < 20; ++i)
+                forms.add(i % 2 == 0 ? "'a" : "'b" + i);
+            try (BridgeSession session = connect(server.getPort(), null)) {
+                for (String form : forms)
+                    session.getCommand().writeBridgeCommand(form);
+                for (String form : forms) {
+                    String expected = form.equals("'a") ? "[\"0\"]" : "[\"fallback\"]";
+                    session.getResponse().readResponse();
+                    assertEquals(expected, session.getResponse().getReturnValueString());
+                }
+            }
+            assertEquals(20, server.commandsReceived());
+            assertEquals(10, server.commandsUnmatched());
+        }
+    }
+}
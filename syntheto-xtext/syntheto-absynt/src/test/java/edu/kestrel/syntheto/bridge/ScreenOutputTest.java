@@ -0,0 +1,85 @@
+package edu.kestrel.syntheto.bridge;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScreenOutputTest {
+
+    @Test
+    void keptInMemoryUpToTheLimit() {
+        try (ScreenOutput output = new ScreenOutput(10, 4)) {
+            output.append("abcde");
+            output.append("fghij");
+            assertFalse(output.isSpilled());
+            assertEquals(10, output.length());
+            assertEquals("abcdefghij", output.toString());
+            assertEquals("ghij", output.getTail(4));
+            assertTrue(output.contains("efg"));
+            assertFalse(output.contains("xyz"));
+        }
+    }
+
+    @Test
+    void spilledPastTheLimit() throws IOException {
+        Path file;
+        try (ScreenOutput output = new ScreenOutput(10, 4)) {
+            output.append("abcdefgh");
+            output.append("ijklmn");
+            assertTrue(output.isSpilled());
+            assertFalse(output.isTruncated());
+            assertEquals(14, output.length());
+            assertEquals("klmn", output.getTail(100));
+            assertEquals("abcdefghijklmn", output.toString());
+            file = output.getSpillFile();
+            assertEquals("abcdefghijklmn", new String(Files.readAllBytes(file), "UTF-8"));
+            assertTrue(output.contains("abc"));
+            assertTrue(output.contains("hijk"));
+            assertFalse(output.contains("nop"));
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void containsAcrossReadBlocks() {
+        try (ScreenOutput output = new ScreenOutput(100, 10)) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 8190; ++i)
+                text.append('x');
+            output.append(text.toString());
+            output.append("FAILED");
+            for (int i = 0; i < 10000; ++i)
+                output.append("y");
+            assertTrue(output.isSpilled());
+            assertTrue(output.contains("FAILED"));
+            assertTrue(output.contains("xFAILEDy"));
+            assertFalse(output.contains("FAILEDx"));
+        }
+    }
+
+    @Test
+    void resetDeletesTheSpillFile() {
+        try (ScreenOutput output = new ScreenOutput(2, 1)) {
+            output.append("abc");
+            Path file = output.getSpillFile();
+            assertTrue(Files.exists(file));
+            output.reset();
+            assertFalse(Files.exists(file));
+            assertFalse(output.isSpilled());
+            assertEquals(0, output.length());
+            output.append("de");
+            assertFalse(output.isSpilled());
+            assertEquals("de", output.toString());
+        }
+    }
+
+    @Test
+    void badLimits() {
+        assertThrows(IllegalArgumentException.class, () -> new ScreenOutput(4, 10));
+        assertThrows(IllegalArgumentException.class, () -> new ScreenOutput(-1, 0));
+    }
+}
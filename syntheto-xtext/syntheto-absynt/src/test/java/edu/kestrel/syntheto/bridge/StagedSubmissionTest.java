@@ -0,0 +1,75 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.ast.TopLevel;
+import edu.kestrel.syntheto.outcome.Outcome;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StagedSubmissionTest {
+
+    private static String success(String message, int commandNumber) {
+        return "(NIL (NIL (NIL NIL STATE) NIL (SYNTHETO::MAKE-OUTCOME-FUNCTION-SUCCESS :MESSAGE \""
+                + message + "\") REPLACED-STATE " + commandNumber + ") NIL)";
+    }
+
+    @Test
+    void serializesAheadAndHearsTheOutcomesInOrder() throws BridgeException {
+        List<TopLevel> tops = WorldCheckpointsTest.functions("a", "b", "c", "d", "e", "f");
+        List<String> heard = Collections.synchronizedList(new ArrayList<>());
+        try (StagedSubmission stages = new StagedSubmission(tops, 1,
+                (index, outcome) -> heard.add(index + ":" + outcome.getInfo()))) {
+            for (int i = 1; i < tops.size(); ++i) {
+                SerializedTopLevel serialized = stages.serialized(i);
+                assertEquals(tops.get(i).toSExpression(), serialized.getForm());
+                assertEquals(SerializedTopLevel.PREFIX.length() + tops.get(i).toSExpression().toString().length()
+                        + SerializedTopLevel.SUFFIX.length(), serialized.getLength());
+                stages.decode(i, success("m" + i, 10 + i));
+            }
+            assertEquals("m3", stages.outcome(3).getInfo());
+            assertEquals(13, stages.commandNumber(3));
+            stages.awaitListener();
+            assertFalse(stages.failed());
+        }
+        assertEquals(Arrays.asList("1:m1", "2:m2", "3:m3", "4:m4", "5:m5"), heard);
+    }
+
+    @Test
+    void undecodableOutcome() {
+        List<TopLevel> tops = WorldCheckpointsTest.functions("a", "b", "c");
+        List<Outcome> heard = Collections.synchronizedList(new ArrayList<>());
+        try (StagedSubmission stages = new StagedSubmission(tops, 0, (index, outcome) -> heard.add(outcome))) {
+            stages.decode(0, success("ok", 1));
+            // An outcome without a command number.
+            stages.decode(1, "(NIL (NIL (NIL NIL STATE) NIL (SYNTHETO::MAKE-OUTCOME-FUNCTION-SUCCESS :MESSAGE \"\")"
+                    + " REPLACED-STATE) NIL)");
+            stages.decode(2, success("after", 3));
+            assertThrows(BridgeException.class, () -> stages.outcome(1));
+            assertTrue(stages.failed());
+            stages.awaitListener();
+            // The undecodable outcome is skipped, without holding up the ones after it.
+            assertEquals(2, heard.size());
+        }
+    }
+
+    @Test
+    void stagesShareTheirThreads() throws BridgeException {
+        List<TopLevel> tops = WorldCheckpointsTest.functions("a", "b");
+        for (int round = 0; round < 3; ++round) {
+            try (StagedSubmission stages = new StagedSubmission(tops, 0, null)) {
+                stages.serialized(0);
+                stages.decode(0, success("ok", 1));
+                assertEquals(1, stages.commandNumber(0));
+            }
+        }
+        long decoders = Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().equals("syntheto-decode"))
+                .count();
+        assertEquals(1, decoders);
+    }
+}
@@ -0,0 +1,31 @@
+package edu.kestrel.syntheto.bridge;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.function.Function;
+
+/**
+ * A local stand-in for the ACL2 bridge, for tests that cannot rely on a live bridge.
+ * It is a {@link ReplayBridgeServer} with nothing recorded,
+ * which answers each command with a single {@code RETURN} frame
+ * whose payload is computed from the command form by a responder function.
+ * An optional delay per command simulates the time ACL2 spends on it,
+ * during which the commands of the same connection wait their turn.
+ * An optional latency simulates the network:
+ * each response reaches the client that long after it is computed,
+ * without holding up the commands after it.
+ */
+class StandInBridge extends ReplayBridgeServer {
+
+    StandInBridge(Function<String, String> responder, long delayMillis, long latencyMillis) throws IOException {
+        super(Collections.emptyList(), responder, delayMillis, latencyMillis, 0, 0);
+    }
+
+    StandInBridge(Function<String, String> responder, long delayMillis) throws IOException {
+        this(responder, delayMillis, 0);
+    }
+
+    StandInBridge(Function<String, String> responder) throws IOException {
+        this(responder, 0, 0);
+    }
+}
@@ -1,7 +1,6 @@
 package edu.kestrel.syntheto.bridge;
 
 import edu.kestrel.syntheto.ast.*;
-import edu.kestrel.syntheto.sexpr.SExpression;
 import org.junit.jupiter.api.Test;
 
 import java.util.Arrays;
@@ -50,4 +49,18 @@ class UtilTest {
         assertEquals("(bridge::try-in-main-thread (nld '(u 2)))", wrappedForm);
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void numberedOutcomeFromLispReturnValue() throws BridgeException {
+        Util.NumberedOutcome numbered = Util.numberedOutcomeFromLispReturnValue(
+                "(NIL (NIL (NIL NIL STATE) NIL (SYNTHETO::MAKE-OUTCOME-FUNCTION-SUCCESS :MESSAGE \"ok\")"
+                        + " REPLACED-STATE 12) NIL)");
+        assertEquals("ok", numbered.outcome.getInfo());
+        assertEquals(12, numbered.commandNumber);
+        assertThrows(BridgeException.class, () -> Util.numberedOutcomeFromLispReturnValue(
+                "(NIL (NIL (NIL NIL STATE) NIL (SYNTHETO::MAKE-OUTCOME-FUNCTION-SUCCESS :MESSAGE \"ok\")"
+                        + " REPLACED-STATE) NIL)"));
+        assertThrows(BridgeException.class, () -> Util.numberedOutcomeFromLispReturnValue("(NIL (T 3) NIL)"));
+        assertThrows(BridgeException.class, () -> Util.numberedOutcomeFromLispReturnValue("(NIL"));
+    }
+}
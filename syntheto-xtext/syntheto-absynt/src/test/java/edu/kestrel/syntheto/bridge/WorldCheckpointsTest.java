@@ -0,0 +1,308 @@
+package edu.kestrel.syntheto.bridge;
+
+import edu.kestrel.syntheto.ast.*;
+import edu.kestrel.syntheto.outcome.CancellationFailure;
+import edu.kestrel.syntheto.outcome.FunctionSuccess;
+import edu.kestrel.syntheto.outcome.Outcome;
+import edu.kestrel.syntheto.outcome.TimeoutFailure;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WorldCheckpointsTest {
+
+    /**
+     * Stand-in for the ACL2 side: a world that is a list of events, one per submitted function,
+     * with the command number being the length of the list.
+     * It answers the forms sent by {@link WorldCheckpoints}
+     * with return values of the shapes recorded from the bridge.
+     */
+    static class SimulatedWorld implements Function<String, String> {
+        private static final Pattern UBU = Pattern.compile("\\(ubu (\\d+)\\)");
+        private static final Pattern NAME = Pattern.compile("MAKE-IDENTIFIER :NAME \"(\\w+)\"");
+
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * The names of the functions submitted, in order.
+         */
+        final List<String> submitted = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public String apply(String form) {
+            Matcher ubu = UBU.matcher(form);
+            if (ubu.find()) {
+                int n = Integer.parseInt(ubu.group(1));
+                events.subList(Math.min(n, events.size()), events.size()).clear();
+                return "(NIL (NIL (NIL NIL STATE) NIL NIL REPLACED-STATE) NIL)";
+            }
+            Matcher name = NAME.matcher(form);
+            assertTrue(name.find(), form);
+            events.add(name.group(1));
+            submitted.add(name.group(1));
+            return "(NIL (NIL (NIL NIL STATE) NIL (SYNTHETO::MAKE-OUTCOME-FUNCTION-SUCCESS :MESSAGE \""
+                    + name.group(1) + "@" + events.size() + "\") REPLACED-STATE " + events.size() + ") NIL)";
+        }
+    }
+
+    /**
+     * A simulated world in which the function named "slow" takes until ACL2 is interrupted,
+     * or forever if interrupts are ignored.
+     */
+    static class SlowWorld extends SimulatedWorld {
+        private final Semaphore interrupts = new Semaphore(0);
+        private final boolean ignoreInterrupts;
+        final AtomicBoolean slowStarted = new AtomicBoolean();
+
+        SlowWorld(boolean ignoreInterrupts) {
+            this.ignoreInterrupts = ignoreInterrupts;
+        }
+
+        @Override
+        public String apply(String form) {
+            if (form.equals(BridgeSession.INTERRUPT_FORM)) {
+                if (!ignoreInterrupts)
+                    interrupts.release();
+                return "(NIL NIL NIL)";
+            }
+            if (!form.contains("\"slow\""))
+                return super.apply(form);
+            slowStarted.set(true);
+            try {
+                interrupts.tryAcquire(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "(T NIL NIL)";
+        }
+    }
+
+    static TopLevel function(String name, int value) {
+        FunctionHeader header = FunctionHeader.make(Identifier.make(name),
+                Collections.emptyList(),
+                Arrays.asList(TypedVariable.make(Identifier.make("y"), TypeInteger.make())));
+        return TopLevelFunction.make(FunctionDefinition.make(header, null, null,
+                FunctionDefinerRegular.make(ExpressionLiteral.make(LiteralInteger.make(value)), null)));
+    }
+
+    static List<TopLevel> functions(String... names) {
+        List<TopLevel> tops = new ArrayList<>();
+        for (String name : names)
+            tops.add(function(name, 0));
+        return tops;
+    }
+
+    private static List<String> messages(List<Outcome> outcomes) {
+        List<String> result = new ArrayList<>();
+        for (Outcome outcome : outcomes)
+            result.add(((FunctionSuccess) outcome).getInfo());
+        return result;
+    }
+
+    @Test
+    void resubmitsOnlyAfterTheUnchangedPrefix() throws Exception {
+        SimulatedWorld world = new SimulatedWorld();
+        world.events.add("leftover");
+        try (StandInBridge bridge = new StandInBridge(world);
+             BridgeSession session = BridgeSession.connect("localhost", bridge.getPort(), "LISP_MV")) {
+            session.getResponse().Log = Logger.getLogger(WorldCheckpointsTest.class.getName());
+            WorldCheckpoints checkpoints = session.getCheckpoints();
+
+            // The first run resets the world.
+            assertEquals(Arrays.asList("a@1", "b@2", "c@3", "d@4"),
+                    messages(checkpoints.process(functions("a", "b", "c", "d"))));
+            assertEquals(Arrays.asList("a", "b", "c", "d"), world.events);
+
+            // Running the same cells again submits nothing.
+            world.submitted.clear();
+            assertEquals(Arrays.asList("a@1", "b@2", "c@3", "d@4"),
+                    messages(checkpoints.process(functions("a", "b", "c", "d"))));
+            assertEquals(Collections.emptyList(), world.submitted);
+
+            // A new cell at the end is the only one submitted.
+            assertEquals(Arrays.asList("a@1", "b@2", "c@3", "d@4", "e@5"),
+                    messages(checkpoints.process(functions("a", "b", "c", "d", "e"))));
+            assertEquals(Collections.singletonList("e"), world.submitted);
+
+            // Changing the third cell undoes back to the second and submits the rest.
+            world.submitted.clear();
+            List<TopLevel> edited = functions("a", "b", "c", "d", "e");
+            edited.set(2, function("c", 1));
+            assertEquals(Arrays.asList("a@1", "b@2", "c@3", "d@4", "e@5"), messages(checkpoints.process(edited)));
+            assertEquals(Arrays.asList("c", "d", "e"), world.submitted);
+            assertEquals(5, checkpoints.size());
+
+            // Removing cells at the end only undoes.
+            world.submitted.clear();
+            checkpoints.process(edited.subList(0, 2));
+            assertEquals(Collections.emptyList(), world.submitted);
+            assertEquals(Arrays.asList("a", "b"), world.events);
+
+            // After a reset of the world, everything is submitted again.
+            session.resetWorld();
+            checkpoints.process(edited.subList(0, 2));
+            assertEquals(Arrays.asList("a", "b"), world.submitted);
+            assertEquals(Arrays.asList("a", "b"), world.events);
+        }
+    }
+
+    @Test
+    void outcomesArePassedToTheListenerAsTheyCome() throws Exception {
+        SimulatedWorld world = new SimulatedWorld();
+        List<String> heard = Collections.synchronizedList(new ArrayList<>());
+        AtomicBoolean overlapped = new AtomicBoolean();
+        try (StandInBridge bridge = new StandInBridge(world);
+             BridgeSession session = BridgeSession.connect("localhost", bridge.getPort(), "LISP_MV")) {
+            session.getResponse().Log = Logger.getLogger(WorldCheckpointsTest.class.getName());
+            WorldCheckpoints checkpoints = session.getCheckpoints();
+            OutcomeListener listener = (index, outcome) -> {
+                assertEquals(heard.size(), index);
+                heard.add(outcome.getInfo());
+                // The first outcome is heard while the next function is submitted.
+                if (index == 0)
+                    overlapped.set(eventually(() -> world.submitted.contains("b")));
+            };
+            List<Outcome> outcomes = checkpoints.process(functions("a", "b"), CommandDeadline.NONE, listener);
+            assertEquals(Arrays.asList("a@1", "b@2"), heard);
+            assertEquals(Arrays.asList("a@1", "b@2"), messages(outcomes));
+            assertTrue(overlapped.get());
+
+            // The outcomes of the kept prefix are heard too.
+            heard.clear();
+            checkpoints.process(functions("a", "b", "c"), CommandDeadline.NONE, listener);
+            assertEquals(Arrays.asList("a@1", "b@2", "c@3"), heard);
+        }
+    }
+
+    private static boolean eventually(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline)
+                return false;
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    void failedExchangeMakesTheCheckpointsUnknown() throws Exception {
+        SimulatedWorld world = new SimulatedWorld();
+        try (StandInBridge bridge = new StandInBridge(form ->
+                form.contains("\"bad\"") ? "(NIL NIL NIL)" : world.apply(form));
+             BridgeSession session = BridgeSession.connect("localhost", bridge.getPort(), "LISP_MV")) {
+            session.getResponse().Log = Logger.getLogger(WorldCheckpointsTest.class.getName());
+            WorldCheckpoints checkpoints = session.getCheckpoints();
+            checkpoints.process(functions("a", "b"));
+            assertThrows(BridgeException.class, () -> checkpoints.process(functions("a", "bad")));
+            assertEquals(0, checkpoints.size());
+            world.submitted.clear();
+            checkpoints.process(functions("a", "b"));
+            assertEquals(Arrays.asList("a", "b"), world.submitted);
+        }
+    }
+
+    @Test
+    void timeoutInterruptsAndKeepsThePrefix() throws Exception {
+        SlowWorld world = new SlowWorld(false);
+        try (StandInBridge bridge = new StandInBridge(world);
+             BridgeSession session = BridgeSession.connect("localhost", bridge.getPort(), "LISP_MV")) {
+            session.getResponse().Log = Logger.getLogger(WorldCheckpointsTest.class.getName());
+            WorldCheckpoints checkpoints = session.getCheckpoints();
+            List<Outcome> outcomes = checkpoints.process(functions("a", "slow", "c"),
+                    CommandDeadline.of(200, TimeUnit.MILLISECONDS));
+            assertEquals(3, outcomes.size());
+            assertEquals("a@1", outcomes.get(0).getInfo());
+            assertTrue(outcomes.get(1) instanceof TimeoutFailure);
+            assertTrue(outcomes.get(1).getInfo().contains("200 ms"), outcomes.get(1).getInfo());
+            assertTrue(outcomes.get(2) instanceof TimeoutFailure);
+            assertTrue(session.isUsable());
+            assertEquals(1, checkpoints.size());
+
+            // The next run keeps the first function, but undoes what the interrupted command may have left.
+            world.submitted.clear();
+            world.events.add("partial");
+            assertEquals(Arrays.asList("a@1", "b@2"), messages(checkpoints.process(functions("a", "b"))));
+            assertEquals(Collections.singletonList("b"), world.submitted);
+            assertEquals(Arrays.asList("a", "b"), world.events);
+        }
+    }
+
+    @Test
+    void cancellation() throws Exception {
+        SlowWorld world = new SlowWorld(false);
+        AtomicBoolean cancelled = new AtomicBoolean(true);
+        CommandDeadline deadline = CommandDeadline.of(0, TimeUnit.MILLISECONDS, cancelled::get);
+        try (StandInBridge bridge = new StandInBridge(form -> {
+                 // The user cancels while the slow function is being processed.
+                 if (form.contains("\"slow\""))
+                     cancelled.set(true);
+                 return world.apply(form);
+             });
+             BridgeSession session = BridgeSession.connect("localhost", bridge.getPort(), "LISP_MV")) {
+            session.getResponse().Log = Logger.getLogger(WorldCheckpointsTest.class.getName());
+            WorldCheckpoints checkpoints = session.getCheckpoints();
+
+            // Cancelled before starting: nothing is submitted.
+            List<Outcome> outcomes = checkpoints.process(functions("a", "b"), deadline);
+            assertTrue(outcomes.get(0) instanceof CancellationFailure);
+            assertTrue(outcomes.get(1) instanceof CancellationFailure);
+            assertEquals(Collections.emptyList(), world.submitted);
+
+            cancelled.set(false);
+            outcomes = checkpoints.process(functions("a", "slow", "c"), deadline);
+            assertEquals("a@1", outcomes.get(0).getInfo());
+            assertTrue(outcomes.get(1) instanceof CancellationFailure);
+            assertTrue(outcomes.get(2) instanceof CancellationFailure);
+            assertTrue(session.isUsable());
+            assertEquals(Collections.singletonList("a"), world.submitted);
+        }
+    }
+
+    @Test
+    void unrecoverableSessionIsClosed() throws Exception {
+        SlowWorld world = new SlowWorld(true);
+        try (StandInBridge bridge = new StandInBridge(world);
+             BridgeSession session = BridgeSession.connect("localhost", bridge.getPort(), "LISP_MV")) {
+            session.getResponse().Log = Logger.getLogger(WorldCheckpointsTest.class.getName());
+            session.setInterruptGraceMillis(200);
+            long start = System.nanoTime();
+            List<Outcome> outcomes = session.getCheckpoints().process(functions("a", "slow"),
+                    CommandDeadline.of(100, TimeUnit.MILLISECONDS));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+            assertTrue(outcomes.get(1) instanceof TimeoutFailure);
+            assertTrue(outcomes.get(1).getInfo().contains("session was closed"), outcomes.get(1).getInfo());
+            assertTrue(world.slowStarted.get());
+            assertFalse(session.isUsable());
+            assertEquals(0, session.getCheckpoints().size());
+        }
+    }
+
+    @Test
+    void prefixFingerprints() {
+        List<byte[]> abc = WorldCheckpoints.prefixFingerprints(functions("a", "b", "c"));
+        List<byte[]> abd = WorldCheckpoints.prefixFingerprints(functions("a", "b", "d"));
+        List<byte[]> xbc = WorldCheckpoints.prefixFingerprints(functions("x", "b", "c"));
+        assertArrayEquals(abc.get(1), abd.get(1));
+        assertFalse(Arrays.equals(abc.get(2), abd.get(2)));
+        // A change early on changes the fingerprints of all the longer prefixes.
+        assertFalse(Arrays.equals(abc.get(1), xbc.get(1)));
+        assertFalse(Arrays.equals(abc.get(2), xbc.get(2)));
+    }
+}
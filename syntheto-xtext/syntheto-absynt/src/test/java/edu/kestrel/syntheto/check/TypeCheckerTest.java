@@ -0,0 +1,190 @@
+package edu.kestrel.syntheto.check;
+
+import edu.kestrel.syntheto.ast.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TypeCheckerTest {
+
+    static Expression lit(int value) {
+        return ExpressionLiteral.make(LiteralInteger.make(value));
+    }
+
+    static Expression lit(boolean value) {
+        return ExpressionLiteral.make(LiteralBoolean.make(value));
+    }
+
+    static Expression var(String name) {
+        return Variable.make(Identifier.make(name));
+    }
+
+    static Expression bin(ExpressionBinary.Operator operator, Expression left, Expression right) {
+        return ExpressionBinary.make(operator, left, right);
+    }
+
+    static Expression call(String function, Expression... arguments) {
+        return ExpressionCall.make(Identifier.make(function), Arrays.asList(arguments));
+    }
+
+    static TypedVariable typed(String name, Type type) {
+        return TypedVariable.make(Identifier.make(name), type);
+    }
+
+    static TopLevel function(String name, List<TypedVariable> inputs, Type output, Expression body) {
+        FunctionHeader header = FunctionHeader.make(Identifier.make(name), inputs,
+                Collections.singletonList(typed("out", output)));
+        return TopLevelFunction.make(FunctionDefinition.make(header, null, null,
+                FunctionDefinerRegular.make(body, null)));
+    }
+
+    /**
+     * type point { x: int, y: int }
+     */
+    static TopLevel point() {
+        return TopLevelType.make(TypeDefinition.make(Identifier.make("point"), TypeDefinerProduct.make(
+                TypeProduct.make(Arrays.asList(Field.make(Identifier.make("x"), TypeInteger.make()),
+                        Field.make(Identifier.make("y"), TypeInteger.make())), null))));
+    }
+
+    static Type type(String name) {
+        return TypeDefined.make(Identifier.make(name));
+    }
+
+    /**
+     * fact(n: int) = if n == 0 then 1 else n * fact(n - 1)
+     */
+    static TopLevel fact() {
+        return function("fact", Collections.singletonList(typed("n", TypeInteger.make())), TypeInteger.make(),
+                ExpressionIf.make(bin(ExpressionBinary.Operator.EQ, var("n"), lit(0)),
+                        lit(1),
+                        bin(ExpressionBinary.Operator.MUL, var("n"),
+                                call("fact", bin(ExpressionBinary.Operator.SUB, var("n"), lit(1))))));
+    }
+
+    private static List<String> messages(List<TypeError> errors) {
+        List<String> messages = new ArrayList<>();
+        for (TypeError error : errors)
+            messages.add(error.getMessage());
+        return messages;
+    }
+
+    @Test
+    void wellTypedProgramsHaveNoErrors() {
+        // norm1(p: point) = p.x + p.y, and a theorem about it
+        TopLevel norm = function("norm1", Collections.singletonList(typed("p", type("point"))), TypeInteger.make(),
+                bin(ExpressionBinary.Operator.ADD,
+                        ExpressionProductField.make(Identifier.make("point"), var("p"), Identifier.make("x")),
+                        ExpressionProductField.make(Identifier.make("point"), var("p"), Identifier.make("y"))));
+        TopLevel theorem = TopLevelTheorem.make(Theorem.make(Identifier.make("positive"),
+                Collections.singletonList(typed("n", TypeInteger.make())),
+                bin(ExpressionBinary.Operator.IMPLIES, bin(ExpressionBinary.Operator.GE, var("n"), lit(0)),
+                        bin(ExpressionBinary.Operator.GT, call("fact", var("n")), lit(0)))));
+        TopLevel origin = function("origin", Collections.emptyList(), type("point"),
+                ExpressionProductConstruct.make(Identifier.make("point"), Arrays.asList(
+                        Initializer.make(Identifier.make("x"), lit(0)),
+                        Initializer.make(Identifier.make("y"), lit(0)))));
+        assertEquals(Collections.emptyList(),
+                new TypeChecker().check(Arrays.asList(point(), fact(), norm, theorem, origin)));
+    }
+
+    @Test
+    void callsMustHaveTheRightArguments() {
+        TopLevel caller = function("caller", Collections.emptyList(), TypeInteger.make(),
+                bin(ExpressionBinary.Operator.ADD, call("fact", lit(1), lit(2)), call("fact", lit(true))));
+        List<TypeError> errors = new TypeChecker().check(Arrays.asList(fact(), caller));
+        assertEquals(Arrays.asList("fact takes 1 arguments, not 2.", "The argument n of fact must be of type int, not bool."),
+                messages(errors));
+        assertEquals(1, errors.get(0).getIndex());
+        assertEquals("In the function caller: fact takes 1 arguments, not 2.", errors.get(0).toString());
+        // The node of the error is the call.
+        assertEquals(call("fact", lit(1), lit(2)), errors.get(0).getNode());
+        assertEquals(Collections.singletonList("length takes 1 arguments, not 0."),
+                messages(new TypeChecker().check(Collections.singletonList(
+                        function("f", Collections.emptyList(), TypeInteger.make(), call("length"))))));
+    }
+
+    @Test
+    void fieldsMustBeInTheProductType() {
+        // f(p: point, n: int) = p.z + n.x
+        TopLevel f = function("f", Arrays.asList(typed("p", type("point")), typed("n", TypeInteger.make())),
+                TypeInteger.make(),
+                bin(ExpressionBinary.Operator.ADD,
+                        ExpressionProductField.make(Identifier.make("point"), var("p"), Identifier.make("z")),
+                        ExpressionProductField.make(Identifier.make("point"), var("n"), Identifier.make("x"))));
+        assertEquals(Arrays.asList("No field z in the product type point.",
+                "Cannot access the field x of a value of type int, which is not a product type."),
+                messages(new TypeChecker().check(Arrays.asList(point(), f))));
+        // A construction without a field.
+        TopLevel g = function("g", Collections.emptyList(), type("point"),
+                ExpressionProductConstruct.make(Identifier.make("point"),
+                        Collections.singletonList(Initializer.make(Identifier.make("x"), lit(0)))));
+        assertEquals(Collections.singletonList("Missing field y of point."),
+                messages(new TypeChecker().check(Arrays.asList(point(), g))));
+    }
+
+    @Test
+    void operandsMustHaveTheRightTypes() {
+        // f(p: point, b: bool) = if p == 1 then b + 1 else b && 1 < 'a'
+        TopLevel f = function("f", Arrays.asList(typed("p", type("point")), typed("b", TypeBoolean.make())),
+                TypeInteger.make(),
+                ExpressionIf.make(bin(ExpressionBinary.Operator.EQ, var("p"), lit(1)),
+                        bin(ExpressionBinary.Operator.ADD, var("b"), lit(1)),
+                        bin(ExpressionBinary.Operator.AND, var("b"),
+                                bin(ExpressionBinary.Operator.LT, var("b"),
+                                        ExpressionLiteral.make(LiteralCharacter.make('a'))))));
+        assertEquals(Arrays.asList("Cannot compare point and int with ==.",
+                "The operands of + must be of type int, not bool.",
+                "The operands of < must be integers or characters, not bool.",
+                "The branches have different types, int and bool."),
+                messages(new TypeChecker().check(Arrays.asList(point(), f))));
+    }
+
+    @Test
+    void namesMustBeDefinedBeforeTheyAreUsedUnlessTransformed() {
+        TopLevel f = function("f", Collections.emptyList(), type("point"), call("g", var("x")));
+        assertEquals(Arrays.asList("Unknown type point.", "Unbound variable x.", "Unknown function g."),
+                messages(new TypeChecker().check(Collections.singletonList(f))));
+        TopLevel transform = TopLevelTransform.make(Transform.make(Identifier.make("fact2"),
+                Identifier.make("fact"), "tail_recursion", Collections.emptyList()));
+        TopLevel h = function("h", Collections.emptyList(), TypeInteger.make(), call("fact2", lit(3)));
+        assertEquals(Collections.emptyList(), new TypeChecker().check(Arrays.asList(fact(), transform, h)));
+        assertEquals(Collections.singletonList("Unknown function fact."),
+                messages(new TypeChecker().check(Collections.singletonList(transform))));
+    }
+
+    @Test
+    void subtypesAreCompatibleWithTheirSupertypes() {
+        // subtype nat { n: int | n >= 0 }, and half(n: nat) = n / 2 returning a nat
+        TopLevel nat = TopLevelType.make(TypeDefinition.make(Identifier.make("nat"), TypeDefinerSubset.make(
+                TypeSubset.make(TypeInteger.make(), Identifier.make("n"),
+                        bin(ExpressionBinary.Operator.GE, var("n"), lit(0)), null))));
+        TopLevel half = function("half", Collections.singletonList(typed("n", type("nat"))), type("nat"),
+                bin(ExpressionBinary.Operator.DIV, var("n"), lit(2)));
+        assertEquals(Collections.emptyList(), new TypeChecker().check(Arrays.asList(nat, half)));
+    }
+
+    @Test
+    void onlyTheConstructsAfterAChangeAreCheckedAgain() {
+        TypeChecker checker = new TypeChecker();
+        TopLevel bad = function("bad", Collections.emptyList(), TypeInteger.make(), lit(true));
+        List<TopLevel> tops = new ArrayList<>(Arrays.asList(point(), fact(), bad, fact()));
+        assertEquals(1, checker.check(tops).size());
+        assertEquals(4, checker.getChecks());
+        assertEquals(0, checker.getCacheHits());
+        // The errors of the cached constructs are reported again.
+        assertEquals(1, checker.check(tops).size());
+        assertEquals(4, checker.getChecks());
+        assertEquals(4, checker.getCacheHits());
+        // Fixing the third construct checks it and the fourth.
+        tops.set(2, function("bad", Collections.emptyList(), TypeInteger.make(), lit(1)));
+        assertEquals(Collections.emptyList(), checker.check(tops));
+        assertEquals(6, checker.getChecks());
+        assertEquals(6, checker.getCacheHits());
+    }
+}
@@ -0,0 +1,34 @@
+package edu.kestrel.syntheto.check;
+
+import edu.kestrel.syntheto.ast.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static edu.kestrel.syntheto.check.TypeCheckerTest.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TypeEnvironmentTest {
+
+    @Test
+    void extendingAddsDefinitionsAndLeavesTheOriginal() {
+        TypeEnvironment types = TypeEnvironment.EMPTY.extend(point());
+        TypeEnvironment functions = types.extend(fact());
+        assertNotNull(functions.getType("point"));
+        assertEquals(Identifier.make("fact"), functions.getFunction("fact").getName());
+        assertNull(types.getFunction("fact"));
+        assertNull(TypeEnvironment.EMPTY.getType("point"));
+        assertFalse(functions.isOpen());
+    }
+
+    @Test
+    void theoremsDefineNothingAndTransformationsOpen() {
+        TypeEnvironment environment = TypeEnvironment.EMPTY.extend(fact());
+        TopLevel theorem = TopLevelTheorem.make(Theorem.make(Identifier.make("t"), Collections.emptyList(), lit(true)));
+        assertSame(environment, environment.extend(theorem));
+        TopLevel transform = TopLevelTransform.make(Transform.make(Identifier.make("fact2"),
+                Identifier.make("fact"), "tail_recursion", Collections.emptyList()));
+        assertTrue(environment.extend(transform).isOpen());
+        assertNull(environment.extend(transform).getFunction("fact2"));
+    }
+}
@@ -0,0 +1,157 @@
+package edu.kestrel.syntheto.eval;
+
+import edu.kestrel.syntheto.ast.*;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static edu.kestrel.syntheto.eval.EvaluatorTest.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompiledFunctionsTest {
+
+    private static BigInteger big(long value) {
+        return BigInteger.valueOf(value);
+    }
+
+    private static List<TypedVariable> ints(String... names) {
+        TypedVariable[] variables = new TypedVariable[names.length];
+        for (int i = 0; i < names.length; ++i)
+            variables[i] = typed(names[i], TypeInteger.make());
+        return Arrays.asList(variables);
+    }
+
+    /**
+     * pow2(n) = if n == 0 then 1 else 2 * pow2(n - 1)
+     */
+    private static TopLevel pow2() {
+        return function("pow2", ints("n"), TypeInteger.make(), null,
+                ExpressionIf.make(bin(ExpressionBinary.Operator.EQ, var("n"), lit(0)),
+                        lit(1),
+                        bin(ExpressionBinary.Operator.MUL, lit(2),
+                                call("pow2", bin(ExpressionBinary.Operator.SUB, var("n"), lit(1))))));
+    }
+
+    /**
+     * sum(s: seq&lt;int&gt;) = if is_empty(s) then 0 else let x = first(s) in x + sum(rest(s))
+     */
+    private static TopLevel sum() {
+        return function("sum", Collections.singletonList(typed("s", TypeSequence.make(TypeInteger.make()))),
+                TypeInteger.make(), null,
+                ExpressionIf.make(call("is_empty", var("s")),
+                        lit(0),
+                        ExpressionBind.make(ints("x"), call("first", var("s")),
+                                bin(ExpressionBinary.Operator.ADD, var("x"), call("sum", call("rest", var("s")))))));
+    }
+
+    /**
+     * steps(n) with n >= 1 = if n == 1 then 0 else 1 + steps(if n % 2 == 0 then n / 2 else 3 * n + 1)
+     */
+    static TopLevel collatz() {
+        Expression n = var("n");
+        return function("steps", ints("n"), TypeInteger.make(), bin(ExpressionBinary.Operator.GE, n, lit(1)),
+                ExpressionCond.make(Arrays.asList(
+                        Branch.make(bin(ExpressionBinary.Operator.EQ, n, lit(1)), lit(0)),
+                        Branch.make(lit(true), bin(ExpressionBinary.Operator.ADD, lit(1), call("steps",
+                                ExpressionIf.make(bin(ExpressionBinary.Operator.EQ,
+                                                bin(ExpressionBinary.Operator.REM, n, lit(2)), lit(0)),
+                                        bin(ExpressionBinary.Operator.DIV, n, lit(2)),
+                                        bin(ExpressionBinary.Operator.ADD,
+                                                bin(ExpressionBinary.Operator.MUL, lit(3), n), lit(1)))))))));
+    }
+
+    @Test
+    void integerFunctionsAreSpecialized() throws EvaluationException {
+        List<TopLevel> tops = Arrays.asList(fib(), pow2(), collatz());
+        CompiledFunctions compiled = CompiledFunctions.compile(tops);
+        assertTrue(compiled.isSpecialized("fib"));
+        assertEquals(big(6765), compiled.call("fib", Collections.singletonList(big(20))));
+        assertEquals(big(111), compiled.call("steps", Collections.singletonList(big(27))));
+        // The code on longs overflows, and the one on integers takes over.
+        assertTrue(compiled.isSpecialized("pow2"));
+        assertEquals(BigInteger.ONE.shiftLeft(100), compiled.call("pow2", Collections.singletonList(big(100))));
+        // Arguments that do not fit in a long go to the code on integers directly.
+        BigInteger huge = BigInteger.ONE.shiftLeft(80);
+        assertEquals(huge.negate(), compiled.call("fib", Collections.singletonList(huge.negate())));
+        assertSame(compiled, CompiledFunctions.compile(tops));
+    }
+
+    @Test
+    void otherFunctionsRunOnValues() throws EvaluationException {
+        // twice(s: seq<int>) returns (a: int, b: int) { let (x, y) = (sum(s), sum(s)) in (x, y) }
+        FunctionHeader header = FunctionHeader.make(Identifier.make("twice"),
+                Collections.singletonList(typed("s", TypeSequence.make(TypeInteger.make()))), ints("a", "b"));
+        TopLevel twice = TopLevelFunction.make(FunctionDefinition.make(header, null, null, FunctionDefinerRegular.make(
+                ExpressionBind.make(ints("x", "y"),
+                        ExpressionMulti.make(Arrays.asList(call("sum", var("s")), call("sum", var("s")))),
+                        ExpressionMulti.make(Arrays.asList(var("x"), var("y")))),
+                null)));
+        // quote(c: char) = append("\"\n", if c < 'z' then "<" else ">")
+        TopLevel quote = function("quote", Collections.singletonList(typed("c", TypeCharacter.make())),
+                TypeString.make(), null,
+                call("append", ExpressionLiteral.make(LiteralString.make("\"\n")),
+                        ExpressionIf.make(bin(ExpressionBinary.Operator.LT, var("c"),
+                                        ExpressionLiteral.make(LiteralCharacter.make('z'))),
+                                ExpressionLiteral.make(LiteralString.make("<")),
+                                ExpressionLiteral.make(LiteralString.make(">")))));
+        CompiledFunctions compiled = CompiledFunctions.compile(Arrays.asList(sum(), twice, quote));
+        assertEquals(new HashSet<>(Arrays.asList("sum", "twice", "quote")), compiled.getFunctions());
+        assertFalse(compiled.isSpecialized("sum"));
+        List<Object> s = Arrays.asList(big(1), big(2), big(3));
+        assertEquals(big(6), compiled.call("sum", Collections.singletonList(s)));
+        assertEquals(MultiValue.make(Arrays.asList(big(6), big(6))), compiled.call("twice", Collections.singletonList(s)));
+        assertEquals("\"\n<", compiled.call("quote", Collections.singletonList('a')));
+    }
+
+    @Test
+    void functionsThatCannotBeCompiledAreEvaluated() throws EvaluationException {
+        // point(x: int) = p(x = x), with no definition of p, and origin() = point(0)
+        TopLevel point = function("point", ints("x"), TypeDefined.make(Identifier.make("p")), null,
+                ExpressionProductConstruct.make(Identifier.make("p"),
+                        Collections.singletonList(Initializer.make(Identifier.make("x"), var("x")))));
+        TopLevel origin = function("origin", Collections.emptyList(), TypeDefined.make(Identifier.make("p")), null,
+                call("point", lit(0)));
+        List<TopLevel> tops = Arrays.asList(fib(), point, origin);
+        CompiledFunctions compiled = CompiledFunctions.compile(tops);
+        assertEquals(Collections.singleton("fib"), compiled.getFunctions());
+        assertThrows(EvaluationException.class, () -> compiled.call("origin", Collections.emptyList()));
+        Evaluator evaluator = new Evaluator(tops);
+        evaluator.setCompiledFunctions(compiled);
+        assertEquals(ProductValue.make("p", Collections.singletonMap("x", big(0))),
+                evaluator.call("origin", Collections.emptyList()));
+        assertEquals(big(75025), evaluator.evaluate(call("fib", lit(25)), Collections.emptyMap()));
+        // The calls of origin and point, and a single call of fib, run by the compiled code.
+        assertEquals(3, evaluator.getCalls());
+    }
+
+    @Test
+    void theSameCallsFail() throws EvaluationException {
+        CompiledFunctions compiled = CompiledFunctions.compile(Arrays.asList(collatz(), pow2()));
+        // Outside of the precondition.
+        assertThrows(EvaluationException.class, () -> compiled.call("steps", Collections.singletonList(big(0))));
+        // Not an integer.
+        assertThrows(EvaluationException.class, () -> compiled.call("steps", Collections.singletonList(true)));
+        assertThrows(EvaluationException.class, () -> compiled.call("steps", Collections.emptyList()));
+        // Too deep, and too many calls.
+        assertThrows(EvaluationException.class, () -> compiled.call("pow2", Collections.singletonList(big(-1))));
+        CompiledFunctions limited = CompiledFunctions.compile(Collections.singletonList(fib()), 100);
+        assertEquals(big(21), limited.call("fib", Collections.singletonList(big(8))));
+        assertThrows(EvaluationException.class, () -> limited.call("fib", Collections.singletonList(big(20))));
+    }
+
+    @Test
+    void theFalsifierCanRunCompiledFunctions() {
+        // forall(n: int) fib(n + 1) > fib(n)
+        Expression formula = bin(ExpressionBinary.Operator.GT,
+                call("fib", bin(ExpressionBinary.Operator.ADD, var("n"), lit(1))), call("fib", var("n")));
+        Counterexample counterexample = new Falsifier(ForkJoinPool.commonPool(), Falsifier.DEFAULT_RANDOM_CASES,
+                Falsifier.DEFAULT_EXHAUSTIVE_CASES, 0L, true)
+                .falsify(Collections.singletonList(fib()), ints("n"), formula);
+        assertEquals("n = 1", counterexample.toString());
+    }
+}
@@ -0,0 +1,241 @@
+package edu.kestrel.syntheto.eval;
+
+import edu.kestrel.syntheto.ast.*;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EvaluatorTest {
+
+    static Expression lit(int value) {
+        return ExpressionLiteral.make(LiteralInteger.make(value));
+    }
+
+    static Expression lit(boolean value) {
+        return ExpressionLiteral.make(LiteralBoolean.make(value));
+    }
+
+    static Expression var(String name) {
+        return Variable.make(Identifier.make(name));
+    }
+
+    static Expression bin(ExpressionBinary.Operator operator, Expression left, Expression right) {
+        return ExpressionBinary.make(operator, left, right);
+    }
+
+    static Expression call(String function, Expression... arguments) {
+        return ExpressionCall.make(Identifier.make(function), Arrays.asList(arguments));
+    }
+
+    static TypedVariable typed(String name, Type type) {
+        return TypedVariable.make(Identifier.make(name), type);
+    }
+
+    static TopLevel function(String name, List<TypedVariable> inputs, Type output,
+                             Expression precondition, Expression body) {
+        FunctionHeader header = FunctionHeader.make(Identifier.make(name), inputs,
+                Collections.singletonList(typed("out", output)));
+        return TopLevelFunction.make(FunctionDefinition.make(header, precondition, null,
+                FunctionDefinerRegular.make(body, null)));
+    }
+
+    /**
+     * fib(n) = if n < 2 then n else fib(n - 1) + fib(n - 2)
+     */
+    static TopLevel fib() {
+        return function("fib", Collections.singletonList(typed("n", TypeInteger.make())), TypeInteger.make(), null,
+                ExpressionIf.make(bin(ExpressionBinary.Operator.LT, var("n"), lit(2)),
+                        var("n"),
+                        bin(ExpressionBinary.Operator.ADD,
+                                call("fib", bin(ExpressionBinary.Operator.SUB, var("n"), lit(1))),
+                                call("fib", bin(ExpressionBinary.Operator.SUB, var("n"), lit(2))))));
+    }
+
+    private static Map<String, Object> env(Object... namesAndValues) {
+        Map<String, Object> env = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2)
+            env.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        return env;
+    }
+
+    private static BigInteger big(long value) {
+        return BigInteger.valueOf(value);
+    }
+
+    @Test
+    void operators() throws EvaluationException {
+        Evaluator evaluator = new Evaluator();
+        Expression e = bin(ExpressionBinary.Operator.MUL,
+                bin(ExpressionBinary.Operator.ADD, var("x"), lit(3)),
+                ExpressionUnary.make(ExpressionUnary.Operator.MINUS, lit(2)));
+        assertEquals(big(-10), evaluator.evaluate(e, env("x", big(2))));
+        assertEquals(true, evaluator.evaluate(
+                bin(ExpressionBinary.Operator.IMPLIED, lit(true), lit(false)), env()));
+        assertEquals(false, evaluator.evaluate(
+                bin(ExpressionBinary.Operator.IFF, lit(true), lit(false)), env()));
+        assertEquals(big(3), evaluator.evaluate(bin(ExpressionBinary.Operator.REM, lit(7), lit(4)), env()));
+    }
+
+    @Test
+    void logicalOperatorsDoNotEvaluateTheSecondOperandNeedlessly() throws EvaluationException {
+        // x != 0 && 10 / x > 1
+        Expression e = bin(ExpressionBinary.Operator.AND,
+                bin(ExpressionBinary.Operator.NE, var("x"), lit(0)),
+                bin(ExpressionBinary.Operator.GT, bin(ExpressionBinary.Operator.DIV, lit(10), var("x")), lit(1)));
+        Evaluator evaluator = new Evaluator();
+        assertEquals(false, evaluator.evaluate(e, env("x", big(0))));
+        assertEquals(true, evaluator.evaluate(e, env("x", big(5))));
+    }
+
+    @Test
+    void partialOperationsAreLeftToAcl2() {
+        Evaluator evaluator = new Evaluator();
+        assertThrows(EvaluationException.class,
+                () -> evaluator.evaluate(bin(ExpressionBinary.Operator.DIV, lit(1), lit(0)), env()));
+        assertThrows(EvaluationException.class,
+                () -> evaluator.evaluate(bin(ExpressionBinary.Operator.DIV, ExpressionUnary.make(ExpressionUnary.Operator.MINUS, lit(7)), lit(2)), env()));
+        assertThrows(EvaluationException.class,
+                () -> evaluator.evaluate(call("first", var("s")), env("s", Collections.emptyList())));
+        assertThrows(EvaluationException.class,
+                () -> evaluator.evaluate(call("undefined", lit(1)), env()));
+        assertThrows(EvaluationException.class,
+                () -> evaluator.evaluate(ExpressionIf.make(lit(1), lit(2), lit(3)), env()));
+    }
+
+    @Test
+    void callsAreMemoized() throws EvaluationException {
+        Evaluator evaluator = new Evaluator(Collections.singletonList(fib()));
+        assertEquals(new BigInteger("12586269025"), evaluator.evaluate(call("fib", lit(50)), env()));
+        assertTrue(evaluator.getMemoHits() > 0);
+        long calls = evaluator.getCalls();
+        assertEquals(big(55), evaluator.call("fib", Collections.singletonList(big(10))));
+        assertEquals(calls + 1, evaluator.getCalls());
+    }
+
+    @Test
+    void redefiningAFunctionForgetsItsMemoizedCalls() throws EvaluationException {
+        List<TypedVariable> x = Collections.singletonList(typed("x", TypeInteger.make()));
+        Evaluator evaluator = new Evaluator();
+        evaluator.define(function("f", x, TypeInteger.make(), null, lit(1)));
+        assertEquals(big(1), evaluator.evaluate(call("f", lit(0)), env()));
+        evaluator.define(function("f", x, TypeInteger.make(), null, lit(2)));
+        assertEquals(big(2), evaluator.evaluate(call("f", lit(0)), env()));
+    }
+
+    @Test
+    void preconditionsAreChecked() {
+        List<TypedVariable> x = Collections.singletonList(typed("x", TypeInteger.make()));
+        Evaluator evaluator = new Evaluator(Collections.singletonList(function("f", x, TypeInteger.make(),
+                bin(ExpressionBinary.Operator.GE, var("x"), lit(0)), var("x"))));
+        assertThrows(EvaluationException.class, () -> evaluator.evaluate(call("f", ExpressionUnary.make(ExpressionUnary.Operator.MINUS, lit(1))), env()));
+    }
+
+    @Test
+    void runawayRecursionIsStopped() {
+        // loop(x) = loop(x + 1)
+        List<TypedVariable> x = Collections.singletonList(typed("x", TypeInteger.make()));
+        Evaluator evaluator = new Evaluator(Collections.singletonList(function("loop", x, TypeInteger.make(), null,
+                call("loop", bin(ExpressionBinary.Operator.ADD, var("x"), lit(1))))));
+        assertThrows(EvaluationException.class, () -> evaluator.evaluate(call("loop", lit(0)), env()));
+    }
+
+    @Test
+    void sequences() throws EvaluationException {
+        // permutation(x, y) = if is_empty(x) then is_empty(y)
+        //                     else member(first(x), y) && permutation(rest(x), remove_first(first(x), y))
+        TypeSequence seq = TypeSequence.make(TypeInteger.make());
+        TopLevel permutation = function("permutation", Arrays.asList(typed("x", seq), typed("y", seq)),
+                TypeBoolean.make(), null,
+                ExpressionIf.make(call("is_empty", var("x")),
+                        call("is_empty", var("y")),
+                        bin(ExpressionBinary.Operator.AND,
+                                call("member", call("first", var("x")), var("y")),
+                                call("permutation", call("rest", var("x")),
+                                        call("remove_first", call("first", var("x")), var("y"))))));
+        Evaluator evaluator = new Evaluator(Collections.singletonList(permutation));
+        List<Object> a = Arrays.asList(big(1), big(2), big(2));
+        assertEquals(true, evaluator.call("permutation", Arrays.asList(a, Arrays.asList(big(2), big(1), big(2)))));
+        assertEquals(false, evaluator.call("permutation", Arrays.asList(a, Arrays.asList(big(2), big(1), big(1)))));
+        assertEquals(Arrays.asList(big(0), big(1), big(2), big(2)),
+                evaluator.evaluate(call("add", lit(0), var("a")), env("a", a)));
+        assertEquals(big(3), evaluator.evaluate(call("length", var("a")), env("a", a)));
+        assertEquals(big(2), evaluator.evaluate(call("last", var("a")), env("a", a)));
+        assertEquals(Collections.emptySet(), evaluator.evaluate(ExpressionCall.make(Identifier.make("empty"),
+                Collections.singletonList(TypeSet.make(TypeInteger.make())), Collections.emptyList()), env()));
+    }
+
+    @Test
+    void products() throws EvaluationException {
+        // struct positive_pair { a: int, b: int | a > 0 && b > 0 }
+        TypeProduct pair = TypeProduct.make(Arrays.asList(
+                Field.make(Identifier.make("a"), TypeInteger.make()),
+                Field.make(Identifier.make("b"), TypeInteger.make())),
+                bin(ExpressionBinary.Operator.AND,
+                        bin(ExpressionBinary.Operator.GT, var("a"), lit(0)),
+                        bin(ExpressionBinary.Operator.GT, var("b"), lit(0))));
+        Evaluator evaluator = new Evaluator(Collections.singletonList(TopLevelType.make(
+                TypeDefinition.make(Identifier.make("positive_pair"), TypeDefinerProduct.make(pair)))));
+        Expression construct = ExpressionProductConstruct.make(Identifier.make("positive_pair"), Arrays.asList(
+                Initializer.make(Identifier.make("b"), lit(2)),
+                Initializer.make(Identifier.make("a"), var("x"))));
+        Object p = evaluator.evaluate(construct, env("x", big(1)));
+        assertEquals("positive_pair(a = 1, b = 2)", Values.show(p));
+        assertEquals(big(2), evaluator.evaluate(ExpressionProductField.make(Identifier.make("positive_pair"),
+                var("p"), Identifier.make("b")), env("p", p)));
+        Expression update = ExpressionProductUpdate.make(Identifier.make("positive_pair"), var("p"),
+                Collections.singletonList(Initializer.make(Identifier.make("a"), var("x"))));
+        assertEquals(evaluator.evaluate(construct, env("x", big(5))), evaluator.evaluate(update, env("p", p, "x", big(5))));
+        // ACL2 would not make a product that violates the invariant as written.
+        assertThrows(EvaluationException.class, () -> evaluator.evaluate(construct, env("x", big(0))));
+        assertThrows(EvaluationException.class, () -> evaluator.evaluate(update, env("p", p, "x", big(0))));
+    }
+
+    @Test
+    void sums() throws EvaluationException {
+        // variant shape { circle { r: int }, square { side: int } }
+        TypeSum shape = TypeSum.make(Arrays.asList(
+                Alternative.make(Identifier.make("circle"), TypeProduct.make(Collections.singletonList(
+                        Field.make(Identifier.make("r"), TypeInteger.make())), null)),
+                Alternative.make(Identifier.make("square"), TypeProduct.make(Collections.singletonList(
+                        Field.make(Identifier.make("side"), TypeInteger.make())), null))));
+        Evaluator evaluator = new Evaluator(Collections.singletonList(TopLevelType.make(
+                TypeDefinition.make(Identifier.make("shape"), TypeDefinerSum.make(shape)))));
+        Object circle = evaluator.evaluate(ExpressionSumConstruct.make(Identifier.make("shape"),
+                Identifier.make("circle"),
+                Collections.singletonList(Initializer.make(Identifier.make("r"), lit(3)))), env());
+        assertEquals(true, evaluator.evaluate(ExpressionSumTest.make(Identifier.make("shape"), var("s"),
+                Identifier.make("circle")), env("s", circle)));
+        assertEquals(false, evaluator.evaluate(ExpressionSumTest.make(Identifier.make("shape"), var("s"),
+                Identifier.make("square")), env("s", circle)));
+        assertEquals(big(3), evaluator.evaluate(ExpressionSumField.make(Identifier.make("shape"), var("s"),
+                Identifier.make("circle"), Identifier.make("r")), env("s", circle)));
+        assertEquals(SumValue.make("shape", "circle", env("r", big(4))),
+                evaluator.evaluate(ExpressionSumUpdate.make(Identifier.make("shape"), var("s"),
+                        Identifier.make("circle"),
+                        Collections.singletonList(Initializer.make(Identifier.make("r"), lit(4)))), env("s", circle)));
+        assertThrows(EvaluationException.class, () -> evaluator.evaluate(ExpressionSumField.make(
+                Identifier.make("shape"), var("s"), Identifier.make("square"), Identifier.make("side")),
+                env("s", circle)));
+    }
+
+    @Test
+    void bindingsOfSeveralValues() throws EvaluationException {
+        // let (q, r) = (7 / 2, 7 % 2) in q * 2 + r
+        Expression e = ExpressionBind.make(Arrays.asList(typed("q", TypeInteger.make()), typed("r", TypeInteger.make())),
+                ExpressionMulti.make(Arrays.asList(
+                        bin(ExpressionBinary.Operator.DIV, lit(7), lit(2)),
+                        bin(ExpressionBinary.Operator.REM, lit(7), lit(2)))),
+                bin(ExpressionBinary.Operator.ADD, bin(ExpressionBinary.Operator.MUL, var("q"), lit(2)), var("r")));
+        Evaluator evaluator = new Evaluator();
+        assertEquals(big(7), evaluator.evaluate(e, env()));
+        assertEquals(big(1), evaluator.evaluate(ExpressionComponent.make(ExpressionMulti.make(
+                Arrays.asList(lit(0), lit(1))), 1), env()));
+    }
+}
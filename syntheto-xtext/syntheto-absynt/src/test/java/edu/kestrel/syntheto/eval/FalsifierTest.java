@@ -0,0 +1,148 @@
+package edu.kestrel.syntheto.eval;
+
+import edu.kestrel.syntheto.ast.*;
+import edu.kestrel.syntheto.outcome.TheoremFailure;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static edu.kestrel.syntheto.eval.EvaluatorTest.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FalsifierTest {
+
+    /**
+     * subtype positive { x: int | x > 0 }
+     */
+    static TopLevel positive() {
+        return TopLevelType.make(TypeDefinition.make(Identifier.make("positive"), TypeDefinerSubset.make(
+                TypeSubset.make(TypeInteger.make(), Identifier.make("x"),
+                        bin(ExpressionBinary.Operator.GT, var("x"), lit(0)), lit(1)))));
+    }
+
+    /**
+     * variant intlist { nil {}, cons { head: int, tail: intlist } }
+     */
+    static TopLevel intlist() {
+        return TopLevelType.make(TypeDefinition.make(Identifier.make("intlist"), TypeDefinerSum.make(TypeSum.make(
+                Arrays.asList(
+                        Alternative.make(Identifier.make("nil"),
+                                TypeProduct.make(Collections.emptyList(), null)),
+                        Alternative.make(Identifier.make("cons"), TypeProduct.make(Arrays.asList(
+                                Field.make(Identifier.make("head"), TypeInteger.make()),
+                                Field.make(Identifier.make("tail"), TypeDefined.make(Identifier.make("intlist")))),
+                                null)))))));
+    }
+
+    private static BigInteger big(long value) {
+        return BigInteger.valueOf(value);
+    }
+
+    @Test
+    void counterexamplesAreShrunk() {
+        // forall(s: seq<int>) length(s) < 3
+        Counterexample counterexample = new Falsifier().falsify(Collections.emptyList(),
+                Collections.singletonList(typed("s", TypeSequence.make(TypeInteger.make()))),
+                bin(ExpressionBinary.Operator.LT, call("length", var("s")), lit(3)));
+        assertNotNull(counterexample);
+        assertEquals(Arrays.asList(big(0), big(0), big(0)), counterexample.getAssignment().get("s"));
+        assertTrue(counterexample.getShrinks() > 0);
+        assertEquals("s = [0, 0, 0]", counterexample.toString());
+    }
+
+    @Test
+    void searchesStopWhenCancelledOrOutOfTime() {
+        // forall(s: seq<int>) length(s) < 3
+        List<TypedVariable> variables = Collections.singletonList(typed("s", TypeSequence.make(TypeInteger.make())));
+        Expression formula = bin(ExpressionBinary.Operator.LT, call("length", var("s")), lit(3));
+        assertNull(new Falsifier(0, TimeUnit.SECONDS, () -> true).falsify(Collections.emptyList(), variables, formula));
+        // The budget runs out before the first case.
+        assertNull(new Falsifier(1, TimeUnit.NANOSECONDS, () -> false)
+                .falsify(Collections.emptyList(), variables, formula));
+        assertNotNull(new Falsifier(1, TimeUnit.MINUTES, () -> false)
+                .falsify(Collections.emptyList(), variables, formula));
+    }
+
+    @Test
+    void theSameCounterexampleIsFoundWithAnyNumberOfThreads() {
+        // forall(x: int, y: int) x * y != 12
+        List<TypedVariable> variables = Arrays.asList(typed("x", TypeInteger.make()), typed("y", TypeInteger.make()));
+        Expression formula = bin(ExpressionBinary.Operator.NE, bin(ExpressionBinary.Operator.MUL, var("x"), var("y")), lit(12));
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            Counterexample sequential = new Falsifier(one, 2000, Falsifier.DEFAULT_EXHAUSTIVE_CASES, 7L)
+                    .falsify(Collections.emptyList(), variables, formula);
+            Counterexample parallel = new Falsifier(four, 2000, Falsifier.DEFAULT_EXHAUSTIVE_CASES, 7L)
+                    .falsify(Collections.emptyList(), variables, formula);
+            assertNotNull(sequential);
+            assertEquals(big(12), ((BigInteger) sequential.getAssignment().get("x"))
+                    .multiply((BigInteger) sequential.getAssignment().get("y")));
+            assertEquals(sequential.getAssignment(), parallel.getAssignment());
+        } finally {
+            one.shutdown();
+            four.shutdown();
+        }
+    }
+
+    @Test
+    void invariantsAndRestrictionsFilterTheValues() {
+        List<TopLevel> context = Collections.singletonList(positive());
+        Falsifier falsifier = new Falsifier();
+        // forall(p: positive) p > 0 holds, since only positive values are tried.
+        assertNull(falsifier.falsify(context, Collections.singletonList(typed("p", TypeDefined.make(Identifier.make("positive")))),
+                bin(ExpressionBinary.Operator.GT, var("p"), lit(0))));
+        // forall(p: positive) p > 1 does not hold.
+        Counterexample counterexample = falsifier.falsify(context,
+                Collections.singletonList(typed("p", TypeDefined.make(Identifier.make("positive")))),
+                bin(ExpressionBinary.Operator.GT, var("p"), lit(1)));
+        assertEquals(big(1), counterexample.getAssignment().get("p"));
+    }
+
+    @Test
+    void recursiveTypes() {
+        // forall(l: intlist) is_nil(l) || l.head == 0 || l.tail is cons
+        Expression l = var("l");
+        Expression formula = bin(ExpressionBinary.Operator.OR,
+                ExpressionSumTest.make(Identifier.make("intlist"), l, Identifier.make("nil")),
+                bin(ExpressionBinary.Operator.OR,
+                        bin(ExpressionBinary.Operator.EQ, ExpressionSumField.make(Identifier.make("intlist"), l,
+                                Identifier.make("cons"), Identifier.make("head")), lit(0)),
+                        ExpressionSumTest.make(Identifier.make("intlist"), ExpressionSumField.make(
+                                Identifier.make("intlist"), l, Identifier.make("cons"), Identifier.make("tail")),
+                                Identifier.make("cons"))));
+        Counterexample counterexample = new Falsifier().falsify(Collections.singletonList(intlist()),
+                Collections.singletonList(typed("l", TypeDefined.make(Identifier.make("intlist")))), formula);
+        assertEquals("l = intlist.cons(head = 1, tail = intlist.nil())", counterexample.toString());
+    }
+
+    @Test
+    void specifications() {
+        // function twice(x: int) returns (y: int) { x + x }
+        // function square(x: int) returns (y: int) { x * x }
+        List<TypedVariable> x = Collections.singletonList(typed("x", TypeInteger.make()));
+        List<TopLevel> context = Arrays.asList(
+                function("twice", x, TypeInteger.make(), null, bin(ExpressionBinary.Operator.ADD, var("x"), var("x"))),
+                function("square", x, TypeInteger.make(), null, bin(ExpressionBinary.Operator.MUL, var("x"), var("x"))));
+        // specification even (function f(a: int) returns (b: int)) { b % 2 == 0 }, on naturals
+        FunctionHeader f = FunctionHeader.make(Identifier.make("f"),
+                Collections.singletonList(typed("a", TypeInteger.make())),
+                Collections.singletonList(typed("b", TypeInteger.make())));
+        FunctionSpecification even = FunctionSpecification.make(Identifier.make("even"), Collections.singletonList(f),
+                FunctionSpecifierInputOutput.make(bin(ExpressionBinary.Operator.IMPLIES,
+                        bin(ExpressionBinary.Operator.GE, var("a"), lit(0)),
+                        bin(ExpressionBinary.Operator.EQ, bin(ExpressionBinary.Operator.REM, var("b"), lit(2)), lit(0)))));
+        Falsifier falsifier = new Falsifier();
+        assertNull(falsifier.falsify(context, even, Collections.singletonList("twice")));
+        assertEquals(TheoremFailure.make("square do not satisfy the specification even"
+                        + " (found by evaluation, without ACL2) for a = 1."),
+                falsifier.falsify(context, even, Collections.singletonList("square")));
+        assertThrows(IllegalArgumentException.class,
+                () -> falsifier.falsify(context, even, Collections.singletonList("cube")));
+    }
+}
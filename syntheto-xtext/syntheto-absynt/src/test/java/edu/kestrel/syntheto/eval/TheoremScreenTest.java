@@ -0,0 +1,104 @@
+package edu.kestrel.syntheto.eval;
+
+import edu.kestrel.syntheto.ast.*;
+import edu.kestrel.syntheto.outcome.Outcome;
+import edu.kestrel.syntheto.outcome.TheoremFailure;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static edu.kestrel.syntheto.eval.EvaluatorTest.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TheoremScreenTest {
+
+    private static TopLevel theorem(String name, List<TypedVariable> variables, Expression formula) {
+        return TopLevelTheorem.make(Theorem.make(Identifier.make(name), variables, formula));
+    }
+
+    @Test
+    void falseTheoremsAreReportedWithACounterexample() {
+        // function both(a: bool, b: bool) returns (c: bool) { a && b }
+        TopLevel both = function("both", Arrays.asList(typed("a", TypeBoolean.make()), typed("b", TypeBoolean.make())),
+                TypeBoolean.make(), null, bin(ExpressionBinary.Operator.AND, var("a"), var("b")));
+        List<TopLevel> tops = Arrays.asList(
+                fib(),
+                both,
+                // theorem fib_10 fib(10) == 55
+                theorem("fib_10", Collections.emptyList(),
+                        bin(ExpressionBinary.Operator.EQ, call("fib", lit(10)), lit(55))),
+                // theorem both_is_or forall(a: bool, b: bool) both(a, b) == (a || b)
+                theorem("both_is_or", Arrays.asList(typed("a", TypeBoolean.make()), typed("b", TypeBoolean.make())),
+                        bin(ExpressionBinary.Operator.EQ, call("both", var("a"), var("b")),
+                                bin(ExpressionBinary.Operator.OR, var("a"), var("b")))),
+                // theorem fib_11 fib(11) == 90
+                theorem("fib_11", Collections.emptyList(),
+                        bin(ExpressionBinary.Operator.EQ, call("fib", lit(11)), lit(90))),
+                // theorem fib_grows forall(n: int) fib(n + 1) > fib(n)
+                theorem("fib_grows", Collections.singletonList(typed("n", TypeInteger.make())),
+                        bin(ExpressionBinary.Operator.GT,
+                                call("fib", bin(ExpressionBinary.Operator.ADD, var("n"), lit(1))),
+                                call("fib", var("n")))));
+        Map<Integer, Outcome> failures = TheoremScreen.screen(tops);
+        assertEquals(Arrays.asList(3, 4, 5), Arrays.asList(failures.keySet().toArray()));
+        assertEquals(TheoremFailure.make("The theorem both_is_or is false (found by evaluation, without ACL2)"
+                + " for a = true, b = false."), failures.get(3));
+        assertEquals(TheoremFailure.make("The theorem fib_11 is false (found by evaluation, without ACL2)."),
+                failures.get(4));
+        // fib(1) = fib(2) = 1, and fib(n) = n for negative n
+        assertEquals(TheoremFailure.make("The theorem fib_grows is false (found by evaluation, without ACL2)"
+                + " for n = 1."), failures.get(5));
+    }
+
+    @Test
+    void theoremsThatCannotBeEvaluatedAreLeftToAcl2() {
+        List<TopLevel> tops = Arrays.asList(
+                // Over a type that is not defined.
+                theorem("unknown", Collections.singletonList(typed("x", TypeDefined.make(Identifier.make("t")))),
+                        bin(ExpressionBinary.Operator.NE, var("x"), var("x"))),
+                // Using a function defined after it.
+                theorem("early", Collections.emptyList(),
+                        bin(ExpressionBinary.Operator.EQ, call("fib", lit(1)), lit(2))),
+                fib(),
+                // Dividing by zero.
+                theorem("undefined", Collections.emptyList(),
+                        bin(ExpressionBinary.Operator.EQ, bin(ExpressionBinary.Operator.DIV, lit(1), lit(0)), lit(1))));
+        assertTrue(TheoremScreen.screen(tops).isEmpty());
+    }
+
+    @Test
+    void screeningAgainOnlyTestsTheoremsAfterTheEdit() {
+        TopLevel fib10 = theorem("fib_10", Collections.emptyList(),
+                bin(ExpressionBinary.Operator.EQ, call("fib", lit(10)), lit(55)));
+        TopLevel fib11 = theorem("fib_11", Collections.emptyList(),
+                bin(ExpressionBinary.Operator.EQ, call("fib", lit(11)), lit(90)));
+        TopLevel fib12 = theorem("fib_12", Collections.emptyList(),
+                bin(ExpressionBinary.Operator.EQ, call("fib", lit(12)), lit(144)));
+        TheoremScreen screen = new TheoremScreen();
+        Map<Integer, Outcome> failures = screen.screen(Arrays.asList(fib(), fib10, fib11), () -> false);
+        assertEquals(Collections.singleton(2), failures.keySet());
+        assertEquals(2, screen.getSearches());
+        assertEquals(failures, screen.screen(Arrays.asList(fib(), fib10, fib11), () -> false));
+        assertEquals(2, screen.getSearches());
+        assertEquals(2, screen.getCacheHits());
+        // Only the theorems from the edited one on are tested again.
+        failures = screen.screen(Arrays.asList(fib(), fib10, fib12, fib11), () -> false);
+        assertEquals(Collections.singleton(3), failures.keySet());
+        assertEquals(4, screen.getSearches());
+        assertEquals(3, screen.getCacheHits());
+    }
+
+    @Test
+    void cancelledScreensAreNotCached() {
+        TopLevel fib11 = theorem("fib_11", Collections.emptyList(),
+                bin(ExpressionBinary.Operator.EQ, call("fib", lit(11)), lit(90)));
+        TheoremScreen screen = new TheoremScreen();
+        assertTrue(screen.screen(Arrays.asList(fib(), fib11), () -> true).isEmpty());
+        assertEquals(0, screen.getCacheHits());
+        assertEquals(Collections.singleton(1), screen.screen(Arrays.asList(fib(), fib11), () -> false).keySet());
+        assertEquals(0, screen.getCacheHits());
+    }
+}
@@ -0,0 +1,65 @@
+package edu.kestrel.syntheto.eval;
+
+import edu.kestrel.syntheto.ast.*;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static edu.kestrel.syntheto.eval.EvaluatorTest.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValueGeneratorTest {
+
+    private static ValueGenerator generator(TopLevel... tops) {
+        return new ValueGenerator(new Evaluator(Arrays.asList(tops)));
+    }
+
+    private static BigInteger big(long value) {
+        return BigInteger.valueOf(value);
+    }
+
+    @Test
+    void smallValues() {
+        ValueGenerator generator = generator(FalsifierTest.positive());
+        assertEquals(Arrays.asList(big(0), big(1), big(-1), big(2), big(-2)), generator.small(TypeInteger.make()));
+        assertEquals(Arrays.asList(big(1), big(2)),
+                generator.small(TypeDefined.make(Identifier.make("positive"))));
+        assertEquals(Arrays.asList(OptionValue.NONE, OptionValue.some(false), OptionValue.some(true)),
+                generator.small(TypeOption.make(TypeBoolean.make())));
+        List<Object> sequences = generator.small(TypeSequence.make(TypeBoolean.make()));
+        assertEquals(Collections.emptyList(), sequences.get(0));
+        assertTrue(sequences.contains(Arrays.asList(false, true)));
+        assertTrue(generator.small(TypeDefined.make(Identifier.make("unknown"))).isEmpty());
+    }
+
+    @Test
+    void randomValuesPassTheFilters() {
+        ValueGenerator generator = generator(FalsifierTest.positive(), FalsifierTest.intlist());
+        Random random = new Random(1);
+        for (int i = 0; i < 200; ++i) {
+            Object p = generator.random(TypeDefined.make(Identifier.make("positive")), random, 5);
+            assertTrue(((BigInteger) p).signum() > 0, Values.show(p));
+            Object s = generator.random(TypeSet.make(TypeString.make()), random, 5);
+            assertTrue(s instanceof java.util.Set);
+            // Values of recursive types end.
+            assertTrue(generator.random(TypeDefined.make(Identifier.make("intlist")), random, 5) instanceof SumValue);
+        }
+    }
+
+    @Test
+    void shrinking() {
+        ValueGenerator generator = generator(FalsifierTest.positive());
+        assertEquals(Arrays.asList(big(0), big(5), big(-2), big(-4)), generator.shrink(TypeInteger.make(), big(-5)));
+        assertEquals(Arrays.asList(big(3), big(5)),
+                generator.shrink(TypeDefined.make(Identifier.make("positive")), big(6)));
+        assertEquals(Arrays.asList(Collections.emptyList(), Collections.singletonList(big(2)),
+                        Collections.singletonList(big(1)), Arrays.asList(big(0), big(2)), Arrays.asList(big(1), big(0)),
+                        Arrays.asList(big(1), big(1))),
+                generator.shrink(TypeSequence.make(TypeInteger.make()), Arrays.asList(big(1), big(2))));
+        assertTrue(generator.shrink(TypeBoolean.make(), false).isEmpty());
+    }
+}
@@ -0,0 +1,46 @@
+package edu.kestrel.syntheto.eval;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValuesTest {
+
+    @Test
+    void show() {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("name", "a \"b\"");
+        fields.put("initial", 'x');
+        fields.put("tags", new LinkedHashSet<>(Arrays.asList(BigInteger.ONE, BigInteger.TEN)));
+        assertEquals("person(name = \"a \\\"b\\\"\", initial = 'x', tags = {1, 10})",
+                Values.show(ProductValue.make("person", fields)));
+        assertEquals("[some(true), none]", Values.show(Arrays.asList(OptionValue.some(true), OptionValue.NONE)));
+        assertEquals("{1 -> shape.square(side = 2)}", Values.show(Collections.singletonMap(BigInteger.ONE,
+                SumValue.make("shape", "square", Collections.singletonMap("side", BigInteger.valueOf(2))))));
+        assertEquals("(1, [])", Values.show(MultiValue.make(Arrays.asList(BigInteger.ONE, Collections.emptyList()))));
+    }
+
+    @Test
+    void valuesAreComparedByContent() {
+        Map<String, Object> ab = new LinkedHashMap<>();
+        ab.put("a", BigInteger.ONE);
+        ab.put("b", BigInteger.ZERO);
+        ProductValue p = ProductValue.make("pair", ab);
+        ProductValue q = ProductValue.make("pair", Collections.singletonMap("a", BigInteger.ZERO))
+                .update(Collections.emptyMap());
+        assertNotEquals(p, q);
+        assertEquals(p, p.update(Collections.singletonMap("a", BigInteger.ONE)));
+        assertEquals(p.hashCode(), ProductValue.make("pair", ab).hashCode());
+        assertNotEquals(ProductValue.make("other", ab), p);
+        assertEquals(OptionValue.some(BigInteger.ONE), OptionValue.some(BigInteger.ONE));
+        assertNotEquals(OptionValue.NONE, OptionValue.some(BigInteger.ONE));
+        assertThrows(IllegalArgumentException.class, () -> p.update(Collections.singletonMap("c", BigInteger.ONE)));
+    }
+}
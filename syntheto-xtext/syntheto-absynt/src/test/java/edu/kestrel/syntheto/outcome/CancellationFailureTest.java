@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2021 Kestrel Institute (http://www.kestrel.edu)
+ * License: 3-clause BSD license (https://opensource.org/licenses/BSD-3-Clause)
+ * Main Author: Alessandro Coglio (coglio@kestrel.edu)
+ * Contributing Author: Eric McCarthy (mccarthy@kestrel.edu)
+ */
+
+package edu.kestrel.syntheto.outcome;
+
+import edu.kestrel.syntheto.sexpr.Parser;
+import edu.kestrel.syntheto.sexpr.SExpression;
+import org.junit.jupiter.api.Test;
+
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CancellationFailureTest {
+
+    public static final String expectedString =
+            "(SYNTHETO::MAKE-OUTCOME-CANCELLATION-FAILURE :MESSAGE \"abcd\")";
+
+    @Test
+    void toSExpression() {
+        CancellationFailure cancellationFailure = CancellationFailure.make("abcd");
+        SExpression sExpression = cancellationFailure.toSExpression();
+        assertEquals(sExpression.toString(),
+                expectedString);
+
+        CancellationFailure rebuilt = (CancellationFailure) OutcomeBuilder.fromSExpression(sExpression);
+        assertEquals(cancellationFailure, rebuilt);
+
+        Reader r = new StringReader(sExpression.toString());
+        Parser p = new Parser(r);
+        SExpression s = p.parseTop();
+        assertEquals(sExpression, s);
+    }
+}
\ No newline at end of file
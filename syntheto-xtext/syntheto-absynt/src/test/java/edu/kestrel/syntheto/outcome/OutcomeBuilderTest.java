@@ -0,0 +1,37 @@
+package edu.kestrel.syntheto.outcome;
+
+import edu.kestrel.syntheto.sexpr.Parser;
+import edu.kestrel.syntheto.sexpr.SExpression;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutcomeBuilderTest {
+
+    @Test
+    void everyClassIsRegistered() {
+        assertEquals(OutcomeBuilder.OutcomeClasses.length, OutcomeBuilder.makerToBuilder.size());
+        assertTrue(OutcomeBuilder.makerToBuilder.containsKey(TypeSuccess.classMakerFn));
+    }
+
+    @Test
+    void roundTrip() {
+        String[] forms = {
+                TypeSuccessTest.expectedString,
+                TheoremFailureTest.expectedString,
+                TransformationSuccessTest.expectedString,
+                UnexpectedFailureTest.expectedString,
+        };
+        for (String form : forms) {
+            SExpression sExpr = new Parser(form).parseTop();
+            assertEquals(sExpr, OutcomeBuilder.fromSExpression(sExpr).toSExpression());
+        }
+    }
+
+    @Test
+    void unknownMaker() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> OutcomeBuilder.fromSExpression(new Parser("(SYNTHETO::MAKE-NO-SUCH-OUTCOME)").parseTop()));
+        assertEquals("Cannot find class for: SYNTHETO::MAKE-NO-SUCH-OUTCOME", e.getMessage());
+    }
+}
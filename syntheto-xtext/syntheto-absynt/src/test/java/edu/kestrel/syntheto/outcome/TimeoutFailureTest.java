@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2021 Kestrel Institute (http://www.kestrel.edu)
+ * License: 3-clause BSD license (https://opensource.org/licenses/BSD-3-Clause)
+ * Main Author: Alessandro Coglio (coglio@kestrel.edu)
+ * Contributing Author: Eric McCarthy (mccarthy@kestrel.edu)
+ */
+
+package edu.kestrel.syntheto.outcome;
+
+import edu.kestrel.syntheto.sexpr.Parser;
+import edu.kestrel.syntheto.sexpr.SExpression;
+import org.junit.jupiter.api.Test;
+
+import java.io.Reader;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimeoutFailureTest {
+
+    public static final String expectedString =
+            "(SYNTHETO::MAKE-OUTCOME-TIMEOUT-FAILURE :MESSAGE \"abcd\")";
+
+    @Test
+    void toSExpression() {
+        TimeoutFailure timeoutFailure = TimeoutFailure.make("abcd");
+        SExpression sExpression = timeoutFailure.toSExpression();
+        assertEquals(sExpression.toString(),
+                expectedString);
+
+        TimeoutFailure rebuilt = (TimeoutFailure) OutcomeBuilder.fromSExpression(sExpression);
+        assertEquals(timeoutFailure, rebuilt);
+
+        Reader r = new StringReader(sExpression.toString());
+        Parser p = new Parser(r);
+        SExpression s = p.parseTop();
+        assertEquals(sExpression, s);
+    }
+}
\ No newline at end of file
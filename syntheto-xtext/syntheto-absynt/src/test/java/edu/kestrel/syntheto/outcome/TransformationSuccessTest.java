@@ -101,4 +101,4 @@ public class TransformationSuccessTest {
         SExpression s = p.parseTop();
         assertEquals(sExpression, s);
     }
-}
\ No newline at end of file
+}
@@ -4,8 +4,10 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.math.BigInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -90,6 +92,19 @@ class ParserTest {
         assertEquals(expected.toString(), input);
     }
 
+    @Test
+    void stringEscapes() throws IOException {
+        SExpression expected = SExpression.list(SExpression.syntheto("MAKE-LITERAL-STRING"),
+                SExpression.keyword("VALUE"), SExpression.string("say \"a\\b\""));
+        String printed = expected.toString();
+        assertEquals("(SYNTHETO::MAKE-LITERAL-STRING :VALUE \"say \\\"a\\\\b\\\"\")", printed);
+        assertEquals(expected, new Parser(printed).parseTop());
+        StringWriter encoded = new StringWriter();
+        expected.encode(encoded);
+        assertEquals(printed, encoded.toString());
+        assertEquals(printed.length(), expected.encodedLength());
+    }
+
     @Test
     void parseList() {
     }
@@ -4,7 +4,12 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -30,13 +35,100 @@ class SExpressionListTest {
 
     @Test
     void makeDotted() {
+        SExpressionList dotted = SExpressionList.makeDotted(SExpression.integer(3),
+                SExpression.integer(1), SExpression.integer(2));
+        assertEquals("(1 2 . 3)", dotted.toString());
+        assertEquals("(2 . 3)", dotted.rest().toString());
+        assertNotEquals(SExpression.list(SExpression.integer(1), SExpression.integer(2)), dotted);
     }
 
     @Test
     void testToString() {
+        assertEquals("()", SExpression.list().toString());
+        assertEquals("(LIST 1 \"a\")",
+                SExpression.listMaker(SExpression.integer(1), SExpression.string("a")).toString());
+    }
+
+    @Test
+    void encode() throws IOException {
+        SExpression[] sexprs = {
+                SExpression.list(),
+                SExpressionList.makeDotted(SExpression.integer(3), SExpression.integer(1), SExpression.integer(2)),
+                SExpression.list(SExpression.list(), SExpression.NIL(), SExpression.T(), SExpression.keyword("K")),
+                SExpression.list(SExpression.character(255), SExpression.string("caf\u00e9"), SExpression.integer(-12)),
+                new Parser("(SYNTHETO::MAKE-IDENTIFIER :NAME \"x\" (LIST 1 2 SYNTHETO::APPEND))").parseTop(),
+                SExpression.list(SExpression.integer(1), SExpression.integer(2)).rest(),
+        };
+        for (SExpression sexpr : sexprs) {
+            StringWriter out = new StringWriter();
+            sexpr.encode(out);
+            assertEquals(sexpr.toString(), out.toString());
+            assertEquals(sexpr.toString().length(), sexpr.encodedLength());
+        }
+        SExpressionList nonEightBit = SExpression.list(SExpression.string("\u0151"));
+        assertThrows(IllegalArgumentException.class, nonEightBit::encodedLength);
     }
 
     @Test
     void testEquals() {
+        SExpressionList list = SExpression.list(SExpression.integer(1), SExpression.integer(2), SExpression.integer(3));
+        SExpressionList rest = SExpression.list(SExpression.integer(2), SExpression.integer(3));
+        assertEquals(rest, list.rest());
+        assertEquals(rest.hashCode(), list.rest().hashCode());
+        assertEquals(SExpression.list(), list.rest().rest().rest());
+        assertNotEquals(list, list.rest());
+    }
+
+    @Test
+    void rest() {
+        SExpressionList list = SExpression.list(SExpression.integer(1), SExpression.integer(2), SExpression.integer(3));
+        SExpressionList rest = list.rest();
+        assertEquals(2, rest.length());
+        assertEquals(SExpression.integer(2), rest.first());
+        assertEquals(SExpression.integer(3), rest.second());
+        assertEquals(SExpression.integer(3), rest.nth(2));
+        assertEquals("(2 3)", rest.toString());
+        assertThrows(IllegalArgumentException.class, rest::third);
+        assertThrows(IllegalArgumentException.class, () -> SExpression.list().rest());
+    }
+
+    @Test
+    void getElements() {
+        SExpressionList list = SExpression.list(SExpression.integer(1), SExpression.integer(2), SExpression.integer(3));
+        List<SExpression> elements = list.rest().getElements();
+        assertTrue(elements instanceof RandomAccess);
+        assertEquals(2, elements.size());
+        assertEquals(SExpression.integer(3), elements.get(1));
+        assertThrows(UnsupportedOperationException.class, () -> elements.add(SExpression.integer(4)));
+    }
+
+    @Test
+    void immutableAfterCreation() {
+        List<SExpression> source = new ArrayList<>();
+        source.add(SExpression.integer(1));
+        SExpressionList list = SExpression.list(source);
+        source.add(SExpression.integer(2));
+        assertEquals(1, list.length());
+
+        SExpression[] array = {SExpression.integer(1)};
+        SExpressionList list2 = SExpression.list(array);
+        array[0] = SExpression.integer(2);
+        assertEquals(SExpression.integer(1), list2.first());
+    }
+
+    @Test
+    void builder() {
+        SExpressionList.Builder builder = SExpressionList.builder();
+        for (int i = 0; i < 20; ++i)
+            builder.add(SExpression.integer(i));
+        assertEquals(20, builder.length());
+        SExpressionList list = builder.build();
+        assertEquals(20, list.length());
+        assertEquals(SExpression.integer(19), list.nth(20));
+        // The builder starts over after building.
+        assertEquals(0, builder.length());
+        builder.add(SExpression.integer(100));
+        assertEquals(SExpression.integer(0), list.first());
+        assertEquals(SExpression.list(SExpression.integer(100)), builder.build());
     }
 }
\ No newline at end of file
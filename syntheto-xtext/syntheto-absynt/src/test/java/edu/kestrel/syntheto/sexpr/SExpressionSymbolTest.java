@@ -0,0 +1,81 @@
+package edu.kestrel.syntheto.sexpr;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SExpressionSymbolTest {
+
+    @Test
+    void interned() {
+        assertSame(SExpression.syntheto("MAKE-IDENTIFIER"), SExpression.syntheto("MAKE-IDENTIFIER"));
+        assertSame(SExpression.syntheto("MAKE-IDENTIFIER"), SExpression.symbol("SYNTHETO", "MAKE-IDENTIFIER"));
+        assertSame(SExpression.keyword("NAME"), SExpression.symbol("KEYWORD", "NAME"));
+        assertSame(SExpression.NIL(), SExpression.symbol("COMMON-LISP", "NIL"));
+        assertSame(SExpression.symbol(null, "CODE-CHAR"), SExpression.symbol(null, "CODE-CHAR"));
+        assertNotSame(SExpression.symbol(null, "CODE-CHAR"), SExpression.codeChar());
+        assertNotSame(SExpression.symbol("", "A"), SExpression.symbol(null, "A"));
+        // Parsing yields the same instances.
+        SExpressionList parsed = (SExpressionList) new Parser("(SYNTHETO::MAKE-IDENTIFIER :NAME \"x\")").parseTop();
+        assertSame(SExpression.syntheto("MAKE-IDENTIFIER"), parsed.first());
+        assertSame(SExpression.keyword("NAME"), parsed.second());
+    }
+
+    @Test
+    void flags() {
+        assertTrue(SExpression.T().is_Special());
+        assertTrue(SExpression.LIST().is_Special());
+        assertFalse(SExpression.T().is_Keyword());
+        assertTrue(SExpression.keyword("GET").is_Keyword());
+        assertFalse(SExpression.keyword("GET").is_Syntheto());
+        assertTrue(SExpression.syntheto("GET").is_Syntheto());
+        assertFalse(SExpression.syntheto("GET").is_Special());
+        assertFalse(SExpression.symbol("ACL2", "T").is_Special());
+        assertFalse(SExpression.symbol(null, "CODE-CHAR").is_Keyword());
+    }
+
+    @Test
+    void testToString() {
+        assertEquals("NIL", SExpression.NIL().toString());
+        assertEquals(":GET", SExpression.keyword("GET").toString());
+        assertEquals("SYNTHETO::GET", SExpression.syntheto("GET").toString());
+        assertEquals("ACL2::T", SExpression.symbol("ACL2", "T").toString());
+    }
+
+    @Test
+    void testEquals() {
+        assertEquals(SExpression.syntheto("A"), SExpression.symbol("SYNTHETO", "A"));
+        assertNotEquals(SExpression.syntheto("A"), SExpression.keyword("A"));
+        assertNotEquals(SExpression.symbol("", "A"), SExpression.symbol(null, "A"));
+        assertEquals(SExpression.syntheto("A").hashCode(), SExpression.symbol("SYNTHETO", "A").hashCode());
+    }
+
+    @Test
+    void concurrentInterning() throws InterruptedException {
+        int names = 1000;
+        SExpressionSymbol[][] made = new SExpressionSymbol[8][names];
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[made.length];
+        for (int i = 0; i < threads.length; ++i) {
+            final int index = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < names; ++j)
+                    made[index][j] = SExpression.symbol("CONCURRENT-TEST", "S" + j);
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads)
+            thread.join();
+        for (int j = 0; j < names; ++j)
+            for (SExpressionSymbol[] byThread : made)
+                assertSame(made[0][j], byThread[j]);
+    }
+}
@@ -11,9 +11,14 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.FilterReader;
+import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -62,4 +67,79 @@ class TokenizerTest {
         Token t8 = t.next();
         assertEquals(t8, TokenCloseParen.get());
     }
-}
\ No newline at end of file
+
+    /**
+     * A reader that returns at most two characters per read,
+     * to exercise the refilling of the tokenizer window.
+     */
+    static class TrickleReader extends FilterReader {
+        TrickleReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            return super.read(cbuf, off, Math.min(len, 2));
+        }
+    }
+
+    static String describe(Token t) {
+        if (t instanceof TokenError)
+            return "ERROR " + ((TokenError) t).message + " | " + ((TokenError) t).charsSoFar;
+        if (t instanceof TokenInteger)
+            return "INTEGER " + ((TokenInteger) t).value;
+        if (t instanceof TokenString)
+            return "STRING " + ((TokenString) t).value;
+        if (t instanceof TokenSymbol)
+            return "SYMBOL " + ((TokenSymbol) t).packageName + " | " + ((TokenSymbol) t).name;
+        return t.getClass().getSimpleName();
+    }
+
+    static List<String> tokens(Iterator<Token> tokenizer) {
+        List<String> result = new ArrayList<>();
+        while (tokenizer.hasNext() && result.size() < 1000) {
+            try {
+                result.add(describe(tokenizer.next()));
+            } catch (RuntimeException e) {
+                result.add("EXCEPTION " + e.getClass().getName());
+                break;
+            }
+        }
+        return result;
+    }
+
+    static final String[] samples = {
+            "(SYNTHETO::MAKE-LITERAL-CHARACTER :VAL (COMMON-LISP::CODE-CHAR 255))",
+            "(NIL (NIL (NIL NIL STATE) NIL (SYNTHETO::MAKE-OUTCOME-TYPE-SUCCESS :MESSAGE \"ok\") REPLACED-STATE) NIL)",
+            "(A::B :C \"x\\\\y\\\"z\\n\\r\\t\\u00E9\" -12 0 123456789012345678 1234567890123456789012 -9223372036854775808)",
+            "(T NIL . .. ... :: A: :A:B A::B::C LIST CODE-CHAR T: X)",
+            "(- 12a \"\\q\" \"\\u0100\" \"\\u00e9\" \"tab\there\")",
+            "(1(2)3\"s\"4 \"unterminated",
+            "(\u00e9 \u0100 #",
+            "-",
+            "(-)",
+            "",
+    };
+
+    @Test
+    void sameTokensAsLegacy() {
+        Random random = new Random(42);
+        String alphabet = "()\" \\\\\\\\nrtu0123456789-ABEFNILSTXYZ:.a\u00e9\u0100\n\t";
+        List<String> inputs = new ArrayList<>();
+        for (String sample : samples)
+            inputs.add(sample);
+        for (int i = 0; i < 5000; ++i) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int j = 0; j < length; ++j)
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            inputs.add(sb.toString());
+        }
+        for (String input : inputs) {
+            List<String> expected = tokens(new LegacyTokenizer(new StringReader(input)));
+            assertEquals(expected, tokens(new Tokenizer(new StringReader(input))), input);
+            assertEquals(expected, tokens(new Tokenizer(new TrickleReader(new StringReader(input)))), input);
+            assertEquals(expected, tokens(new Tokenizer(input)), input);
+        }
+    }
+}
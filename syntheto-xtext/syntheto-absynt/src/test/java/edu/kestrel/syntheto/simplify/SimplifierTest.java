@@ -0,0 +1,153 @@
+package edu.kestrel.syntheto.simplify;
+
+import edu.kestrel.syntheto.ast.*;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimplifierTest {
+
+    private static Expression lit(int value) {
+        return ExpressionLiteral.make(LiteralInteger.make(value));
+    }
+
+    private static Expression lit(boolean value) {
+        return ExpressionLiteral.make(LiteralBoolean.make(value));
+    }
+
+    private static Expression var(String name) {
+        return Variable.make(Identifier.make(name));
+    }
+
+    private static Expression bin(ExpressionBinary.Operator operator, Expression left, Expression right) {
+        return ExpressionBinary.make(operator, left, right);
+    }
+
+    private static Expression not(Expression operand) {
+        return ExpressionUnary.make(ExpressionUnary.Operator.NOT, operand);
+    }
+
+    private static Expression minus(Expression operand) {
+        return ExpressionUnary.make(ExpressionUnary.Operator.MINUS, operand);
+    }
+
+    @Test
+    void constantsAreFolded() {
+        Simplifier simplifier = new Simplifier();
+        // (2 + 3) * 4 - 25 is -5, i.e. the negation of 5.
+        assertEquals(minus(lit(5)), simplifier.simplify(bin(ExpressionBinary.Operator.SUB,
+                bin(ExpressionBinary.Operator.MUL, bin(ExpressionBinary.Operator.ADD, lit(2), lit(3)), lit(4)),
+                lit(25))));
+        assertEquals(lit(true), simplifier.simplify(bin(ExpressionBinary.Operator.LT, minus(lit(1)), lit(0))));
+        assertEquals(lit(3), simplifier.simplify(minus(minus(lit(3)))));
+        assertEquals(lit(false), simplifier.simplify(bin(ExpressionBinary.Operator.EQ,
+                ExpressionLiteral.make(LiteralCharacter.make('a')), ExpressionLiteral.make(LiteralCharacter.make('b')))));
+        assertEquals(lit(2), simplifier.simplify(bin(ExpressionBinary.Operator.REM, lit(7), lit(5))));
+        // Divisions that are not defined are left as they are.
+        Expression byZero = bin(ExpressionBinary.Operator.DIV, lit(1), lit(0));
+        assertSame(byZero, simplifier.simplify(byZero));
+        Expression negative = bin(ExpressionBinary.Operator.DIV, minus(lit(1)), lit(2));
+        assertSame(negative, simplifier.simplify(negative));
+    }
+
+    @Test
+    void booleanLiteralsAreRemoved() {
+        Simplifier simplifier = new Simplifier();
+        Expression x = var("x");
+        assertEquals(x, simplifier.simplify(bin(ExpressionBinary.Operator.AND, lit(true), x)));
+        assertEquals(lit(false), simplifier.simplify(bin(ExpressionBinary.Operator.AND, x, lit(false))));
+        assertEquals(x, simplifier.simplify(bin(ExpressionBinary.Operator.OR, x, lit(false))));
+        assertEquals(lit(true), simplifier.simplify(bin(ExpressionBinary.Operator.IMPLIES, lit(false), x)));
+        assertEquals(not(x), simplifier.simplify(bin(ExpressionBinary.Operator.IMPLIES, x, lit(false))));
+        assertEquals(x, simplifier.simplify(bin(ExpressionBinary.Operator.IMPLIED, x, lit(true))));
+        assertEquals(x, simplifier.simplify(bin(ExpressionBinary.Operator.IFF, lit(false), not(x))));
+        assertEquals(x, simplifier.simplify(not(not(x))));
+        // if x then true else false is x.
+        assertEquals(x, simplifier.simplify(ExpressionIf.make(x, lit(true), lit(false))));
+    }
+
+    @Test
+    void operandsWithObligationsAreKept() {
+        Simplifier simplifier = new Simplifier();
+        Expression call = ExpressionCall.make(Identifier.make("f"), Collections.singletonList(var("x")));
+        // f(x) is evaluated before the literal, so its guard obligations remain.
+        Expression and = bin(ExpressionBinary.Operator.AND, call, lit(false));
+        assertSame(and, simplifier.simplify(and));
+        Expression or = bin(ExpressionBinary.Operator.OR, call, lit(true));
+        assertSame(or, simplifier.simplify(or));
+        Expression implies = bin(ExpressionBinary.Operator.IMPLIES, call, lit(true));
+        assertSame(implies, simplifier.simplify(implies));
+        Expression implied = bin(ExpressionBinary.Operator.IMPLIED, call, lit(false));
+        assertSame(implied, simplifier.simplify(implied));
+        // It is not evaluated after a literal that decides the value, and operands that are kept are simplified.
+        assertEquals(lit(false), simplifier.simplify(bin(ExpressionBinary.Operator.AND, lit(false), call)));
+        assertEquals(call, simplifier.simplify(bin(ExpressionBinary.Operator.AND, call, lit(true))));
+        assertEquals(not(call), simplifier.simplify(bin(ExpressionBinary.Operator.IMPLIES, call, lit(false))));
+    }
+
+    @Test
+    void deadBranchesAreEliminated() {
+        Simplifier simplifier = new Simplifier();
+        Expression a = var("a");
+        Expression b = var("b");
+        assertEquals(a, simplifier.simplify(ExpressionIf.make(bin(ExpressionBinary.Operator.LT, lit(1), lit(2)), a, b)));
+        assertEquals(b, simplifier.simplify(ExpressionWhen.make(lit(false), a, b)));
+        assertEquals(b, simplifier.simplify(ExpressionUnless.make(lit(true), a, b)));
+        // cond { false -> a, c -> b, true -> a, d -> b } drops the first branch and the last one.
+        Expression c = var("c");
+        assertEquals(ExpressionCond.make(Arrays.asList(Branch.make(c, b), Branch.make(lit(true), a))),
+                simplifier.simplify(ExpressionCond.make(Arrays.asList(Branch.make(lit(false), a), Branch.make(c, b),
+                        Branch.make(lit(true), a), Branch.make(var("d"), b)))));
+        assertEquals(a, simplifier.simplify(ExpressionCond.make(Arrays.asList(Branch.make(lit(false), b),
+                Branch.make(lit(true), a)))));
+        // A cond is never left without a branch.
+        Expression never = ExpressionCond.make(Arrays.asList(Branch.make(lit(false), a), Branch.make(lit(false), b)));
+        assertEquals(ExpressionCond.make(Collections.singletonList(Branch.make(lit(false), b))),
+                simplifier.simplify(never));
+    }
+
+    @Test
+    void rulesCanBeChosen() {
+        Expression folded = ExpressionIf.make(lit(true), bin(ExpressionBinary.Operator.ADD, lit(1), lit(1)), var("x"));
+        assertEquals(ExpressionIf.make(lit(true), lit(2), var("x")),
+                new Simplifier(EnumSet.of(Simplifier.Rule.FOLD_CONSTANTS)).simplify(folded));
+        assertEquals(bin(ExpressionBinary.Operator.ADD, lit(1), lit(1)),
+                new Simplifier(EnumSet.of(Simplifier.Rule.ELIMINATE_DEAD_BRANCHES)).simplify(folded));
+        assertEquals(EnumSet.allOf(Simplifier.Rule.class), Simplifier.rules("all"));
+        assertEquals(EnumSet.noneOf(Simplifier.Rule.class), Simplifier.rules("false"));
+        assertEquals(EnumSet.of(Simplifier.Rule.FOLD_CONSTANTS, Simplifier.Rule.SIMPLIFY_BOOLEANS),
+                Simplifier.rules("fold_constants, simplify_booleans"));
+        assertThrows(IllegalArgumentException.class, () -> Simplifier.rules("inline"));
+        TopLevel top = TopLevelTheorem.make(Theorem.make(Identifier.make("t"), Collections.emptyList(), folded));
+        assertSame(top, new Simplifier(EnumSet.noneOf(Simplifier.Rule.class)).simplify(top));
+    }
+
+    @Test
+    void topLevelsAreSimplifiedAndCounted() {
+        Simplifier simplifier = new Simplifier();
+        // f(x: int) = if true && x > 0 then x else 0 - x, with precondition 1 <= 2
+        FunctionHeader header = FunctionHeader.make(Identifier.make("f"),
+                Collections.singletonList(TypedVariable.make(Identifier.make("x"), TypeInteger.make())),
+                Collections.singletonList(TypedVariable.make(Identifier.make("y"), TypeInteger.make())));
+        Expression test = bin(ExpressionBinary.Operator.GT, var("x"), lit(0));
+        Expression body = ExpressionIf.make(bin(ExpressionBinary.Operator.AND, lit(true), test),
+                var("x"), bin(ExpressionBinary.Operator.SUB, lit(0), var("x")));
+        TopLevel f = TopLevelFunction.make(FunctionDefinition.make(header,
+                bin(ExpressionBinary.Operator.LE, lit(1), lit(2)), null, FunctionDefinerRegular.make(body, null)));
+        assertEquals(TopLevelFunction.make(FunctionDefinition.make(header, lit(true), null, FunctionDefinerRegular.make(
+                ExpressionIf.make(test, var("x"), bin(ExpressionBinary.Operator.SUB, lit(0), var("x"))), null))),
+                simplifier.simplify(f));
+        // Two nodes from the precondition, and two from the test.
+        assertEquals(10, Simplifier.size(body));
+        assertEquals(4, simplifier.getRemovedNodes());
+        assertEquals(2, simplifier.getRewrites());
+        // What cannot be simplified is returned as is.
+        TopLevel g = TopLevelTheorem.make(Theorem.make(Identifier.make("g"), Collections.emptyList(), test));
+        assertSame(g, simplifier.simplify(g));
+        assertEquals(4, simplifier.getRemovedNodes());
+    }
+}
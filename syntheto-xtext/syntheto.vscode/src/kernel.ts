@@ -6,6 +6,29 @@ interface CellExecutionRequest {
 	meta?: string;
 	code: string;
 	allCellContent?: string;
+	cells?: CellContent[];
+	notebook?: string;
+}
+
+// A cell sent to the server, which keeps a model of each notebook and reparses only the cells that changed
+interface CellContent {
+	id: string;
+	text: string;
+}
+
+interface JobStartResponse {
+	type: string;
+	jobId: string;
+}
+
+// State of a background execution on the server (see midas.execute and midas.poll)
+interface JobPollResponse {
+	jobId: string;
+	status: string; // running, success, error or cancelled
+	results?: string[]; // results of the top-levels after the ones already received
+	next?: number; // number of results received so far
+	progress?: string; // end of the screen output of ACL2
+	message?: string;
 }
 
 interface CellExecutionResponse {
@@ -17,6 +40,7 @@ interface CellExecutionResponse {
 export class MNBKernel {
 
 	private readonly _controller: vscode.NotebookController;
+	private readonly _closeListener: vscode.Disposable;
 	private _executionOrder = 0;
 	constructor() {
 		this._controller = vscode.notebooks.createNotebookController(
@@ -29,11 +53,16 @@ export class MNBKernel {
 		this._controller.supportsExecutionOrder = true;
 		this._controller.description = 'any description really';
 		this._controller.executeHandler = this._executeAll.bind(this);
+		// Free the model of a notebook on the server when it is closed
+		this._closeListener = workspace.onDidCloseNotebookDocument(notebook => {
+			commands.executeCommand('midas.closeNotebook', {notebook: notebook.uri.toString()});
+		});
         
 
 	}
 
 	dispose(): void {
+		this._closeListener.dispose();
 		this._controller.dispose();
 	}
 
@@ -83,22 +112,21 @@ export class MNBKernel {
 
 			const notebook = editor.document;
 			const cells = notebook.getCells();
-			let synthetoFile = '';
+			let cellContents: CellContent[] = [];
 			let keepGoing = true;
 			cells.forEach(currCell => {
 				if (currCell.kind === vscode.NotebookCellKind.Code &&
 					keepGoing) {
-					synthetoFile += currCell.document.getText();
-					synthetoFile += '\n';
+					cellContents.push({id: currCell.document.uri.toString(), text: currCell.document.getText()});
 					if (currCell.index >= cell.index) {
 						keepGoing = false;
 					}
 				} 
 			});
 			
-			request.allCellContent = synthetoFile;			
-			let result = <CellExecutionResponse><unknown> await commands.executeCommand('midas.a', request);
-
+			request.cells = cellContents;
+			request.notebook = notebook.uri.toString();
+			let result = await this._runJob(request, exec);
 			// window.showWarningMessage("" + result.message);
 			// window.showWarningMessage("" + result.code);
 
@@ -134,4 +162,35 @@ export class MNBKernel {
             exec.end(false);
         }
 	}
+
+	/*
+	Runs the cells in the background on the server, showing the result of each top-level
+	in the cell output as soon as it is verified, and the output of ACL2 while it works.
+	Stopping the cell cancels the job; so does running the notebook again (on the server).
+	*/
+	private async _runJob(request: CellExecutionRequest, exec: vscode.NotebookCellExecution): Promise<CellExecutionResponse> {
+		const started = <JobStartResponse><unknown> await commands.executeCommand('midas.execute', request);
+		const cancellation = exec.token.onCancellationRequested(() => {
+			commands.executeCommand('midas.cancel', {jobId: started.jobId});
+		});
+		try {
+			let results: string[] = [];
+			let next = 0;
+			while (true) {
+				const poll = <JobPollResponse><unknown> await commands.executeCommand('midas.poll', {jobId: started.jobId, from: next});
+				results = results.concat(poll.results || []);
+				next = poll.next || next;
+				if (poll.status !== 'running') {
+					return <CellExecutionResponse> {type: poll.status, message: poll.message};
+				}
+				const items = [vscode.NotebookCellOutputItem.text(results.join('\n'))];
+				if (poll.progress) {
+					items.push(vscode.NotebookCellOutputItem.stdout(poll.progress));
+				}
+				exec.replaceOutput(new vscode.NotebookCellOutput(items));
+			}
+		} finally {
+			cancellation.dispose();
+		}
+	}
 }
\ No newline at end of file